@@ -0,0 +1,64 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AbstractVolumeStore.java
+# Description:  This abstract class implements the optional hooks of the VolumeStore interface as no-ops
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import edu.indiana.d2i.htrc.access.read.ConcurrencyLimiter;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache;
+
+/**
+ * This abstract class implements the optional hooks of the VolumeStore interface as no-ops, so a VolumeStore without caches or limiters of its own
+ * only needs to implement the retrieval methods.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public abstract class AbstractVolumeStore implements VolumeStore {
+    
+    /**
+     * Method that returns <code>null</code>, as this VolumeStore does not limit its concurrency
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getConcurrencyLimiter()
+     */
+    @Override
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return null;
+    }
+    
+    /**
+     * Method that returns <code>null</code>, as this VolumeStore does not cache VolumeInfo
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfoCache()
+     */
+    @Override
+    public VolumeInfoCache getVolumeInfoCache() {
+        return null;
+    }
+
+}
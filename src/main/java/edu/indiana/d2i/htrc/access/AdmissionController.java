@@ -0,0 +1,347 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AdmissionController.java
+# Description:  This class admits or rejects requests based on the estimated number of pages the service already has in flight
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+import edu.indiana.d2i.htrc.access.exception.ServiceOverloadedException;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache;
+
+/**
+ * This class admits or rejects requests based on the estimated number of pages the service already has in flight, so that a load spike is turned away with
+ * a 503 instead of slowing down every request being served.
+ * 
+ * The cost of a request is estimated before anything is fetched: the number of requested pages if the pages are listed, and the cached page count of the
+ * volume otherwise, falling back to admission.default.page.count when the volume is not in the VolumeInfoCache.  A request that does not fit may wait for up to
+ * admission.max.wait milliseconds for capacity to free up, and is rejected after that with the number of seconds the pages in flight are expected to take to
+ * drain, based on the rate at which admitted requests have been completing.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class AdmissionController {
+    
+    private static Logger log = Logger.getLogger(AdmissionController.class);
+    
+    public static final String PN_ADMISSION_MAX_PAGES = "admission.max.pages";
+    public static final String PN_ADMISSION_MAX_WAIT = "admission.max.wait";
+    public static final String PN_ADMISSION_DEFAULT_PAGE_COUNT = "admission.default.page.count";
+    protected static final int DEFAULT_ADMISSION_DEFAULT_PAGE_COUNT = 300;
+    protected static final long DEFAULT_RETRY_AFTER_SECONDS = 10;
+    protected static final long MAX_RETRY_AFTER_SECONDS = 300;
+    protected static final long MIN_DRAIN_SAMPLE_MILLIS = 1000;
+    protected static final double SMOOTHING_FACTOR = 0.2;
+    
+    protected static long MAX_PAGES = 0;
+    protected static long MAX_WAIT = 0;
+    protected static int DEFAULT_PAGE_COUNT = DEFAULT_ADMISSION_DEFAULT_PAGE_COUNT;
+    protected static VolumeInfoCache VOLUME_INFO_CACHE = null;
+    protected static AdmissionController instance = null;
+    
+    /**
+     * This class represents an admitted request, which holds its estimated pages in flight until it is released
+     * 
+     * @author Yiming Sun
+     *
+     */
+    public class Admission {
+        protected final long pageCount;
+        protected boolean released;
+        
+        /**
+         * Constructor
+         * @param pageCount estimated number of pages of the request
+         */
+        protected Admission(long pageCount) {
+            this.pageCount = pageCount;
+            this.released = false;
+        }
+        
+        /**
+         * Method to release the estimated pages of the request once it is done.  It is safe to call more than once
+         */
+        public void release() {
+            synchronized (AdmissionController.this) {
+                if (!released) {
+                    released = true;
+                    AdmissionController.this.release(pageCount);
+                }
+            }
+        }
+        
+        /**
+         * Method to return the estimated number of pages of the request
+         * @return the estimated number of pages of the request
+         */
+        public long getPageCount() {
+            return pageCount;
+        }
+    }
+    
+    protected final long maxPages;
+    protected final long maxWait;
+    protected final int defaultPageCount;
+    protected final VolumeInfoCache volumeInfoCache;
+    
+    protected long inFlightPages;
+    protected int inFlightCount;
+    protected long admittedCount;
+    protected long queuedCount;
+    protected long rejectedCount;
+    
+    // pages per second at which admitted requests complete, measured over samples of at least MIN_DRAIN_SAMPLE_MILLIS while requests are in flight
+    protected double drainRate;
+    protected long sampleStartTime;
+    protected long sampleCompletedPages;
+    
+    /**
+     * Method to initialize the singleton class
+     * @param parameterContainer an initialized ParameterContainer object
+     * @param volumeStore an initialized VolumeStore object, whose VolumeInfoCache is used to estimate the page counts of volumes
+     */
+    public static void init(ParameterContainer parameterContainer, VolumeStore volumeStore) {
+        String maxPagesString = parameterContainer.getParameter(PN_ADMISSION_MAX_PAGES);
+        MAX_PAGES = (maxPagesString != null) ? Long.parseLong(maxPagesString) : 0L;
+        String maxWaitString = parameterContainer.getParameter(PN_ADMISSION_MAX_WAIT);
+        MAX_WAIT = (maxWaitString != null) ? Long.parseLong(maxWaitString) : 0L;
+        String defaultPageCountString = parameterContainer.getParameter(PN_ADMISSION_DEFAULT_PAGE_COUNT);
+        DEFAULT_PAGE_COUNT = (defaultPageCountString != null) ? Integer.parseInt(defaultPageCountString) : DEFAULT_ADMISSION_DEFAULT_PAGE_COUNT;
+        VOLUME_INFO_CACHE = volumeStore.getVolumeInfoCache();
+        if (log.isDebugEnabled()) log.debug("admissionMaxPages = " + MAX_PAGES + " admissionMaxWait = " + MAX_WAIT + " admissionDefaultPageCount = " + DEFAULT_PAGE_COUNT);
+    }
+    
+    /**
+     * Method to return the singleton instance object of this class
+     * @return the singleton instance object of this class
+     */
+    public static synchronized AdmissionController getInstance() {
+        if (instance == null) {
+            instance = new AdmissionController(MAX_PAGES, MAX_WAIT, DEFAULT_PAGE_COUNT, VOLUME_INFO_CACHE);
+        }
+        return instance;
+    }
+    
+    /**
+     * Constructor. Used internally for the singleton instantiation
+     * @param maxPages maximum estimated number of pages in flight. Use 0 to admit every request
+     * @param maxWait maximum number of milliseconds a request waits for capacity before it is rejected
+     * @param defaultPageCount number of pages assumed for a volume whose page count is not cached
+     * @param volumeInfoCache a VolumeInfoCache object to look up page counts from, or <code>null</code>
+     */
+    protected AdmissionController(long maxPages, long maxWait, int defaultPageCount, VolumeInfoCache volumeInfoCache) {
+        this.maxPages = maxPages;
+        this.maxWait = maxWait;
+        this.defaultPageCount = defaultPageCount;
+        this.volumeInfoCache = volumeInfoCache;
+        this.inFlightPages = 0;
+        this.inFlightCount = 0;
+        this.admittedCount = 0;
+        this.queuedCount = 0;
+        this.rejectedCount = 0;
+        this.drainRate = 0;
+        this.sampleStartTime = 0;
+        this.sampleCompletedPages = 0;
+    }
+    
+    /**
+     * Method to admit a request, waiting for capacity no longer than the request deadline allows
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects requested
+     * @param requestDeadline a RequestDeadline object of the request, or <code>null</code> to wait up to the maximum wait
+     * @return an Admission object to be released once the request is done, or <code>null</code> if admission control is disabled
+     * @throws ServiceOverloadedException thrown if the request does not fit within the capacity
+     * @throws DeadlineExceededException thrown if the request deadline passes while the request waits for capacity
+     */
+    public Admission admit(List<? extends RequestedItemCoordinates> itemCoordinatesList, RequestDeadline requestDeadline) throws ServiceOverloadedException, DeadlineExceededException {
+        if (maxPages <= 0) {
+            return null;
+        }
+        return admit(estimatePageCount(itemCoordinatesList), requestDeadline);
+    }
+    
+    /**
+     * Method to admit a request of a given estimated cost, waiting for capacity if necessary
+     * @param pageCount estimated number of pages of the request
+     * @param requestDeadline a RequestDeadline object of the request, or <code>null</code> to wait up to the maximum wait
+     * @return an Admission object to be released once the request is done
+     * @throws ServiceOverloadedException thrown if the request does not fit within the capacity
+     * @throws DeadlineExceededException thrown if the request deadline passes while the request waits for capacity
+     */
+    protected synchronized Admission admit(long pageCount, RequestDeadline requestDeadline) throws ServiceOverloadedException, DeadlineExceededException {
+        long wait = (requestDeadline != null) ? Math.min(maxWait, requestDeadline.getRemainingMillis()) : maxWait;
+        if (!fits(pageCount) && wait > 0) {
+            queuedCount++;
+            long deadline = System.currentTimeMillis() + wait;
+            long remaining = wait;
+            try {
+                while (!fits(pageCount) && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        if (!fits(pageCount) && requestDeadline != null && requestDeadline.isExpired()) {
+            // the client has given up on the request by now, so a Retry-After would be of no use to it
+            rejectedCount++;
+            requestDeadline.markExceeded(0);
+            if (log.isDebugEnabled()) log.debug("request of " + pageCount + " pages passed its deadline while waiting for admission, inFlightPages: " + inFlightPages);
+            throw new DeadlineExceededException("Request deadline of " + requestDeadline.getTimeout() + " ms passed while waiting for admission. " + inFlightPages + " pages in flight");
+        }
+        
+        if (!fits(pageCount)) {
+            rejectedCount++;
+            long retryAfterSeconds = getRetryAfterSeconds(pageCount);
+            if (log.isDebugEnabled()) log.debug("rejected request of " + pageCount + " pages, inFlightPages: " + inFlightPages + " retryAfter: " + retryAfterSeconds);
+            throw new ServiceOverloadedException("Service too busy. " + inFlightPages + " pages in flight, retry after " + retryAfterSeconds + " seconds", retryAfterSeconds);
+        }
+        
+        if (inFlightCount == 0) {
+            // the service was idle, so the drain rate is measured afresh from now on
+            sampleStartTime = System.currentTimeMillis();
+            sampleCompletedPages = 0;
+        }
+        inFlightPages += pageCount;
+        inFlightCount++;
+        admittedCount++;
+        return new Admission(pageCount);
+    }
+    
+    /**
+     * Method to give the estimated pages of a finished request back, and to update the drain rate
+     * @param pageCount estimated number of pages of the request
+     */
+    protected synchronized void release(long pageCount) {
+        inFlightPages = Math.max(0, inFlightPages - pageCount);
+        inFlightCount = Math.max(0, inFlightCount - 1);
+        
+        sampleCompletedPages += pageCount;
+        long now = System.currentTimeMillis();
+        long elapsed = now - sampleStartTime;
+        if (elapsed >= MIN_DRAIN_SAMPLE_MILLIS) {
+            double sampleRate = sampleCompletedPages * 1000.0 / elapsed;
+            drainRate = (drainRate > 0) ? drainRate + SMOOTHING_FACTOR * (sampleRate - drainRate) : sampleRate;
+            sampleStartTime = now;
+            sampleCompletedPages = 0;
+        }
+        notifyAll();
+    }
+    
+    /**
+     * Method to estimate the number of pages of a request
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects requested
+     * @return the estimated number of pages
+     */
+    public long estimatePageCount(List<? extends RequestedItemCoordinates> itemCoordinatesList) {
+        return estimatePageCount(itemCoordinatesList, defaultPageCount);
+    }
+    
+    /**
+     * Method to estimate the number of pages of a request, assuming a given number of pages for each whole volume whose page count is not cached
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects requested
+     * @param unknownPageCount number of pages assumed for a whole volume whose page count is not cached
+     * @return the estimated number of pages
+     */
+    public long estimatePageCount(List<? extends RequestedItemCoordinates> itemCoordinatesList, int unknownPageCount) {
+        long pageCount = 0;
+        for (RequestedItemCoordinates itemCoordinates : itemCoordinatesList) {
+            List<String> pageSequences = itemCoordinates.getPageSequences();
+            if (pageSequences != null) {
+                pageCount += pageSequences.size();
+            } else {
+                VolumeInfo volumeInfo = (volumeInfoCache != null) ? volumeInfoCache.peek(itemCoordinates.getVolumeID()) : null;
+                pageCount += (volumeInfo != null) ? volumeInfo.getPageCount() : unknownPageCount;
+            }
+            
+            List<String> metadataNames = itemCoordinates.getMetadataNames();
+            if (metadataNames != null) {
+                pageCount += metadataNames.size();
+            }
+        }
+        return pageCount;
+    }
+    
+    /**
+     * Method to compute the number of seconds until enough of the pages in flight have drained for a request to fit.  Must be called with the lock held
+     * @param pageCount estimated number of pages of the request
+     * @return the number of seconds after which the client should retry
+     */
+    protected long getRetryAfterSeconds(long pageCount) {
+        if (drainRate <= 0) {
+            return DEFAULT_RETRY_AFTER_SECONDS;
+        }
+        // a request larger than the capacity only fits once nothing else is in flight
+        long excessPages = Math.min(inFlightPages, inFlightPages + pageCount - maxPages);
+        long seconds = (long)Math.ceil(excessPages / drainRate);
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+    
+    /**
+     * Method to check if a request fits within the capacity. A request larger than the capacity is admitted when nothing else is in flight.  Must be called
+     * with the lock held
+     * @param pageCount estimated number of pages of the request
+     * @return <code>true</code> if the request fits, <code>false</code> otherwise
+     */
+    protected boolean fits(long pageCount) {
+        return inFlightCount == 0 || inFlightPages + pageCount <= maxPages;
+    }
+    
+    /**
+     * Method to return the estimated number of pages currently in flight
+     * @return the estimated number of pages currently in flight
+     */
+    public synchronized long getInFlightPages() {
+        return inFlightPages;
+    }
+    
+    /**
+     * Method to return the number of requests rejected
+     * @return the number of requests rejected
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "AdmissionController maxPages: " + maxPages + " inFlightPages: " + inFlightPages + " inFlightRequests: " + inFlightCount + " admitted: " + admittedCount
+                + " queued: " + queuedCount + " rejected: " + rejectedCount + " drainRate: " + (long)drainRate;
+    }
+
+}
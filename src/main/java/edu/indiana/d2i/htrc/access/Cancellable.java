@@ -0,0 +1,48 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  Cancellable.java
+# Description:  Interface definition for work that can be abandoned when its client goes away
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+/**
+ * Interface definition for work that can be abandoned when its client goes away, e.g. when writing the response fails because of a broken pipe
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface Cancellable {
+    
+    /**
+     * Method to cancel all outstanding work, so it no longer takes up workers or backend capacity. The object must not be used afterwards
+     * @return the number of outstanding work items cancelled
+     */
+    public int cancel();
+
+}
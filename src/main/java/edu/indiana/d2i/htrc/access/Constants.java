@@ -40,9 +40,14 @@ package edu.indiana.d2i.htrc.access;
 public final class Constants {
     public static final String HTTP_HEADER_CONTENT_TYPE = "Content-Type";
     public static final String HTTP_HEADER_CONTENT_DISPOSITION = "Content-Disposition";
+    public static final String HTTP_HEADER_RETRY_AFTER = "Retry-After";
+    public static final String HTTP_HEADER_REQUEST_TIMEOUT = "X-Request-Timeout";
     
     public static final String CONTENT_TYPE_APPLICATION_ZIP = "application/zip";
+    public static final String CONTENT_TYPE_APPLICATION_TAR = "application/x-tar";
+    public static final String CONTENT_TYPE_APPLICATION_GZIP = "application/gzip";
     public static final String CONTENT_TYPE_APPLICATION_JSON = "application/json";
+    public static final String CONTENT_TYPE_APPLICATION_NDJSON = "application/x-ndjson";
     public static final String CONTENT_TYPE_TEXT_XHTML = "text/xhtml";
     public static final String CONTENT_TYPE_TEXT_HTML = "text/html";
     public static final String CONTENT_TYPE_TEXT_PLAIN = "text/plain";
@@ -50,6 +55,9 @@ public final class Constants {
     public static final String FILENAME_VOLUMES_ZIP = "filename=\"volumes.zip\"";
     public static final String FILENAME_PAGES_ZIP = "filename=\"pages.zip\"";
     public static final String FILENAME_TOKENCOUNT_ZIP = "filename=\"tokencount.zip\"";
+    public static final String FILENAME_BASE_VOLUMES = "volumes";
+    public static final String FILENAME_BASE_PAGES = "pages";
+    public static final String FILENAME_BASE_TOKENCOUNT = "tokencount";
     
     public static final String ID_SEPARATOR = "|";
     public static final char PAGE_SEQ_START_MARK = '[';
@@ -58,6 +58,8 @@ public class ContextExtractor {
     
     protected final Map<String, List<String>> contextMap; 
     
+    protected final String tenantID;
+    
     /**
      * Constructor
      * 
@@ -66,6 +68,7 @@ public class ContextExtractor {
      */
     public ContextExtractor(HttpServletRequest httpServletRequest, HttpHeaders httpHeaders) {
         contextMap = new HashMap<String, List<String>>();
+        tenantID = extractTenantID(httpServletRequest);
         extractFromRequest(contextMap, httpServletRequest);
         if (httpHeaders != null) {
             extractFromHeaders(contextMap, httpHeaders);
@@ -98,7 +101,40 @@ public class ContextExtractor {
         return this.contextMap;
     }
     
+    /**
+     * Get the ID of the tenant the request is made for, which is the remote user if the request is authenticated, and the remote address otherwise
+     * 
+     * @return the tenant ID, or <code>null</code> if neither the remote user nor the remote address is known
+     */
+    public String getTenantID() {
+        return tenantID;
+    }
+    
+    /**
+     * Get the number of milliseconds the client is willing to wait for the response, as given in the X-Request-Timeout header
+     * 
+     * @return the value of the X-Request-Timeout header, or <code>null</code> if the header is absent
+     */
+    public String getRequestTimeout() {
+        List<String> list = contextMap.get(Constants.HTTP_HEADER_REQUEST_TIMEOUT.toLowerCase());
+        return (list != null && !list.isEmpty()) ? list.get(0) : null;
+    }
+    
 
+    /**
+     * Method to get the tenant ID from the HTTP Servlet request object itself, so that request headers merged into the context map cannot replace it
+     * 
+     * @param httpServletRequest an HTTP Servlet request
+     * @return the remote user if the request is authenticated, otherwise the remote address, or <code>null</code> if neither is known
+     */
+    protected String extractTenantID(HttpServletRequest httpServletRequest) {
+        String tenant = httpServletRequest.getRemoteUser();
+        if (tenant == null || "".equals(tenant)) {
+            tenant = httpServletRequest.getRemoteAddr();
+        }
+        return (tenant != null && !"".equals(tenant)) ? tenant : null;
+    }
+    
     /**
      * Extract context information from HTTP Servlet request object and put the information into a Map
      * 
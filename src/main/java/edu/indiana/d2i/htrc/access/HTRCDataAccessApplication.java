@@ -55,7 +55,8 @@ import edu.indiana.d2i.htrc.access.policy.MaxPagesPerVolumePolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxTotalPagesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxVolumesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
-import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.read.VolumeStoreFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.AuditorFactory;
 
@@ -104,13 +105,19 @@ public class HTRCDataAccessApplication extends Application {
         
         SystemResourcesContainerSingleton.init(parameterContainer);
         
+        ZipMakerFactory.init(parameterContainer, SystemResourcesContainerSingleton.getInstance().getCompressionExecutorService());
+        
         loadPolicyCheckerRegistry(parameterContainer);
         
-        HectorResource.initSingletonInstance(parameterContainer);
+        VolumeStoreFactory.initSingletonInstance(parameterContainer);
 
-        AsyncFetchManager.init(parameterContainer, HectorResource.getSingletonInstance());
+        AsyncFetchManager.init(parameterContainer, VolumeStoreFactory.getSingletonInstance());
+        
+        ThrottledVolumeRetrieverImpl.init(parameterContainer, VolumeStoreFactory.getSingletonInstance(), AsyncFetchManager.getInstance());
+        
+        AdmissionController.init(parameterContainer, VolumeStoreFactory.getSingletonInstance());
         
-        ThrottledVolumeRetrieverImpl.init(parameterContainer, HectorResource.getSingletonInstance(), AsyncFetchManager.getInstance());
+        RequestDeadline.init(parameterContainer);
         
         auditor.log("SERVER_START");
         log.info("Application initialized");
@@ -134,9 +141,11 @@ public class HTRCDataAccessApplication extends Application {
     private void fin() {
         if (log.isDebugEnabled()) log.debug("@PreDestroy fin() called");
         
-        HectorResource.getSingletonInstance().shutdown();
+        VolumeStoreFactory.getSingletonInstance().shutdown();
         AsyncFetchManager.getInstance().shutdown();
         SystemResourcesContainerSingleton.getInstance().shutdown();
+        log.info(AdmissionController.getInstance().toString());
+        log.info("Requests past deadline: " + RequestDeadline.getExceededCount());
         
         auditor.log("SERVER_SHUTDOWN");
 
@@ -50,15 +50,19 @@ import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.AdmissionController.Admission;
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
 import edu.indiana.d2i.htrc.access.exception.ParameterConflictException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.ServiceOverloadedException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
 import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
 import edu.indiana.d2i.htrc.access.response.VolumeZipStreamingOutput;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.AuditorFactory;
@@ -81,6 +85,9 @@ public class PageAccessResource {
      * @param concatenate parameter to specify whether the requested pages to be concatenated into a single word sequence or as separate text files. Cannot be used together with retrieveMETS
      * @param retrieveMETS parameter to specify if METS metadata should also be returned. Cannot be used together with concatenate
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
+     * @param timeout parameter to specify the number of milliseconds the client is willing to wait. Overrides the X-Request-Timeout header
+     * @param compress parameter to specify whether the zip entries, or the gzipped tar archive, should be compressed.  Either true, false, or a compression level from 0 to 9
+     * @param format parameter to specify the archive format, either zip, tar, tgz, or ndjson for newline-delimited JSON with one line per page.  Defaults to zip
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
      * @return a Response object
@@ -90,9 +97,12 @@ public class PageAccessResource {
                                    @QueryParam("concat") boolean concatenate,
                                    @QueryParam("mets") boolean retrieveMETS,
                                    @QueryParam("version") int version,
+                                   @QueryParam("timeout") String timeout,
+                                   @QueryParam("compress") String compress,
+                                   @QueryParam("format") String format,
                                    @Context HttpHeaders httpHeaders,
                                    @Context HttpServletRequest httpServletRequest) {
-        return getResourcePost(pageIDs, concatenate, retrieveMETS, version, httpHeaders, httpServletRequest);
+        return getResourcePost(pageIDs, concatenate, retrieveMETS, version, timeout, compress, format, httpHeaders, httpServletRequest);
     }
     
     /**
@@ -102,6 +112,9 @@ public class PageAccessResource {
      * @param concatenate parameter to specify whether the requested pages to be concatenated into a single word sequence or as separate text files. Cannot be used together with retrieveMETS
      * @param retrieveMETS parameter to specify if METS metadata should also be returned. Cannot be used together with concatenate
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
+     * @param timeout parameter to specify the number of milliseconds the client is willing to wait. Overrides the X-Request-Timeout header
+     * @param compress parameter to specify whether the zip entries, or the gzipped tar archive, should be compressed.  Either true, false, or a compression level from 0 to 9
+     * @param format parameter to specify the archive format, either zip, tar, tgz, or ndjson for newline-delimited JSON with one line per page.  Defaults to zip
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
      * @return a Response object
@@ -112,6 +125,9 @@ public class PageAccessResource {
                                     @FormParam("concat") boolean concatenate,
                                     @FormParam("mets") boolean retrieveMETS,
                                     @FormParam("version") int version,
+                                    @FormParam("timeout") String timeout,
+                                    @FormParam("compress") String compress,
+                                    @FormParam("format") String format,
                                     @Context HttpHeaders httpHeaders,
                                     @Context HttpServletRequest httpServletRequest) {
         
@@ -121,12 +137,17 @@ public class PageAccessResource {
             log.debug("concatenate = " + concatenate);
             log.debug("mets = " + retrieveMETS);
             log.debug("version = " + version);
+            log.debug("timeout = " + timeout);
+            log.debug("compress = " + compress);
+            log.debug("format = " + format);
         }
         
         Response response = null;
 
         ContextExtractor contextExtractor = new ContextExtractor(httpServletRequest, httpHeaders);
+        RequestDeadline deadline = RequestDeadline.newInstance((timeout != null) ? timeout : contextExtractor.getRequestTimeout());
         Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
+        ArchiveFormatEnum archiveFormat = ZipMakerFactory.Helper.parseArchiveFormat(format);
         
         Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.PAGE_ID, PolicyCheckerRegistryImpl.getInstance());
         parser.setRetrieveMETS(retrieveMETS);
@@ -140,21 +161,44 @@ public class PageAccessResource {
                 throw new ParameterConflictException("page retrieval", offendingParams);
             }
 
-            if (pageIDs != null) {
+            if (archiveFormat == null) {
+                log.error("Unsupported archive format " + format);
+                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Unsupported format " + format + ". Supported formats are zip, tar, tgz and ndjson").build();
+                auditor.error("Unsupported Format", "Unsupported Archive Format", format);
+            } else if (pageIDs != null) {
                 List<? extends RequestedItemCoordinates> pageIDList = parser.parse(pageIDs);
                 
                 for (RequestedItemCoordinates pageIdentifier : pageIDList) {
                     String volumeID = pageIdentifier.getVolumeID();
                     auditor.audit("REQUESTED", volumeID, pageIdentifier.getPageSequences().toArray(new String[0]));
                 }
-
-                ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
-                volumeRetriever.setRetrievalIDs(pageIDList);
                 
-                ZipTypeEnum zipMakerType = concatenate ? ZipTypeEnum.WORD_SEQUENCE : ZipTypeEnum.SEPARATE_PAGE;
-                ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor);
-                StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor);
-                response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_APPLICATION_ZIP).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, Constants.FILENAME_PAGES_ZIP).build();
+                Admission admission = AdmissionController.getInstance().admit(pageIDList, deadline);
+
+                boolean admissionHandedOver = false;
+                ThrottledVolumeRetrieverImpl volumeRetriever = null;
+                try {
+                    // a word sequence concatenates the pages in order, so only separate page zips can take pages in the order they complete
+                    volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor, !concatenate, contextExtractor.getTenantID(), deadline);
+                    volumeRetriever.setRetrievalIDs(pageIDList);
+                    
+                    ZipTypeEnum zipMakerType = concatenate ? ZipTypeEnum.WORD_SEQUENCE : ZipTypeEnum.SEPARATE_PAGE;
+                    ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor, ZipMakerFactory.Helper.parseCompressionLevel(compress), archiveFormat);
+                    StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor, admission);
+                    response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, archiveFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, archiveFormat.getContentDisposition(Constants.FILENAME_BASE_PAGES)).build();
+                    admissionHandedOver = true;
+                } finally {
+                    // once the response is built, its StreamingOutput owns the admission and the retriever and releases them after writing, so they are only
+                    // released here if building failed, which includes cancelling the fetches the retriever may already have dispatched
+                    if (!admissionHandedOver) {
+                        if (volumeRetriever != null) {
+                            volumeRetriever.cancel();
+                        }
+                        if (admission != null) {
+                            admission.release();
+                        }
+                    }
+                }
             
             } else {
                 log.error("Required parameter pageIDs is null");
@@ -173,6 +217,14 @@ public class PageAccessResource {
             log.error("ParameterConflictException", e);
             response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
             auditor.error("ParameterConflictException", "Conflicting Parameters", e.getMessage());
+        } catch (ServiceOverloadedException e) {
+            log.warn("ServiceOverloadedException: " + e.getMessage());
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).header(Constants.HTTP_HEADER_RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).entity(e.getMessage()).build();
+            auditor.error("ServiceOverloadedException", "Service Overloaded", e.getMessage());
+        } catch (DeadlineExceededException e) {
+            log.warn("DeadlineExceededException: " + e.getMessage());
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
+            auditor.error("DeadlineExceededException", "Request Deadline Exceeded", e.getMessage());
         }
         
         return response;
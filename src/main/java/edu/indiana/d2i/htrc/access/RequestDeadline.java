@@ -0,0 +1,193 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RequestDeadline.java
+# Description:  This class holds the point in time after which nobody waits for the answer to a request any more
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+
+/**
+ * This class holds the point in time after which nobody waits for the answer to a request any more.  The client may ask for a timeout with the timeout
+ * parameter or the X-Request-Timeout header, which is capped by request.deadline.max, and requests without one get request.deadline.default.
+ * 
+ * The deadline is handed explicitly to the objects working on the request.  A fetch running on a worker thread also sets it as the current deadline of the
+ * thread, so the retry loops of the VolumeStore can give up instead of backing off past it.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class RequestDeadline {
+    
+    private static Logger log = Logger.getLogger(RequestDeadline.class);
+    
+    public static final String PN_REQUEST_DEADLINE_DEFAULT = "request.deadline.default";
+    public static final String PN_REQUEST_DEADLINE_MAX = "request.deadline.max";
+    
+    protected static long DEFAULT_TIMEOUT = 0;
+    protected static long MAX_TIMEOUT = 0;
+    protected static final AtomicLong exceededCount = new AtomicLong(0);
+    protected static final ThreadLocal<RequestDeadline> currentDeadline = new ThreadLocal<RequestDeadline>();
+    
+    protected final long timeout;
+    protected final long expirationTime;
+    protected final AtomicBoolean exceeded;
+    
+    /**
+     * Method to initialize this class
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static void init(ParameterContainer parameterContainer) {
+        String defaultTimeoutString = parameterContainer.getParameter(PN_REQUEST_DEADLINE_DEFAULT);
+        DEFAULT_TIMEOUT = (defaultTimeoutString != null) ? Long.parseLong(defaultTimeoutString) : 0;
+        if (log.isDebugEnabled()) log.debug("defaultTimeout = " + DEFAULT_TIMEOUT);
+        
+        String maxTimeoutString = parameterContainer.getParameter(PN_REQUEST_DEADLINE_MAX);
+        MAX_TIMEOUT = (maxTimeoutString != null) ? Long.parseLong(maxTimeoutString) : 0;
+        if (log.isDebugEnabled()) log.debug("maxTimeout = " + MAX_TIMEOUT);
+    }
+    
+    /**
+     * Factory method to create the deadline of a request that starts now
+     * @param timeoutString the number of milliseconds the client is willing to wait, or <code>null</code> if the client did not say.  A value that is not
+     * a positive number is ignored
+     * @return a new RequestDeadline object, or <code>null</code> if the request has no deadline
+     */
+    public static RequestDeadline newInstance(String timeoutString) {
+        long timeout = DEFAULT_TIMEOUT;
+        if (timeoutString != null) {
+            try {
+                long requestedTimeout = Long.parseLong(timeoutString.trim());
+                if (requestedTimeout > 0) {
+                    timeout = requestedTimeout;
+                }
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring malformed request timeout: " + timeoutString);
+            }
+        }
+        
+        if (MAX_TIMEOUT > 0 && (timeout <= 0 || timeout > MAX_TIMEOUT)) {
+            timeout = MAX_TIMEOUT;
+        }
+        return (timeout > 0) ? new RequestDeadline(timeout) : null;
+    }
+    
+    /**
+     * Method to return the deadline of the request the current thread is working for
+     * @return the RequestDeadline object set for the current thread, or <code>null</code> if there is none
+     */
+    public static RequestDeadline getCurrent() {
+        return currentDeadline.get();
+    }
+    
+    /**
+     * Method to set the deadline of the request the current thread is about to work for. It must be cleared with clearCurrent once the work is done
+     * @param deadline a RequestDeadline object, or <code>null</code> if the request has no deadline
+     */
+    public static void setCurrent(RequestDeadline deadline) {
+        currentDeadline.set(deadline);
+    }
+    
+    /**
+     * Method to clear the deadline of the current thread
+     */
+    public static void clearCurrent() {
+        currentDeadline.remove();
+    }
+    
+    /**
+     * Method to return the number of requests that have run past their deadlines
+     * @return the number of requests that have run past their deadlines
+     */
+    public static long getExceededCount() {
+        return exceededCount.get();
+    }
+    
+    /**
+     * Constructor
+     * @param timeout number of milliseconds from now until the deadline
+     */
+    protected RequestDeadline(long timeout) {
+        this.timeout = timeout;
+        this.expirationTime = System.currentTimeMillis() + timeout;
+        this.exceeded = new AtomicBoolean(false);
+    }
+    
+    /**
+     * Method to return the timeout the deadline was set with
+     * @return the timeout in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+    
+    /**
+     * Method to return the number of milliseconds left until the deadline
+     * @return the number of milliseconds left, or 0 if the deadline has passed
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, expirationTime - System.currentTimeMillis());
+    }
+    
+    /**
+     * Method to check if the deadline has passed
+     * @return <code>true</code> if the deadline has passed, <code>false</code> otherwise
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expirationTime;
+    }
+    
+    /**
+     * Method to record that the request has run past its deadline and to create the Exception reporting it.  Only the first caller gets the Exception, so the
+     * request reports its deadline once no matter how many parts of it find out
+     * @param droppedCount the number of outstanding work items dropped
+     * @return a DeadlineExceededException object for the first caller, <code>null</code> for the others
+     */
+    public DeadlineExceededException markExceeded(int droppedCount) {
+        if (!exceeded.compareAndSet(false, true)) {
+            return null;
+        }
+        exceededCount.incrementAndGet();
+        return new DeadlineExceededException("Request deadline of " + timeout + " ms exceeded. " + droppedCount + " outstanding work items dropped");
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "RequestDeadline timeout: " + timeout + " remaining: " + getRemainingMillis();
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RetryDeferral.java
+# Description:  This class marks the attempts whose retries are left to the caller
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+/**
+ * This class marks the attempts whose retries are left to the caller.  The RetryScheduler sets the mark on a worker thread while it runs an attempt of an
+ * async fetch, because it reschedules a failed attempt itself, so the retry loops of the VolumeStore make a single attempt instead of backing off in the
+ * worker thread.  Queries made on any other thread, or made outside of a scheduled attempt, keep retrying on their own.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class RetryDeferral {
+    
+    protected static final ThreadLocal<Boolean> currentDeferral = new ThreadLocal<Boolean>();
+    
+    /**
+     * Method to check if the current thread runs an attempt whose retries are left to the caller
+     * @return <code>true</code> if the VolumeStore should make a single attempt, <code>false</code> if it should retry on its own
+     */
+    public static boolean isDeferred() {
+        return Boolean.TRUE.equals(currentDeferral.get());
+    }
+    
+    /**
+     * Method to mark the current thread as running an attempt whose retries are left to the caller. It must be cleared with clearCurrent once the attempt is done
+     */
+    public static void setCurrent() {
+        currentDeferral.set(Boolean.TRUE);
+    }
+    
+    /**
+     * Method to clear the mark of the current thread
+     */
+    public static void clearCurrent() {
+        currentDeferral.remove();
+    }
+
+}
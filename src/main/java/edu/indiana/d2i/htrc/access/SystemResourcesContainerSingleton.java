@@ -33,6 +33,9 @@ package edu.indiana.d2i.htrc.access;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import edu.indiana.d2i.htrc.access.async.ElasticExecutorService;
 
 /**
  * @author Yiming Sun
@@ -40,10 +43,16 @@ import java.util.concurrent.Executors;
  */
 public class SystemResourcesContainerSingleton {
     
+    public static final String PN_TOKEN_COUNT_EXECUTION_MODE = "token.count.execution.mode";
+    public static final String PN_TOKEN_COUNT_ELASTIC_MAX_CONCURRENT = "token.count.elastic.max.concurrent";
+    private static final int DEFAULT_TOKEN_COUNT_ELASTIC_MAX_CONCURRENT = 100;
+    public static final String PN_ZIP_COMPRESSION_THREADS_COUNT = "zip.compression.threads.count";
+    
     private static ParameterContainer parameterContainer = null;
     private static SystemResourcesContainerSingleton instance = null;
     
     private ExecutorService tokenCountExecutorService = null;
+    private ExecutorService compressionExecutorService = null;
     
     public static void init(ParameterContainer parameterContainer) {
         SystemResourcesContainerSingleton.parameterContainer = parameterContainer;
@@ -61,17 +70,36 @@ public class SystemResourcesContainerSingleton {
         return this.tokenCountExecutorService;
     }
     
+    public ExecutorService getCompressionExecutorService() {
+        return this.compressionExecutorService;
+    }
+    
     public void shutdown() {
         tokenCountExecutorService.shutdownNow();
+        compressionExecutorService.shutdownNow();
     }
     
     private SystemResourcesContainerSingleton() {
         createTokenCountExecutorService(parameterContainer);
+        createCompressionExecutorService(parameterContainer);
     }
     
     private void createTokenCountExecutorService(ParameterContainer parameterContainer) {
-        int tokenCountThreadCount = Integer.parseInt(parameterContainer.getParameter("token.count.threads.count"));
-        this.tokenCountExecutorService = Executors.newFixedThreadPool(tokenCountThreadCount);
+        String executionMode = parameterContainer.getParameter(PN_TOKEN_COUNT_EXECUTION_MODE);
+        if (ElasticExecutorService.EXECUTION_MODE_ELASTIC.equalsIgnoreCase(executionMode)) {
+            String elasticMaxConcurrentString = parameterContainer.getParameter(PN_TOKEN_COUNT_ELASTIC_MAX_CONCURRENT);
+            int elasticMaxConcurrent = (elasticMaxConcurrentString != null) ? Integer.parseInt(elasticMaxConcurrentString) : DEFAULT_TOKEN_COUNT_ELASTIC_MAX_CONCURRENT;
+            this.tokenCountExecutorService = new ElasticExecutorService(elasticMaxConcurrent, new LinkedBlockingQueue<Runnable>());
+        } else {
+            int tokenCountThreadCount = Integer.parseInt(parameterContainer.getParameter("token.count.threads.count"));
+            this.tokenCountExecutorService = Executors.newFixedThreadPool(tokenCountThreadCount);
+        }
+    }
+    
+    private void createCompressionExecutorService(ParameterContainer parameterContainer) {
+        String compressionThreadCountString = parameterContainer.getParameter(PN_ZIP_COMPRESSION_THREADS_COUNT);
+        int compressionThreadCount = (compressionThreadCountString != null) ? Integer.parseInt(compressionThreadCountString) : Runtime.getRuntime().availableProcessors();
+        this.compressionExecutorService = Executors.newFixedThreadPool(compressionThreadCount);
     }
     
 
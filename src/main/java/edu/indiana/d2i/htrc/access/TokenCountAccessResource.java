@@ -49,8 +49,11 @@ import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.AdmissionController.Admission;
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.ServiceOverloadedException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
@@ -68,6 +71,8 @@ import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipperFactory;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipperFactory.TokenCountZipTypeEnum;
 import edu.indiana.d2i.htrc.access.tokencount.TokenFilterChain;
 import edu.indiana.d2i.htrc.access.tokencount.Tokenizer;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.AuditorFactory;
 
@@ -86,18 +91,29 @@ public class TokenCountAccessResource {
                                @FormParam("sortBy") String sortBy,
                                @FormParam("sortOrder") String sortOrder,
                                @FormParam("version") int version,
+                               @FormParam("timeout") String timeout,
+                               @FormParam("compress") String compress,
+                               @FormParam("format") String format,
                                @Context HttpHeaders httpHeaders,
                                @Context HttpServletRequest httpServletRequest) {
         
         Response response = null;
         ContextExtractor contextExtractor = new ContextExtractor(httpServletRequest, httpHeaders);
+        RequestDeadline deadline = RequestDeadline.newInstance((timeout != null) ? timeout : contextExtractor.getRequestTimeout());
         Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
         
         Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.VOLUME_ID, PolicyCheckerRegistryImpl.getInstance());
         parser.setRetrieveMETS(false); // should never use METS for token count, so it is good to set it explicitly to false here
         
+        // token counts can be sent either as a zip or as newline-delimited JSON, but not as a tar archive
+        ArchiveFormatEnum archiveFormat = ZipMakerFactory.Helper.parseArchiveFormat(format);
+        
         try {
-            if (volumeIDs != null) {
+            if (archiveFormat != ArchiveFormatEnum.ZIP && archiveFormat != ArchiveFormatEnum.NDJSON) {
+                log.error("Unsupported format " + format);
+                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Unsupported format " + format + ". Supported formats are zip and ndjson").build();
+                auditor.error("Unsupported Format", "Unsupported Token Count Format", format);
+            } else if (volumeIDs != null) {
                 List<? extends RequestedItemCoordinates> volumeIDList = parser.parse(volumeIDs);
                 
                 // TODO: remove this hack
@@ -109,41 +125,60 @@ public class TokenCountAccessResource {
                     String volumeID = itemCoordinates.getVolumeID();
                     auditor.audit("REQUESTED", volumeID);
                 }
-            
-                ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
-                volumeRetriever.setRetrievalIDs(volumeIDList);
-                
-                TokenCountZipper tokenCountZipper = null;
-                Comparator<Entry<String, Count>> comparator = null;
-                Tokenizer tokenizer = new SimpleTokenizer(SystemResourcesContainerSingleton.getInstance().getTokenCountExecutorService(), ParameterContainerSingleton.getInstance());
-                
-                if (countLevel != null && "page".equalsIgnoreCase(countLevel)) {
-                    tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.PAGE_LEVEL, auditor);
-                } else {
-                    tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.VOLUME_LEVEL, auditor);
-                }
                 
-                if ("token".equalsIgnoreCase(sortBy)) {
-                    if (sortOrder != null && sortOrder.toLowerCase().startsWith("desc")) {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_DESC);
+                Admission admission = AdmissionController.getInstance().admit(volumeIDList, deadline);
+            
+                boolean admissionHandedOver = false;
+                ThrottledVolumeRetrieverImpl volumeRetriever = null;
+                try {
+                    volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor, false, contextExtractor.getTenantID(), deadline);
+                    volumeRetriever.setRetrievalIDs(volumeIDList);
+                    
+                    TokenCountZipper tokenCountZipper = null;
+                    int compressionLevel = ZipMakerFactory.Helper.parseCompressionLevel(compress);
+                    Comparator<Entry<String, Count>> comparator = null;
+                    Tokenizer tokenizer = new SimpleTokenizer(SystemResourcesContainerSingleton.getInstance().getTokenCountExecutorService(), ParameterContainerSingleton.getInstance(), deadline);
+                    
+                    if (countLevel != null && "page".equalsIgnoreCase(countLevel)) {
+                        tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.PAGE_LEVEL, auditor, compressionLevel, archiveFormat);
                     } else {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+                        tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.VOLUME_LEVEL, auditor, compressionLevel, archiveFormat);
                     }
-                } else if ("count".equalsIgnoreCase(sortBy)) {
-                    if (sortOrder != null && sortOrder.toLowerCase().startsWith("desc")) {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC);
+                    
+                    if ("token".equalsIgnoreCase(sortBy)) {
+                        if (sortOrder != null && sortOrder.toLowerCase().startsWith("desc")) {
+                            comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_DESC);
+                        } else {
+                            comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+                        }
+                    } else if ("count".equalsIgnoreCase(sortBy)) {
+                        if (sortOrder != null && sortOrder.toLowerCase().startsWith("desc")) {
+                            comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_DESC);
+                        } else {
+                            comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC);
+                        }
                     } else {
-                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_COUNT_ASC);
+                        comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.DEFAULT);
+                    }
+                    
+                    TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
+                    tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
+                    
+                    StreamingOutput streamingOutput = new TokenCountZipStreamingOutput(volumeRetriever, tokenCountZipper, tokenizer, tokenFilterChain, comparator, admission);
+                    response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, archiveFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, archiveFormat.getContentDisposition(Constants.FILENAME_BASE_TOKENCOUNT)).build();
+                    admissionHandedOver = true;
+                } finally {
+                    // once the response is built, its StreamingOutput owns the admission and the retriever and releases them after writing, so they are only
+                    // released here if building failed, which includes cancelling the fetches the retriever may already have dispatched
+                    if (!admissionHandedOver) {
+                        if (volumeRetriever != null) {
+                            volumeRetriever.cancel();
+                        }
+                        if (admission != null) {
+                            admission.release();
+                        }
                     }
-                } else {
-                    comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.DEFAULT);
                 }
-                
-                TokenFilterChain tokenFilterChain = new SimpleTokenFilterChain();
-                tokenFilterChain.addFilter(new EmptyTokenRemovalFilter());
-                
-                StreamingOutput streamingOutput = new TokenCountZipStreamingOutput(volumeRetriever, tokenCountZipper, tokenizer, tokenFilterChain, comparator);
-                response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_APPLICATION_ZIP).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, Constants.FILENAME_TOKENCOUNT_ZIP).build();
             } else {
                 log.error("Required parameter volumeIDs is null");
                 response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Missing required parameter volumeIDs").build();
@@ -158,6 +193,14 @@ public class TokenCountAccessResource {
             log.error("PolicyViolationException", e);
             response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Request too greedy. " + e.getMessage()).build();
             auditor.error("PolicyViolationException", "Request Too Greedy", e.getMessage());
+        } catch (ServiceOverloadedException e) {
+            log.warn("ServiceOverloadedException: " + e.getMessage());
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).header(Constants.HTTP_HEADER_RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).entity(e.getMessage()).build();
+            auditor.error("ServiceOverloadedException", "Service Overloaded", e.getMessage());
+        } catch (DeadlineExceededException e) {
+            log.warn("DeadlineExceededException: " + e.getMessage());
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
+            auditor.error("DeadlineExceededException", "Request Deadline Exceeded", e.getMessage());
         }
         
         
@@ -49,14 +49,18 @@ import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.AdmissionController.Admission;
 import edu.indiana.d2i.htrc.access.async.ThrottledVolumeRetrieverImpl;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.ServiceOverloadedException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.IDTypeEnum;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory.Parser;
 import edu.indiana.d2i.htrc.access.policy.PolicyCheckerRegistryImpl;
 import edu.indiana.d2i.htrc.access.response.VolumeZipStreamingOutput;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.AuditorFactory;
@@ -80,6 +84,9 @@ public class VolumeAccessResource {
      * @param concatenate parameter to specify whether the pages of each request volume to be concatenated into a single file or as separate text files.
      * @param retrieveMETS parameter to specify if METS metadata should also be returned.
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
+     * @param timeout parameter to specify the number of milliseconds the client is willing to wait. Overrides the X-Request-Timeout header
+     * @param compress parameter to specify whether the zip entries, or the gzipped tar archive, should be compressed.  Either true, false, or a compression level from 0 to 9
+     * @param format parameter to specify the archive format, either zip, tar, tgz, or ndjson for newline-delimited JSON with one line per page.  Defaults to zip
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
      * @return a Response object
@@ -89,10 +96,13 @@ public class VolumeAccessResource {
                                    @QueryParam("concat") boolean concatenate,
                                    @QueryParam("mets") boolean retrieveMETS,
                                    @QueryParam("version") int version,
+                                   @QueryParam("timeout") String timeout,
+                                   @QueryParam("compress") String compress,
+                                   @QueryParam("format") String format,
                                    @Context HttpHeaders httpHeaders,
                                    @Context HttpServletRequest httpServletRequest) {
         
-        return getResourcePost(volumeIDs, concatenate, retrieveMETS, version, httpHeaders, httpServletRequest);
+        return getResourcePost(volumeIDs, concatenate, retrieveMETS, version, timeout, compress, format, httpHeaders, httpServletRequest);
     }
         
     /**
@@ -102,6 +112,9 @@ public class VolumeAccessResource {
      * @param concatenate parameter to specify whether the pages of each request volume to be concatenated into a single file or as spearate text files.
      * @param retrieveMETS parameter to specify if METS metadata should also be returned.
      * @param version parameter to specify a specific version of data API to use. Just a place holder for now.
+     * @param timeout parameter to specify the number of milliseconds the client is willing to wait. Overrides the X-Request-Timeout header
+     * @param compress parameter to specify whether the zip entries, or the gzipped tar archive, should be compressed.  Either true, false, or a compression level from 0 to 9
+     * @param format parameter to specify the archive format, either zip, tar, tgz, or ndjson for newline-delimited JSON with one line per page.  Defaults to zip
      * @param httpHeaders an HttpHeaders object
      * @param httpServletRequest an HttpServletRequest object
      * @return a Response object
@@ -112,6 +125,9 @@ public class VolumeAccessResource {
                                 @FormParam("concat") boolean concatenate,
                                 @FormParam("mets") boolean retrieveMETS,
                                 @FormParam("version") int version,
+                                @FormParam("timeout") String timeout,
+                                @FormParam("compress") String compress,
+                                @FormParam("format") String format,
                                 @Context HttpHeaders httpHeaders,
                                 @Context HttpServletRequest httpServletRequest) {
         
@@ -120,32 +136,60 @@ public class VolumeAccessResource {
             log.debug("concatenate = " + concatenate);
             log.debug("mets = " + retrieveMETS);
             log.debug("version = " + version);
+            log.debug("timeout = " + timeout);
+            log.debug("compress = " + compress);
+            log.debug("format = " + format);
         }
                 
         
         Response response = null;
         ContextExtractor contextExtractor = new ContextExtractor(httpServletRequest, httpHeaders);
+        RequestDeadline deadline = RequestDeadline.newInstance((timeout != null) ? timeout : contextExtractor.getRequestTimeout());
         Auditor auditor = AuditorFactory.getAuditor(contextExtractor.getContextMap());
+        ArchiveFormatEnum archiveFormat = ZipMakerFactory.Helper.parseArchiveFormat(format);
         
         Parser parser = ItemCoordinatesParserFactory.getParser(IDTypeEnum.VOLUME_ID, PolicyCheckerRegistryImpl.getInstance());
         parser.setRetrieveMETS(retrieveMETS);
         
         try {
-            if (volumeIDs != null) {
+            if (archiveFormat == null) {
+                log.error("Unsupported archive format " + format);
+                response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Unsupported format " + format + ". Supported formats are zip, tar, tgz and ndjson").build();
+                auditor.error("Unsupported Format", "Unsupported Archive Format", format);
+            } else if (volumeIDs != null) {
                 List<? extends RequestedItemCoordinates> volumeIDList = parser.parse(volumeIDs);
                 
                 for (RequestedItemCoordinates volumeIdentifier : volumeIDList) {
                     String volumeID = volumeIdentifier.getVolumeID();
                     auditor.audit("REQUESTED", volumeID);
                 }
+                
+                Admission admission = AdmissionController.getInstance().admit(volumeIDList, deadline);
 
-                ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor);
-                volumeRetriever.setRetrievalIDs(volumeIDList);
+                boolean admissionHandedOver = false;
+                ThrottledVolumeRetrieverImpl volumeRetriever = null;
+                try {
+                    // the pages of a volume are concatenated in order, so only separate page zips can take volumes in the order they complete
+                    volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(auditor, !concatenate, contextExtractor.getTenantID(), deadline);
+                    volumeRetriever.setRetrievalIDs(volumeIDList);
 
-                ZipTypeEnum zipMakerType = concatenate ? ZipTypeEnum.COMBINE_PAGE : ZipTypeEnum.SEPARATE_PAGE;
-                ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor);
-                StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor);
-                response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_APPLICATION_ZIP).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, Constants.FILENAME_VOLUMES_ZIP).build();
+                    ZipTypeEnum zipMakerType = concatenate ? ZipTypeEnum.COMBINE_PAGE : ZipTypeEnum.SEPARATE_PAGE;
+                    ZipMaker zipMaker = ZipMakerFactory.newInstance(zipMakerType, auditor, ZipMakerFactory.Helper.parseCompressionLevel(compress), archiveFormat);
+                    StreamingOutput streamingOutput = new VolumeZipStreamingOutput(volumeRetriever, zipMaker, auditor, admission);
+                    response = Response.ok(streamingOutput).header(Constants.HTTP_HEADER_CONTENT_TYPE, archiveFormat.getContentType()).header(Constants.HTTP_HEADER_CONTENT_DISPOSITION, archiveFormat.getContentDisposition(Constants.FILENAME_BASE_VOLUMES)).build();
+                    admissionHandedOver = true;
+                } finally {
+                    // once the response is built, its StreamingOutput owns the admission and the retriever and releases them after writing, so they are only
+                    // released here if building failed, which includes cancelling the fetches the retriever may already have dispatched
+                    if (!admissionHandedOver) {
+                        if (volumeRetriever != null) {
+                            volumeRetriever.cancel();
+                        }
+                        if (admission != null) {
+                            admission.release();
+                        }
+                    }
+                }
 
             } else {
                 log.error("Required parameter volumeIDs is null");
@@ -162,6 +206,14 @@ public class VolumeAccessResource {
             log.error("PolicyViolationException", e);
             response = Response.status(Status.BAD_REQUEST).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity("Request too greedy. " + e.getMessage()).build();
             auditor.error("PolicyViolationException", "Request Too Greedy", e.getMessage());
+        } catch (ServiceOverloadedException e) {
+            log.warn("ServiceOverloadedException: " + e.getMessage());
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).header(Constants.HTTP_HEADER_RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds())).entity(e.getMessage()).build();
+            auditor.error("ServiceOverloadedException", "Service Overloaded", e.getMessage());
+        } catch (DeadlineExceededException e) {
+            log.warn("DeadlineExceededException: " + e.getMessage());
+            response = Response.status(Status.SERVICE_UNAVAILABLE).header(Constants.HTTP_HEADER_CONTENT_TYPE, Constants.CONTENT_TYPE_TEXT_PLAIN).entity(e.getMessage()).build();
+            auditor.error("DeadlineExceededException", "Request Deadline Exceeded", e.getMessage());
         }
         
         return response;
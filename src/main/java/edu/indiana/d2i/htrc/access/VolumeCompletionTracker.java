@@ -0,0 +1,50 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeCompletionTracker.java
+# Description: Interface definition for volume retrievers that know when all pieces of a volume have been returned
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+/**
+ * Interface definition for a VolumeRetriever that returns a volume in pieces which may arrive interleaved with the pieces of other volumes, and that can tell
+ * when the last piece of a volume has been returned, e.g. so that the volume can be audited as soon as it has been written out
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface VolumeCompletionTracker {
+    
+    /**
+     * Method to check if all pieces of a volume have been returned by nextVolume, or have failed, or have been dropped
+     * @param volumeID volumeID of the volume
+     * @return <code>true</code> if no more pieces of the volume are to be returned, <code>false</code> otherwise
+     */
+    public boolean isVolumeComplete(String volumeID);
+
+}
@@ -59,6 +59,12 @@ public interface VolumeReader {
          * @return the content as a byte array
          */
         public byte[] getContent();
+        
+        /**
+         * Method to return the length of the content without copying it, so the content can be measured without reading it
+         * @return the length of the content in bytes
+         */
+        public int getContentLength();
     }
     
     /**
@@ -0,0 +1,130 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeStore.java
+# Description:  Interface definition for the backend storage of volumes
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.ConcurrencyLimiter;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache;
+
+/**
+ * Interface definition for the backend storage of volumes, from which basic volume information, page contents and metadata are retrieved
+ * 
+ * Besides the retrieval methods, the interface has hooks through which the async fetch mechanism tunes the VolumeStore.  A VolumeStore that has nothing to
+ * tune should extend AbstractVolumeStore, which implements the hooks as no-ops.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface VolumeStore {
+    
+    /**
+     * Method to get some basic metadata of a given volume
+     * @param volumeID volumeID of the volume whose metadata is to be retrieved
+     * @return a VolumeInfo object holding basic metadata of the given volume
+     * @throws KeyNotFoundException thrown if the specified volumeID does not exist
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public VolumeInfo getVolumeInfo(String volumeID) throws KeyNotFoundException, RepositoryException;
+    
+    /**
+     * Method to get some basic metadata of multiple volumes in a batch
+     * 
+     * Like the batch retrievePageContents method, this method does not throw KeyNotFoundException.  A volume that does not exist is absent from the returned Map.
+     * 
+     * @param volumeIDs a List of volumeIDs of the volumes whose metadata is to be retrieved
+     * @return a Map with volumeIDs as keys and VolumeInfo objects holding basic metadata of the volumes as values
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public Map<String, VolumeInfo> getVolumeInfos(List<String> volumeIDs) throws RepositoryException;
+    
+    /**
+     * Method to retrieve the pages of a volume
+     * @param volumeID volumeID of the volume
+     * @param pageSequences a List of page sequence numbers to be retrieved
+     * @return a List of ContentReader objects holding the page content in the requested order
+     * @throws KeyNotFoundException thrown if the volume or any of the pages does not exist
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences) throws KeyNotFoundException, RepositoryException;
+    
+    /**
+     * Method to retrieve the pages of multiple volumes in a batch
+     * 
+     * Unlike the single-volume retrievePageContents method, this method does not throw KeyNotFoundException.  A volume without any of the requested pages is
+     * absent from the returned Map, and a page that does not exist is absent from the List of its volume, so callers should check the completeness of the returned
+     * content themselves.
+     * 
+     * @param volumePageSequences a Map with volumeIDs as keys and Lists of page sequence numbers to be retrieved from each volume as values
+     * @return a Map with volumeIDs as keys and Lists of ContentReader objects holding the page content in the requested order as values
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences) throws RepositoryException;
+    
+    /**
+     * Method to retrieve metadata entries of a volume
+     * @param volumeID volumeID of the volume
+     * @param metadataNames a List of names of the metadata entries to be retrieved
+     * @return a List of ContentReader objects holding the metadata content in the requested order
+     * @throws KeyNotFoundException thrown if the volume or any of the metadata entries does not exist
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public List<ContentReader> retrieveMetadata(String volumeID, List<String> metadataNames) throws KeyNotFoundException, RepositoryException;
+    
+    /**
+     * Method to get the maximum number of volumes the batch retrievePageContents method should be given at a time
+     * @return the maximum number of volumes per batch. A value less than 2 means batch retrieval should not be used
+     */
+    public int getMaxVolumesPerBatch();
+    
+    /**
+     * Method to get the ConcurrencyLimiter in front of the backend repository, which the async fetch mechanism consults to size its batches
+     * @return the ConcurrencyLimiter object, or <code>null</code> if the VolumeStore does not limit its concurrency
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter();
+    
+    /**
+     * Method to get the VolumeInfoCache of the VolumeStore, which admission control consults to estimate the page counts of volumes
+     * @return the VolumeInfoCache object, or <code>null</code> if the VolumeStore does not cache VolumeInfo
+     */
+    public VolumeInfoCache getVolumeInfoCache();
+    
+    /**
+     * Method to dispose of resources used by the VolumeStore
+     */
+    public void shutdown();
+
+}
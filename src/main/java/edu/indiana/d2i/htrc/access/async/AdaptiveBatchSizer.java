@@ -0,0 +1,137 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AdaptiveBatchSizer.java
+# Description:  This class picks the number of pages per fetch from running statistics of recent page retrievals
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+/**
+ * This class picks the number of pages per fetch from running statistics of recent page retrievals, so that a fetch of large pages (e.g. a dictionary) and
+ * a fetch of small pages (e.g. a pamphlet) both take about the same amount of memory and time.  It keeps exponentially weighted moving averages of the bytes
+ * and milliseconds per page, and sizes a fetch to fit both the byte budget and the latency goal, within the given bounds.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class AdaptiveBatchSizer {
+    
+    // weight of the latest sample in the moving averages
+    protected static final double SMOOTHING_FACTOR = 0.2;
+    
+    protected final long targetBytes;
+    protected final long targetLatency;
+    protected final int minPages;
+    protected final int maxPages;
+    
+    // guarded by this
+    protected double bytesPerPage;
+    protected double millisPerPage;
+    protected long sampleCount;
+    
+    /**
+     * Constructor
+     * @param targetBytes target number of bytes of page content per fetch
+     * @param targetLatency target number of milliseconds per fetch. Use 0 to size fetches by bytes only
+     * @param minPages minimum number of pages per fetch
+     * @param maxPages maximum number of pages per fetch
+     */
+    public AdaptiveBatchSizer(long targetBytes, long targetLatency, int minPages, int maxPages) {
+        this.targetBytes = targetBytes;
+        this.targetLatency = targetLatency;
+        this.minPages = minPages;
+        this.maxPages = maxPages;
+        this.bytesPerPage = 0;
+        this.millisPerPage = 0;
+        this.sampleCount = 0;
+    }
+    
+    /**
+     * Method to record the outcome of a page retrieval
+     * @param pageCount number of pages retrieved
+     * @param byteCount total number of bytes of the pages retrieved
+     * @param elapsedMillis number of milliseconds the retrieval took
+     */
+    public synchronized void record(int pageCount, long byteCount, long elapsedMillis) {
+        if (pageCount > 0) {
+            double sampleBytesPerPage = (double)byteCount / pageCount;
+            double sampleMillisPerPage = (double)elapsedMillis / pageCount;
+            if (sampleCount == 0) {
+                bytesPerPage = sampleBytesPerPage;
+                millisPerPage = sampleMillisPerPage;
+            } else {
+                bytesPerPage += SMOOTHING_FACTOR * (sampleBytesPerPage - bytesPerPage);
+                millisPerPage += SMOOTHING_FACTOR * (sampleMillisPerPage - millisPerPage);
+            }
+            sampleCount++;
+        }
+    }
+    
+    /**
+     * Method to return the number of pages the next fetch should ask for
+     * @param defaultPages number of pages to return before any retrieval has been recorded
+     * @return the number of pages per fetch
+     */
+    public synchronized int getBatchSize(int defaultPages) {
+        if (sampleCount == 0) {
+            return defaultPages;
+        }
+        
+        double pages = (bytesPerPage > 0) ? targetBytes / bytesPerPage : maxPages;
+        if (targetLatency > 0 && millisPerPage > 0) {
+            pages = Math.min(pages, targetLatency / millisPerPage);
+        }
+        return (int)Math.max(minPages, Math.min(maxPages, pages));
+    }
+    
+    /**
+     * Method to return the smoothed average number of bytes per page
+     * @return the average number of bytes per page, or 0 if no retrieval has been recorded
+     */
+    public synchronized long getBytesPerPage() {
+        return (long)bytesPerPage;
+    }
+    
+    /**
+     * Method to return the number of page retrievals recorded
+     * @return the number of page retrievals recorded
+     */
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveBatchSizer samples: " + sampleCount + " bytesPerPage: " + (long)bytesPerPage + " millisPerPage: " + millisPerPage
+                + " batchSize: " + getBatchSize(0);
+    }
+
+}
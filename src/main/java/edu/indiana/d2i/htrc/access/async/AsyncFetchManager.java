@@ -18,7 +18,7 @@
 #
 # Project: data-api
 # File:  AsyncFetchManager.java
-# Description:  This singleton class manages the asynchronous fetching of data from Cassandra
+# Description:  This singleton class manages the asynchronous fetching of data from the VolumeStore
 #
 # -----------------------------------------------------------------
 # 
@@ -31,38 +31,199 @@
  */
 package edu.indiana.d2i.htrc.access.async;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.RequestDeadline;
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeInfo;
 import edu.indiana.d2i.htrc.access.VolumeReader;
-import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+import edu.indiana.d2i.htrc.access.read.PageContentCache;
 
 /**
- * This singleton class manages the asynchronous fetching of data from Cassandra
+ * This singleton class manages the asynchronous fetching of data from the VolumeStore
  * 
  * @author Yiming Sun
  *
  */
 public class AsyncFetchManager {
     
+    private static final Logger log = Logger.getLogger(AsyncFetchManager.class);
+    
     public static final String PN_ASYNC_WORKER_COUNT = "async.worker.count";
+    public static final String PN_PAGE_CONTENT_CACHE_MAX_BYTES = "page.content.cache.max.bytes";
+    public static final String PN_PAGE_CONTENT_CACHE_CHUNK_SIZE = "page.content.cache.chunk.size";
+    public static final String PN_ASYNC_COALESCE_FETCHES = "async.coalesce.fetches";
+    public static final String PN_ASYNC_FAIR_SHARE = "async.fair.share";
+    public static final String PN_ASYNC_FAIR_SHARE_QUANTUM = "async.fair.share.quantum";
+    public static final String PN_ASYNC_STATS_LOG_INTERVAL = "async.stats.log.interval";
+    public static final String PN_ASYNC_EXECUTION_MODE = "async.execution.mode";
+    public static final String PN_ASYNC_ELASTIC_MAX_CONCURRENT = "async.elastic.max.concurrent";
+    public static final String PN_ASYNC_INTERACTIVE_MAX_PAGES = "async.interactive.max.pages";
+    public static final String PN_ASYNC_INTERACTIVE_RESERVED_WORKERS = "async.interactive.reserved.workers";
+    public static final String PN_ASYNC_BULK_SHARE = "async.bulk.share";
+    public static final String PN_ASYNC_BULK_MAX_WAIT = "async.bulk.max.wait";
+    public static final String PN_ASYNC_INTERACTIVE_LATENCY_OBJECTIVE = "async.interactive.latency.objective";
+    public static final String PN_ASYNC_BULK_LATENCY_OBJECTIVE = "async.bulk.latency.objective";
+    public static final String PN_ADAPTIVE_BATCH_TARGET_BYTES = "adaptive.batch.target.bytes";
+    public static final String PN_ADAPTIVE_BATCH_TARGET_LATENCY = "adaptive.batch.target.latency";
+    public static final String PN_ADAPTIVE_BATCH_MAX_PAGES = "adaptive.batch.max.pages";
+    public static final String PN_ASYNC_BYTE_BUDGET = "async.byte.budget";
+    public static final String PN_ASYNC_BYTE_BUDGET_MAX_WAIT = "async.byte.budget.max.wait";
+    public static final String PN_ASYNC_RETRY_MAX_RETRIES = "async.retry.max.retries";
+    public static final String PN_ASYNC_RETRY_INIT_DELAY = "async.retry.init.delay";
+    public static final String PN_ASYNC_RETRY_MAX_DELAY = "async.retry.max.delay";
+    public static final String PN_ASYNC_RETRY_BUDGET_RATIO = "async.retry.budget.ratio";
+    protected static final long DEFAULT_ASYNC_RETRY_INIT_DELAY = 200;
+    protected static final long DEFAULT_ASYNC_RETRY_MAX_DELAY = 5000;
+    protected static final double DEFAULT_ASYNC_RETRY_BUDGET_RATIO = 0.1;
+    protected static final int ASYNC_RETRY_BUDGET_RESERVE = 10;
+    protected static final int DEFAULT_ASYNC_ELASTIC_MAX_CONCURRENT = 64;
+    protected static final int DEFAULT_ASYNC_INTERACTIVE_RESERVED_WORKERS = 1;
+    protected static final int DEFAULT_ASYNC_BULK_SHARE = 4;
+    protected static final long DEFAULT_ASYNC_BULK_MAX_WAIT = 5000;
+    protected static final long DEFAULT_ASYNC_INTERACTIVE_LATENCY_OBJECTIVE = 100;
+    protected static final long DEFAULT_ASYNC_BULK_LATENCY_OBJECTIVE = 10000;
+    protected static final long DEFAULT_ADAPTIVE_BATCH_TARGET_LATENCY = 1000;
+    protected static final int DEFAULT_ADAPTIVE_BATCH_MAX_PAGES = 1000;
+    protected static final int ADAPTIVE_BATCH_MIN_PAGES = 1;
+    protected static final long DEFAULT_ASYNC_BYTE_BUDGET_MAX_WAIT = 30000;
     protected static int POOL_SIZE = 1;
-    protected static HectorResource hectorResource = null;
+    protected static int RETRY_MAX_RETRIES = 0;
+    protected static boolean COALESCE_FETCHES = false;
+    protected static boolean FAIR_SHARE = false;
+    protected static int FAIR_SHARE_QUANTUM = FairShareQueue.DEFAULT_QUANTUM;
+    protected static long STATS_LOG_INTERVAL = 0;
+    protected static boolean ELASTIC_EXECUTION = false;
+    protected static int ELASTIC_MAX_CONCURRENT = DEFAULT_ASYNC_ELASTIC_MAX_CONCURRENT;
+    protected static int INTERACTIVE_MAX_PAGES = 0;
+    protected static int INTERACTIVE_RESERVED_WORKERS = DEFAULT_ASYNC_INTERACTIVE_RESERVED_WORKERS;
+    protected static int BULK_SHARE = DEFAULT_ASYNC_BULK_SHARE;
+    protected static long BULK_MAX_WAIT = DEFAULT_ASYNC_BULK_MAX_WAIT;
+    protected static long INTERACTIVE_LATENCY_OBJECTIVE = DEFAULT_ASYNC_INTERACTIVE_LATENCY_OBJECTIVE;
+    protected static long BULK_LATENCY_OBJECTIVE = DEFAULT_ASYNC_BULK_LATENCY_OBJECTIVE;
+    protected static long RETRY_INIT_DELAY = DEFAULT_ASYNC_RETRY_INIT_DELAY;
+    protected static long RETRY_MAX_DELAY = DEFAULT_ASYNC_RETRY_MAX_DELAY;
+    protected static double RETRY_BUDGET_RATIO = DEFAULT_ASYNC_RETRY_BUDGET_RATIO;
+    protected static VolumeStore volumeStore = null;
+    protected static PageContentCache pageContentCache = null;
+    protected static AdaptiveBatchSizer adaptiveBatchSizer = null;
+    protected static ByteBudget byteBudget = null;
     protected final ExecutorService executorService;
+    protected final FairShareQueue fairShareQueue;
+    protected final PriorityLaneQueue priorityLaneQueue;
+    protected final RetryScheduler retryScheduler;
+    protected final SingleFlightFetcher singleFlightFetcher;
+    protected final ScheduledExecutorService statsLogExecutorService;
+    protected final AtomicLong cancelledFetchCount;
+    protected final AtomicLong volumeInfoLookupCount;
     protected static AsyncFetchManager instance = null;
     
     /**
      * Method to initialize the singleton class
      * 
      * @param parameterContainer an initialized ParameterContainer object
-     * @param hectorResource an initialized HectorResource object
+     * @param volumeStore an initialized VolumeStore object
      */
-    public static void init(ParameterContainer parameterContainer, HectorResource hectorResource) {
-        AsyncFetchManager.hectorResource = hectorResource;
+    public static void init(ParameterContainer parameterContainer, VolumeStore volumeStore) {
+        AsyncFetchManager.volumeStore = volumeStore;
         POOL_SIZE = Integer.parseInt(parameterContainer.getParameter(PN_ASYNC_WORKER_COUNT));
+        
+        String pageContentCacheMaxBytesString = parameterContainer.getParameter(PN_PAGE_CONTENT_CACHE_MAX_BYTES);
+        long pageContentCacheMaxBytes = (pageContentCacheMaxBytesString != null) ? Long.parseLong(pageContentCacheMaxBytesString) : 0L;
+        if (pageContentCacheMaxBytes > 0) {
+            String pageContentCacheChunkSizeString = parameterContainer.getParameter(PN_PAGE_CONTENT_CACHE_CHUNK_SIZE);
+            int pageContentCacheChunkSize = (pageContentCacheChunkSizeString != null) ? Integer.parseInt(pageContentCacheChunkSizeString) : PageContentCache.DEFAULT_CHUNK_SIZE;
+            AsyncFetchManager.pageContentCache = new PageContentCache(pageContentCacheMaxBytes, pageContentCacheChunkSize);
+            if (log.isDebugEnabled()) log.debug("pageContentCacheChunkSize = " + pageContentCacheChunkSize);
+        }
+        if (log.isDebugEnabled()) log.debug("pageContentCacheMaxBytes = " + pageContentCacheMaxBytes);
+        
+        String coalesceFetchesString = parameterContainer.getParameter(PN_ASYNC_COALESCE_FETCHES);
+        COALESCE_FETCHES = (coalesceFetchesString != null) ? Boolean.parseBoolean(coalesceFetchesString) : false;
+        if (log.isDebugEnabled()) log.debug("coalesceFetches = " + COALESCE_FETCHES);
+        
+        String fairShareString = parameterContainer.getParameter(PN_ASYNC_FAIR_SHARE);
+        FAIR_SHARE = (fairShareString != null) ? Boolean.parseBoolean(fairShareString) : false;
+        String fairShareQuantumString = parameterContainer.getParameter(PN_ASYNC_FAIR_SHARE_QUANTUM);
+        FAIR_SHARE_QUANTUM = (fairShareQuantumString != null) ? Integer.parseInt(fairShareQuantumString) : FairShareQueue.DEFAULT_QUANTUM;
+        if (log.isDebugEnabled()) log.debug("fairShare = " + FAIR_SHARE + " fairShareQuantum = " + FAIR_SHARE_QUANTUM);
+        
+        String statsLogIntervalString = parameterContainer.getParameter(PN_ASYNC_STATS_LOG_INTERVAL);
+        STATS_LOG_INTERVAL = (statsLogIntervalString != null) ? Long.parseLong(statsLogIntervalString) : 0L;
+        if (log.isDebugEnabled()) log.debug("statsLogInterval = " + STATS_LOG_INTERVAL);
+        
+        String executionModeString = parameterContainer.getParameter(PN_ASYNC_EXECUTION_MODE);
+        ELASTIC_EXECUTION = ElasticExecutorService.EXECUTION_MODE_ELASTIC.equalsIgnoreCase(executionModeString);
+        String elasticMaxConcurrentString = parameterContainer.getParameter(PN_ASYNC_ELASTIC_MAX_CONCURRENT);
+        ELASTIC_MAX_CONCURRENT = (elasticMaxConcurrentString != null) ? Integer.parseInt(elasticMaxConcurrentString) : DEFAULT_ASYNC_ELASTIC_MAX_CONCURRENT;
+        if (log.isDebugEnabled()) log.debug("elasticExecution = " + ELASTIC_EXECUTION + " elasticMaxConcurrent = " + ELASTIC_MAX_CONCURRENT);
+        
+        String interactiveMaxPagesString = parameterContainer.getParameter(PN_ASYNC_INTERACTIVE_MAX_PAGES);
+        INTERACTIVE_MAX_PAGES = (interactiveMaxPagesString != null) ? Integer.parseInt(interactiveMaxPagesString) : 0;
+        String interactiveReservedWorkersString = parameterContainer.getParameter(PN_ASYNC_INTERACTIVE_RESERVED_WORKERS);
+        INTERACTIVE_RESERVED_WORKERS = (interactiveReservedWorkersString != null) ? Integer.parseInt(interactiveReservedWorkersString) : DEFAULT_ASYNC_INTERACTIVE_RESERVED_WORKERS;
+        String bulkShareString = parameterContainer.getParameter(PN_ASYNC_BULK_SHARE);
+        BULK_SHARE = (bulkShareString != null) ? Integer.parseInt(bulkShareString) : DEFAULT_ASYNC_BULK_SHARE;
+        String bulkMaxWaitString = parameterContainer.getParameter(PN_ASYNC_BULK_MAX_WAIT);
+        BULK_MAX_WAIT = (bulkMaxWaitString != null) ? Long.parseLong(bulkMaxWaitString) : DEFAULT_ASYNC_BULK_MAX_WAIT;
+        String interactiveLatencyObjectiveString = parameterContainer.getParameter(PN_ASYNC_INTERACTIVE_LATENCY_OBJECTIVE);
+        INTERACTIVE_LATENCY_OBJECTIVE = (interactiveLatencyObjectiveString != null) ? Long.parseLong(interactiveLatencyObjectiveString) : DEFAULT_ASYNC_INTERACTIVE_LATENCY_OBJECTIVE;
+        String bulkLatencyObjectiveString = parameterContainer.getParameter(PN_ASYNC_BULK_LATENCY_OBJECTIVE);
+        BULK_LATENCY_OBJECTIVE = (bulkLatencyObjectiveString != null) ? Long.parseLong(bulkLatencyObjectiveString) : DEFAULT_ASYNC_BULK_LATENCY_OBJECTIVE;
+        if (log.isDebugEnabled()) log.debug("interactiveMaxPages = " + INTERACTIVE_MAX_PAGES + " interactiveReservedWorkers = " + INTERACTIVE_RESERVED_WORKERS + " bulkShare = " + BULK_SHARE + " bulkMaxWait = " + BULK_MAX_WAIT);
+        
+        String retryMaxRetriesString = parameterContainer.getParameter(PN_ASYNC_RETRY_MAX_RETRIES);
+        RETRY_MAX_RETRIES = (retryMaxRetriesString != null) ? Integer.parseInt(retryMaxRetriesString) : 0;
+        String retryInitDelayString = parameterContainer.getParameter(PN_ASYNC_RETRY_INIT_DELAY);
+        RETRY_INIT_DELAY = (retryInitDelayString != null) ? Long.parseLong(retryInitDelayString) : DEFAULT_ASYNC_RETRY_INIT_DELAY;
+        String retryMaxDelayString = parameterContainer.getParameter(PN_ASYNC_RETRY_MAX_DELAY);
+        RETRY_MAX_DELAY = (retryMaxDelayString != null) ? Long.parseLong(retryMaxDelayString) : DEFAULT_ASYNC_RETRY_MAX_DELAY;
+        String retryBudgetRatioString = parameterContainer.getParameter(PN_ASYNC_RETRY_BUDGET_RATIO);
+        RETRY_BUDGET_RATIO = (retryBudgetRatioString != null) ? Double.parseDouble(retryBudgetRatioString) : DEFAULT_ASYNC_RETRY_BUDGET_RATIO;
+        
+        if (log.isDebugEnabled()) log.debug("retryMaxRetries = " + RETRY_MAX_RETRIES + " retryInitDelay = " + RETRY_INIT_DELAY + " retryMaxDelay = " + RETRY_MAX_DELAY + " retryBudgetRatio = " + RETRY_BUDGET_RATIO);
+        
+        String adaptiveBatchTargetBytesString = parameterContainer.getParameter(PN_ADAPTIVE_BATCH_TARGET_BYTES);
+        long adaptiveBatchTargetBytes = (adaptiveBatchTargetBytesString != null) ? Long.parseLong(adaptiveBatchTargetBytesString) : 0L;
+        if (adaptiveBatchTargetBytes > 0) {
+            String adaptiveBatchTargetLatencyString = parameterContainer.getParameter(PN_ADAPTIVE_BATCH_TARGET_LATENCY);
+            long adaptiveBatchTargetLatency = (adaptiveBatchTargetLatencyString != null) ? Long.parseLong(adaptiveBatchTargetLatencyString) : DEFAULT_ADAPTIVE_BATCH_TARGET_LATENCY;
+            String adaptiveBatchMaxPagesString = parameterContainer.getParameter(PN_ADAPTIVE_BATCH_MAX_PAGES);
+            int adaptiveBatchMaxPages = (adaptiveBatchMaxPagesString != null) ? Integer.parseInt(adaptiveBatchMaxPagesString) : DEFAULT_ADAPTIVE_BATCH_MAX_PAGES;
+            
+            // the async fetches go through the wrapper, so the batch sizes follow what the fetches actually cost
+            AsyncFetchManager.adaptiveBatchSizer = new AdaptiveBatchSizer(adaptiveBatchTargetBytes, adaptiveBatchTargetLatency, ADAPTIVE_BATCH_MIN_PAGES, adaptiveBatchMaxPages);
+            AsyncFetchManager.volumeStore = new MeasuredVolumeStore(volumeStore, adaptiveBatchSizer);
+            if (log.isDebugEnabled()) log.debug("adaptiveBatchTargetBytes = " + adaptiveBatchTargetBytes + " adaptiveBatchTargetLatency = " + adaptiveBatchTargetLatency + " adaptiveBatchMaxPages = " + adaptiveBatchMaxPages);
+        } else {
+            AsyncFetchManager.adaptiveBatchSizer = null;
+        }
+        
+        String byteBudgetString = parameterContainer.getParameter(PN_ASYNC_BYTE_BUDGET);
+        long byteBudgetMaxBytes = (byteBudgetString != null) ? Long.parseLong(byteBudgetString) : 0L;
+        if (byteBudgetMaxBytes > 0) {
+            String byteBudgetMaxWaitString = parameterContainer.getParameter(PN_ASYNC_BYTE_BUDGET_MAX_WAIT);
+            long byteBudgetMaxWait = (byteBudgetMaxWaitString != null) ? Long.parseLong(byteBudgetMaxWaitString) : DEFAULT_ASYNC_BYTE_BUDGET_MAX_WAIT;
+            AsyncFetchManager.byteBudget = new ByteBudget(byteBudgetMaxBytes, byteBudgetMaxWait);
+            if (log.isDebugEnabled()) log.debug("byteBudgetMaxBytes = " + byteBudgetMaxBytes + " byteBudgetMaxWait = " + byteBudgetMaxWait);
+        } else {
+            AsyncFetchManager.byteBudget = null;
+        }
     }
     
     /**
@@ -80,8 +241,125 @@ public class AsyncFetchManager {
      * Constructor. Used internally for the singleton instantiation
      */
     protected AsyncFetchManager() {
-        this.executorService = Executors.newFixedThreadPool(POOL_SIZE);
+        this.cancelledFetchCount = new AtomicLong(0);
+        this.volumeInfoLookupCount = new AtomicLong(0);
+        this.fairShareQueue = FAIR_SHARE ? new FairShareQueue(FAIR_SHARE_QUANTUM) : null;
+        if (INTERACTIVE_MAX_PAGES > 0) {
+            // the bulk lane is the queue the workers would use without lanes, and the interactive lane takes turns between tenants the same way
+            BlockingQueue<Runnable> interactiveQueue = FAIR_SHARE ? new FairShareQueue(FAIR_SHARE_QUANTUM) : new LinkedBlockingQueue<Runnable>();
+            BlockingQueue<Runnable> bulkQueue = (fairShareQueue != null) ? fairShareQueue : new LinkedBlockingQueue<Runnable>();
+            // the reserved workers, or permits in elastic mode, only ever take interactive fetches, so a preview finds one free even under a bulk export
+            int workerCount = ELASTIC_EXECUTION ? ELASTIC_MAX_CONCURRENT : POOL_SIZE;
+            int maxBulkRunning = (INTERACTIVE_RESERVED_WORKERS > 0) ? Math.max(1, workerCount - INTERACTIVE_RESERVED_WORKERS) : 0;
+            this.priorityLaneQueue = new PriorityLaneQueue(interactiveQueue, bulkQueue, BULK_SHARE, BULK_MAX_WAIT, INTERACTIVE_LATENCY_OBJECTIVE, BULK_LATENCY_OBJECTIVE,
+                    maxBulkRunning);
+        } else {
+            this.priorityLaneQueue = null;
+        }
+        BlockingQueue<Runnable> workQueue = (priorityLaneQueue != null) ? priorityLaneQueue : fairShareQueue;
         
+        if (ELASTIC_EXECUTION) {
+            // each fetch gets a thread of its own, so fetches blocked on Cassandra do not hold up the others, up to the semaphore bound
+            BlockingQueue<Runnable> pendingQueue = (workQueue != null) ? workQueue : new LinkedBlockingQueue<Runnable>();
+            this.executorService = new ElasticExecutorService(ELASTIC_MAX_CONCURRENT, pendingQueue);
+        } else if (workQueue != null) {
+            // same as Executors.newFixedThreadPool, but the workers pick the next task by lane and tenant instead of first come first served
+            ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0L, TimeUnit.MILLISECONDS, workQueue);
+            // with all workers started up front every task goes through the work queue, so the lanes see every task a worker runs
+            threadPoolExecutor.prestartAllCoreThreads();
+            this.executorService = threadPoolExecutor;
+        } else {
+            this.executorService = Executors.newFixedThreadPool(POOL_SIZE);
+        }
+        this.retryScheduler = (RETRY_MAX_RETRIES > 0) ? new RetryScheduler(executorService, RETRY_MAX_RETRIES, RETRY_INIT_DELAY, RETRY_MAX_DELAY,
+                new RetryBudget(RETRY_BUDGET_RATIO, ASYNC_RETRY_BUDGET_RESERVE)) : null;
+        this.singleFlightFetcher = COALESCE_FETCHES ? new SingleFlightFetcher(volumeStore, pageContentCache) {
+            @Override
+            protected Future<VolumeReader> dispatch(Callable<VolumeReader> callable, String tenantID, CompletionListener<VolumeReader> completionListener) {
+                return dispatchFetch(callable, tenantID, completionListener);
+            }
+        } : null;
+        
+        if (STATS_LOG_INTERVAL > 0) {
+            // the queues are only worth watching while the service runs, so their statistics are logged periodically and not just at shutdown
+            this.statsLogExecutorService = Executors.newSingleThreadScheduledExecutor();
+            statsLogExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    logQueueStats();
+                }
+            }, STATS_LOG_INTERVAL, STATS_LOG_INTERVAL, TimeUnit.MILLISECONDS);
+        } else {
+            this.statsLogExecutorService = null;
+        }
+    }
+    
+    /**
+     * Method to log the statistics of the work queues
+     */
+    protected void logQueueStats() {
+        if (priorityLaneQueue != null) {
+            log.info(priorityLaneQueue.toString());
+        }
+        if (fairShareQueue != null) {
+            log.info(fairShareQueue.toString());
+        }
+    }
+    
+    /**
+     * Method to get the PageContentCache object
+     * @return the PageContentCache object, or <code>null</code> if page content caching is disabled
+     */
+    public PageContentCache getPageContentCache() {
+        return pageContentCache;
+    }
+    
+    /**
+     * Method to get the RetryScheduler object
+     * @return the RetryScheduler object, or <code>null</code> if scheduled retries are disabled
+     */
+    public RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+    
+    /**
+     * Method to get the AdaptiveBatchSizer object
+     * @return the AdaptiveBatchSizer object, or <code>null</code> if adaptive batch sizing is disabled
+     */
+    public AdaptiveBatchSizer getAdaptiveBatchSizer() {
+        return adaptiveBatchSizer;
+    }
+    
+    /**
+     * Method to get the ByteBudget object shared by all requests
+     * @return the ByteBudget object, or <code>null</code> if the byte budget is disabled
+     */
+    public ByteBudget getByteBudget() {
+        return byteBudget;
+    }
+    
+    /**
+     * Method to get the PriorityLaneQueue object
+     * @return the PriorityLaneQueue object, or <code>null</code> if priority lanes are disabled
+     */
+    public PriorityLaneQueue getPriorityLaneQueue() {
+        return priorityLaneQueue;
+    }
+    
+    /**
+     * Method to return the largest estimated number of pages a request may have to be served in the interactive lane
+     * @return the largest number of pages of an interactive request, or 0 if priority lanes are disabled
+     */
+    public int getInteractiveMaxPages() {
+        return (priorityLaneQueue != null) ? INTERACTIVE_MAX_PAGES : 0;
+    }
+    
+    /**
+     * Method to get the FairShareQueue object
+     * @return the FairShareQueue object, or <code>null</code> if fair-share scheduling is disabled
+     */
+    public FairShareQueue getFairShareQueue() {
+        return fairShareQueue;
     }
     
     /**
@@ -90,16 +368,242 @@ public class AsyncFetchManager {
      * @return a Future of VolumeReader object
      */
     public Future<VolumeReader> submit(RequestedItemCoordinates itemIdentifier) {
-        CallableVolumeFetcher callableVolumeFetcher = new CallableVolumeFetcher(itemIdentifier, hectorResource);
-        Future<VolumeReader> future = executorService.submit(callableVolumeFetcher);
-        return future;
+        return submit(itemIdentifier, null, null);
+    }
+    
+    /**
+     * Method to submit an HTRCItemIdentifier for async fetch on behalf of a tenant, and to be told when the fetch completes
+     * @param itemIdentifier an HTRCItemIdentifier to be fetched asynchronously
+     * @param tenantID ID of the tenant (user or client) the fetch is run for, or <code>null</code> for the default tenant
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future of VolumeReader object
+     */
+    public Future<VolumeReader> submit(RequestedItemCoordinates itemIdentifier, String tenantID, CompletionListener<VolumeReader> completionListener) {
+        return submit(itemIdentifier, tenantID, false, completionListener);
+    }
+    
+    /**
+     * Method to submit an HTRCItemIdentifier for async fetch on behalf of a tenant in the given lane, and to be told when the fetch completes
+     * @param itemIdentifier an HTRCItemIdentifier to be fetched asynchronously
+     * @param tenantID ID of the tenant (user or client) the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future of VolumeReader object
+     */
+    public Future<VolumeReader> submit(RequestedItemCoordinates itemIdentifier, String tenantID, boolean interactive, CompletionListener<VolumeReader> completionListener) {
+        return submit(itemIdentifier, tenantID, interactive, null, completionListener);
+    }
+    
+    /**
+     * Method to submit an HTRCItemIdentifier for async fetch on behalf of a tenant in the given lane and within the deadline of the request, and to be told when
+     * the fetch completes
+     * @param itemIdentifier an HTRCItemIdentifier to be fetched asynchronously
+     * @param tenantID ID of the tenant (user or client) the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param deadline the RequestDeadline of the request the fetch is run for, or <code>null</code> if it has none
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future of VolumeReader object
+     */
+    public Future<VolumeReader> submit(RequestedItemCoordinates itemIdentifier, String tenantID, boolean interactive, RequestDeadline deadline,
+            CompletionListener<VolumeReader> completionListener) {
+        // an interactive fetch does not join a fetch in flight, which may still be waiting in the bulk lane.  A joined fetch may be shared with other
+        // requests, so it runs without the deadline of any of them.  It is still bounded by them: each request waits on its own subscriber Future no longer
+        // than its own deadline and cancels it once the deadline passes, and the shared fetch is cancelled, with no further retries, once the last
+        // subscriber has cancelled
+        if (singleFlightFetcher != null && !interactive) {
+            return singleFlightFetcher.submit(itemIdentifier, tenantID, completionListener);
+        }
+        CallableVolumeFetcher callableVolumeFetcher = new CallableVolumeFetcher(itemIdentifier, volumeStore, pageContentCache, deadline);
+        return dispatchFetch(callableVolumeFetcher, tenantID, interactive, deadline, completionListener);
+    }
+    
+    /**
+     * Method to run a fetch on the worker threads, through the RetryScheduler if scheduled retries are enabled
+     * @param callable a Callable object performing the fetch
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future of VolumeReader object for the fetch
+     */
+    protected Future<VolumeReader> dispatchFetch(Callable<VolumeReader> callable, String tenantID, CompletionListener<VolumeReader> completionListener) {
+        return dispatchFetch(callable, tenantID, false, null, completionListener);
+    }
+    
+    /**
+     * Method to run a fetch on the worker threads in the given lane, through the RetryScheduler if scheduled retries are enabled
+     * @param callable a Callable object performing the fetch
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param deadline the RequestDeadline of the request the fetch is run for, or <code>null</code> if it has none. No retry is scheduled past it
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future of VolumeReader object for the fetch
+     */
+    protected Future<VolumeReader> dispatchFetch(Callable<VolumeReader> callable, String tenantID, boolean interactive, RequestDeadline deadline,
+            CompletionListener<VolumeReader> completionListener) {
+        if (retryScheduler != null) {
+            return retryScheduler.submit(callable, tenantID, interactive, deadline, completionListener);
+        }
+        NotifyingFutureTask<VolumeReader> futureTask = new NotifyingFutureTask<VolumeReader>(callable, tenantID, interactive, completionListener);
+        executorService.execute(futureTask);
+        return futureTask;
+    }
+    
+    /**
+     * Method to submit a List of work units for async fetch as a single multiget.  Each work unit must refer to a different volume and must only ask for pages.
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects to be fetched together asynchronously
+     * @return a List of Future of VolumeReader objects, one for each work unit and in the same order
+     */
+    public List<Future<VolumeReader>> submit(List<? extends RequestedItemCoordinates> itemCoordinatesList) {
+        return submit(itemCoordinatesList, null, null);
+    }
+    
+    /**
+     * Method to submit a List of work units for async fetch as a single multiget on behalf of a tenant, and to be told when the fetch of each work unit completes
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects to be fetched together asynchronously
+     * @param tenantID ID of the tenant (user or client) the fetch is run for, or <code>null</code> for the default tenant
+     * @param completionListener a CompletionListener object to be told when each of the returned Futures is done, or <code>null</code>
+     * @return a List of Future of VolumeReader objects, one for each work unit and in the same order
+     */
+    public List<Future<VolumeReader>> submit(List<? extends RequestedItemCoordinates> itemCoordinatesList, String tenantID,
+            CompletionListener<VolumeReader> completionListener) {
+        return submit(itemCoordinatesList, tenantID, false, completionListener);
+    }
+    
+    /**
+     * Method to submit a List of work units for async fetch as a single multiget on behalf of a tenant in the given lane, and to be told when the fetch of each
+     * work unit completes
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects to be fetched together asynchronously
+     * @param tenantID ID of the tenant (user or client) the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param completionListener a CompletionListener object to be told when each of the returned Futures is done, or <code>null</code>
+     * @return a List of Future of VolumeReader objects, one for each work unit and in the same order
+     */
+    public List<Future<VolumeReader>> submit(List<? extends RequestedItemCoordinates> itemCoordinatesList, String tenantID, boolean interactive,
+            CompletionListener<VolumeReader> completionListener) {
+        return submit(itemCoordinatesList, tenantID, interactive, null, completionListener);
+    }
+    
+    /**
+     * Method to submit a List of work units for async fetch as a single multiget on behalf of a tenant in the given lane and within the deadline of the request,
+     * and to be told when the fetch of each work unit completes
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects to be fetched together asynchronously
+     * @param tenantID ID of the tenant (user or client) the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param deadline the RequestDeadline of the request the fetch is run for, or <code>null</code> if it has none
+     * @param completionListener a CompletionListener object to be told when each of the returned Futures is done, or <code>null</code>
+     * @return a List of Future of VolumeReader objects, one for each work unit and in the same order
+     */
+    public List<Future<VolumeReader>> submit(List<? extends RequestedItemCoordinates> itemCoordinatesList, String tenantID, boolean interactive,
+            RequestDeadline deadline, CompletionListener<VolumeReader> completionListener) {
+        CallableMultiVolumeFetcher callableMultiVolumeFetcher = new CallableMultiVolumeFetcher(itemCoordinatesList, volumeStore, pageContentCache,
+                completionListener, deadline);
+        if (retryScheduler != null) {
+            retryScheduler.submit(callableMultiVolumeFetcher, tenantID, interactive, deadline);
+        } else {
+            executorService.execute(new NotifyingFutureTask<Integer>(callableMultiVolumeFetcher, tenantID, interactive, null));
+        }
+        return callableMultiVolumeFetcher.getFutures();
+    }
+    
+    /**
+     * Method to look up the VolumeInfo of a List of volumes asynchronously with a single batch call to the VolumeStore, so a request can break down the
+     * volumes it is about to fetch without a round trip per volume on its own thread.  The lookup always goes in the interactive lane because it is small and
+     * the request waits for it before it can dispatch any page fetches of those volumes.  Like the page fetches, a failed lookup is rescheduled by the
+     * RetryScheduler if there is one
+     * @param volumeIDs a List of volumeIDs of the volumes whose VolumeInfo is to be looked up
+     * @param tenantID ID of the tenant (user or client) the lookup is run for, or <code>null</code> for the default tenant
+     * @param deadline the RequestDeadline of the request the lookup is run for, or <code>null</code> if it has none. No retry is scheduled past it
+     * @return a Future of a Map with volumeIDs as keys and VolumeInfo objects as values. A volume that does not exist is absent from the Map
+     */
+    public Future<Map<String, VolumeInfo>> submitVolumeInfoLookup(final List<String> volumeIDs, String tenantID, RequestDeadline deadline) {
+        Callable<Map<String, VolumeInfo>> callable = new Callable<Map<String, VolumeInfo>>() {
+            @Override
+            public Map<String, VolumeInfo> call() throws Exception {
+                return volumeStore.getVolumeInfos(volumeIDs);
+            }
+        };
+        volumeInfoLookupCount.incrementAndGet();
+        if (retryScheduler != null) {
+            return retryScheduler.submit(callable, tenantID, true, deadline, null);
+        }
+        NotifyingFutureTask<Map<String, VolumeInfo>> futureTask = new NotifyingFutureTask<Map<String, VolumeInfo>>(callable, tenantID, true, null);
+        executorService.execute(futureTask);
+        return futureTask;
+    }
+    
+    /**
+     * Method to cancel fetches nobody waits for any more, e.g. because the client went away. Fetches not started yet are not run, and fetches already
+     * running finish their current query but are not retried
+     * @param futures a List of Future of VolumeReader objects returned by the submit methods
+     * @return the number of fetches cancelled
+     */
+    public int cancel(List<Future<VolumeReader>> futures) {
+        int cancelledCount = 0;
+        for (Future<VolumeReader> future : futures) {
+            // not interrupted, so a Cassandra query already running is not broken off half way
+            if (future.cancel(false)) {
+                cancelledCount++;
+            }
+        }
+        
+        if (cancelledCount > 0) {
+            cancelledFetchCount.addAndGet(cancelledCount);
+            if (executorService instanceof ThreadPoolExecutor) {
+                ((ThreadPoolExecutor)executorService).purge();
+            }
+        }
+        return cancelledCount;
+    }
+    
+    /**
+     * Method to return the number of fetches cancelled
+     * @return the number of fetches cancelled
+     */
+    public long getCancelledFetchCount() {
+        return cancelledFetchCount.get();
+    }
+    
+    /**
+     * Method to return the number of asynchronous VolumeInfo lookups submitted
+     * @return the number of asynchronous VolumeInfo lookups submitted
+     */
+    public long getVolumeInfoLookupCount() {
+        return volumeInfoLookupCount.get();
     }
     
     /**
      * Method to dispose of resources such as the ExecutorService object
      */
     public void shutdown() {
+        log.info("AsyncFetchManager cancelledFetches: " + getCancelledFetchCount() + " volumeInfoLookups: " + getVolumeInfoLookupCount());
+        if (statsLogExecutorService != null) {
+            statsLogExecutorService.shutdownNow();
+        }
         this.executorService.shutdownNow();
+        if (executorService instanceof ElasticExecutorService) {
+            log.info(executorService.toString());
+        }
+        if (fairShareQueue != null) {
+            log.info(fairShareQueue.toString());
+        }
+        if (priorityLaneQueue != null) {
+            log.info(priorityLaneQueue.toString());
+        }
+        if (singleFlightFetcher != null) {
+            log.info(singleFlightFetcher.toString());
+        }
+        if (retryScheduler != null) {
+            retryScheduler.shutdown();
+            log.info(retryScheduler.toString());
+        }
+        if (pageContentCache != null) {
+            log.info(pageContentCache.toString());
+        }
+        if (adaptiveBatchSizer != null) {
+            log.info(adaptiveBatchSizer.toString());
+        }
+        if (byteBudget != null) {
+            log.info(byteBudget.toString());
+        }
     }
 
 }
@@ -0,0 +1,172 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  BudgetedVolumeReader.java
+# Description:  This class is a VolumeReader decorator that gives the bytes reserved for a fetch back to the ByteBudget as the pages are written out
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.List;
+
+import edu.indiana.d2i.htrc.access.VolumeReader;
+
+/**
+ * This class is a VolumeReader decorator that gives the bytes reserved for a fetch back to the ByteBudget as the pages are written out.  The share of a page is
+ * released when the next page is asked for, by which time the caller is done writing the page, and whatever is left is released once the caller finds no more
+ * pages or metadata, or when release() is called.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class BudgetedVolumeReader implements VolumeReader {
+    
+    protected final VolumeReader volumeReader;
+    protected final ByteBudget byteBudget;
+    protected final long bytesPerEntry;
+    protected long remainingBytes;
+    protected long pendingBytes;
+    
+    /**
+     * Constructor
+     * @param volumeReader the VolumeReader object to be decorated
+     * @param byteBudget the ByteBudget object the bytes were reserved from
+     * @param reservedBytes number of bytes reserved for the fetch
+     * @param entryCount number of pages and metadata entries the fetch asked for
+     */
+    public BudgetedVolumeReader(VolumeReader volumeReader, ByteBudget byteBudget, long reservedBytes, int entryCount) {
+        this.volumeReader = volumeReader;
+        this.byteBudget = byteBudget;
+        this.bytesPerEntry = reservedBytes / Math.max(1, entryCount);
+        this.remainingBytes = reservedBytes;
+        this.pendingBytes = 0;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#getVolumeID()
+     */
+    @Override
+    public String getVolumeID() {
+        return volumeReader.getVolumeID();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#getPairtreeCleanedVolumeID()
+     */
+    @Override
+    public String getPairtreeCleanedVolumeID() {
+        return volumeReader.getPairtreeCleanedVolumeID();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#nextPage()
+     */
+    @Override
+    public ContentReader nextPage() {
+        releasePending();
+        ContentReader contentReader = volumeReader.nextPage();
+        holdPending();
+        return contentReader;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#hasMorePages()
+     */
+    @Override
+    public boolean hasMorePages() {
+        boolean morePages = volumeReader.hasMorePages();
+        if (!morePages && !volumeReader.hasMoreMetadata()) {
+            release();
+        }
+        return morePages;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#setPages(java.util.List)
+     */
+    @Override
+    public void setPages(List<ContentReader> pageReaders) {
+        volumeReader.setPages(pageReaders);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#nextMetadata()
+     */
+    @Override
+    public ContentReader nextMetadata() {
+        releasePending();
+        ContentReader contentReader = volumeReader.nextMetadata();
+        holdPending();
+        return contentReader;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#hasMoreMetadata()
+     */
+    @Override
+    public boolean hasMoreMetadata() {
+        boolean moreMetadata = volumeReader.hasMoreMetadata();
+        if (!moreMetadata && !volumeReader.hasMorePages()) {
+            release();
+        }
+        return moreMetadata;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader#setMetadata(java.util.List)
+     */
+    @Override
+    public void setMetadata(List<ContentReader> metadataReaders) {
+        volumeReader.setMetadata(metadataReaders);
+    }
+    
+    /**
+     * Method to release all bytes still reserved for the fetch.  It is safe to call more than once
+     */
+    public synchronized void release() {
+        byteBudget.release(remainingBytes);
+        remainingBytes = 0;
+        pendingBytes = 0;
+    }
+    
+    /**
+     * Method to release the share of the entry handed out last
+     */
+    protected synchronized void releasePending() {
+        byteBudget.release(pendingBytes);
+        remainingBytes -= pendingBytes;
+        pendingBytes = 0;
+    }
+    
+    /**
+     * Method to mark the share of the entry just handed out as to be released with the next entry
+     */
+    protected synchronized void holdPending() {
+        pendingBytes = Math.min(bytesPerEntry, remainingBytes);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ByteBudget.java
+# Description:  This class bounds the number of page bytes fetched but not yet written out, across all requests
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+/**
+ * This class bounds the number of page bytes fetched but not yet written out, across all requests.  Fetches reserve an estimate of their bytes before they are
+ * dispatched, and the bytes are released as the pages are written out, so the fetches can only run as far ahead of the slowest clients as the budget allows,
+ * instead of buffering page bytes without limit.
+ * 
+ * A reservation larger than the whole budget is granted when nothing else is in flight, so no fetch can be starved forever.  A caller waits no longer than
+ * the maximum wait time, or the time left before the deadline of its request, and then gets nothing, so the budget is never overdrawn.  Releasing more bytes
+ * than are reserved is a bookkeeping error and fails right away.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ByteBudget {
+    
+    protected final long maxBytes;
+    protected final long maxWait;
+    protected long inFlightBytes;
+    protected long peakInFlightBytes;
+    protected long waitCount;
+    protected long timeoutCount;
+    
+    /**
+     * Constructor
+     * @param maxBytes maximum number of bytes in flight
+     * @param maxWait maximum number of milliseconds a caller waits for its reservation before it gives up
+     */
+    public ByteBudget(long maxBytes, long maxWait) {
+        this.maxBytes = maxBytes;
+        this.maxWait = maxWait;
+        this.inFlightBytes = 0;
+        this.peakInFlightBytes = 0;
+        this.waitCount = 0;
+        this.timeoutCount = 0;
+    }
+    
+    /**
+     * Method to reserve bytes if the budget allows it, without waiting
+     * @param bytes number of bytes to reserve
+     * @return <code>true</code> if the bytes are reserved, <code>false</code> if the budget does not allow it right now
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        if (!fits(bytes)) {
+            return false;
+        }
+        grant(bytes);
+        return true;
+    }
+    
+    /**
+     * Method to reserve bytes, waiting until the budget allows it or until the maximum wait time is up
+     * @param bytes number of bytes to reserve
+     * @return <code>true</code> if the bytes are reserved, <code>false</code> if the budget did not allow it within the maximum wait time
+     */
+    public boolean acquire(long bytes) {
+        return acquire(bytes, maxWait);
+    }
+    
+    /**
+     * Method to reserve bytes, waiting until the budget allows it or until the given wait time, capped at the maximum wait time, is up.  If the calling
+     * thread is interrupted while waiting, it stops waiting and keeps its interrupted status
+     * @param bytes number of bytes to reserve
+     * @param timeout maximum number of milliseconds to wait, e.g. the time left before the deadline of the request
+     * @return <code>true</code> if the bytes are reserved, <code>false</code> if the budget did not allow it in time, in which case nothing is reserved
+     */
+    public synchronized boolean acquire(long bytes, long timeout) {
+        if (!fits(bytes)) {
+            waitCount++;
+            long remaining = Math.min(timeout, maxWait);
+            long deadline = System.currentTimeMillis() + remaining;
+            try {
+                while (!fits(bytes) && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            
+            if (!fits(bytes)) {
+                timeoutCount++;
+                return false;
+            }
+        }
+        grant(bytes);
+        return true;
+    }
+    
+    /**
+     * Method to release bytes reserved earlier
+     * @param bytes number of bytes to release
+     * @throws IllegalStateException thrown if more bytes are released than are reserved
+     */
+    public synchronized void release(long bytes) {
+        if (bytes > 0) {
+            if (bytes > inFlightBytes) {
+                throw new IllegalStateException("Releasing " + bytes + " bytes but only " + inFlightBytes + " bytes are reserved");
+            }
+            inFlightBytes -= bytes;
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Method to return the number of bytes currently reserved
+     * @return the number of bytes currently reserved
+     */
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+    
+    /**
+     * Method to return the number of reservations that had to wait
+     * @return the number of reservations that had to wait
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+    
+    /**
+     * Method to return the number of reservations given up after waiting for the maximum wait time or until the deadline of the request
+     * @return the number of reservations that timed out
+     */
+    public synchronized long getTimeoutCount() {
+        return timeoutCount;
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "ByteBudget maxBytes: " + maxBytes + " inFlightBytes: " + inFlightBytes + " peakInFlightBytes: " + peakInFlightBytes + " waits: " + waitCount
+                + " timeouts: " + timeoutCount;
+    }
+    
+    /**
+     * Method to check if a reservation fits into the budget.  Must be called with the lock held
+     * @param bytes number of bytes to reserve
+     * @return <code>true</code> if the reservation fits, <code>false</code> otherwise
+     */
+    protected boolean fits(long bytes) {
+        return inFlightBytes == 0 || inFlightBytes + bytes <= maxBytes;
+    }
+    
+    /**
+     * Method to record a granted reservation.  Must be called with the lock held
+     * @param bytes number of bytes reserved
+     */
+    protected void grant(long bytes) {
+        inFlightBytes += bytes;
+        peakInFlightBytes = Math.max(peakInFlightBytes, inFlightBytes);
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CallableMultiVolumeFetcher.java
+# Description:  This class implements the Callable interface and fetches the pages of several volumes with a single multiget
+#
+# -----------------------------------------------------------------
+#
+*/
+
+
+
+/**
+ *
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.Constants;
+import edu.indiana.d2i.htrc.access.RequestDeadline;
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.PageContentCache;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
+
+/**
+ * This class implements the Callable interface and fetches the pages of several volumes with a single multiget, so that many small work units do not each pay
+ * for a separate round trip to the VolumeStore.  Each work unit still gets its own Future, which completes with either a VolumeReader or the Exception specific to
+ * that work unit, once the shared fetch is finished.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class CallableMultiVolumeFetcher implements Callable<Integer>, FairShareQueue.PageCountedTask {
+
+    private static final Logger log = Logger.getLogger(CallableMultiVolumeFetcher.class);
+
+    /**
+     * This class hands out the share of the multiget result that belongs to one work unit
+     *
+     * @author Yiming Sun
+     *
+     */
+    protected class WorkUnitCallable implements Callable<VolumeReader> {
+        protected final WeakReference<RequestedItemCoordinates> idWeakReference;
+
+        /**
+         * Constructor
+         * @param itemCoordinates a RequestedItemCoordinates object as the work unit
+         */
+        protected WorkUnitCallable(RequestedItemCoordinates itemCoordinates) {
+            this.idWeakReference = new WeakReference<RequestedItemCoordinates>(itemCoordinates);
+        }
+
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public VolumeReader call() throws Exception {
+            if (repositoryException != null) {
+                throw repositoryException;
+            }
+
+            VolumeReaderImpl volumeReaderImpl = null;
+            RequestedItemCoordinates itemCoordinates = idWeakReference.get();
+            if (itemCoordinates != null) {
+                String volumeID = itemCoordinates.getVolumeID();
+                List<String> pageSequences = itemCoordinates.getPageSequences();
+                List<ContentReader> pageContents = contentReadersMap.get(volumeID);
+                if (pageContents == null) {
+                    throw new KeyNotFoundException(volumeID);
+                }
+
+                if (pageContents.size() < pageSequences.size()) {
+                    int index = 0;
+                    while (index < pageContents.size() && pageContents.get(index).getContentName().equals(pageSequences.get(index))) {
+                        index++;
+                    }
+                    log.error("Page count mismatch. Expected " + pageSequences.size() + " Actual: " + pageContents.size());
+                    throw new KeyNotFoundException(volumeID + Constants.PAGE_SEQ_START_MARK + pageSequences.get(index) + Constants.PAGE_SEQ_END_MARK);
+                }
+
+                volumeReaderImpl = new VolumeReaderImpl(itemCoordinates);
+                volumeReaderImpl.setPages(pageContents);
+            } else {
+                if (log.isDebugEnabled()) log.debug("An identifier went away");
+            }
+            return volumeReaderImpl;
+        }
+    }
+
+    private final List<WeakReference<RequestedItemCoordinates>> idWeakReferences;
+    private final List<NotifyingFutureTask<VolumeReader>> futureTasks;
+    private final VolumeStore volumeStore;
+    private final PageContentCache pageContentCache;
+    private final RequestDeadline deadline;
+    private final int pageCount;
+
+    // both fields are written before the FutureTasks are run, and the FutureTasks publish them safely to the consumers
+    private Map<String, List<ContentReader>> contentReadersMap;
+    private RepositoryException repositoryException;
+
+    /**
+     * Constructor
+     *
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects as the work units to be fetched together.  Each work unit must refer to a different
+     * volume and must only ask for pages.
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @param pageContentCache a PageContentCache object to serve pages from, or <code>null</code> if page content caching is disabled
+     */
+    public CallableMultiVolumeFetcher(List<? extends RequestedItemCoordinates> itemCoordinatesList, VolumeStore volumeStore, PageContentCache pageContentCache) {
+        this(itemCoordinatesList, volumeStore, pageContentCache, null);
+    }
+    
+    /**
+     * Constructor
+     *
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects as the work units to be fetched together.  Each work unit must refer to a different
+     * volume and must only ask for pages.
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @param pageContentCache a PageContentCache object to serve pages from, or <code>null</code> if page content caching is disabled
+     * @param completionListener a CompletionListener object to be told when the Future of each work unit is done, or <code>null</code>
+     */
+    public CallableMultiVolumeFetcher(List<? extends RequestedItemCoordinates> itemCoordinatesList, VolumeStore volumeStore, PageContentCache pageContentCache,
+            CompletionListener<VolumeReader> completionListener) {
+        this(itemCoordinatesList, volumeStore, pageContentCache, completionListener, null);
+    }
+    
+    /**
+     * Constructor
+     *
+     * @param itemCoordinatesList a List of RequestedItemCoordinates objects as the work units to be fetched together.  Each work unit must refer to a different
+     * volume and must only ask for pages.
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @param pageContentCache a PageContentCache object to serve pages from, or <code>null</code> if page content caching is disabled
+     * @param completionListener a CompletionListener object to be told when the Future of each work unit is done, or <code>null</code>
+     * @param deadline the RequestDeadline of the request the work units are fetched for, or <code>null</code> if it has none
+     */
+    public CallableMultiVolumeFetcher(List<? extends RequestedItemCoordinates> itemCoordinatesList, VolumeStore volumeStore, PageContentCache pageContentCache,
+            CompletionListener<VolumeReader> completionListener, RequestDeadline deadline) {
+        this.deadline = deadline;
+        this.idWeakReferences = new ArrayList<WeakReference<RequestedItemCoordinates>>(itemCoordinatesList.size());
+        this.futureTasks = new ArrayList<NotifyingFutureTask<VolumeReader>>(itemCoordinatesList.size());
+        this.volumeStore = volumeStore;
+        this.pageContentCache = pageContentCache;
+        this.contentReadersMap = Collections.emptyMap();
+        this.repositoryException = null;
+
+        int pageCount = 0;
+        for (RequestedItemCoordinates itemCoordinates : itemCoordinatesList) {
+            idWeakReferences.add(new WeakReference<RequestedItemCoordinates>(itemCoordinates));
+            futureTasks.add(new NotifyingFutureTask<VolumeReader>(new WorkUnitCallable(itemCoordinates), completionListener));
+            List<String> pageSequences = itemCoordinates.getPageSequences();
+            pageCount += (pageSequences != null) ? pageSequences.size() : 0;
+        }
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * Method to return the total number of pages of the work units
+     * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.PageCountedTask#getPageCount()
+     */
+    @Override
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Method to return the Future objects of the work units, in the same order as the work units were given to the constructor
+     * @return a List of Future of VolumeReader objects
+     */
+    public List<Future<VolumeReader>> getFutures() {
+        return new ArrayList<Future<VolumeReader>>(futureTasks);
+    }
+
+    /**
+     * @see java.util.concurrent.Callable#call()
+     */
+    @Override
+    public Integer call() throws Exception {
+        int volumeCount = 0;
+        try {
+            volumeCount = fetch();
+        } catch (RepositoryException e) {
+            repositoryException = e;
+        } finally {
+            completeFutures();
+        }
+        return volumeCount;
+    }
+    
+    /**
+     * Method to fetch the pages of all work units without completing their Futures, so a caller may retry a failed fetch before calling completeFutures
+     * @return the number of volumes fetched
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public int fetch() throws RepositoryException {
+        if (isCancelled()) {
+            if (log.isDebugEnabled()) log.debug("All work units cancelled");
+            return 0;
+        }
+        
+        Map<String, List<String>> volumePageSequences = new LinkedHashMap<String, List<String>>();
+        for (WeakReference<RequestedItemCoordinates> idWeakReference : idWeakReferences) {
+            RequestedItemCoordinates itemCoordinates = idWeakReference.get();
+            if (itemCoordinates != null) {
+                volumePageSequences.put(itemCoordinates.getVolumeID(), itemCoordinates.getPageSequences());
+            }
+        }
+
+        if (deadline != null) {
+            if (deadline.isExpired()) {
+                throw new DeadlineExceededException("Request deadline of " + deadline.getTimeout() + " ms passed before the fetch started");
+            }
+            RequestDeadline.setCurrent(deadline);
+        }
+        
+        try {
+            if (!volumePageSequences.isEmpty()) {
+                contentReadersMap = (pageContentCache != null) ? pageContentCache.retrievePageContents(volumePageSequences, volumeStore)
+                        : volumeStore.retrievePageContents(volumePageSequences);
+            } else {
+                if (log.isDebugEnabled()) log.debug("All identifiers went away");
+            }
+        } catch (RuntimeException e) {
+            log.error("Unexpected failure while multigetting page contents", e);
+            throw new RepositoryException("Retrieving page contents failed. VolumeIDs: " + volumePageSequences.keySet(), e);
+        } finally {
+            if (deadline != null) {
+                RequestDeadline.clearCurrent();
+            }
+        }
+
+        return volumePageSequences.size();
+    }
+    
+    /**
+     * Method to check if the Futures of all work units have been cancelled, in which case there is no point in fetching
+     * @return <code>true</code> if all work units have been cancelled, <code>false</code> otherwise
+     */
+    public boolean isCancelled() {
+        for (NotifyingFutureTask<VolumeReader> futureTask : futureTasks) {
+            if (!futureTask.isCancelled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Method to complete the Futures of all work units with the result of the last fetch
+     */
+    public void completeFutures() {
+        for (NotifyingFutureTask<VolumeReader> futureTask : futureTasks) {
+            futureTask.run();
+        }
+    }
+    
+    /**
+     * Method to complete the Futures of all work units with an exception, after the fetch failed for good
+     * @param repositoryException the RepositoryException to be thrown by all Futures
+     */
+    public void fail(RepositoryException repositoryException) {
+        this.repositoryException = repositoryException;
+        completeFutures();
+    }
+
+}
@@ -37,10 +37,13 @@ import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.RequestDeadline;
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
-import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+import edu.indiana.d2i.htrc.access.read.PageContentCache;
 import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
 
 
@@ -50,23 +53,53 @@ import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
  * @author Yiming Sun
  *
  */
-public class CallableVolumeFetcher implements Callable<VolumeReader> {
+public class CallableVolumeFetcher implements Callable<VolumeReader>, FairShareQueue.PageCountedTask {
 
     private static final Logger log = Logger.getLogger(CallableVolumeFetcher.class);
     
     private final WeakReference<RequestedItemCoordinates> idWeakReference;
-    private final HectorResource hectorResource;
+    private final VolumeStore volumeStore;
+    private final PageContentCache pageContentCache;
+    private final RequestDeadline deadline;
+    private final int pageCount;
     
     /**
      * Constructor
      * 
      * @param itemIdentifier an HTRCItemIdentifier object as the identifier of the item to be fetched
-     * @param hectorResource an HectorResource object for communication with Cassandra
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @param pageContentCache a PageContentCache object to serve pages from, or <code>null</code> if page content caching is disabled
      */
-    public CallableVolumeFetcher(RequestedItemCoordinates itemIdentifier, HectorResource hectorResource) {
+    public CallableVolumeFetcher(RequestedItemCoordinates itemIdentifier, VolumeStore volumeStore, PageContentCache pageContentCache) {
+        this(itemIdentifier, volumeStore, pageContentCache, null);
+    }
+    
+    /**
+     * Constructor
+     * 
+     * @param itemIdentifier an HTRCItemIdentifier object as the identifier of the item to be fetched
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @param pageContentCache a PageContentCache object to serve pages from, or <code>null</code> if page content caching is disabled
+     * @param deadline the RequestDeadline of the request the item is fetched for, or <code>null</code> if it has none
+     */
+    public CallableVolumeFetcher(RequestedItemCoordinates itemIdentifier, VolumeStore volumeStore, PageContentCache pageContentCache, RequestDeadline deadline) {
         this.idWeakReference = new WeakReference<RequestedItemCoordinates>(itemIdentifier);
-        this.hectorResource = hectorResource;
+        this.volumeStore = volumeStore;
+        this.pageContentCache = pageContentCache;
+        this.deadline = deadline;
         
+        List<String> pageSequences = itemIdentifier.getPageSequences();
+        List<String> metadataNames = itemIdentifier.getMetadataNames();
+        this.pageCount = ((pageSequences != null) ? pageSequences.size() : 0) + ((metadataNames != null) ? metadataNames.size() : 0);
+    }
+    
+    /**
+     * Method to return the number of pages and metadata entries the fetch asks for
+     * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.PageCountedTask#getPageCount()
+     */
+    @Override
+    public int getPageCount() {
+        return pageCount;
     }
     
     /**
@@ -74,6 +107,27 @@ public class CallableVolumeFetcher implements Callable<VolumeReader> {
      */
     @Override
     public VolumeReader call() throws Exception {
+        if (deadline == null) {
+            return fetch();
+        }
+        
+        if (deadline.isExpired()) {
+            throw new DeadlineExceededException("Request deadline of " + deadline.getTimeout() + " ms passed before the fetch started");
+        }
+        RequestDeadline.setCurrent(deadline);
+        try {
+            return fetch();
+        } finally {
+            RequestDeadline.clearCurrent();
+        }
+    }
+    
+    /**
+     * Method to fetch the item from the VolumeStore
+     * @return a VolumeReader object holding the fetched content, or <code>null</code> if the identifier went away
+     * @throws Exception thrown if the fetch failed
+     */
+    protected VolumeReader fetch() throws Exception {
         RequestedItemCoordinates itemIdentifier = idWeakReference.get();
         VolumeReaderImpl volumeReaderImpl = null;
         if (itemIdentifier != null) {
@@ -82,14 +136,15 @@ public class CallableVolumeFetcher implements Callable<VolumeReader> {
             
             List<String> pageSequences = itemIdentifier.getPageSequences();
             if (pageSequences != null) {
-                List<ContentReader> pageContents = hectorResource.retrievePageContents(volumeID, pageSequences);
+                List<ContentReader> pageContents = (pageContentCache != null) ? pageContentCache.retrievePageContents(volumeID, pageSequences, volumeStore)
+                        : volumeStore.retrievePageContents(volumeID, pageSequences);
                 volumeReaderImpl.setPages(pageContents);
             }
             
             
             List<String> metadataNames = itemIdentifier.getMetadataNames();
             if (metadataNames != null) {
-                List<ContentReader> metadataContents = hectorResource.retrieveMetadata(volumeID, metadataNames);
+                List<ContentReader> metadataContents = volumeStore.retrieveMetadata(volumeID, metadataNames);
                 volumeReaderImpl.setMetadata(metadataContents);
             }
         } else {
@@ -0,0 +1,50 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CompletionListener.java
+# Description:  This is an interface for being told when an async fetch completes
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.concurrent.Future;
+
+/**
+ * This is an interface for being told when an async fetch completes, whether it succeeded, failed or was cancelled
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface CompletionListener<V> {
+    
+    /**
+     * Method called once the Future of an async fetch is done, so get() on it does not block
+     * @param future the Future object that has completed
+     */
+    public void completed(Future<V> future);
+
+}
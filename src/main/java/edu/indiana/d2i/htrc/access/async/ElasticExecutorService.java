@@ -0,0 +1,235 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ElasticExecutorService.java
+# Description:  This class is an ExecutorService that runs each task on a thread of its own, with the number of concurrent tasks bounded by a semaphore
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is an ExecutorService that runs each task on a thread of its own, with the number of concurrent tasks bounded by a semaphore instead of by the
+ * size of a fixed pool.  Threads are created as tasks arrive, are reused while there is work, and go away after being idle, so a large bound (e.g. thousands of
+ * blocking Cassandra reads) only costs threads while the load is actually there.  Tasks over the bound wait in a queue, not on a thread.
+ * 
+ * The service is compiled for Java 7, which has no virtual threads (they arrived in Java 21), so every running task still takes a platform thread with a
+ * stack of its own.  The bound is therefore what keeps the memory in check, and it should be sized to the stacks the JVM can afford rather than to the
+ * number of requests that might be blocked at once.
+ * 
+ * As with a ThreadPoolExecutor, shutdown stops new tasks from being accepted but still runs the tasks waiting in the queue, and the service only terminates
+ * once the queue is empty and no task is running.  shutdownNow takes the waiting tasks out of the queue and returns them without running them.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ElasticExecutorService extends AbstractExecutorService {
+    
+    public static final String EXECUTION_MODE_FIXED = "fixed";
+    public static final String EXECUTION_MODE_ELASTIC = "elastic";
+    protected static final long IDLE_THREAD_TIMEOUT = 60L;
+    
+    protected final int maxConcurrentTasks;
+    protected final Semaphore permits;
+    protected final BlockingQueue<Runnable> pendingQueue;
+    protected final ThreadPoolExecutor threadPoolExecutor;
+    
+    protected final AtomicLong executedCount;
+    protected final AtomicLong queuedCount;
+    
+    protected volatile boolean shutdown;
+    protected volatile boolean stopped;
+    
+    /**
+     * Constructor
+     * @param maxConcurrentTasks maximum number of tasks running at the same time
+     * @param pendingQueue a BlockingQueue object holding the tasks waiting for a permit. The order in which it hands out tasks is the order they are run in
+     */
+    public ElasticExecutorService(int maxConcurrentTasks, BlockingQueue<Runnable> pendingQueue) {
+        this.maxConcurrentTasks = maxConcurrentTasks;
+        this.permits = new Semaphore(maxConcurrentTasks);
+        this.pendingQueue = pendingQueue;
+        this.threadPoolExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        
+        this.executedCount = new AtomicLong(0);
+        this.queuedCount = new AtomicLong(0);
+        this.shutdown = false;
+        this.stopped = false;
+    }
+    
+    /**
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("ElasticExecutorService is shut down");
+        }
+        if (!pendingQueue.offer(command)) {
+            throw new RejectedExecutionException("Pending queue of ElasticExecutorService is full");
+        }
+        if (!startPendingTasks()) {
+            queuedCount.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Method to start as many pending tasks as there are permits available
+     * @return <code>true</code> if any task was started, <code>false</code> otherwise
+     */
+    protected boolean startPendingTasks() {
+        boolean started = false;
+        
+        // a permit released between the poll and the release below is picked up by the next iteration, so no task is left behind in the queue
+        while (!stopped && !pendingQueue.isEmpty() && permits.tryAcquire()) {
+            final Runnable task = pendingQueue.poll();
+            if (task == null) {
+                // taken by another thread, or held back by the queue, e.g. a bulk task while the permits kept for interactive tasks are all that is left
+                permits.release();
+                break;
+            }
+            
+            try {
+                threadPoolExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                            executedCount.incrementAndGet();
+                            startPendingTasks();
+                            tryTerminate();
+                        }
+                    }
+                });
+                started = true;
+            } catch (RejectedExecutionException e) {
+                // shut down while starting the task
+                permits.release();
+                throw e;
+            }
+        }
+        return started;
+    }
+    
+    /**
+     * Method to shut down the threads once the service is shut down, no task is waiting in the queue and no task is running.  Until then the threads keep
+     * taking the waiting tasks, so that the tasks accepted before the shutdown are all run
+     */
+    protected void tryTerminate() {
+        if (shutdown && pendingQueue.isEmpty() && permits.availablePermits() == maxConcurrentTasks) {
+            threadPoolExecutor.shutdown();
+        }
+    }
+    
+    /**
+     * Method to stop accepting tasks.  The tasks waiting in the queue are still run, and the service terminates after the last of them is done
+     * @see java.util.concurrent.ExecutorService#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tryTerminate();
+    }
+    
+    /**
+     * Method to stop accepting tasks, take the tasks waiting in the queue out of it without running them, and interrupt the running tasks
+     * @see java.util.concurrent.ExecutorService#shutdownNow()
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        stopped = true;
+        List<Runnable> pendingTasks = new ArrayList<Runnable>();
+        pendingQueue.drainTo(pendingTasks);
+        threadPoolExecutor.shutdownNow();
+        return pendingTasks;
+    }
+    
+    /**
+     * @see java.util.concurrent.ExecutorService#isShutdown()
+     */
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+    
+    /**
+     * Method to tell if all tasks are done after a shutdown.  The threads are only shut down once no task is waiting or running, so this does not return
+     * <code>true</code> while tasks accepted before the shutdown are still waiting in the queue
+     * @see java.util.concurrent.ExecutorService#isTerminated()
+     */
+    @Override
+    public boolean isTerminated() {
+        return shutdown && threadPoolExecutor.isTerminated();
+    }
+    
+    /**
+     * @see java.util.concurrent.ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threadPoolExecutor.awaitTermination(timeout, unit);
+    }
+    
+    /**
+     * Method to return the number of tasks currently running
+     * @return the number of tasks currently running
+     */
+    public int getRunningCount() {
+        return maxConcurrentTasks - permits.availablePermits();
+    }
+    
+    /**
+     * Method to return the largest number of threads that have existed at the same time
+     * @return the largest number of threads
+     */
+    public int getLargestThreadCount() {
+        return threadPoolExecutor.getLargestPoolSize();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ElasticExecutorService maxConcurrentTasks: " + maxConcurrentTasks + " running: " + getRunningCount() + " pending: " + pendingQueue.size()
+                + " executed: " + executedCount.get() + " queued: " + queuedCount.get() + " largestThreadCount: " + getLargestThreadCount();
+    }
+
+}
@@ -0,0 +1,613 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FairShareQueue.java
+# Description:  This class is a work queue for the async workers that takes turns between tenants instead of serving tasks first come first served
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a work queue for the async workers that takes turns between tenants (users or clients) instead of serving tasks first come first served.
+ * Each tenant has its own FIFO queue, and the tenants with queued tasks are served by deficit round robin: at the start of its turn a tenant is credited
+ * quantum pages, and it keeps taking tasks while its credit covers the page count of its next task.  A task is charged the number of pages it fetches, so
+ * a tenant sending 1000-page multi-volume batches gets the same share of pages fetched as a tenant asking for single pages, and the single page does not
+ * queue behind the whole download.
+ * 
+ * The tenant of a task is given by the TenantTask interface; tasks not implementing it belong to the default tenant.  The page count of a task is given by
+ * the PageCountedTask interface; tasks not implementing it count as one page.  The queue of a tenant is dropped as soon as its last task is taken, so only
+ * tenants with queued tasks are held.  Queue depth, pages and wait time are tracked for the most recently active tenants, up to MAX_TRACKED_TENANTS of
+ * them, so fairness can be verified under load.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class FairShareQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    
+    public static final String DEFAULT_TENANT_ID = "anonymous";
+    public static final int DEFAULT_QUANTUM = 1;
+    
+    protected static final int MAX_TRACKED_TENANTS = 256;
+    
+    /**
+     * This is an interface for tasks that know the tenant they are run for
+     * @author Yiming Sun
+     *
+     */
+    public static interface TenantTask {
+        
+        /**
+         * Method to return the ID of the tenant the task is run for
+         * @return the tenant ID, or <code>null</code> for the default tenant
+         */
+        public String getTenantID();
+    }
+    
+    /**
+     * This is an interface for tasks, and the Callable objects run by tasks, that know how many pages they fetch
+     * @author Yiming Sun
+     *
+     */
+    public static interface PageCountedTask {
+        
+        /**
+         * Method to return the number of pages the task fetches, which is what the task is charged in its turn
+         * @return the number of pages the task fetches
+         */
+        public int getPageCount();
+    }
+    
+    /**
+     * This class is a queued task with the time it was queued
+     * @author Yiming Sun
+     *
+     */
+    protected static class QueuedTask {
+        protected final Runnable runnable;
+        protected final int pageCount;
+        protected final long enqueueTime;
+        
+        /**
+         * Constructor
+         * @param runnable the task
+         * @param pageCount number of pages the task is charged
+         * @param enqueueTime time in milliseconds at which the task was queued
+         */
+        protected QueuedTask(Runnable runnable, int pageCount, long enqueueTime) {
+            this.runnable = runnable;
+            this.pageCount = pageCount;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+    
+    /**
+     * This class is the queue of one tenant with queued tasks together with its deficit
+     * @author Yiming Sun
+     *
+     */
+    protected static class TenantQueue {
+        protected final String tenantID;
+        protected final LinkedList<QueuedTask> queuedTasks;
+        protected long deficit;
+        protected boolean inTurn;
+        
+        /**
+         * Constructor
+         * @param tenantID ID of the tenant
+         */
+        protected TenantQueue(String tenantID) {
+            this.tenantID = tenantID;
+            this.queuedTasks = new LinkedList<QueuedTask>();
+            this.deficit = 0;
+            this.inTurn = false;
+        }
+    }
+    
+    /**
+     * This class holds the statistics of one tenant
+     * @author Yiming Sun
+     *
+     */
+    protected static class TenantStats {
+        protected long dequeuedCount;
+        protected long dequeuedPages;
+        protected long totalWaitTime;
+        protected long maxWaitTime;
+    }
+    
+    protected final int quantum;
+    protected final ReentrantLock lock;
+    protected final Condition notEmpty;
+    
+    // guarded by lock
+    protected final Map<String, TenantQueue> tenantQueueMap;
+    protected final LinkedList<TenantQueue> activeTenantQueues;
+    protected final Map<String, TenantStats> tenantStatsMap;
+    protected int count;
+    
+    /**
+     * Constructor that credits each tenant DEFAULT_QUANTUM pages per turn
+     */
+    public FairShareQueue() {
+        this(DEFAULT_QUANTUM);
+    }
+    
+    /**
+     * Constructor
+     * @param quantum number of pages a tenant is credited at the start of each turn
+     */
+    public FairShareQueue(int quantum) {
+        this.quantum = Math.max(1, quantum);
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.tenantQueueMap = new HashMap<String, TenantQueue>();
+        this.activeTenantQueues = new LinkedList<TenantQueue>();
+        // access-ordered, so the statistics of the tenants not seen for the longest time are dropped first
+        this.tenantStatsMap = new LinkedHashMap<String, TenantStats>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TenantStats> eldest) {
+                return size() > MAX_TRACKED_TENANTS;
+            }
+        };
+        this.count = 0;
+    }
+    
+    /**
+     * Method to return the tenant ID of a task
+     * @param runnable a task
+     * @return the tenant ID of the task
+     */
+    protected static String getTenantID(Runnable runnable) {
+        String tenantID = (runnable instanceof TenantTask) ? ((TenantTask)runnable).getTenantID() : null;
+        return (tenantID != null) ? tenantID : DEFAULT_TENANT_ID;
+    }
+    
+    /**
+     * Method to return the number of pages a task, or the Callable object run by a task, fetches
+     * @param task a task or a Callable object
+     * @return the page count given by the PageCountedTask interface, or 1 if the task does not implement it. Never less than 1
+     */
+    public static int getPageCount(Object task) {
+        int pageCount = (task instanceof PageCountedTask) ? ((PageCountedTask)task).getPageCount() : 1;
+        return Math.max(1, pageCount);
+    }
+    
+    /**
+     * @see java.util.Queue#offer(java.lang.Object)
+     */
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        String tenantID = getTenantID(runnable);
+        
+        lock.lock();
+        try {
+            TenantQueue tenantQueue = tenantQueueMap.get(tenantID);
+            if (tenantQueue == null) {
+                tenantQueue = new TenantQueue(tenantID);
+                tenantQueueMap.put(tenantID, tenantQueue);
+                activeTenantQueues.addLast(tenantQueue);
+            }
+            tenantQueue.queuedTasks.addLast(new QueuedTask(runnable, getPageCount(runnable), System.currentTimeMillis()));
+            getTenantStats(tenantID);
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+    
+    /**
+     * Method to take the next task in deficit round robin order. The tenant at the head is credited quantum pages when its turn starts, and keeps the turn
+     * while its deficit covers the page count of its next task; otherwise the turn passes to the next tenant and the deficit is kept for its next turn.
+     * The caller must hold the lock and the queue must not be empty
+     * @return the next task
+     */
+    protected Runnable dequeue() {
+        int passedTurns = 0;
+        while (true) {
+            TenantQueue tenantQueue = activeTenantQueues.getFirst();
+            if (!tenantQueue.inTurn) {
+                tenantQueue.deficit += quantum;
+                tenantQueue.inTurn = true;
+            }
+            
+            QueuedTask queuedTask = tenantQueue.queuedTasks.getFirst();
+            if (queuedTask.pageCount > tenantQueue.deficit) {
+                tenantQueue.inTurn = false;
+                activeTenantQueues.addLast(activeTenantQueues.removeFirst());
+                if (++passedTurns == activeTenantQueues.size()) {
+                    skipEmptyRounds();
+                    passedTurns = 0;
+                }
+                continue;
+            }
+            
+            tenantQueue.queuedTasks.removeFirst();
+            tenantQueue.deficit -= queuedTask.pageCount;
+            if (tenantQueue.queuedTasks.isEmpty()) {
+                // a tenant with nothing queued keeps no credit and no queue
+                removeTenantQueue(tenantQueue);
+            }
+            count--;
+            
+            long waitTime = System.currentTimeMillis() - queuedTask.enqueueTime;
+            TenantStats tenantStats = getTenantStats(tenantQueue.tenantID);
+            tenantStats.dequeuedCount++;
+            tenantStats.dequeuedPages += queuedTask.pageCount;
+            tenantStats.totalWaitTime += waitTime;
+            if (waitTime > tenantStats.maxWaitTime) {
+                tenantStats.maxWaitTime = waitTime;
+            }
+            return queuedTask.runnable;
+        }
+    }
+    
+    /**
+     * Method to credit all tenants at once with the rounds that would pass before any of them could take its next task, after a whole round in which none
+     * could, so a task of many more pages than the quantum does not cost a pass through the tenants per quantum.  The caller must hold the lock
+     */
+    protected void skipEmptyRounds() {
+        long emptyRounds = Long.MAX_VALUE;
+        for (TenantQueue tenantQueue : activeTenantQueues) {
+            long shortfall = tenantQueue.queuedTasks.getFirst().pageCount - tenantQueue.deficit;
+            emptyRounds = Math.min(emptyRounds, (shortfall + quantum - 1) / quantum - 1);
+        }
+        if (emptyRounds > 0) {
+            for (TenantQueue tenantQueue : activeTenantQueues) {
+                tenantQueue.deficit += emptyRounds * quantum;
+            }
+        }
+    }
+    
+    /**
+     * Method to drop the queue of a tenant that has no more queued tasks. The caller must hold the lock
+     * @param tenantQueue the TenantQueue object of the tenant
+     */
+    protected void removeTenantQueue(TenantQueue tenantQueue) {
+        activeTenantQueues.remove(tenantQueue);
+        tenantQueueMap.remove(tenantQueue.tenantID);
+    }
+    
+    /**
+     * Method to get the statistics of a tenant, starting them if the tenant is not tracked. The caller must hold the lock
+     * @param tenantID ID of the tenant
+     * @return the TenantStats object of the tenant
+     */
+    protected TenantStats getTenantStats(String tenantID) {
+        TenantStats tenantStats = tenantStatsMap.get(tenantID);
+        if (tenantStats == null) {
+            tenantStats = new TenantStats();
+            tenantStatsMap.put(tenantID, tenantStats);
+        }
+        return tenantStats;
+    }
+    
+    /**
+     * @see java.util.Queue#poll()
+     */
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return (count > 0) ? dequeue() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.Queue#peek()
+     */
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return (count > 0) ? activeTenantQueues.getFirst().queuedTasks.getFirst().runnable : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object object) {
+        if (!(object instanceof Runnable)) {
+            return false;
+        }
+        
+        lock.lock();
+        try {
+            TenantQueue tenantQueue = tenantQueueMap.get(getTenantID((Runnable)object));
+            if (tenantQueue != null) {
+                Iterator<QueuedTask> iterator = tenantQueue.queuedTasks.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().runnable == object) {
+                        iterator.remove();
+                        count--;
+                        if (tenantQueue.queuedTasks.isEmpty()) {
+                            removeTenantQueue(tenantQueue);
+                        }
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return an iterator over a snapshot of the queued tasks. Removal through the iterator removes the task from the queue
+     * @see java.util.AbstractCollection#iterator()
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            for (TenantQueue tenantQueue : activeTenantQueues) {
+                for (QueuedTask queuedTask : tenantQueue.queuedTasks) {
+                    snapshot.add(queuedTask.runnable);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last = null;
+            
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            
+            @Override
+            public Runnable next() {
+                last = iterator.next();
+                return last;
+            }
+            
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                FairShareQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+        
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                collection.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return the number of tasks currently queued for each tracked tenant and each tenant with queued tasks
+     * @return a Map with tenant IDs as keys and queue depths as values
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> queueDepthMap = new TreeMap<String, Integer>();
+        lock.lock();
+        try {
+            for (String tenantID : tenantStatsMap.keySet()) {
+                queueDepthMap.put(tenantID, 0);
+            }
+            for (TenantQueue tenantQueue : tenantQueueMap.values()) {
+                queueDepthMap.put(tenantQueue.tenantID, tenantQueue.queuedTasks.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return queueDepthMap;
+    }
+    
+    /**
+     * Method to return the number of pages of the tasks taken from the queue for each tracked tenant
+     * @return a Map with tenant IDs as keys and page counts as values
+     */
+    public Map<String, Long> getDequeuedPages() {
+        Map<String, Long> dequeuedPagesMap = new TreeMap<String, Long>();
+        lock.lock();
+        try {
+            for (Map.Entry<String, TenantStats> entry : tenantStatsMap.entrySet()) {
+                dequeuedPagesMap.put(entry.getKey(), entry.getValue().dequeuedPages);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return dequeuedPagesMap;
+    }
+    
+    /**
+     * Method to return the average number of milliseconds the tasks of each tracked tenant have waited in the queue
+     * @return a Map with tenant IDs as keys and average wait times in milliseconds as values
+     */
+    public Map<String, Long> getAverageWaitTimes() {
+        Map<String, Long> waitTimeMap = new TreeMap<String, Long>();
+        lock.lock();
+        try {
+            for (Map.Entry<String, TenantStats> entry : tenantStatsMap.entrySet()) {
+                TenantStats tenantStats = entry.getValue();
+                waitTimeMap.put(entry.getKey(), (tenantStats.dequeuedCount > 0) ? tenantStats.totalWaitTime / tenantStats.dequeuedCount : 0L);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return waitTimeMap;
+    }
+    
+    /**
+     * @see java.util.AbstractCollection#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FairShareQueue quantum: ").append(quantum);
+        lock.lock();
+        try {
+            builder.append(" queued: ").append(count).append(" tenants: ").append(tenantQueueMap.size());
+            for (Map.Entry<String, TenantStats> entry : new TreeMap<String, TenantStats>(tenantStatsMap).entrySet()) {
+                TenantQueue tenantQueue = tenantQueueMap.get(entry.getKey());
+                TenantStats tenantStats = entry.getValue();
+                builder.append(" [").append(entry.getKey());
+                builder.append(" depth: ").append((tenantQueue != null) ? tenantQueue.queuedTasks.size() : 0);
+                builder.append(" dequeued: ").append(tenantStats.dequeuedCount);
+                builder.append(" pages: ").append(tenantStats.dequeuedPages);
+                builder.append(" avgWait: ").append((tenantStats.dequeuedCount > 0) ? tenantStats.totalWaitTime / tenantStats.dequeuedCount : 0L);
+                builder.append(" maxWait: ").append(tenantStats.maxWaitTime).append("]");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return builder.toString();
+    }
+
+}
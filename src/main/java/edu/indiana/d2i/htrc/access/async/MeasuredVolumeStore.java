@@ -0,0 +1,175 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  MeasuredVolumeStore.java
+# Description:  This class wraps a VolumeStore and reports the size and latency of its page retrievals to an AdaptiveBatchSizer
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.List;
+import java.util.Map;
+
+import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.ConcurrencyLimiter;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache;
+
+/**
+ * This class wraps a VolumeStore and reports the number of pages, the number of bytes and the time taken by each successful page retrieval to an
+ * AdaptiveBatchSizer.  All other calls are passed through unchanged.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class MeasuredVolumeStore implements VolumeStore {
+    
+    protected final VolumeStore volumeStore;
+    protected final AdaptiveBatchSizer adaptiveBatchSizer;
+    
+    /**
+     * Constructor
+     * @param volumeStore the VolumeStore object to be wrapped
+     * @param adaptiveBatchSizer the AdaptiveBatchSizer object to report page retrievals to
+     */
+    public MeasuredVolumeStore(VolumeStore volumeStore, AdaptiveBatchSizer adaptiveBatchSizer) {
+        this.volumeStore = volumeStore;
+        this.adaptiveBatchSizer = adaptiveBatchSizer;
+    }
+    
+    /**
+     * Method to return the wrapped VolumeStore object
+     * @return the wrapped VolumeStore object
+     */
+    public VolumeStore getVolumeStore() {
+        return volumeStore;
+    }
+    
+    /**
+     * Method to add up the number of bytes of a List of ContentReader objects. Only the content lengths are read, so memory-mapped pages are not copied
+     * onto the heap
+     * @param contentReaders a List of ContentReader objects
+     * @return the total number of bytes
+     */
+    protected static long countBytes(List<ContentReader> contentReaders) {
+        long byteCount = 0;
+        for (ContentReader contentReader : contentReaders) {
+            byteCount += contentReader.getContentLength();
+        }
+        return byteCount;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfo(java.lang.String)
+     */
+    @Override
+    public VolumeInfo getVolumeInfo(String volumeID) throws KeyNotFoundException, RepositoryException {
+        return volumeStore.getVolumeInfo(volumeID);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfos(java.util.List)
+     */
+    @Override
+    public Map<String, VolumeInfo> getVolumeInfos(List<String> volumeIDs) throws RepositoryException {
+        return volumeStore.getVolumeInfos(volumeIDs);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrievePageContents(java.lang.String, java.util.List)
+     */
+    @Override
+    public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences) throws KeyNotFoundException, RepositoryException {
+        long startTime = System.currentTimeMillis();
+        List<ContentReader> pageContents = volumeStore.retrievePageContents(volumeID, pageSequences);
+        adaptiveBatchSizer.record(pageContents.size(), countBytes(pageContents), System.currentTimeMillis() - startTime);
+        return pageContents;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrievePageContents(java.util.Map)
+     */
+    @Override
+    public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences) throws RepositoryException {
+        long startTime = System.currentTimeMillis();
+        Map<String, List<ContentReader>> contentReadersMap = volumeStore.retrievePageContents(volumePageSequences);
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+        
+        int pageCount = 0;
+        long byteCount = 0;
+        for (List<ContentReader> pageContents : contentReadersMap.values()) {
+            pageCount += pageContents.size();
+            byteCount += countBytes(pageContents);
+        }
+        adaptiveBatchSizer.record(pageCount, byteCount, elapsedMillis);
+        return contentReadersMap;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrieveMetadata(java.lang.String, java.util.List)
+     */
+    @Override
+    public List<ContentReader> retrieveMetadata(String volumeID, List<String> metadataNames) throws KeyNotFoundException, RepositoryException {
+        return volumeStore.retrieveMetadata(volumeID, metadataNames);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getMaxVolumesPerBatch()
+     */
+    @Override
+    public int getMaxVolumesPerBatch() {
+        return volumeStore.getMaxVolumesPerBatch();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getConcurrencyLimiter()
+     */
+    @Override
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return volumeStore.getConcurrencyLimiter();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfoCache()
+     */
+    @Override
+    public VolumeInfoCache getVolumeInfoCache() {
+        return volumeStore.getVolumeInfoCache();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        volumeStore.shutdown();
+    }
+
+}
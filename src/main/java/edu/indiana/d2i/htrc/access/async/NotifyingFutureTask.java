@@ -0,0 +1,120 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NotifyingFutureTask.java
+# Description:  This class is a FutureTask that tells a CompletionListener when it is done
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class is a FutureTask that tells a CompletionListener when it is done, and carries the tenant, the page count and the lane it is run for so the
+ * FairShareQueue and the PriorityLaneQueue can place it
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class NotifyingFutureTask<V> extends FutureTask<V> implements FairShareQueue.TenantTask, FairShareQueue.PageCountedTask, PriorityLaneQueue.LaneTask {
+    
+    protected final String tenantID;
+    protected final boolean interactive;
+    protected final int pageCount;
+    protected final CompletionListener<V> completionListener;
+    
+    /**
+     * Constructor
+     * @param callable a Callable object to be run
+     * @param completionListener a CompletionListener object to be told when the task is done, or <code>null</code>
+     */
+    public NotifyingFutureTask(Callable<V> callable, CompletionListener<V> completionListener) {
+        this(callable, null, completionListener);
+    }
+    
+    /**
+     * Constructor
+     * @param callable a Callable object to be run
+     * @param tenantID ID of the tenant the task is run for, or <code>null</code> for the default tenant
+     * @param completionListener a CompletionListener object to be told when the task is done, or <code>null</code>
+     */
+    public NotifyingFutureTask(Callable<V> callable, String tenantID, CompletionListener<V> completionListener) {
+        this(callable, tenantID, false, completionListener);
+    }
+    
+    /**
+     * Constructor
+     * @param callable a Callable object to be run
+     * @param tenantID ID of the tenant the task is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the task is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param completionListener a CompletionListener object to be told when the task is done, or <code>null</code>
+     */
+    public NotifyingFutureTask(Callable<V> callable, String tenantID, boolean interactive, CompletionListener<V> completionListener) {
+        super(callable);
+        this.tenantID = tenantID;
+        this.interactive = interactive;
+        this.pageCount = FairShareQueue.getPageCount(callable);
+        this.completionListener = completionListener;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.TenantTask#getTenantID()
+     */
+    @Override
+    public String getTenantID() {
+        return tenantID;
+    }
+    
+    /**
+     * Method to return the number of pages the Callable object fetches, or 1 if it does not say
+     * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.PageCountedTask#getPageCount()
+     */
+    @Override
+    public int getPageCount() {
+        return pageCount;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.async.PriorityLaneQueue.LaneTask#isInteractive()
+     */
+    @Override
+    public boolean isInteractive() {
+        return interactive;
+    }
+    
+    /**
+     * @see java.util.concurrent.FutureTask#done()
+     */
+    @Override
+    protected void done() {
+        if (completionListener != null) {
+            completionListener.completed(this);
+        }
+    }
+
+}
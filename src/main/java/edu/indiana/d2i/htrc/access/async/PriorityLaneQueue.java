@@ -0,0 +1,623 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PriorityLaneQueue.java
+# Description:  This class is a work queue for the async workers with a priority lane for small interactive requests and a lane for bulk requests
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a work queue for the async workers with a priority lane for small interactive requests, such as single page previews, and a lane for bulk
+ * requests.  The workers serve the interactive lane first, so a preview does not queue behind thousands of volumes of a bulk export.
+ * 
+ * To keep bulk work from starving, the workers serve the bulk lane after bulkShare interactive tasks in a row while bulk tasks are waiting, and whenever the
+ * oldest bulk task has waited for bulkMaxWait milliseconds.  Each lane is itself a queue given to the constructor, e.g. a FairShareQueue, so fairness between
+ * tenants still applies within a lane.
+ * 
+ * Serving the interactive lane first only helps once a worker is free, so the workers can also be kept from all being busy with bulk work: with
+ * maxBulkRunning set, a worker does not take a bulk task while maxBulkRunning bulk tasks are already running, and waits for interactive work instead.  The
+ * bulk tasks handed to the workers are wrapped so the queue learns when they are done, which requires every task of the executor to go through the queue,
+ * e.g. by prestarting the core threads of a ThreadPoolExecutor.  Tasks taken by drainTo, as on shutdown, are returned unwrapped.
+ * 
+ * The lane of a task is given by the LaneTask interface; tasks not implementing it go to the bulk lane.  Queue wait time is tracked for each lane against
+ * the latency objective of the lane.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PriorityLaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    
+    /**
+     * This is an interface for tasks that know which lane they belong to
+     * @author Yiming Sun
+     *
+     */
+    public static interface LaneTask {
+        
+        /**
+         * Method to tell if the task belongs to the interactive lane
+         * @return <code>true</code> if the task belongs to the interactive lane, <code>false</code> if it belongs to the bulk lane
+         */
+        public boolean isInteractive();
+    }
+    
+    /**
+     * This class is one lane together with its statistics
+     * @author Yiming Sun
+     *
+     */
+    protected static class Lane {
+        protected final String name;
+        protected final BlockingQueue<Runnable> queue;
+        protected final long latencyObjective;
+        protected long dequeuedCount;
+        protected long totalWaitTime;
+        protected long maxWaitTime;
+        protected long objectiveMissCount;
+        
+        /**
+         * Constructor
+         * @param name name of the lane
+         * @param queue the queue holding the tasks of the lane
+         * @param latencyObjective maximum number of milliseconds a task of the lane should wait in the queue
+         */
+        protected Lane(String name, BlockingQueue<Runnable> queue, long latencyObjective) {
+            this.name = name;
+            this.queue = queue;
+            this.latencyObjective = latencyObjective;
+            this.dequeuedCount = 0;
+            this.totalWaitTime = 0;
+            this.maxWaitTime = 0;
+            this.objectiveMissCount = 0;
+        }
+        
+        /**
+         * Method to record the queue wait time of a task taken off the lane
+         * @param waitTime number of milliseconds the task waited
+         */
+        protected void record(long waitTime) {
+            dequeuedCount++;
+            totalWaitTime += waitTime;
+            if (waitTime > maxWaitTime) {
+                maxWaitTime = waitTime;
+            }
+            if (waitTime > latencyObjective) {
+                objectiveMissCount++;
+            }
+        }
+        
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return name + " [depth: " + queue.size() + " dequeued: " + dequeuedCount + " avgWait: " + ((dequeuedCount > 0) ? totalWaitTime / dequeuedCount : 0)
+                    + " maxWait: " + maxWaitTime + " objective: " + latencyObjective + " objectiveMisses: " + objectiveMissCount + "]";
+        }
+    }
+    
+    /**
+     * This class is a bulk task handed to a worker, which tells the queue when the task is done so that another bulk task may be taken
+     * @author Yiming Sun
+     *
+     */
+    protected class BulkWorkerTask implements Runnable {
+        protected final Runnable runnable;
+        
+        /**
+         * Constructor
+         * @param runnable the bulk task
+         */
+        protected BulkWorkerTask(Runnable runnable) {
+            this.runnable = runnable;
+        }
+        
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            try {
+                runnable.run();
+            } finally {
+                bulkTaskDone();
+            }
+        }
+    }
+    
+    protected final ReentrantLock lock;
+    protected final Condition notEmpty;
+    protected final int bulkShare;
+    protected final long bulkMaxWait;
+    protected final int maxBulkRunning;
+    
+    // guarded by lock
+    protected final Lane interactiveLane;
+    protected final Lane bulkLane;
+    protected final Map<Runnable, Long> enqueueTimeMap;
+    protected int count;
+    protected int interactiveStreak;
+    protected long starvationGuardCount;
+    protected int bulkRunningCount;
+    protected long bulkHeldCount;
+    
+    /**
+     * Constructor that lets all workers take bulk tasks
+     * @param interactiveQueue the queue to hold the tasks of the interactive lane
+     * @param bulkQueue the queue to hold the tasks of the bulk lane
+     * @param bulkShare number of interactive tasks served in a row while bulk tasks are waiting, before a bulk task is served. Use 0 for no limit
+     * @param bulkMaxWait number of milliseconds after which a waiting bulk task is served before interactive tasks. Use 0 for no limit
+     * @param interactiveObjective maximum number of milliseconds an interactive task should wait in the queue
+     * @param bulkObjective maximum number of milliseconds a bulk task should wait in the queue
+     */
+    public PriorityLaneQueue(BlockingQueue<Runnable> interactiveQueue, BlockingQueue<Runnable> bulkQueue, int bulkShare, long bulkMaxWait,
+            long interactiveObjective, long bulkObjective) {
+        this(interactiveQueue, bulkQueue, bulkShare, bulkMaxWait, interactiveObjective, bulkObjective, 0);
+    }
+    
+    /**
+     * Constructor
+     * @param interactiveQueue the queue to hold the tasks of the interactive lane
+     * @param bulkQueue the queue to hold the tasks of the bulk lane
+     * @param bulkShare number of interactive tasks served in a row while bulk tasks are waiting, before a bulk task is served. Use 0 for no limit
+     * @param bulkMaxWait number of milliseconds after which a waiting bulk task is served before interactive tasks. Use 0 for no limit
+     * @param interactiveObjective maximum number of milliseconds an interactive task should wait in the queue
+     * @param bulkObjective maximum number of milliseconds a bulk task should wait in the queue
+     * @param maxBulkRunning maximum number of bulk tasks the workers run at the same time, so the remaining workers are kept for interactive tasks. Use 0
+     * for no limit
+     */
+    public PriorityLaneQueue(BlockingQueue<Runnable> interactiveQueue, BlockingQueue<Runnable> bulkQueue, int bulkShare, long bulkMaxWait,
+            long interactiveObjective, long bulkObjective, int maxBulkRunning) {
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.bulkShare = bulkShare;
+        this.bulkMaxWait = bulkMaxWait;
+        this.maxBulkRunning = maxBulkRunning;
+        this.interactiveLane = new Lane("interactive", interactiveQueue, interactiveObjective);
+        this.bulkLane = new Lane("bulk", bulkQueue, bulkObjective);
+        this.enqueueTimeMap = new IdentityHashMap<Runnable, Long>();
+        this.count = 0;
+        this.interactiveStreak = 0;
+        this.starvationGuardCount = 0;
+        this.bulkRunningCount = 0;
+        this.bulkHeldCount = 0;
+    }
+    
+    /**
+     * Method to return the lane a task belongs to
+     * @param runnable a task
+     * @return the Lane object of the task
+     */
+    protected Lane getLane(Runnable runnable) {
+        return (runnable instanceof LaneTask && ((LaneTask)runnable).isInteractive()) ? interactiveLane : bulkLane;
+    }
+    
+    /**
+     * @see java.util.Queue#offer(java.lang.Object)
+     */
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        
+        lock.lock();
+        try {
+            if (!getLane(runnable).queue.offer(runnable)) {
+                return false;
+            }
+            enqueueTimeMap.put(runnable, System.currentTimeMillis());
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+    
+    /**
+     * Method to tell if the workers may take another bulk task. The caller must hold the lock
+     * @return <code>true</code> if fewer than maxBulkRunning bulk tasks are running or there is no such limit, <code>false</code> otherwise
+     */
+    protected boolean isBulkAllowed() {
+        return (maxBulkRunning <= 0 || bulkRunningCount < maxBulkRunning);
+    }
+    
+    /**
+     * Method to tell if a worker can take a task right now. The caller must hold the lock
+     * @return <code>true</code> if an interactive task is queued, or a bulk task is queued and the workers may take another one, <code>false</code> otherwise
+     */
+    protected boolean hasTaskForWorker() {
+        return !interactiveLane.queue.isEmpty() || (!bulkLane.queue.isEmpty() && isBulkAllowed());
+    }
+    
+    /**
+     * Method to pick the lane to serve next. The caller must hold the lock and the queue must not be empty
+     * @param bulkAllowed <code>true</code> if the bulk lane may be served, <code>false</code> if only the interactive lane may be served
+     * @return the Lane object to take the next task from
+     */
+    protected Lane pickLane(boolean bulkAllowed) {
+        if (interactiveLane.queue.isEmpty()) {
+            interactiveStreak = 0;
+            return bulkLane;
+        }
+        if (bulkLane.queue.isEmpty()) {
+            interactiveStreak = 0;
+            return interactiveLane;
+        }
+        if (!bulkAllowed) {
+            // the remaining workers are kept for interactive tasks, which does not count against the bulk share
+            bulkHeldCount++;
+            return interactiveLane;
+        }
+        
+        boolean shareUsedUp = (bulkShare > 0 && interactiveStreak >= bulkShare);
+        Long bulkEnqueueTime = enqueueTimeMap.get(bulkLane.queue.peek());
+        boolean bulkWaitedTooLong = (bulkMaxWait > 0 && bulkEnqueueTime != null && System.currentTimeMillis() - bulkEnqueueTime >= bulkMaxWait);
+        if (shareUsedUp || bulkWaitedTooLong) {
+            interactiveStreak = 0;
+            starvationGuardCount++;
+            return bulkLane;
+        }
+        
+        interactiveStreak++;
+        return interactiveLane;
+    }
+    
+    /**
+     * Method to take the next task. The caller must hold the lock and the queue must not be empty; a worker must only call it if hasTaskForWorker
+     * returns <code>true</code>
+     * @param forWorker <code>true</code> if the task is taken by a worker to run it, <code>false</code> if it is taken out of the queue, as by drainTo
+     * @return the next task, wrapped in a BulkWorkerTask if it is a bulk task taken by a worker while maxBulkRunning is set
+     */
+    protected Runnable dequeue(boolean forWorker) {
+        Lane lane = pickLane(!forWorker || isBulkAllowed());
+        Runnable runnable = lane.queue.poll();
+        count--;
+        
+        Long enqueueTime = enqueueTimeMap.remove(runnable);
+        if (enqueueTime != null) {
+            lane.record(System.currentTimeMillis() - enqueueTime);
+        }
+        if (forWorker && lane == bulkLane && maxBulkRunning > 0) {
+            bulkRunningCount++;
+            runnable = new BulkWorkerTask(runnable);
+        }
+        
+        // a worker woken for this task may leave another one behind that a waiting worker can take
+        if (forWorker && hasTaskForWorker()) {
+            notEmpty.signal();
+        }
+        return runnable;
+    }
+    
+    /**
+     * Method called when a bulk task taken by a worker is done, to let a waiting worker take the next bulk task
+     */
+    protected void bulkTaskDone() {
+        lock.lock();
+        try {
+            bulkRunningCount--;
+            if (hasTaskForWorker()) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.Queue#poll()
+     */
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return hasTaskForWorker() ? dequeue(true) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!hasTaskForWorker()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!hasTaskForWorker()) {
+                notEmpty.await();
+            }
+            return dequeue(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.Queue#peek()
+     */
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            if (count == 0) {
+                return null;
+            }
+            return interactiveLane.queue.isEmpty() ? bulkLane.queue.peek() : interactiveLane.queue.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+    
+    /**
+     * @see java.util.AbstractCollection#remove(java.lang.Object)
+     */
+    @Override
+    public boolean remove(Object object) {
+        if (!(object instanceof Runnable)) {
+            return false;
+        }
+        
+        lock.lock();
+        try {
+            if (getLane((Runnable)object).queue.remove(object)) {
+                enqueueTimeMap.remove(object);
+                count--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return an iterator over a snapshot of the queued tasks. Removal through the iterator removes the task from the queue
+     * @see java.util.AbstractCollection#iterator()
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<Runnable>();
+        lock.lock();
+        try {
+            snapshot.addAll(interactiveLane.queue);
+            snapshot.addAll(bulkLane.queue);
+        } finally {
+            lock.unlock();
+        }
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable last = null;
+            
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            
+            @Override
+            public Runnable next() {
+                last = iterator.next();
+                return last;
+            }
+            
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                PriorityLaneQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        if (collection == this) {
+            throw new IllegalArgumentException();
+        }
+        
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                collection.add(dequeue(false));
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return the average number of milliseconds the tasks of a lane waited in the queue
+     * @param interactive <code>true</code> for the interactive lane, <code>false</code> for the bulk lane
+     * @return the average queue wait time in milliseconds
+     */
+    public long getAverageWaitTime(boolean interactive) {
+        lock.lock();
+        try {
+            Lane lane = interactive ? interactiveLane : bulkLane;
+            return (lane.dequeuedCount > 0) ? lane.totalWaitTime / lane.dequeuedCount : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return the number of tasks of a lane that waited in the queue longer than the latency objective of the lane
+     * @param interactive <code>true</code> for the interactive lane, <code>false</code> for the bulk lane
+     * @return the number of tasks that missed the latency objective
+     */
+    public long getObjectiveMissCount(boolean interactive) {
+        lock.lock();
+        try {
+            return interactive ? interactiveLane.objectiveMissCount : bulkLane.objectiveMissCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return the number of times a bulk task was served ahead of waiting interactive tasks to keep bulk work from starving
+     * @return the number of times the starvation guard kicked in
+     */
+    public long getStarvationGuardCount() {
+        lock.lock();
+        try {
+            return starvationGuardCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return the number of bulk tasks taken by the workers that are still running. Only counted while maxBulkRunning is set
+     * @return the number of bulk tasks running
+     */
+    public int getBulkRunningCount() {
+        lock.lock();
+        try {
+            return bulkRunningCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Method to return the number of times an interactive task was served because the workers kept for interactive tasks were the only ones left, while
+     * bulk tasks were waiting
+     * @return the number of times bulk tasks were held back
+     */
+    public long getBulkHeldCount() {
+        lock.lock();
+        try {
+            return bulkHeldCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @see java.util.AbstractCollection#toString()
+     */
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "PriorityLaneQueue " + interactiveLane + " " + bulkLane + " starvationGuards: " + starvationGuardCount + " bulkRunning: " + bulkRunningCount
+                    + "/" + maxBulkRunning + " bulkHeld: " + bulkHeldCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
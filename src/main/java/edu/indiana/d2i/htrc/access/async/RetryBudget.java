@@ -0,0 +1,88 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RetryBudget.java
+# Description:  This class limits retries to a fraction of the total number of requests
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+/**
+ * This class limits retries to a fraction of the total number of requests, so that a backend brownout is not made worse by a storm of retries.  It is a
+ * token bucket: each request deposits a fraction of a token, each retry withdraws a whole token, and a retry is only allowed if a whole token is
+ * available.  The bucket holds at most a small reserve of tokens, which allows a short burst of retries after a quiet period.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class RetryBudget {
+    
+    protected final double ratio;
+    protected final double reserve;
+    
+    // guarded by this
+    protected double tokens;
+    
+    /**
+     * Constructor
+     * @param ratio maximum number of retries per request, e.g. 0.1 allows at most 1 retry for every 10 requests in the long run
+     * @param reserve maximum number of tokens the bucket can hold, which is also the initial number of tokens
+     */
+    public RetryBudget(double ratio, int reserve) {
+        this.ratio = ratio;
+        this.reserve = reserve;
+        this.tokens = reserve;
+    }
+    
+    /**
+     * Method to record a request, which deposits a fraction of a token into the bucket
+     */
+    public synchronized void recordRequest() {
+        tokens = Math.min(reserve, tokens + ratio);
+    }
+    
+    /**
+     * Method to ask for permission to retry, which withdraws a token from the bucket if one is available
+     * @return <code>true</code> if the retry is allowed, <code>false</code> if the budget is exhausted
+     */
+    public synchronized boolean tryAcquire() {
+        if (tokens >= 1.0) {
+            tokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Method to return the number of tokens currently in the bucket
+     * @return the number of tokens, i.e. the number of retries that would be allowed right now
+     */
+    public synchronized double getTokens() {
+        return tokens;
+    }
+
+}
@@ -0,0 +1,452 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RetryScheduler.java
+# Description:  This class runs async fetches and reschedules the failed ones with backoff instead of sleeping in the worker threads
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.RequestDeadline;
+import edu.indiana.d2i.htrc.access.RetryDeferral;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+import edu.indiana.d2i.htrc.access.exception.QueryRejectedException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+
+/**
+ * This class runs async fetches on the worker threads and reschedules the ones that failed with a RepositoryException on a ScheduledExecutorService, with
+ * exponential backoff and jitter.  A worker thread is thus released during the backoff instead of being parked in Thread.sleep, so a backend brownout does not
+ * stall the healthy fetches queued behind the failing ones.  Retries are also limited by a RetryBudget, and a fetch made within the deadline of a request is not
+ * retried if the backoff would outlast the deadline.
+ * 
+ * While an attempt runs with scheduled retries enabled, the worker thread is marked through RetryDeferral, so the VolumeStore makes a single attempt of each query and
+ * the failure comes back here to be rescheduled.  A QueryRejectedException, such as one thrown while the circuit breaker is open, is never rescheduled.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class RetryScheduler {
+    
+    private static final Logger log = Logger.getLogger(RetryScheduler.class);
+    
+    /**
+     * This class is a Future whose result is set from outside, once the last attempt of a fetch has finished
+     * @author Yiming Sun
+     *
+     */
+    protected static class SettableFuture<V> extends NotifyingFutureTask<V> {
+        
+        /**
+         * Constructor
+         * @param completionListener a CompletionListener object to be told when the result is set, or <code>null</code>
+         */
+        protected SettableFuture(CompletionListener<V> completionListener) {
+            super(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                    throw new IllegalStateException("SettableFuture is not meant to be run");
+                }
+            }, completionListener);
+        }
+        
+        /**
+         * @see java.util.concurrent.FutureTask#set(java.lang.Object)
+         */
+        @Override
+        protected void set(V v) {
+            super.set(v);
+        }
+        
+        /**
+         * @see java.util.concurrent.FutureTask#setException(java.lang.Throwable)
+         */
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+        }
+    }
+    
+    /**
+     * This class is one fetch that may be attempted several times
+     * @author Yiming Sun
+     *
+     */
+    protected abstract class RetryingTask implements Runnable, FairShareQueue.TenantTask, FairShareQueue.PageCountedTask, PriorityLaneQueue.LaneTask {
+        protected final String tenantID;
+        protected final boolean interactive;
+        protected final int pageCount;
+        protected final RequestDeadline deadline;
+        protected int retryCount = 0;
+        protected long backoffDelay = initDelay;
+        
+        /**
+         * Constructor
+         * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant. Retries stay with the same tenant
+         * @param interactive <code>true</code> if the fetch is run for a small interactive request. Retries stay in the same lane
+         * @param deadline the RequestDeadline of the request the fetch is run for, or <code>null</code> if it has none
+         * @param pageCount number of pages the fetch asks for, which each attempt is charged in the FairShareQueue
+         */
+        protected RetryingTask(String tenantID, boolean interactive, RequestDeadline deadline, int pageCount) {
+            this.tenantID = tenantID;
+            this.interactive = interactive;
+            this.pageCount = pageCount;
+            this.deadline = deadline;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.TenantTask#getTenantID()
+         */
+        @Override
+        public String getTenantID() {
+            return tenantID;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.PageCountedTask#getPageCount()
+         */
+        @Override
+        public int getPageCount() {
+            return pageCount;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.async.PriorityLaneQueue.LaneTask#isInteractive()
+         */
+        @Override
+        public boolean isInteractive() {
+            return interactive;
+        }
+        
+        /**
+         * Method to make one attempt of the fetch
+         * @throws RepositoryException thrown if the attempt failed and may be retried
+         * @throws Exception thrown if the attempt failed and must not be retried
+         */
+        protected abstract void attempt() throws RepositoryException, Exception;
+        
+        /**
+         * Method to report the failure of the last attempt, after which the fetch is not retried any more
+         * @param e the Exception of the last attempt
+         */
+        protected abstract void giveUp(Exception e);
+        
+        /**
+         * Method to check if nobody waits for the result of the fetch any more
+         * @return <code>true</code> if the fetch should not be attempted again, <code>false</code> otherwise
+         */
+        protected abstract boolean isAbandoned();
+        
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            if (isAbandoned()) {
+                return;
+            }
+            
+            try {
+                runAttempt();
+            } catch (DeadlineExceededException e) {
+                // nobody waits for the result past the deadline
+                giveUp(e);
+            } catch (QueryRejectedException e) {
+                // the query was turned away to take load off the backend, so retrying it would defeat the purpose
+                giveUp(e);
+            } catch (RepositoryException e) {
+                if (retryCount < maxRetries) {
+                    long jitteredDelay = backoffDelay / 2 + (long)(random.nextDouble() * (backoffDelay - backoffDelay / 2));
+                    if (deadline != null && jitteredDelay >= deadline.getRemainingMillis()) {
+                        retriesPastDeadline.incrementAndGet();
+                        if (log.isDebugEnabled()) log.debug("Retry in " + jitteredDelay + " ms would outlast the request deadline, giving up");
+                    } else if (retryBudget.tryAcquire()) {
+                        scheduleRetry(jitteredDelay);
+                        return;
+                    } else {
+                        retriesDenied.incrementAndGet();
+                        if (log.isDebugEnabled()) log.debug("Retry budget exhausted, giving up");
+                    }
+                }
+                giveUp(e);
+            } catch (Exception e) {
+                giveUp(e);
+            }
+        }
+        
+        /**
+         * Method to make one attempt of the fetch, leaving the retries of the VolumeStore to this scheduler if scheduled retries are enabled
+         * @throws RepositoryException thrown if the attempt failed and may be retried
+         * @throws Exception thrown if the attempt failed and must not be retried
+         */
+        protected void runAttempt() throws RepositoryException, Exception {
+            if (maxRetries <= 0) {
+                attempt();
+                return;
+            }
+            
+            RetryDeferral.setCurrent();
+            try {
+                attempt();
+            } finally {
+                RetryDeferral.clearCurrent();
+            }
+        }
+        
+        /**
+         * Method to schedule the next attempt after a jittered backoff delay, picked at random between half and all of the current backoff delay
+         * @param jitteredDelay number of milliseconds to wait before the next attempt
+         */
+        protected void scheduleRetry(long jitteredDelay) {
+            retryCount++;
+            backoffDelay = Math.min(backoffDelay * 2, maxDelay);
+            retriesScheduled.incrementAndGet();
+            if (log.isDebugEnabled()) log.debug("Retry " + retryCount + " scheduled in " + jitteredDelay + " ms");
+            
+            try {
+                scheduledExecutorService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            executorService.execute(RetryingTask.this);
+                        } catch (RejectedExecutionException e) {
+                            giveUp(e);
+                        }
+                    }
+                }, jitteredDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                giveUp(e);
+            }
+        }
+    }
+    
+    protected final ExecutorService executorService;
+    protected final ScheduledExecutorService scheduledExecutorService;
+    protected final int maxRetries;
+    protected final long initDelay;
+    protected final long maxDelay;
+    protected final RetryBudget retryBudget;
+    protected final Random random;
+    
+    protected final AtomicLong retriesScheduled;
+    protected final AtomicLong retriesDenied;
+    protected final AtomicLong retriesPastDeadline;
+    
+    /**
+     * Constructor
+     * @param executorService the ExecutorService of the worker threads that make the attempts
+     * @param maxRetries maximum number of retries of a fetch
+     * @param initDelay backoff delay in milliseconds before the first retry. The delay doubles with each retry
+     * @param maxDelay maximum backoff delay in milliseconds
+     * @param retryBudget a RetryBudget object limiting the total number of retries
+     */
+    public RetryScheduler(ExecutorService executorService, int maxRetries, long initDelay, long maxDelay, RetryBudget retryBudget) {
+        this.executorService = executorService;
+        this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+        this.maxRetries = maxRetries;
+        this.initDelay = initDelay;
+        this.maxDelay = maxDelay;
+        this.retryBudget = retryBudget;
+        this.random = new Random();
+        
+        this.retriesScheduled = new AtomicLong(0);
+        this.retriesDenied = new AtomicLong(0);
+        this.retriesPastDeadline = new AtomicLong(0);
+    }
+    
+    /**
+     * Method to submit a fetch to be attempted on the worker threads until it succeeds, fails with an Exception other than RepositoryException, or runs out
+     * of retries
+     * @param callable a Callable object to be attempted
+     * @return a Future object that completes with the result of the last attempt
+     */
+    public <V> Future<V> submit(final Callable<V> callable) {
+        return submit(callable, null, null);
+    }
+    
+    /**
+     * Method to submit a fetch to be attempted on the worker threads until it succeeds, fails with an Exception other than RepositoryException, or runs out
+     * of retries
+     * @param callable a Callable object to be attempted
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future object that completes with the result of the last attempt
+     */
+    public <V> Future<V> submit(final Callable<V> callable, String tenantID, CompletionListener<V> completionListener) {
+        return submit(callable, tenantID, false, completionListener);
+    }
+    
+    /**
+     * Method to submit a fetch to be attempted on the worker threads until it succeeds, fails with an Exception other than RepositoryException, or runs out
+     * of retries
+     * @param callable a Callable object to be attempted
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future object that completes with the result of the last attempt
+     */
+    public <V> Future<V> submit(final Callable<V> callable, String tenantID, boolean interactive, CompletionListener<V> completionListener) {
+        return submit(callable, tenantID, interactive, null, completionListener);
+    }
+    
+    /**
+     * Method to submit a fetch to be attempted on the worker threads until it succeeds, fails with an Exception other than RepositoryException, runs out
+     * of retries, or the backoff before the next retry would outlast the deadline of the request
+     * @param callable a Callable object to be attempted
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param deadline the RequestDeadline of the request the fetch is run for, or <code>null</code> if it has none
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future object that completes with the result of the last attempt
+     */
+    public <V> Future<V> submit(final Callable<V> callable, String tenantID, boolean interactive, RequestDeadline deadline, CompletionListener<V> completionListener) {
+        retryBudget.recordRequest();
+        final SettableFuture<V> future = new SettableFuture<V>(completionListener);
+        
+        executorService.execute(new RetryingTask(tenantID, interactive, deadline, FairShareQueue.getPageCount(callable)) {
+            @Override
+            protected void attempt() throws RepositoryException, Exception {
+                future.set(callable.call());
+            }
+            
+            @Override
+            protected void giveUp(Exception e) {
+                future.setException(e);
+            }
+            
+            @Override
+            protected boolean isAbandoned() {
+                return future.isCancelled();
+            }
+        });
+        
+        return future;
+    }
+    
+    /**
+     * Method to submit a multi-volume fetch to be attempted on the worker threads until it succeeds or runs out of retries. The Futures of the work units
+     * are completed after the last attempt
+     * @param callableMultiVolumeFetcher a CallableMultiVolumeFetcher object to be attempted
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     */
+    public void submit(CallableMultiVolumeFetcher callableMultiVolumeFetcher, String tenantID) {
+        submit(callableMultiVolumeFetcher, tenantID, false);
+    }
+    
+    /**
+     * Method to submit a multi-volume fetch to be attempted on the worker threads until it succeeds or runs out of retries. The Futures of the work units
+     * are completed after the last attempt
+     * @param callableMultiVolumeFetcher a CallableMultiVolumeFetcher object to be attempted
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     */
+    public void submit(CallableMultiVolumeFetcher callableMultiVolumeFetcher, String tenantID, boolean interactive) {
+        submit(callableMultiVolumeFetcher, tenantID, interactive, (RequestDeadline) null);
+    }
+    
+    /**
+     * Method to submit a multi-volume fetch to be attempted on the worker threads until it succeeds, runs out of retries, or the backoff before the next
+     * retry would outlast the deadline of the request. The Futures of the work units are completed after the last attempt
+     * @param callableMultiVolumeFetcher a CallableMultiVolumeFetcher object to be attempted
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param interactive <code>true</code> if the fetch is run for a small interactive request, <code>false</code> if it is run for a bulk request
+     * @param deadline the RequestDeadline of the request the fetch is run for, or <code>null</code> if it has none
+     */
+    public void submit(final CallableMultiVolumeFetcher callableMultiVolumeFetcher, String tenantID, boolean interactive, RequestDeadline deadline) {
+        retryBudget.recordRequest();
+        
+        executorService.execute(new RetryingTask(tenantID, interactive, deadline, FairShareQueue.getPageCount(callableMultiVolumeFetcher)) {
+            @Override
+            protected void attempt() throws RepositoryException {
+                callableMultiVolumeFetcher.fetch();
+                callableMultiVolumeFetcher.completeFutures();
+            }
+            
+            @Override
+            protected void giveUp(Exception e) {
+                RepositoryException repositoryException = (e instanceof RepositoryException) ? (RepositoryException)e : new RepositoryException("Retrieving page contents failed", e);
+                callableMultiVolumeFetcher.fail(repositoryException);
+            }
+            
+            @Override
+            protected boolean isAbandoned() {
+                return callableMultiVolumeFetcher.isCancelled();
+            }
+        });
+    }
+    
+    /**
+     * Method to return the number of retries scheduled
+     * @return the number of retries scheduled
+     */
+    public long getRetriesScheduled() {
+        return retriesScheduled.get();
+    }
+    
+    /**
+     * Method to return the number of retries not made because the retry budget was exhausted
+     * @return the number of retries denied by the retry budget
+     */
+    public long getRetriesDenied() {
+        return retriesDenied.get();
+    }
+    
+    /**
+     * Method to return the number of retries not made because the backoff would have outlasted the deadline of the request
+     * @return the number of retries given up for the deadline
+     */
+    public long getRetriesPastDeadline() {
+        return retriesPastDeadline.get();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "RetryScheduler retriesScheduled: " + getRetriesScheduled() + " retriesDenied: " + getRetriesDenied() + " retriesPastDeadline: " + getRetriesPastDeadline();
+    }
+    
+    /**
+     * Method to dispose of the scheduler thread
+     */
+    public void shutdown() {
+        scheduledExecutorService.shutdownNow();
+    }
+
+}
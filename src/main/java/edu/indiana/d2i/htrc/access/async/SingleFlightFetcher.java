@@ -0,0 +1,459 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  SingleFlightFetcher.java
+# Description:  This class coalesces identical fetches that are in flight at the same time into a single fetch
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+import edu.indiana.d2i.htrc.access.read.PageContentCache;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
+
+/**
+ * This abstract class coalesces identical fetches that are in flight at the same time into a single fetch.  Fetches are identical if they ask for the same
+ * pages and metadata entries of the same volume, e.g. when a class section requests the same workset at the same moment.  The first fetch for a key is
+ * dispatched, and later ones for the same key join it until it completes.  Each subscriber gets its own VolumeReader over the shared ContentReader objects, so the
+ * content is read from the VolumeStore and held in memory only once.
+ * 
+ * The subscribers of a fetch are reference counted, and the fetch itself is only cancelled once all of its subscribers have cancelled.  A fetch stops taking
+ * new subscribers as soon as an attempt completes, so a fetch being retried after a failure is not joined by new requests.  Each subscriber makes its copy
+ * of the VolumeReader once, on its first get, and the Flight lets go of the shared result once all of its subscribers have claimed their copies, so the
+ * shared content is only held by the subscribers still reading it and goes away with the last of them.
+ * 
+ * A shared fetch carries no request deadline of its own, since its subscribers may have different ones.  Each subscriber bounds its own wait by its
+ * deadline and cancels its Future when the deadline passes, so a fetch outlives the deadlines of its subscribers only until the last of them cancels.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public abstract class SingleFlightFetcher {
+    
+    private static final Logger log = Logger.getLogger(SingleFlightFetcher.class);
+    
+    /**
+     * This class is a fetch in flight together with its subscribers.  It is told when the fetch completes and passes that on to the CompletionListener of
+     * each subscriber
+     * @author Yiming Sun
+     *
+     */
+    protected class Flight implements CompletionListener<VolumeReader> {
+        protected final String key;
+        
+        // guarded by the lock of flightMap
+        protected Future<VolumeReader> future;
+        protected final List<SubscriberFuture> subscribers;
+        protected int subscriberCount;
+        protected int claimedCount;
+        
+        /**
+         * Constructor
+         * @param key the key of the fetch
+         */
+        protected Flight(String key) {
+            this.key = key;
+            this.future = null;
+            this.subscribers = new ArrayList<SubscriberFuture>();
+            this.subscriberCount = 0;
+            this.claimedCount = 0;
+        }
+        
+        /**
+         * Method to add a subscriber to the fetch. The caller must hold the lock of flightMap
+         * @param completionListener a CompletionListener object to be told when the fetch completes, or <code>null</code>
+         * @return a SubscriberFuture object for the new subscriber
+         */
+        protected SubscriberFuture subscribe(CompletionListener<VolumeReader> completionListener) {
+            SubscriberFuture subscriberFuture = new SubscriberFuture(this, completionListener);
+            subscribers.add(subscriberFuture);
+            subscriberCount++;
+            return subscriberFuture;
+        }
+        
+        /**
+         * Method to count a subscriber that has claimed its copy of the result, and to let go of the shared result once all subscribers left have claimed
+         * theirs. The caller must hold the lock of flightMap
+         */
+        protected void claim() {
+            claimedCount++;
+            if (claimedCount == subscriberCount) {
+                if (log.isDebugEnabled()) log.debug("All subscribers claimed, releasing fetch " + key);
+                future = null;
+            }
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.async.CompletionListener#completed(java.util.concurrent.Future)
+         */
+        @Override
+        public void completed(Future<VolumeReader> future) {
+            List<SubscriberFuture> listeningSubscribers = new ArrayList<SubscriberFuture>();
+            synchronized (flightMap) {
+                for (SubscriberFuture subscriberFuture : subscribers) {
+                    if (!subscriberFuture.cancelled && subscriberFuture.completionListener != null) {
+                        listeningSubscribers.add(subscriberFuture);
+                    }
+                }
+            }
+            
+            for (SubscriberFuture subscriberFuture : listeningSubscribers) {
+                subscriberFuture.completionListener.completed(subscriberFuture);
+            }
+        }
+    }
+    
+    /**
+     * This class is the Future handed to each subscriber of a fetch
+     * @author Yiming Sun
+     *
+     */
+    protected class SubscriberFuture implements Future<VolumeReader> {
+        protected final Flight flight;
+        protected final CompletionListener<VolumeReader> completionListener;
+        
+        // guarded by the lock of flightMap
+        protected boolean cancelled;
+        protected VolumeReader volumeReader;
+        
+        /**
+         * Constructor
+         * @param flight the Flight object subscribed to
+         * @param completionListener a CompletionListener object to be told when the fetch completes, or <code>null</code>
+         */
+        protected SubscriberFuture(Flight flight, CompletionListener<VolumeReader> completionListener) {
+            this.flight = flight;
+            this.completionListener = completionListener;
+            this.cancelled = false;
+            this.volumeReader = null;
+        }
+        
+        /**
+         * @see java.util.concurrent.Future#cancel(boolean)
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            Future<VolumeReader> sharedFuture = null;
+            boolean lastSubscriber = false;
+            synchronized (flightMap) {
+                sharedFuture = flight.future;
+                if (cancelled || volumeReader != null || sharedFuture.isDone()) {
+                    return false;
+                }
+                cancelled = true;
+                flight.subscriberCount--;
+                if (flight.subscriberCount == 0) {
+                    removeFlight(flight);
+                    lastSubscriber = true;
+                }
+            }
+            
+            if (lastSubscriber) {
+                if (log.isDebugEnabled()) log.debug("All subscribers cancelled, cancelling fetch " + flight.key);
+                sharedFuture.cancel(mayInterruptIfRunning);
+            }
+            return true;
+        }
+        
+        /**
+         * @see java.util.concurrent.Future#isCancelled()
+         */
+        @Override
+        public boolean isCancelled() {
+            synchronized (flightMap) {
+                return cancelled;
+            }
+        }
+        
+        /**
+         * @see java.util.concurrent.Future#isDone()
+         */
+        @Override
+        public boolean isDone() {
+            synchronized (flightMap) {
+                return cancelled || volumeReader != null || flight.future.isDone();
+            }
+        }
+        
+        /**
+         * @see java.util.concurrent.Future#get()
+         */
+        @Override
+        public VolumeReader get() throws InterruptedException, ExecutionException {
+            Future<VolumeReader> sharedFuture = null;
+            synchronized (flightMap) {
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                if (volumeReader != null) {
+                    return volumeReader;
+                }
+                sharedFuture = flight.future;
+            }
+            return claim(sharedFuture.get());
+        }
+        
+        /**
+         * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+         */
+        @Override
+        public VolumeReader get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            Future<VolumeReader> sharedFuture = null;
+            synchronized (flightMap) {
+                if (cancelled) {
+                    throw new CancellationException();
+                }
+                if (volumeReader != null) {
+                    return volumeReader;
+                }
+                sharedFuture = flight.future;
+            }
+            return claim(sharedFuture.get(timeout, unit));
+        }
+        
+        /**
+         * Method to claim the copy of the shared result for this subscriber, so later gets return the same VolumeReader
+         * @param sharedVolumeReader the VolumeReader object returned by the shared fetch
+         * @return the VolumeReader object of this subscriber
+         */
+        protected VolumeReader claim(VolumeReader sharedVolumeReader) {
+            synchronized (flightMap) {
+                if (volumeReader == null) {
+                    volumeReader = share(sharedVolumeReader);
+                    flight.claim();
+                }
+                return volumeReader;
+            }
+        }
+        
+        /**
+         * Method to return the Future of the shared fetch. The shared fetch is only guaranteed to be available before this subscriber has claimed its copy
+         * @return the Future object of the shared fetch, or <code>null</code> if all subscribers have claimed their copies
+         */
+        protected Future<VolumeReader> getSharedFuture() {
+            synchronized (flightMap) {
+                return flight.future;
+            }
+        }
+        
+        /**
+         * Method to give the subscriber its own VolumeReader over the shared content
+         * @param volumeReader the VolumeReader object returned by the shared fetch
+         * @return a VolumeReader object with its own read position
+         */
+        protected VolumeReader share(VolumeReader volumeReader) {
+            return (volumeReader instanceof VolumeReaderImpl) ? ((VolumeReaderImpl)volumeReader).copy() : volumeReader;
+        }
+    }
+    
+    protected final VolumeStore volumeStore;
+    protected final PageContentCache pageContentCache;
+    protected final Map<String, Flight> flightMap;
+    
+    protected final AtomicLong fetchCount;
+    protected final AtomicLong coalescedCount;
+    
+    /**
+     * Constructor
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @param pageContentCache a PageContentCache object to serve pages from, or <code>null</code> if page content caching is disabled
+     */
+    public SingleFlightFetcher(VolumeStore volumeStore, PageContentCache pageContentCache) {
+        this.volumeStore = volumeStore;
+        this.pageContentCache = pageContentCache;
+        this.flightMap = new HashMap<String, Flight>();
+        
+        this.fetchCount = new AtomicLong(0);
+        this.coalescedCount = new AtomicLong(0);
+    }
+    
+    /**
+     * Method to dispatch a fetch for execution
+     * @param callable a Callable object performing the fetch
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant
+     * @param completionListener a CompletionListener object to be told when the returned Future is done
+     * @return a Future of VolumeReader object for the fetch
+     */
+    protected abstract Future<VolumeReader> dispatch(Callable<VolumeReader> callable, String tenantID, CompletionListener<VolumeReader> completionListener);
+    
+    /**
+     * Method to submit a work unit for async fetch, joining an identical fetch already in flight if there is one
+     * @param itemCoordinates a RequestedItemCoordinates object as the work unit
+     * @return a Future of VolumeReader object
+     */
+    public Future<VolumeReader> submit(RequestedItemCoordinates itemCoordinates) {
+        return submit(itemCoordinates, null, null);
+    }
+    
+    /**
+     * Method to submit a work unit for async fetch, joining an identical fetch already in flight if there is one
+     * @param itemCoordinates a RequestedItemCoordinates object as the work unit
+     * @param tenantID ID of the tenant the fetch is run for, or <code>null</code> for the default tenant. A joined fetch runs for the tenant that dispatched it
+     * @param completionListener a CompletionListener object to be told when the returned Future is done, or <code>null</code>
+     * @return a Future of VolumeReader object
+     */
+    public Future<VolumeReader> submit(RequestedItemCoordinates itemCoordinates, String tenantID, CompletionListener<VolumeReader> completionListener) {
+        String key = generateKey(itemCoordinates);
+        
+        // dispatch only queues the fetch, so it is cheap enough to be done while holding the lock
+        synchronized (flightMap) {
+            Flight flight = flightMap.get(key);
+            if (flight != null) {
+                coalescedCount.incrementAndGet();
+                if (log.isDebugEnabled()) log.debug("Joined fetch in flight " + key + " subscribers: " + (flight.subscriberCount + 1));
+            } else {
+                flight = new Flight(key);
+                flight.future = dispatch(new FlightCallable(flight, new CallableVolumeFetcher(itemCoordinates, volumeStore, pageContentCache)), tenantID, flight);
+                if (!flight.future.isDone()) {
+                    flightMap.put(key, flight);
+                }
+                fetchCount.incrementAndGet();
+            }
+            return flight.subscribe(completionListener);
+        }
+    }
+    
+    /**
+     * This class performs the fetch of a Flight and stops the Flight from taking new subscribers once an attempt completes
+     * @author Yiming Sun
+     *
+     */
+    protected class FlightCallable implements Callable<VolumeReader>, FairShareQueue.PageCountedTask {
+        protected final Flight flight;
+        protected final Callable<VolumeReader> callable;
+        
+        /**
+         * Constructor
+         * @param flight the Flight object of the fetch
+         * @param callable a Callable object performing the fetch
+         */
+        protected FlightCallable(Flight flight, Callable<VolumeReader> callable) {
+            this.flight = flight;
+            this.callable = callable;
+        }
+        
+        /**
+         * @see edu.indiana.d2i.htrc.access.async.FairShareQueue.PageCountedTask#getPageCount()
+         */
+        @Override
+        public int getPageCount() {
+            return FairShareQueue.getPageCount(callable);
+        }
+        
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public VolumeReader call() throws Exception {
+            try {
+                return callable.call();
+            } finally {
+                synchronized (flightMap) {
+                    removeFlight(flight);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Method to return the number of fetches dispatched
+     * @return the number of fetches dispatched
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+    
+    /**
+     * Method to return the number of submissions that joined a fetch already in flight instead of dispatching their own
+     * @return the number of coalesced submissions
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "SingleFlightFetcher fetches: " + getFetchCount() + " coalesced: " + getCoalescedCount();
+    }
+    
+    /**
+     * Method to remove a Flight from flightMap if it is still mapped. The caller must hold the lock of flightMap
+     * @param flight the Flight object to be removed
+     */
+    protected void removeFlight(Flight flight) {
+        if (flightMap.get(flight.key) == flight) {
+            flightMap.remove(flight.key);
+        }
+    }
+    
+    /**
+     * Method to generate the key of a work unit from its volumeID and the sorted lists of its page sequence numbers and metadata names
+     * @param itemCoordinates a RequestedItemCoordinates object as the work unit
+     * @return the key of the work unit
+     */
+    protected static String generateKey(RequestedItemCoordinates itemCoordinates) {
+        StringBuilder keyBuilder = new StringBuilder(itemCoordinates.getVolumeID());
+        keyBuilder.append('|').append(sortedCopy(itemCoordinates.getPageSequences()));
+        keyBuilder.append('|').append(sortedCopy(itemCoordinates.getMetadataNames()));
+        return keyBuilder.toString();
+    }
+    
+    /**
+     * Method to return a sorted copy of a List of Strings
+     * @param list a List of String objects, or <code>null</code>
+     * @return a sorted copy of the List, or <code>null</code> if the List is <code>null</code>
+     */
+    private static List<String> sortedCopy(List<String> list) {
+        if (list == null) {
+            return null;
+        }
+        List<String> sortedList = new ArrayList<String>(list);
+        Collections.sort(sortedList);
+        return sortedList;
+    }
+
+}
@@ -32,29 +32,42 @@
 package edu.indiana.d2i.htrc.access.async;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.AdmissionController;
+import edu.indiana.d2i.htrc.access.Cancellable;
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestDeadline;
+import edu.indiana.d2i.htrc.access.VolumeCompletionTracker;
 import edu.indiana.d2i.htrc.access.VolumeInfo;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.VolumeStore;
 import edu.indiana.d2i.htrc.access.async.ExceptionContainer.ExceptionType;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
 import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
-import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.read.ConcurrencyLimiter;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -63,7 +76,7 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  * @author Yiming Sun
  *
  */
-public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
+public class ThrottledVolumeRetrieverImpl implements VolumeRetriever, VolumeCompletionTracker, Cancellable {
 
     private static Logger log = Logger.getLogger(ThrottledVolumeRetrieverImpl.class);
     
@@ -71,14 +84,27 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
     public static final String PN_MAX_ASYNC_FETCH_ENTRY_COUNT = "max.async.fetch.entry.count";
     public static final String PN_MAX_EXCEPTIONS_TO_REPORT = "max.exceptions.to.report";
     public static final String PN_MIN_ENTRY_COUNT_TRIGGER_DISPATCH = "min.entry.count.trigger.dispatch";
+    public static final String PN_UNORDERED_RETRIEVAL = "unordered.retrieval";
+    public static final String PN_BYTE_BUDGET_PAGE_ESTIMATE = "byte.budget.page.estimate";
+    public static final String PN_VOLUME_INFO_PREFETCH_COUNT = "volume.info.prefetch.count";
+    public static final String PN_VOLUME_INFO_PREFETCH_MAX_WAIT = "volume.info.prefetch.max.wait";
+    protected static final long DEFAULT_BYTE_BUDGET_PAGE_ESTIMATE = 4096;
+    protected static final long DEFAULT_VOLUME_INFO_PREFETCH_MAX_WAIT = 10000;
     
     
-    protected static HectorResource hectorResource = null;
+    protected static VolumeStore volumeStore = null;
     protected static AsyncFetchManager asyncFetchManager = null;
+    protected static AdaptiveBatchSizer adaptiveBatchSizer = null;
+    protected static ConcurrencyLimiter concurrencyLimiter = null;
+    protected static ByteBudget byteBudget = null;
+    protected static long BYTE_BUDGET_PAGE_ESTIMATE = DEFAULT_BYTE_BUDGET_PAGE_ESTIMATE;
     protected static int MAX_PAGES_PER_RETRIEVAL = 0;
     protected static int MAX_ASYNC_FETCH_ENTRY_COUNT = 0;
     protected static int MAX_EXCEPTIONS_TO_REPORT = 0;
     protected static int MIN_ENTRY_COUNT_TRIGGER_DISPATCH = 0;
+    protected static boolean UNORDERED_RETRIEVAL = false;
+    protected static int VOLUME_INFO_PREFETCH_COUNT = 0;
+    protected static long VOLUME_INFO_PREFETCH_MAX_WAIT = DEFAULT_VOLUME_INFO_PREFETCH_MAX_WAIT;
     
     
     protected List<? extends RequestedItemCoordinates> identifierList = null;
@@ -86,6 +112,16 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
     protected List<Future<VolumeReader>> resultList = null;
     protected List<ExceptionContainer> exceptionList = null;
     protected final Auditor auditor;
+    protected final String tenantID;
+    protected final RequestDeadline deadline;
+    protected boolean deadlineExceeded = false;
+    
+    // whether the fetches go to the interactive lane, which is decided from the estimated page count of the request
+    protected boolean interactive = false;
+    
+    // only used in unordered mode, where the fetches put their Futures on this queue as they complete
+    protected final BlockingQueue<Future<VolumeReader>> completionQueue;
+    protected final CompletionListener<VolumeReader> completionListener;
 
     // This map is needed to hold on to the VolumePageIdentifier object until it has been
     // processed. This is because the CallableVolumeFetcher uses a WeakReference to hold on
@@ -95,22 +131,74 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
     // executed.
     protected Map<Future<VolumeReader>, ItemCoordinatesImpl> resultToIDMap = null;
     
+    // bytes reserved from the ByteBudget for each dispatched work unit, and the VolumeReader currently handed out which gives them back page by page
+    protected Map<ItemCoordinatesImpl, Long> reservedBytesMap = null;
+    protected BudgetedVolumeReader currentBudgetedReader = null;
+    protected boolean byteBudgetTimedOut = false;
+    
+    // the pending VolumeInfo lookups of whole volumes further down the identifierList, and how many identifiers at its head have been looked at for them
+    protected Map<String, Future<Map<String, VolumeInfo>>> volumeInfoFutureMap = null;
+    protected int prefetchScanIndex = 0;
+    
+    // the number of requested items not broken down yet plus work units not returned yet of each volume, so callers can tell when a volume is complete
+    protected Map<String, Integer> pendingPieceCountMap = null;
+    
     protected Set<String> exceptionSet = new HashSet<String>();
     
     /**
      * Method to initialize this class
      * @param parameterContainer an ParameterContainer object
-     * @param hectorResource an HectorResource object
+     * @param volumeStore a VolumeStore object
      * @param asyncFetchManager an AsyncFetchManager object
      */
-    public static void init(ParameterContainer parameterContainer, HectorResource hectorResource, AsyncFetchManager asyncFetchManager) {
+    public static void init(ParameterContainer parameterContainer, VolumeStore volumeStore, AsyncFetchManager asyncFetchManager) {
         MAX_ASYNC_FETCH_ENTRY_COUNT = Integer.parseInt(parameterContainer.getParameter(PN_MAX_ASYNC_FETCH_ENTRY_COUNT));
         MAX_EXCEPTIONS_TO_REPORT = Integer.parseInt(parameterContainer.getParameter(PN_MAX_EXCEPTIONS_TO_REPORT));
         MAX_PAGES_PER_RETRIEVAL = Integer.parseInt(parameterContainer.getParameter(PN_MAX_PAGES_PER_RETRIEVAL));
         MIN_ENTRY_COUNT_TRIGGER_DISPATCH = Integer.parseInt(parameterContainer.getParameter(PN_MIN_ENTRY_COUNT_TRIGGER_DISPATCH));
         
-        ThrottledVolumeRetrieverImpl.hectorResource = hectorResource;
+        String unorderedRetrievalString = parameterContainer.getParameter(PN_UNORDERED_RETRIEVAL);
+        UNORDERED_RETRIEVAL = (unorderedRetrievalString != null) ? Boolean.parseBoolean(unorderedRetrievalString) : false;
+        if (log.isDebugEnabled()) log.debug("unorderedRetrieval = " + UNORDERED_RETRIEVAL);
+        
+        String byteBudgetPageEstimateString = parameterContainer.getParameter(PN_BYTE_BUDGET_PAGE_ESTIMATE);
+        BYTE_BUDGET_PAGE_ESTIMATE = (byteBudgetPageEstimateString != null) ? Long.parseLong(byteBudgetPageEstimateString) : DEFAULT_BYTE_BUDGET_PAGE_ESTIMATE;
+        
+        String volumeInfoPrefetchCountString = parameterContainer.getParameter(PN_VOLUME_INFO_PREFETCH_COUNT);
+        VOLUME_INFO_PREFETCH_COUNT = (volumeInfoPrefetchCountString != null) ? Integer.parseInt(volumeInfoPrefetchCountString) : 0;
+        String volumeInfoPrefetchMaxWaitString = parameterContainer.getParameter(PN_VOLUME_INFO_PREFETCH_MAX_WAIT);
+        VOLUME_INFO_PREFETCH_MAX_WAIT = (volumeInfoPrefetchMaxWaitString != null) ? Long.parseLong(volumeInfoPrefetchMaxWaitString) : DEFAULT_VOLUME_INFO_PREFETCH_MAX_WAIT;
+        if (log.isDebugEnabled()) log.debug("volumeInfoPrefetchCount = " + VOLUME_INFO_PREFETCH_COUNT + " volumeInfoPrefetchMaxWait = " + VOLUME_INFO_PREFETCH_MAX_WAIT);
+        
+        ThrottledVolumeRetrieverImpl.volumeStore = volumeStore;
         ThrottledVolumeRetrieverImpl.asyncFetchManager = asyncFetchManager;
+        ThrottledVolumeRetrieverImpl.adaptiveBatchSizer = asyncFetchManager.getAdaptiveBatchSizer();
+        ThrottledVolumeRetrieverImpl.concurrencyLimiter = volumeStore.getConcurrencyLimiter();
+        ThrottledVolumeRetrieverImpl.byteBudget = asyncFetchManager.getByteBudget();
+    }
+    
+    /**
+     * Method to return the maximum number of pages a single fetch may ask for, which is picked by the AdaptiveBatchSizer from the recent fetches if adaptive
+     * batch sizing is enabled, and is max.pages.per.retrieval otherwise
+     * @return the maximum number of pages per fetch
+     */
+    protected static int getPagesPerRetrieval() {
+        return (adaptiveBatchSizer != null) ? adaptiveBatchSizer.getBatchSize(MAX_PAGES_PER_RETRIEVAL) : MAX_PAGES_PER_RETRIEVAL;
+    }
+    
+    /**
+     * Method to estimate the number of bytes a work unit will hold once fetched, which is the average page size observed by the AdaptiveBatchSizer if there
+     * is one, and byte.budget.page.estimate otherwise, for each page or metadata entry
+     * @param identifierImpl an ItemCoordinatesImpl object as the work unit
+     * @return the estimated number of bytes
+     */
+    protected static long estimateBytes(ItemCoordinatesImpl identifierImpl) {
+        long bytesPerPage = (adaptiveBatchSizer != null) ? adaptiveBatchSizer.getBytesPerPage() : 0;
+        if (bytesPerPage <= 0) {
+            bytesPerPage = BYTE_BUDGET_PAGE_ESTIMATE;
+        }
+        int entryCount = identifierImpl.getPageSequenceCount() + identifierImpl.getMetadataNameCount();
+        return bytesPerPage * Math.max(1, entryCount);
     }
     
     /**
@@ -119,28 +207,93 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
      * @return a new instance of ThrottledVolumeRetrieverImpl object
      */
     public static ThrottledVolumeRetrieverImpl newInstance(Auditor auditor) {
-        ThrottledVolumeRetrieverImpl instance = new ThrottledVolumeRetrieverImpl(auditor);
+        return newInstance(auditor, false);
+    }
+    
+    /**
+     * Factory method to create an new instance of this class, which returns the volumes in the order they complete instead of the order they were requested
+     * if unordered.retrieval is enabled and the caller does not depend on the order
+     * @param auditor an Auditor object
+     * @param orderInsensitive <code>true</code> if the caller does not depend on the order in which volumes and pages are returned, <code>false</code> otherwise
+     * @return a new instance of ThrottledVolumeRetrieverImpl object
+     */
+    public static ThrottledVolumeRetrieverImpl newInstance(Auditor auditor, boolean orderInsensitive) {
+        return newInstance(auditor, orderInsensitive, null);
+    }
+    
+    /**
+     * Factory method to create an new instance of this class that fetches on behalf of a tenant, so the fetches share the async workers fairly with those of
+     * other tenants if async.fair.share is enabled
+     * @param auditor an Auditor object
+     * @param orderInsensitive <code>true</code> if the caller does not depend on the order in which volumes and pages are returned, <code>false</code> otherwise
+     * @param tenantID ID of the tenant (user or client) the volumes are retrieved for, or <code>null</code> for the default tenant
+     * @return a new instance of ThrottledVolumeRetrieverImpl object
+     */
+    public static ThrottledVolumeRetrieverImpl newInstance(Auditor auditor, boolean orderInsensitive, String tenantID) {
+        return newInstance(auditor, orderInsensitive, tenantID, null);
+    }
+    
+    /**
+     * Factory method to create an new instance of this class that gives up on the volumes not returned yet once the deadline of the request passes, and
+     * reports the deadline as the last exception
+     * @param auditor an Auditor object
+     * @param orderInsensitive <code>true</code> if the caller does not depend on the order in which volumes and pages are returned, <code>false</code> otherwise
+     * @param tenantID ID of the tenant (user or client) the volumes are retrieved for, or <code>null</code> for the default tenant
+     * @param deadline the RequestDeadline of the request, or <code>null</code> if it has none
+     * @return a new instance of ThrottledVolumeRetrieverImpl object
+     */
+    public static ThrottledVolumeRetrieverImpl newInstance(Auditor auditor, boolean orderInsensitive, String tenantID, RequestDeadline deadline) {
+        ThrottledVolumeRetrieverImpl instance = new ThrottledVolumeRetrieverImpl(auditor, UNORDERED_RETRIEVAL && orderInsensitive, tenantID, deadline);
         return instance;
     }
     
     /**
      * Constructor. Used internally by the factory method
      * @param auditor an Auditor object
+     * @param unordered <code>true</code> to return the volumes in the order they complete, <code>false</code> to return them in the order they were requested
+     * @param tenantID ID of the tenant the volumes are retrieved for, or <code>null</code> for the default tenant
+     * @param deadline the RequestDeadline of the request, or <code>null</code> if it has none
      */
-    protected ThrottledVolumeRetrieverImpl(Auditor auditor) {
+    protected ThrottledVolumeRetrieverImpl(Auditor auditor, boolean unordered, String tenantID, RequestDeadline deadline) {
         this.auditor = auditor;
+        this.tenantID = tenantID;
+        this.deadline = deadline;
+        if (unordered) {
+            this.completionQueue = new LinkedBlockingQueue<Future<VolumeReader>>();
+            this.completionListener = new CompletionListener<VolumeReader>() {
+                @Override
+                public void completed(Future<VolumeReader> future) {
+                    completionQueue.add(future);
+                }
+            };
+        } else {
+            this.completionQueue = null;
+            this.completionListener = null;
+        }
         this.workingList = new LinkedList<ItemCoordinatesImpl>();
         this.resultList = new LinkedList<Future<VolumeReader>>();
         this.exceptionList = new LinkedList<ExceptionContainer>();
         this.resultToIDMap = new HashMap<Future<VolumeReader>, ItemCoordinatesImpl>();
+        this.reservedBytesMap = new IdentityHashMap<ItemCoordinatesImpl, Long>();
+        this.volumeInfoFutureMap = new HashMap<String, Future<Map<String, VolumeInfo>>>();
+        this.pendingPieceCountMap = new HashMap<String, Integer>();
     }
     
     /**
-     * Method for setting a List of HTRCItemIdentifier objects for retrieval
+     * Method for setting a List of HTRCItemIdentifier objects for retrieval. A request estimated to have no more pages than async.interactive.max.pages is
+     * fetched in the interactive lane.  A whole volume whose page count is not cached counts as a single page here, so a cold request for one volume is not
+     * taken for bulk work, while a request for many volumes still is.  The List is copied, so taking items off it and cancelling the retrieval leave the List
+     * of the caller as it was
      * @param identifiers a List of HTRCItemIdentifier objects for retrieval
      */
     public void setRetrievalIDs(List<? extends RequestedItemCoordinates> identifiers) {
-        this.identifierList = identifiers;
+        int interactiveMaxPages = asyncFetchManager.getInteractiveMaxPages();
+        this.interactive = (interactiveMaxPages > 0 && AdmissionController.getInstance().estimatePageCount(identifiers, 1) <= interactiveMaxPages);
+        if (log.isDebugEnabled()) log.debug("interactive = " + interactive);
+        this.identifierList = new ArrayList<RequestedItemCoordinates>(identifiers);
+        for (RequestedItemCoordinates identifier : identifierList) {
+            countPendingPieces(identifier.getVolumeID(), 1);
+        }
         dispatchWork();
     }
     
@@ -150,7 +303,9 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
      * @return the number of jobs dispatched
      */
     protected int dispatchWork() {
-        int availableSlots = MAX_ASYNC_FETCH_ENTRY_COUNT - resultList.size();
+        // a single request never has more fetches queued than Cassandra is currently allowed to serve at once
+        int maxEntryCount = (concurrencyLimiter != null) ? Math.min(MAX_ASYNC_FETCH_ENTRY_COUNT, concurrencyLimiter.getLimit()) : MAX_ASYNC_FETCH_ENTRY_COUNT;
+        int availableSlots = maxEntryCount - resultList.size();
         int jobDispatched = 0;
         
         if (log.isDebugEnabled()) log.debug("availableSlots: " + availableSlots);
@@ -158,51 +313,274 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         boolean done = false;
         while (availableSlots > 0 && !done) {
             if (!workingList.isEmpty()) {
-                ItemCoordinatesImpl identifierImpl = workingList.remove(0);
-                Future<VolumeReader> future = asyncFetchManager.submit(identifierImpl);
-                resultList.add(future);
-                resultToIDMap.put(future, identifierImpl);
-                availableSlots--;
-                jobDispatched++;
-                if (log.isDebugEnabled()) log.debug("workingList not empty, availableSlots: " + availableSlots + " jobDispatched: " + jobDispatched);
-            } else if (!identifierList.isEmpty()){
-                if (log.isDebugEnabled()) log.debug("workingList empty, breakdown identifierList");
-                RequestedItemCoordinates identifier = identifierList.remove(0);
-                String volumeID = identifier.getVolumeID();
-                List<String> pageSequences = identifier.getPageSequences();
-                if (pageSequences == null) {
-                    try {
-                        VolumeInfo volumeInfo = hectorResource.getVolumeInfo(volumeID);
-                        int pageCount = volumeInfo.getPageCount();
-                        pageSequences = generatePageSequenceList(pageCount);
-                    } catch (RepositoryException re) {
-                        log.error("RepositoryException while getVolumeInfo", re);
-                        enlistException(re, auditor);
-                    } catch (KeyNotFoundException knfe) {
-                        log.error("KeyNotFoundException while getVolumeInfo", knfe);
-                        enlistException(knfe, auditor);
+                List<ItemCoordinatesImpl> multigetList = takeMultigetBatch(availableSlots);
+                if (multigetList.size() > 1) {
+                    if (reserveBytes(multigetList)) {
+                        List<Future<VolumeReader>> futures = asyncFetchManager.submit(multigetList, tenantID, interactive, deadline, completionListener);
+                        for (int i = 0; i < futures.size(); i++) {
+                            resultList.add(futures.get(i));
+                            resultToIDMap.put(futures.get(i), multigetList.get(i));
+                        }
+                        availableSlots -= futures.size();
+                        jobDispatched++;
+                        if (log.isDebugEnabled()) log.debug("multiget of " + futures.size() + " volumes dispatched, availableSlots: " + availableSlots + " jobDispatched: " + jobDispatched);
+                    } else {
+                        workingList.addAll(0, multigetList);
+                        done = true;
+                    }
+                } else {
+                    ItemCoordinatesImpl identifierImpl = workingList.get(0);
+                    if (reserveBytes(Collections.singletonList(identifierImpl))) {
+                        workingList.remove(0);
+                        Future<VolumeReader> future = asyncFetchManager.submit(identifierImpl, tenantID, interactive, deadline, completionListener);
+                        resultList.add(future);
+                        resultToIDMap.put(future, identifierImpl);
+                        availableSlots--;
+                        jobDispatched++;
+                        if (log.isDebugEnabled()) log.debug("workingList not empty, availableSlots: " + availableSlots + " jobDispatched: " + jobDispatched);
+                    } else {
+                        done = true;
                     }
                 }
-                
-                if (pageSequences != null) {
-                    List<ItemCoordinatesImpl> workingIDList = breakdownPageSequences(volumeID, pageSequences);
-                    workingList.addAll(workingIDList);
-                }
-                
-                List<String> metadataNames = identifier.getMetadataNames();
-                if (metadataNames != null) {
-                    List<ItemCoordinatesImpl> metadataList = breakdownMetadataNames(volumeID, metadataNames);
-                    workingList.addAll(metadataList);
-                }
+            } else if (!identifierList.isEmpty()){
+                if (log.isDebugEnabled()) log.debug("workingList empty, breakdown identifierList");
+                breakdownNextIdentifier();
             } else {
                 if (log.isDebugEnabled()) log.debug("no more work to dispatch");
                 done = true;
             }
         }
         
+        if (byteBudgetTimedOut) {
+            byteBudgetTimedOut = false;
+            if (deadline != null && deadline.isExpired()) {
+                if (!deadlineExceeded) {
+                    exceedDeadline();
+                }
+            } else {
+                exhaustByteBudget();
+            }
+        }
+        
         return jobDispatched;
     }
     
+    /**
+     * Method to reserve the estimated bytes of work units from the ByteBudget before they are dispatched.  While this request still has fetches outstanding,
+     * the reservation is only tried, so that the request consumes its outstanding fetches (and releases their bytes) instead of waiting on itself.  Otherwise
+     * it waits for other requests to release bytes, but no longer than async.byte.budget.max.wait or the time left before the deadline of the request.
+     * @param identifierImpls a List of ItemCoordinatesImpl objects as the work units to be dispatched
+     * @return <code>true</code> if the work units may be dispatched, <code>false</code> if they should stay on the workingList for now
+     */
+    protected boolean reserveBytes(List<ItemCoordinatesImpl> identifierImpls) {
+        if (byteBudget == null) {
+            return true;
+        }
+        
+        long[] unitBytes = new long[identifierImpls.size()];
+        long bytes = 0;
+        for (int i = 0; i < unitBytes.length; i++) {
+            unitBytes[i] = estimateBytes(identifierImpls.get(i));
+            bytes += unitBytes[i];
+        }
+        
+        if (!resultList.isEmpty()) {
+            if (!byteBudget.tryAcquire(bytes)) {
+                if (log.isDebugEnabled()) log.debug("byte budget exhausted, holding back " + bytes + " bytes of work");
+                return false;
+            }
+        } else if (!((deadline != null) ? byteBudget.acquire(bytes, deadline.getRemainingMillis()) : byteBudget.acquire(bytes))) {
+            log.warn("byte budget did not allow " + bytes + " bytes of work in time");
+            byteBudgetTimedOut = true;
+            return false;
+        }
+        
+        for (int i = 0; i < unitBytes.length; i++) {
+            reservedBytesMap.put(identifierImpls.get(i), unitBytes[i]);
+        }
+        return true;
+    }
+    
+    /**
+     * Method that takes the next requested item off the identifierList, breaks it down into work units and appends them to the workingList
+     */
+    protected void breakdownNextIdentifier() {
+        if (VOLUME_INFO_PREFETCH_COUNT > 0) {
+            prefetchVolumeInfos();
+        }
+        
+        RequestedItemCoordinates identifier = identifierList.remove(0);
+        if (prefetchScanIndex > 0) {
+            prefetchScanIndex--;
+        }
+        String volumeID = identifier.getVolumeID();
+        List<String> pageSequences = identifier.getPageSequences();
+        if (pageSequences == null) {
+            try {
+                VolumeInfo volumeInfo = takePrefetchedVolumeInfo(volumeID);
+                if (volumeInfo == null) {
+                    RequestDeadline.setCurrent(deadline);
+                    try {
+                        volumeInfo = volumeStore.getVolumeInfo(volumeID);
+                    } finally {
+                        RequestDeadline.clearCurrent();
+                    }
+                }
+                int pageCount = volumeInfo.getPageCount();
+                pageSequences = generatePageSequenceList(pageCount);
+            } catch (RepositoryException re) {
+                log.error("RepositoryException while getVolumeInfo", re);
+                enlistException(re, auditor);
+            } catch (KeyNotFoundException knfe) {
+                log.error("KeyNotFoundException while getVolumeInfo", knfe);
+                enlistException(knfe, auditor);
+            }
+        }
+        
+        int pieceCount = 0;
+        if (pageSequences != null) {
+            List<ItemCoordinatesImpl> workingIDList = breakdownPageSequences(volumeID, pageSequences);
+            workingList.addAll(workingIDList);
+            pieceCount += workingIDList.size();
+        }
+        
+        List<String> metadataNames = identifier.getMetadataNames();
+        if (metadataNames != null) {
+            List<ItemCoordinatesImpl> metadataList = breakdownMetadataNames(volumeID, metadataNames);
+            workingList.addAll(metadataList);
+            pieceCount += metadataList.size();
+        }
+        
+        // the requested item is replaced by its work units
+        countPendingPieces(volumeID, pieceCount - 1);
+    }
+    
+    /**
+     * Method to add to the number of pending pieces of a volume, and to forget the volume once none are left
+     * @param volumeID volumeID of the volume
+     * @param delta the number of pieces to add, or a negative number of pieces to take away
+     */
+    protected void countPendingPieces(String volumeID, int delta) {
+        Integer count = pendingPieceCountMap.get(volumeID);
+        if (count == null && delta <= 0) {
+            return;
+        }
+        int newCount = ((count != null) ? count : 0) + delta;
+        if (newCount > 0) {
+            pendingPieceCountMap.put(volumeID, newCount);
+        } else {
+            pendingPieceCountMap.remove(volumeID);
+        }
+    }
+    
+    /**
+     * Method to look up the VolumeInfo of the next whole volumes on the identifierList asynchronously, so their page counts are known by the time they are
+     * broken down and the lookups overlap with the fetches already dispatched.  The lookups are only topped up to volume.info.prefetch.count volumes once no
+     * more than half of them are still pending, so the volumes are looked up in batches instead of one at a time
+     */
+    protected void prefetchVolumeInfos() {
+        int pendingCount = volumeInfoFutureMap.size();
+        if (pendingCount > VOLUME_INFO_PREFETCH_COUNT / 2 || prefetchScanIndex >= identifierList.size()) {
+            return;
+        }
+        
+        List<String> volumeIDs = new ArrayList<String>();
+        ListIterator<? extends RequestedItemCoordinates> iterator = identifierList.listIterator(prefetchScanIndex);
+        while (iterator.hasNext() && pendingCount + volumeIDs.size() < VOLUME_INFO_PREFETCH_COUNT) {
+            RequestedItemCoordinates identifier = iterator.next();
+            prefetchScanIndex++;
+            String volumeID = identifier.getVolumeID();
+            if (identifier.getPageSequences() == null && !volumeInfoFutureMap.containsKey(volumeID) && !volumeIDs.contains(volumeID)) {
+                volumeIDs.add(volumeID);
+            }
+        }
+        
+        if (!volumeIDs.isEmpty()) {
+            Future<Map<String, VolumeInfo>> future = asyncFetchManager.submitVolumeInfoLookup(volumeIDs, tenantID, deadline);
+            for (String volumeID : volumeIDs) {
+                volumeInfoFutureMap.put(volumeID, future);
+            }
+            if (log.isDebugEnabled()) log.debug("VolumeInfo of " + volumeIDs.size() + " volumes prefetched, pending: " + volumeInfoFutureMap.size());
+        }
+    }
+    
+    /**
+     * Method to take the prefetched VolumeInfo of a volume, waiting for the lookup if it is still pending, but no longer than volume.info.prefetch.max.wait or
+     * the time left before the deadline of the request
+     * @param volumeID volumeID of the volume
+     * @return the prefetched VolumeInfo object, or <code>null</code> if the volume was not prefetched, was not found, or the lookup failed or did not complete
+     * in time, in which case the caller looks the volume up again to get the proper exception
+     */
+    protected VolumeInfo takePrefetchedVolumeInfo(String volumeID) {
+        VolumeInfo volumeInfo = null;
+        Future<Map<String, VolumeInfo>> future = volumeInfoFutureMap.remove(volumeID);
+        if (future != null) {
+            long maxWait = (deadline != null) ? Math.min(VOLUME_INFO_PREFETCH_MAX_WAIT, deadline.getRemainingMillis()) : VOLUME_INFO_PREFETCH_MAX_WAIT;
+            try {
+                volumeInfo = future.get(maxWait, TimeUnit.MILLISECONDS).get(volumeID);
+            } catch (TimeoutException e) {
+                log.warn("Prefetched VolumeInfo of volume: " + volumeID + " not ready after " + maxWait + " ms");
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the prefetched VolumeInfo of volume: " + volumeID, e);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                log.warn("Prefetching the VolumeInfo of volume: " + volumeID + " failed", e.getCause());
+            }
+        }
+        return volumeInfo;
+    }
+    
+    /**
+     * Method that takes a run of small work units off the head of the workingList so they can be fetched together with a single multiget.
+     * 
+     * Only work units asking for pages alone are eligible, each volume may appear only once in a batch, and the total number of pages in a batch may not exceed
+     * the number of pages per fetch, so a batch costs no more than a regular fetch.  More requested items are broken down as needed to fill up the batch.
+     * 
+     * @param availableSlots the number of async fetch slots currently available
+     * @return a List of ItemCoordinatesImpl objects removed from the workingList. It is empty if the work unit at the head of the workingList is not eligible or if
+     * multiget is disabled.
+     */
+    protected List<ItemCoordinatesImpl> takeMultigetBatch(int availableSlots) {
+        List<ItemCoordinatesImpl> batch = new LinkedList<ItemCoordinatesImpl>();
+        int maxBatchSize = Math.min(availableSlots, volumeStore.getMaxVolumesPerBatch());
+        
+        if (maxBatchSize > 1) {
+            int maxBatchPageCount = getPagesPerRetrieval();
+            Set<String> batchVolumeIDs = new HashSet<String>();
+            int batchPageCount = 0;
+            boolean full = false;
+            
+            while (!full) {
+                if (workingList.isEmpty() && !identifierList.isEmpty()) {
+                    breakdownNextIdentifier();
+                } else if (!workingList.isEmpty()) {
+                    ItemCoordinatesImpl identifierImpl = workingList.get(0);
+                    int pageCount = identifierImpl.getPageSequenceCount();
+                    
+                    if (identifierImpl.getMetadataNameCount() == 0 && pageCount > 0
+                            && !batchVolumeIDs.contains(identifierImpl.getVolumeID())
+                            && batchPageCount + pageCount <= maxBatchPageCount) {
+                        batch.add(workingList.remove(0));
+                        batchVolumeIDs.add(identifierImpl.getVolumeID());
+                        batchPageCount += pageCount;
+                        full = (batch.size() >= maxBatchSize);
+                    } else {
+                        full = true;
+                    }
+                } else {
+                    full = true;
+                }
+            }
+            
+            if (batch.size() == 1) {
+                // nothing to batch it with, so put it back and let it go through the regular fetch
+                workingList.add(0, batch.remove(0));
+            }
+        }
+        
+        return batch;
+    }
+    
     /**
      * Method that breaks down the total number of pages to be retrieved for a given volumeID into a number of smaller batches
      * @param volumeID volumeID of the volume or pages to be retrieved
@@ -213,17 +591,18 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         List<ItemCoordinatesImpl> identifiers = new LinkedList<ItemCoordinatesImpl>();
 
         int size = pageSequences.size();
-        int fullBatchCount = (size / MAX_PAGES_PER_RETRIEVAL);
+        int pagesPerRetrieval = getPagesPerRetrieval();
+        int fullBatchCount = (size / pagesPerRetrieval);
 
         for (int i = 0; i < fullBatchCount; i++) {
             ItemCoordinatesImpl identifierImpl = new ItemCoordinatesImpl(volumeID);
-            for (int j = 0; j < MAX_PAGES_PER_RETRIEVAL; j++) {
+            for (int j = 0; j < pagesPerRetrieval; j++) {
                 identifierImpl.addPageSequence(pageSequences.remove(0));
             }
             identifiers.add(identifierImpl);
         }
         
-        int remainingCount = size % MAX_PAGES_PER_RETRIEVAL;
+        int remainingCount = size % pagesPerRetrieval;
         
         if (remainingCount > 0) {
             ItemCoordinatesImpl identifierImpl = new ItemCoordinatesImpl(volumeID);
@@ -253,6 +632,53 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         return identifiers;
     }
     
+    /**
+     * Method to cancel the outstanding fetches and drop the work not dispatched yet, so a client that went away stops costing Cassandra reads. This also
+     * releases the work units held by resultToIDMap, which would otherwise keep the fetches from noticing that the client is gone
+     * @see edu.indiana.d2i.htrc.access.Cancellable#cancel()
+     */
+    @Override
+    public int cancel() {
+        int count = dropOutstandingWork();
+        exceptionList.clear();
+        return count;
+    }
+    
+    /**
+     * Method to cancel the outstanding fetches and drop the work not dispatched yet, keeping the exceptions collected so far
+     * @return the number of outstanding fetches cancelled and work units dropped
+     */
+    protected int dropOutstandingWork() {
+        int cancelledCount = asyncFetchManager.cancel(resultList);
+        int droppedCount = workingList.size() + ((identifierList != null) ? identifierList.size() : 0);
+        
+        resultList.clear();
+        resultToIDMap.clear();
+        releaseCurrentReader();
+        if (byteBudget != null) {
+            for (Long reservedBytes : reservedBytesMap.values()) {
+                byteBudget.release(reservedBytes);
+            }
+        }
+        reservedBytesMap.clear();
+        for (Future<Map<String, VolumeInfo>> future : volumeInfoFutureMap.values()) {
+            future.cancel(false);
+        }
+        volumeInfoFutureMap.clear();
+        prefetchScanIndex = 0;
+        workingList.clear();
+        if (identifierList != null) {
+            identifierList.clear();
+        }
+        if (completionQueue != null) {
+            completionQueue.clear();
+        }
+        pendingPieceCountMap.clear();
+        
+        if (log.isDebugEnabled()) log.debug("cancelled " + cancelledCount + " fetches and dropped " + droppedCount + " work units not dispatched yet");
+        return cancelledCount + droppedCount;
+    }
+    
     /**
      * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasMoreVolumes()
      */
@@ -270,14 +696,28 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         VolumeReader volumeReader = null;
         boolean done = false;
         
+        // the caller is done with the previous volume by now, so whatever it has not given back to the byte budget yet is released before dispatching more
+        releaseCurrentReader();
+        
         while (!done) {
+            if (deadline != null && !deadlineExceeded && deadline.isExpired()) {
+                exceedDeadline();
+            }
+            
             if (!resultList.isEmpty()) {
                 if (log.isDebugEnabled()) log.debug("trying to return entry from resultList");
-                Future<VolumeReader> future = resultList.remove(0);
+                Future<VolumeReader> future = (completionQueue != null) ? takeCompletedResult() : resultList.remove(0);
+                ItemCoordinatesImpl identifierImpl = resultToIDMap.get(future);
+                if (identifierImpl != null) {
+                    countPendingPieces(identifierImpl.getVolumeID(), -1);
+                }
                 
                 try {
-                    volumeReader = future.get();
+                    volumeReader = (deadline != null) ? future.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS) : future.get();
                     done = true;
+                } catch (TimeoutException te) {
+                    future.cancel(false);
+                    exceedDeadline();
                 } catch (InterruptedException ie) {
                     log.error("Async Fetch Interrupted: ", ie);
                 } catch (ExecutionException ee) {
@@ -289,6 +729,7 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
                 } finally {
                     resultToIDMap.remove(future);
                 }
+                volumeReader = applyByteBudget(volumeReader, identifierImpl);
                 
                 if (resultList.size() <= MIN_ENTRY_COUNT_TRIGGER_DISPATCH) {
                     if (log.isDebugEnabled()) log.debug("trigger threshold reached");
@@ -320,6 +761,97 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         return volumeReader;
     }
     
+    /**
+     * Method to check if all work units of a volume have been returned by nextVolume.  A work unit whose fetch failed counts as returned, and so does all
+     * work dropped because of a cancellation, the deadline or the byte budget
+     * @see edu.indiana.d2i.htrc.access.VolumeCompletionTracker#isVolumeComplete(java.lang.String)
+     */
+    @Override
+    public boolean isVolumeComplete(String volumeID) {
+        return !pendingPieceCountMap.containsKey(volumeID);
+    }
+    
+    /**
+     * Method to give up on everything not returned yet once the deadline of the request has passed, and to report the deadline as the last exception
+     */
+    protected void exceedDeadline() {
+        deadlineExceeded = true;
+        int droppedCount = dropOutstandingWork();
+        DeadlineExceededException exception = deadline.markExceeded(droppedCount);
+        if (exception != null) {
+            log.warn(exception.getMessage());
+            // reported regardless of max.exceptions.to.report, since it explains why the rest of the request is missing
+            exceptionList.add(new ExceptionContainer(exception, ExceptionType.EXCEPTION_REPOSITORY));
+            auditor.error("DeadlineExceededException", "Deadline Exceeded", exception.getMessage());
+        }
+    }
+    
+    /**
+     * Method to give up on the rest of the request once it has waited too long for the byte budget, and to report it as the last exception, so that the
+     * request fails instead of overdrawing the budget
+     */
+    protected void exhaustByteBudget() {
+        int droppedCount = dropOutstandingWork();
+        RepositoryException exception = new RepositoryException("Service busy: byte budget exhausted. " + droppedCount + " items not retrieved");
+        log.warn(exception.getMessage());
+        exceptionList.add(new ExceptionContainer(exception, ExceptionType.EXCEPTION_REPOSITORY));
+        auditor.error("RepositoryException", "Byte Budget Exhausted", exception.getMessage());
+    }
+    
+    /**
+     * Method to hand the bytes reserved for a work unit over to the VolumeReader returned for it, which releases them as the pages are written out.  The bytes
+     * are released right away if there is no VolumeReader because the fetch failed
+     * @param volumeReader the VolumeReader object returned by the fetch, or <code>null</code>
+     * @param identifierImpl an ItemCoordinatesImpl object as the work unit
+     * @return the VolumeReader object to return to the caller
+     */
+    protected VolumeReader applyByteBudget(VolumeReader volumeReader, ItemCoordinatesImpl identifierImpl) {
+        Long reservedBytes = (identifierImpl != null) ? reservedBytesMap.remove(identifierImpl) : null;
+        if (reservedBytes == null) {
+            return volumeReader;
+        }
+        
+        if (volumeReader == null) {
+            byteBudget.release(reservedBytes);
+            return null;
+        }
+        
+        int entryCount = identifierImpl.getPageSequenceCount() + identifierImpl.getMetadataNameCount();
+        currentBudgetedReader = new BudgetedVolumeReader(volumeReader, byteBudget, reservedBytes, entryCount);
+        return currentBudgetedReader;
+    }
+    
+    /**
+     * Method to release the bytes the VolumeReader handed out last still holds in the byte budget
+     */
+    protected void releaseCurrentReader() {
+        if (currentBudgetedReader != null) {
+            currentBudgetedReader.release();
+            currentBudgetedReader = null;
+        }
+    }
+    
+    /**
+     * Method to take the Future that completed first off the resultList, waiting for one to complete if necessary.  The resultList must not be empty
+     * @return a Future object that has completed, or the oldest Future on the resultList if interrupted or if the deadline passed while waiting
+     */
+    protected Future<VolumeReader> takeCompletedResult() {
+        try {
+            Future<VolumeReader> future = null;
+            do {
+                future = (deadline != null) ? completionQueue.poll(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS) : completionQueue.take();
+                if (future == null) {
+                    // the caller finds out about the deadline when it waits for the oldest Future
+                    return resultList.remove(0);
+                }
+            } while (!resultList.remove(future));
+            return future;
+        } catch (InterruptedException ie) {
+            log.error("Interrupted while waiting for a completed fetch", ie);
+            return resultList.remove(0);
+        }
+    }
+    
     /**
      * Method to generate page sequence number strings based on the page count of the volume
      * @param pageCount number of pages in the volume
@@ -343,7 +875,11 @@ public class ThrottledVolumeRetrieverImpl implements VolumeRetriever {
         if (exceptionList.size() < MAX_EXCEPTIONS_TO_REPORT) {
             if (!exceptionSet.contains(exception.getMessage())) {
                 exceptionSet.add(exception.getLocalizedMessage());
-                if (exception instanceof KeyNotFoundException) {
+                if (exception instanceof DeadlineExceededException) {
+                    ExceptionContainer exceptionContainer = new ExceptionContainer(exception, ExceptionType.EXCEPTION_REPOSITORY);
+                    exceptionList.add(exceptionContainer);
+                    auditor.error("DeadlineExceededException", "Deadline Exceeded", exception.getMessage());
+                } else if (exception instanceof KeyNotFoundException) {
                     ExceptionContainer exceptionContainer = new ExceptionContainer(exception, ExceptionType.EXCEPTION_KEY_NOT_FOUND);
                     exceptionList.add(exceptionContainer);
                     auditor.error("KeyNotFoundException", "Key Not Found", exception.getMessage());
@@ -0,0 +1,52 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  DeadlineExceededException.java
+# Description:  This class is the Exception to be thrown when a request runs past its deadline
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.exception;
+
+/**
+ * This class is the Exception to be thrown when a request runs past its deadline, so the work left for it is dropped instead of producing an answer nobody
+ * reads.  It extends RepositoryException so that it is reported wherever a failed retrieval is, and it is never retried
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class DeadlineExceededException extends RepositoryException {
+    
+    /**
+     * Constructor that takes a message
+     * 
+     * @param message a String message for the Exception
+     */
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+}
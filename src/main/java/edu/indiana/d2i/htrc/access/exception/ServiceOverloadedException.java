@@ -0,0 +1,63 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ServiceOverloadedException.java
+# Description:  This class is the Exception to be thrown when the service is too busy to admit a request
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.exception;
+
+/**
+ * This class is the Exception to be thrown when the service is too busy to admit a request, and it carries the number of seconds after which the client
+ * should retry
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ServiceOverloadedException extends DataAPIException {
+    
+    protected final long retryAfterSeconds;
+    
+    /**
+     * Constructor
+     * @param message a String message for the Exception
+     * @param retryAfterSeconds number of seconds after which the client should retry
+     */
+    public ServiceOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+    
+    /**
+     * Method to return the number of seconds after which the client should retry
+     * @return the number of seconds after which the client should retry
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CircuitBreaker.java
+# Description:  This class is a circuit breaker that stops queries to Cassandra while too many of the recent queries have timed out
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is a circuit breaker that stops queries to Cassandra while too many of the recent queries have timed out.  It has 3 states:
+ * 
+ * CLOSED: queries go through, and the outcome of each is recorded in a sliding window of the most recent queries.  Once the window is full and the
+ * fraction of failures in it reaches the failure rate threshold, the breaker trips to OPEN.
+ * 
+ * OPEN: queries are rejected right away, so callers fail fast instead of each going through a full round of timeouts and backoffs.  After the open
+ * duration, the breaker moves to HALF_OPEN.
+ * 
+ * HALF_OPEN: a limited number of probe queries go through while the rest are still rejected.  If all probes succeed, the breaker closes again; if any
+ * probe times out, it trips back to OPEN.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class CircuitBreaker {
+    
+    private static final Logger log = Logger.getLogger(CircuitBreaker.class);
+    
+    /**
+     * This enum is for the states of the circuit breaker
+     * @author Yiming Sun
+     *
+     */
+    public static enum StateEnum {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+    
+    protected final int windowSize;
+    protected final double failureRateThreshold;
+    protected final long openDuration;
+    protected final int halfOpenProbes;
+    
+    // guarded by this
+    protected final boolean[] outcomes;
+    protected int outcomeIndex;
+    protected int outcomeCount;
+    protected int failureCount;
+    protected StateEnum state;
+    protected long openedTime;
+    protected int probesIssued;
+    protected int probesSucceeded;
+    
+    protected final AtomicLong tripCount;
+    protected final AtomicLong rejectedCount;
+    
+    /**
+     * Constructor
+     * @param windowSize number of most recent queries whose outcomes are considered
+     * @param failureRateThreshold fraction of failures in the window, between 0 and 1, at which the breaker trips
+     * @param openDuration number of milliseconds the breaker stays open before letting probe queries through
+     * @param halfOpenProbes number of probe queries that must succeed in the half-open state to close the breaker
+     */
+    public CircuitBreaker(int windowSize, double failureRateThreshold, long openDuration, int halfOpenProbes) {
+        this.windowSize = windowSize;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenProbes = halfOpenProbes;
+        
+        this.outcomes = new boolean[windowSize];
+        this.state = StateEnum.CLOSED;
+        resetWindow();
+        
+        this.tripCount = new AtomicLong(0);
+        this.rejectedCount = new AtomicLong(0);
+    }
+    
+    /**
+     * Method to ask whether a query may go through. Every query that is allowed must later report its outcome with recordSuccess or recordFailure
+     * @return <code>true</code> if the query may go through, <code>false</code> if it should fail fast
+     */
+    public synchronized boolean allowRequest() {
+        if (state == StateEnum.OPEN) {
+            if (currentTimeMillis() - openedTime < openDuration) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            state = StateEnum.HALF_OPEN;
+            probesIssued = 0;
+            probesSucceeded = 0;
+            log.info("Circuit breaker half-open");
+        }
+        
+        if (state == StateEnum.HALF_OPEN) {
+            if (probesIssued >= halfOpenProbes) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            probesIssued++;
+        }
+        return true;
+    }
+    
+    /**
+     * Method to record a query that completed, or failed for a reason other than the health of Cassandra
+     */
+    public synchronized void recordSuccess() {
+        if (state == StateEnum.CLOSED) {
+            recordOutcome(false);
+            tripIfFailureRateReached();
+        } else if (state == StateEnum.HALF_OPEN) {
+            probesSucceeded++;
+            if (probesSucceeded >= halfOpenProbes) {
+                state = StateEnum.CLOSED;
+                resetWindow();
+                log.info("Circuit breaker closed");
+            }
+        }
+    }
+    
+    /**
+     * Method to record a query that failed because Cassandra is failing, e.g. it timed out or no replica was available
+     */
+    public synchronized void recordFailure() {
+        if (state == StateEnum.CLOSED) {
+            recordOutcome(true);
+            tripIfFailureRateReached();
+        } else if (state == StateEnum.HALF_OPEN) {
+            trip();
+        }
+    }
+    
+    /**
+     * Method to return the current state of the circuit breaker
+     * @return the current state
+     */
+    public synchronized StateEnum getState() {
+        return state;
+    }
+    
+    /**
+     * Method to return the number of times the circuit breaker has tripped open
+     * @return the number of trips
+     */
+    public long getTripCount() {
+        return tripCount.get();
+    }
+    
+    /**
+     * Method to return the number of queries rejected without going to Cassandra
+     * @return the number of rejected queries
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "CircuitBreaker state: " + getState() + " trips: " + getTripCount() + " rejected: " + getRejectedCount();
+    }
+    
+    /**
+     * Method to return the current time in milliseconds. Tests may override it to control the open duration
+     * @return the current time in milliseconds
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+    
+    /**
+     * Method to put the outcome of a query into the sliding window, replacing the oldest one if the window is full
+     * @param failure <code>true</code> if the query timed out, <code>false</code> otherwise
+     */
+    protected void recordOutcome(boolean failure) {
+        if (outcomeCount == windowSize) {
+            if (outcomes[outcomeIndex]) {
+                failureCount--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % windowSize;
+    }
+    
+    /**
+     * Method to trip the circuit breaker open if the window is full and its fraction of failures has reached the threshold
+     */
+    protected void tripIfFailureRateReached() {
+        if (outcomeCount >= windowSize && failureCount >= failureRateThreshold * windowSize) {
+            trip();
+        }
+    }
+    
+    /**
+     * Method to trip the circuit breaker open
+     */
+    protected void trip() {
+        state = StateEnum.OPEN;
+        openedTime = currentTimeMillis();
+        tripCount.incrementAndGet();
+        log.warn("Circuit breaker tripped open. Rejecting Cassandra queries for " + openDuration + " ms");
+    }
+    
+    /**
+     * Method to forget the outcomes in the sliding window
+     */
+    protected void resetWindow() {
+        outcomeIndex = 0;
+        outcomeCount = 0;
+        failureCount = 0;
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ConcurrencyLimiter.java
+# Description:  This class limits the number of concurrent Cassandra queries, and adapts the limit to the measured latency and timeouts
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class limits the number of concurrent Cassandra queries, and adapts the limit with additive increase and multiplicative decrease (AIMD) so the
+ * concurrency does not have to be retuned by hand whenever the cluster changes.
+ * 
+ * The round trip time of each query is compared against a baseline, which follows the lowest round trip time seen and drifts up slowly.  Each query type has
+ * a baseline of its own, as the HedgedQueryExecutor keeps a latency window per query type, so that a multiget of many pages is not held against the round
+ * trip time of a single-column lookup.  While queries come back within a tolerance of the baseline and the limit is in use, the limit grows by about one per
+ * round of queries.  When the round trip time goes above the
+ * tolerance, the limit shrinks a little, and when a query times out, the limit is cut by half, at most once per round of queries, so Cassandra is not pushed
+ * into timeout storms.
+ * 
+ * A query waits for a slot only for a bounded time, so a request is not held past its deadline when the limit stays full.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ConcurrencyLimiter {
+    
+    private static final Logger log = Logger.getLogger(ConcurrencyLimiter.class);
+    
+    // a round trip time within this multiple of the baseline counts as flat latency
+    protected static final double LATENCY_TOLERANCE = 2.0;
+    protected static final double LATENCY_BACKOFF_RATIO = 0.9;
+    protected static final double TIMEOUT_BACKOFF_RATIO = 0.5;
+    // fraction of the distance to a higher round trip time the baseline drifts up with each query
+    protected static final double BASELINE_DRIFT = 0.01;
+    
+    protected final int minLimit;
+    protected final int maxLimit;
+    
+    // guarded by this
+    protected double limit;
+    protected int inFlight;
+    protected final Map<String, Double> baselineRTTMap;
+    protected int releasesSinceDecrease;
+    protected long increaseCount;
+    protected long decreaseCount;
+    protected long waitCount;
+    protected long timeoutCount;
+    
+    /**
+     * Constructor
+     * @param initialLimit initial number of concurrent queries allowed
+     * @param minLimit minimum number of concurrent queries allowed
+     * @param maxLimit maximum number of concurrent queries allowed
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.inFlight = 0;
+        this.baselineRTTMap = new HashMap<String, Double>();
+        this.releasesSinceDecrease = 0;
+        this.increaseCount = 0;
+        this.decreaseCount = 0;
+        this.waitCount = 0;
+        this.timeoutCount = 0;
+    }
+    
+    /**
+     * Method to wait until a query may be issued without exceeding the current limit, or until the given time has passed
+     * @param maxWait maximum number of milliseconds to wait for a slot
+     * @return <code>true</code> if a slot was taken, <code>false</code> if the limit was still full when the time passed
+     * @throws InterruptedException thrown if the calling thread is interrupted while waiting
+     */
+    public synchronized boolean acquire(long maxWait) throws InterruptedException {
+        if (inFlight >= getLimit()) {
+            waitCount++;
+            long expirationTime = System.currentTimeMillis() + maxWait;
+            while (inFlight >= getLimit()) {
+                long remaining = expirationTime - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    timeoutCount++;
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        inFlight++;
+        return true;
+    }
+    
+    /**
+     * Method to release a query that completed normally, and to adapt the limit to its round trip time
+     * @param queryType the type of the query, whose round trip times are compared against a baseline of their own
+     * @param roundTripTime round trip time of the query in milliseconds
+     */
+    public synchronized void releaseOnSuccess(String queryType, long roundTripTime) {
+        int inFlightBefore = inFlight;
+        release();
+        
+        Double baselineRTTObject = baselineRTTMap.get(queryType);
+        double baselineRTT;
+        if (baselineRTTObject == null || roundTripTime < baselineRTTObject) {
+            baselineRTT = roundTripTime;
+        } else {
+            baselineRTT = baselineRTTObject + BASELINE_DRIFT * (roundTripTime - baselineRTTObject);
+        }
+        baselineRTTMap.put(queryType, baselineRTT);
+        
+        if (roundTripTime <= Math.max(1.0, baselineRTT) * LATENCY_TOLERANCE) {
+            // only grow a limit that is actually used, or an idle period would let it grow without bound
+            if (inFlightBefore * 2 >= getLimit() && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                increaseCount++;
+                notifyAll();
+            }
+        } else {
+            decrease(LATENCY_BACKOFF_RATIO);
+        }
+    }
+    
+    /**
+     * Method to release a query that timed out, and to cut the limit
+     */
+    public synchronized void releaseOnTimeout() {
+        release();
+        decrease(TIMEOUT_BACKOFF_RATIO);
+    }
+    
+    /**
+     * Method to release a query whose outcome says nothing about the load on Cassandra, without adapting the limit
+     */
+    public synchronized void releaseIgnored() {
+        release();
+    }
+    
+    /**
+     * Method to return the current limit on concurrent queries
+     * @return the current limit on concurrent queries
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+    
+    /**
+     * Method to return the number of queries currently in flight
+     * @return the number of queries currently in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+    
+    /**
+     * Method to return the baseline round trip time of a query type
+     * @param queryType the type of the query
+     * @return the baseline round trip time in milliseconds, or -1 if no query of the type has completed yet
+     */
+    public synchronized long getBaselineRTT(String queryType) {
+        Double baselineRTT = baselineRTTMap.get(queryType);
+        return (baselineRTT != null) ? baselineRTT.longValue() : -1;
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ConcurrencyLimiter limit: ");
+        builder.append(getLimit()).append(" inFlight: ").append(inFlight).append(" baselineRTT:");
+        for (Map.Entry<String, Double> entry : baselineRTTMap.entrySet()) {
+            builder.append(' ').append(entry.getKey()).append('=').append(entry.getValue().longValue());
+        }
+        builder.append(" increases: ").append(increaseCount).append(" decreases: ").append(decreaseCount).append(" waits: ").append(waitCount)
+                .append(" waitTimeouts: ").append(timeoutCount);
+        return builder.toString();
+    }
+    
+    /**
+     * Method to give back a slot. The caller must hold the lock
+     */
+    protected void release() {
+        inFlight--;
+        releasesSinceDecrease++;
+        notifyAll();
+    }
+    
+    /**
+     * Method to cut the limit, at most once per round of queries so that the queries already in flight when the load went up do not cut it again. The caller
+     * must hold the lock
+     * @param ratio the ratio to multiply the limit by
+     */
+    protected void decrease(double ratio) {
+        if (releasesSinceDecrease >= getLimit() && limit > minLimit) {
+            limit = Math.max(minLimit, limit * ratio);
+            releasesSinceDecrease = 0;
+            decreaseCount++;
+            if (log.isDebugEnabled()) log.debug("concurrency limit decreased to " + getLimit());
+        }
+    }
+
+}
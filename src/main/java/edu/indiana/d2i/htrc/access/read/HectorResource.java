@@ -32,8 +32,14 @@
 package edu.indiana.d2i.htrc.access.read;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import me.prettyprint.cassandra.connection.LeastActiveBalancingPolicy;
 import me.prettyprint.cassandra.model.ConfigurableConsistencyLevel;
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
 import me.prettyprint.cassandra.serializers.IntegerSerializer;
@@ -45,28 +51,42 @@ import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.Serializer;
 import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.exceptions.HPoolExhaustedException;
 import me.prettyprint.hector.api.exceptions.HTimedOutException;
+import me.prettyprint.hector.api.exceptions.HUnavailableException;
+import me.prettyprint.hector.api.exceptions.HectorTransportException;
 import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
+import me.prettyprint.hector.api.query.Query;
 import me.prettyprint.hector.api.query.QueryResult;
 import me.prettyprint.hector.api.query.SliceQuery;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.AbstractVolumeStore;
 import edu.indiana.d2i.htrc.access.Constants;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestDeadline;
+import edu.indiana.d2i.htrc.access.RetryDeferral;
 import edu.indiana.d2i.htrc.access.VolumeInfo;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.QueryRejectedException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache.VolumeInfoLoader;
 import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl.ContentReaderImpl;
 
 /**
- * This abstract class implements methods for communications and operations with Cassandra via Hector
+ * This abstract class implements methods for communications and operations with Cassandra via Hector, and is the Cassandra implementation of the
+ * VolumeStore interface
  * 
  * @author Yiming Sun
  *
  */
-public abstract class HectorResource {
+public abstract class HectorResource extends AbstractVolumeStore {
     
     /**
      * This enum is for the copyright of each volume 
@@ -150,6 +170,42 @@ public abstract class HectorResource {
     public static final String PN_HECTOR_ACCESS_MAX_ATTEMPTS = "hector.access.max.attempts";
     public static final String PN_HECTOR_ACCESS_FAIL_INIT_DELAY = "hector.access.fail.init.delay";
     public static final String PN_HECTOR_ACCESS_FAIL_MAX_DELAY = "hector.access.fail.max.delay";
+    public static final String PN_HECTOR_MULTIGET_MAX_KEYS = "hector.multiget.max.keys";
+    public static final String PN_HECTOR_COLUMNS_PER_PAGE = "hector.columns.per.page";
+    public static final String PN_HECTOR_HEDGE_PERCENTILE = "hector.hedge.percentile";
+    public static final String PN_HECTOR_HEDGE_MIN_DELAY = "hector.hedge.min.delay";
+    public static final String PN_HECTOR_HEDGE_POOL_SIZE = "hector.hedge.pool.size";
+    public static final String PN_HECTOR_HEDGE_MAX_RATIO = "hector.hedge.max.ratio";
+    public static final String PN_HECTOR_LEAST_ACTIVE_BALANCING = "hector.least.active.balancing";
+    public static final String PN_HECTOR_BREAKER_WINDOW_SIZE = "hector.breaker.window.size";
+    public static final String PN_HECTOR_BREAKER_FAILURE_RATE = "hector.breaker.failure.rate";
+    public static final String PN_HECTOR_BREAKER_OPEN_DURATION = "hector.breaker.open.duration";
+    public static final String PN_HECTOR_BREAKER_HALF_OPEN_PROBES = "hector.breaker.half.open.probes";
+    public static final String PN_HECTOR_HOST_TIMEOUT_COUNTER = "hector.host.timeout.counter";
+    public static final String PN_HECTOR_HOST_TIMEOUT_WINDOW = "hector.host.timeout.window";
+    public static final String PN_HECTOR_HOST_TIMEOUT_SUSPENSION = "hector.host.timeout.suspension";
+    public static final String PN_HECTOR_CONCURRENCY_INITIAL_LIMIT = "hector.concurrency.initial.limit";
+    public static final String PN_HECTOR_CONCURRENCY_MIN_LIMIT = "hector.concurrency.min.limit";
+    public static final String PN_HECTOR_CONCURRENCY_MAX_LIMIT = "hector.concurrency.max.limit";
+    public static final String PN_HECTOR_CONCURRENCY_MAX_WAIT = "hector.concurrency.max.wait";
+    
+    public static final String PN_VOLUME_INFO_CACHE_MAX_ENTRIES = "volume.info.cache.max.entries";
+    public static final String PN_VOLUME_INFO_CACHE_TTL = "volume.info.cache.ttl";
+    public static final String PN_VOLUME_INFO_CACHE_NEGATIVE_TTL = "volume.info.cache.negative.ttl";
+    
+    private static final long DEFAULT_VOLUME_INFO_CACHE_TTL = 3600000L;
+    private static final long DEFAULT_VOLUME_INFO_CACHE_NEGATIVE_TTL = 60000L;
+    private static final long DEFAULT_HEDGE_MIN_DELAY = 20L;
+    private static final int DEFAULT_HEDGE_POOL_SIZE = 16;
+    private static final double DEFAULT_HEDGE_MAX_RATIO = 0.1;
+    private static final double DEFAULT_BREAKER_FAILURE_RATE = 0.5;
+    private static final long DEFAULT_BREAKER_OPEN_DURATION = 10000L;
+    private static final int DEFAULT_BREAKER_HALF_OPEN_PROBES = 3;
+    private static final int DEFAULT_CONCURRENCY_MIN_LIMIT = 1;
+    private static final int DEFAULT_CONCURRENCY_MAX_LIMIT = 256;
+    private static final long DEFAULT_CONCURRENCY_MAX_WAIT = 10000L;
+    private static final int DEFAULT_HOST_TIMEOUT_WINDOW = 500;
+    private static final int DEFAULT_HOST_TIMEOUT_SUSPENSION = 10;
     
     public static final String CN_VOLUME_PAGECOUNT = "volume.pageCount";
     public static final String CN_VOLUME_COPYRIGHT = "volume.copyright";
@@ -157,6 +213,14 @@ public abstract class HectorResource {
     public static final String CN_CONTENTS_SUFFIX = ".contents";
     
     public static final String CN_VOLUME_METS = "volume.METS";
+    
+    // query types whose latencies are tracked separately by the HedgedQueryExecutor
+    protected static final String QT_VOLUME_INFO = "volumeInfo";
+    protected static final String QT_VOLUME_INFOS = "volumeInfos";
+    protected static final String QT_PAGE_CONTENTS = "pageContents";
+    protected static final String QT_PAGE_CONTENTS_RANGE = "pageContentsRange";
+    protected static final String QT_PAGE_CONTENTS_MULTIGET = "pageContentsMultiget";
+    protected static final String QT_METADATA = "metadata";
 
     private final ParameterContainer parameterContainer;
     
@@ -170,6 +234,14 @@ public abstract class HectorResource {
     protected final int maxAttempts;
     protected final long initFailDelay;
     protected final long maxFailDelay;
+    protected final int maxKeysPerMultiget;
+    protected final int columnsPerPage;
+    protected final VolumeInfoCache volumeInfoCache;
+    protected final VolumeInfoLoader volumeInfoLoader;
+    protected final HedgedQueryExecutor hedgedQueryExecutor;
+    protected final CircuitBreaker circuitBreaker;
+    protected final ConcurrencyLimiter concurrencyLimiter;
+    protected final long concurrencyMaxWait;
     
 
 
@@ -215,6 +287,80 @@ public abstract class HectorResource {
         
         CassandraHostConfigurator configurator = new CassandraHostConfigurator(hostsBuilder.toString());
         
+        String hedgePercentileString = parameterContainer.getParameter(PN_HECTOR_HEDGE_PERCENTILE);
+        double hedgePercentile = (hedgePercentileString != null) ? Double.parseDouble(hedgePercentileString) : 0.0;
+        if (hedgePercentile > 0) {
+            String hedgeMinDelayString = parameterContainer.getParameter(PN_HECTOR_HEDGE_MIN_DELAY);
+            long hedgeMinDelay = (hedgeMinDelayString != null) ? Long.parseLong(hedgeMinDelayString) : DEFAULT_HEDGE_MIN_DELAY;
+            String hedgePoolSizeString = parameterContainer.getParameter(PN_HECTOR_HEDGE_POOL_SIZE);
+            int hedgePoolSize = (hedgePoolSizeString != null) ? Integer.parseInt(hedgePoolSizeString) : DEFAULT_HEDGE_POOL_SIZE;
+            String hedgeMaxRatioString = parameterContainer.getParameter(PN_HECTOR_HEDGE_MAX_RATIO);
+            double hedgeMaxRatio = (hedgeMaxRatioString != null) ? Double.parseDouble(hedgeMaxRatioString) : DEFAULT_HEDGE_MAX_RATIO;
+            this.hedgedQueryExecutor = new HedgedQueryExecutor(hedgePercentile, hedgeMinDelay, hedgePoolSize, hedgeMaxRatio);
+            if (log.isDebugEnabled()) log.debug("hedged reads enabled. percentile = " + hedgePercentile + " minDelay = " + hedgeMinDelay + " poolSize = " + hedgePoolSize + " maxRatio = " + hedgeMaxRatio);
+        } else {
+            this.hedgedQueryExecutor = null;
+            if (log.isDebugEnabled()) log.debug("hedged reads disabled");
+        }
+        
+        // route each query to the host with the fewest active connections, e.g. so a hedge avoids the host still busy with the original query
+        String leastActiveBalancingString = parameterContainer.getParameter(PN_HECTOR_LEAST_ACTIVE_BALANCING);
+        if (leastActiveBalancingString != null && Boolean.parseBoolean(leastActiveBalancingString)) {
+            configurator.setLoadBalancingPolicy(new LeastActiveBalancingPolicy());
+            if (log.isDebugEnabled()) log.debug("least active balancing policy enabled");
+        }
+        
+        // let Hector suspend a single host that keeps timing out, while the circuit breaker below guards against the cluster as a whole
+        String hostTimeoutCounterString = parameterContainer.getParameter(PN_HECTOR_HOST_TIMEOUT_COUNTER);
+        int hostTimeoutCounter = (hostTimeoutCounterString != null) ? Integer.parseInt(hostTimeoutCounterString) : 0;
+        if (hostTimeoutCounter > 0) {
+            String hostTimeoutWindowString = parameterContainer.getParameter(PN_HECTOR_HOST_TIMEOUT_WINDOW);
+            int hostTimeoutWindow = (hostTimeoutWindowString != null) ? Integer.parseInt(hostTimeoutWindowString) : DEFAULT_HOST_TIMEOUT_WINDOW;
+            String hostTimeoutSuspensionString = parameterContainer.getParameter(PN_HECTOR_HOST_TIMEOUT_SUSPENSION);
+            int hostTimeoutSuspension = (hostTimeoutSuspensionString != null) ? Integer.parseInt(hostTimeoutSuspensionString) : DEFAULT_HOST_TIMEOUT_SUSPENSION;
+            
+            configurator.setUseHostTimeoutTracker(true);
+            configurator.setHostTimeoutCounter(hostTimeoutCounter);
+            configurator.setHostTimeoutWindow(hostTimeoutWindow);
+            configurator.setHostTimeoutSuspensionDurationInSeconds(hostTimeoutSuspension);
+            if (log.isDebugEnabled()) log.debug("host timeout tracker enabled. counter = " + hostTimeoutCounter + " window = " + hostTimeoutWindow + " suspension = " + hostTimeoutSuspension);
+        }
+        
+        String breakerWindowSizeString = parameterContainer.getParameter(PN_HECTOR_BREAKER_WINDOW_SIZE);
+        int breakerWindowSize = (breakerWindowSizeString != null) ? Integer.parseInt(breakerWindowSizeString) : 0;
+        if (breakerWindowSize > 0) {
+            String breakerFailureRateString = parameterContainer.getParameter(PN_HECTOR_BREAKER_FAILURE_RATE);
+            double breakerFailureRate = (breakerFailureRateString != null) ? Double.parseDouble(breakerFailureRateString) : DEFAULT_BREAKER_FAILURE_RATE;
+            String breakerOpenDurationString = parameterContainer.getParameter(PN_HECTOR_BREAKER_OPEN_DURATION);
+            long breakerOpenDuration = (breakerOpenDurationString != null) ? Long.parseLong(breakerOpenDurationString) : DEFAULT_BREAKER_OPEN_DURATION;
+            String breakerHalfOpenProbesString = parameterContainer.getParameter(PN_HECTOR_BREAKER_HALF_OPEN_PROBES);
+            int breakerHalfOpenProbes = (breakerHalfOpenProbesString != null) ? Integer.parseInt(breakerHalfOpenProbesString) : DEFAULT_BREAKER_HALF_OPEN_PROBES;
+            
+            this.circuitBreaker = new CircuitBreaker(breakerWindowSize, breakerFailureRate, breakerOpenDuration, breakerHalfOpenProbes);
+            if (log.isDebugEnabled()) log.debug("circuit breaker enabled. windowSize = " + breakerWindowSize + " failureRate = " + breakerFailureRate + " openDuration = " + breakerOpenDuration + " halfOpenProbes = " + breakerHalfOpenProbes);
+        } else {
+            this.circuitBreaker = null;
+            if (log.isDebugEnabled()) log.debug("circuit breaker disabled");
+        }
+        
+        String concurrencyInitialLimitString = parameterContainer.getParameter(PN_HECTOR_CONCURRENCY_INITIAL_LIMIT);
+        int concurrencyInitialLimit = (concurrencyInitialLimitString != null) ? Integer.parseInt(concurrencyInitialLimitString) : 0;
+        if (concurrencyInitialLimit > 0) {
+            String concurrencyMinLimitString = parameterContainer.getParameter(PN_HECTOR_CONCURRENCY_MIN_LIMIT);
+            int concurrencyMinLimit = (concurrencyMinLimitString != null) ? Integer.parseInt(concurrencyMinLimitString) : DEFAULT_CONCURRENCY_MIN_LIMIT;
+            String concurrencyMaxLimitString = parameterContainer.getParameter(PN_HECTOR_CONCURRENCY_MAX_LIMIT);
+            int concurrencyMaxLimit = (concurrencyMaxLimitString != null) ? Integer.parseInt(concurrencyMaxLimitString) : DEFAULT_CONCURRENCY_MAX_LIMIT;
+            String concurrencyMaxWaitString = parameterContainer.getParameter(PN_HECTOR_CONCURRENCY_MAX_WAIT);
+            this.concurrencyMaxWait = (concurrencyMaxWaitString != null) ? Long.parseLong(concurrencyMaxWaitString) : DEFAULT_CONCURRENCY_MAX_WAIT;
+            
+            this.concurrencyLimiter = new ConcurrencyLimiter(concurrencyInitialLimit, concurrencyMinLimit, concurrencyMaxLimit);
+            if (log.isDebugEnabled()) log.debug("concurrency limiter enabled. initialLimit = " + concurrencyInitialLimit + " minLimit = " + concurrencyMinLimit + " maxLimit = " + concurrencyMaxLimit + " maxWait = " + concurrencyMaxWait);
+        } else {
+            this.concurrencyLimiter = null;
+            this.concurrencyMaxWait = 0;
+            if (log.isDebugEnabled()) log.debug("concurrency limiter disabled");
+        }
+        
         cluster = HFactory.getOrCreateCluster(cassandraClusterName, configurator);
         if (log.isDebugEnabled()) log.debug("Hector Cluster object created");
         
@@ -228,6 +374,37 @@ public abstract class HectorResource {
         this.maxAttempts = Integer.valueOf(parameterContainer.getParameter(PN_HECTOR_ACCESS_MAX_ATTEMPTS));
         this.initFailDelay = Long.valueOf(parameterContainer.getParameter(PN_HECTOR_ACCESS_FAIL_INIT_DELAY));
         this.maxFailDelay = Long.valueOf(parameterContainer.getParameter(PN_HECTOR_ACCESS_FAIL_MAX_DELAY));
+        
+        String maxKeysPerMultigetString = parameterContainer.getParameter(PN_HECTOR_MULTIGET_MAX_KEYS);
+        this.maxKeysPerMultiget = (maxKeysPerMultigetString != null) ? Integer.parseInt(maxKeysPerMultigetString) : 0;
+        if (log.isDebugEnabled()) log.debug("maxKeysPerMultiget = " + maxKeysPerMultiget);
+        
+        String columnsPerPageString = parameterContainer.getParameter(PN_HECTOR_COLUMNS_PER_PAGE);
+        this.columnsPerPage = (columnsPerPageString != null) ? Integer.parseInt(columnsPerPageString) : 0;
+        if (log.isDebugEnabled()) log.debug("columnsPerPage = " + columnsPerPage);
+        
+        String volumeInfoCacheMaxEntriesString = parameterContainer.getParameter(PN_VOLUME_INFO_CACHE_MAX_ENTRIES);
+        int volumeInfoCacheMaxEntries = (volumeInfoCacheMaxEntriesString != null) ? Integer.parseInt(volumeInfoCacheMaxEntriesString) : 0;
+        if (volumeInfoCacheMaxEntries > 0) {
+            String volumeInfoCacheTTLString = parameterContainer.getParameter(PN_VOLUME_INFO_CACHE_TTL);
+            long volumeInfoCacheTTL = (volumeInfoCacheTTLString != null) ? Long.parseLong(volumeInfoCacheTTLString) : DEFAULT_VOLUME_INFO_CACHE_TTL;
+            
+            String volumeInfoCacheNegativeTTLString = parameterContainer.getParameter(PN_VOLUME_INFO_CACHE_NEGATIVE_TTL);
+            long volumeInfoCacheNegativeTTL = (volumeInfoCacheNegativeTTLString != null) ? Long.parseLong(volumeInfoCacheNegativeTTLString) : DEFAULT_VOLUME_INFO_CACHE_NEGATIVE_TTL;
+            
+            this.volumeInfoCache = new VolumeInfoCache(volumeInfoCacheMaxEntries, volumeInfoCacheTTL, volumeInfoCacheNegativeTTL);
+            if (log.isDebugEnabled()) log.debug("volumeInfoCache maxEntries = " + volumeInfoCacheMaxEntries + " ttl = " + volumeInfoCacheTTL + " negativeTTL = " + volumeInfoCacheNegativeTTL);
+        } else {
+            this.volumeInfoCache = null;
+            if (log.isDebugEnabled()) log.debug("volumeInfoCache disabled");
+        }
+        
+        this.volumeInfoLoader = new VolumeInfoLoader() {
+            @Override
+            public VolumeInfo load(String volumeID) throws KeyNotFoundException, RepositoryException {
+                return fetchVolumeInfo(volumeID);
+            }
+        };
 
     }
     
@@ -248,13 +425,214 @@ public abstract class HectorResource {
     }
     
     /**
-     * Method to get some basic metadata of a given volume
+     * Method to get the maximum number of volumes (row keys) that may be retrieved by a single multiget query
+     * @return the maximum number of row keys per multiget query. A value less than 2 means multiget retrieval is disabled
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getMaxVolumesPerBatch()
+     */
+    @Override
+    public int getMaxVolumesPerBatch() {
+        return maxKeysPerMultiget;
+    }
+    
+    /**
+     * Method to get the HedgedQueryExecutor object
+     * @return the HedgedQueryExecutor object, or <code>null</code> if hedged reads are disabled
+     */
+    public HedgedQueryExecutor getHedgedQueryExecutor() {
+        return hedgedQueryExecutor;
+    }
+    
+    /**
+     * Method to get the CircuitBreaker object
+     * @return the CircuitBreaker object, or <code>null</code> if the circuit breaker is disabled
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+    
+    /**
+     * Method to get the ConcurrencyLimiter object
+     * @return the ConcurrencyLimiter object, or <code>null</code> if the concurrency limiter is disabled
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getConcurrencyLimiter()
+     */
+    @Override
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+    
+    /**
+     * Method to back off before retrying a query that timed out, unless the deadline of the request the current thread works for would pass during the
+     * backoff, in which case the retries are abandoned right away
+     * @param failDelay number of milliseconds to back off
+     * @throws DeadlineExceededException thrown if the deadline of the request would pass before the retry
+     */
+    protected void backOff(long failDelay) throws DeadlineExceededException {
+        RequestDeadline deadline = RequestDeadline.getCurrent();
+        if (deadline != null && deadline.getRemainingMillis() <= failDelay) {
+            log.warn("Abandoning retries, backing off " + failDelay + " ms would pass the deadline. " + deadline);
+            throw new DeadlineExceededException("Request deadline of " + deadline.getTimeout() + " ms reached while retrying a timed out query");
+        }
+        
+        try {
+            Thread.sleep(failDelay);
+            
+        } catch (InterruptedException ie) {
+            log.warn("Interrupted while backing off on HTimedOutException", ie);
+        }
+    }
+    
+    /**
+     * Method to execute a query, with hedged reads if they are enabled, within the concurrency limit if the limiter is enabled, and through the circuit
+     * breaker if it is enabled
+     * @param queryType the type of the query, whose latencies are tracked separately for hedged reads
+     * @param query a Query object to be executed
+     * @return the QueryResult of the query
+     * @throws DeadlineExceededException thrown if the deadline of the request passes while waiting for the concurrency limit
+     * @throws QueryRejectedException thrown if the circuit breaker is open, or if the concurrency limit stays full for hector.concurrency.max.wait
+     * milliseconds, and the query is rejected without going to Cassandra
+     * @throws RepositoryException thrown if the calling thread is interrupted while waiting for the concurrency limit
+     */
+    protected <T> QueryResult<T> executeQuery(String queryType, Query<T> query) throws RepositoryException {
+        if (circuitBreaker == null && concurrencyLimiter == null) {
+            return (hedgedQueryExecutor != null) ? hedgedQueryExecutor.execute(queryType, query) : query.execute();
+        }
+        
+        if (concurrencyLimiter != null) {
+            acquireConcurrencySlot();
+        }
+        
+        if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+            if (concurrencyLimiter != null) {
+                concurrencyLimiter.releaseIgnored();
+            }
+            throw new QueryRejectedException("Cassandra circuit breaker is open. Query rejected");
+        }
+        
+        long startTime = System.currentTimeMillis();
+        boolean succeeded = false;
+        RuntimeException failure = null;
+        try {
+            QueryResult<T> queryResult = (hedgedQueryExecutor != null) ? hedgedQueryExecutor.execute(queryType, query) : query.execute();
+            succeeded = true;
+            return queryResult;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            // recorded in finally so that an Error thrown by the query still gives back the limiter slot and the half-open probe of the breaker
+            recordOutcome(queryType, System.currentTimeMillis() - startTime, succeeded, failure);
+        }
+    }
+    
+    /**
+     * Method to record the outcome of a query with the circuit breaker and the concurrency limiter.  Failures that say nothing about the health of Cassandra,
+     * including an Error thrown while the query ran, are still recorded as successes by the breaker so a half-open probe is not lost, and are ignored by the
+     * limiter
+     * @param queryType the type of the query
+     * @param roundTripTime round trip time of the query in milliseconds
+     * @param succeeded <code>true</code> if the query returned a result, <code>false</code> otherwise
+     * @param failure the RuntimeException thrown by the query, or <code>null</code> if it succeeded or threw an Error
+     */
+    protected void recordOutcome(String queryType, long roundTripTime, boolean succeeded, RuntimeException failure) {
+        if (circuitBreaker != null) {
+            if (!succeeded && failure != null && isClusterFailure(failure)) {
+                circuitBreaker.recordFailure();
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+        }
+        if (concurrencyLimiter != null) {
+            if (succeeded) {
+                concurrencyLimiter.releaseOnSuccess(queryType, roundTripTime);
+            } else if (failure != null && isOverload(failure)) {
+                concurrencyLimiter.releaseOnTimeout();
+            } else {
+                concurrencyLimiter.releaseIgnored();
+            }
+        }
+    }
+    
+    /**
+     * Method to wait for a slot of the concurrency limiter, no longer than hector.concurrency.max.wait milliseconds or the time left until the deadline of
+     * the request, whichever comes first
+     * @throws DeadlineExceededException thrown if the deadline of the request passed while waiting
+     * @throws QueryRejectedException thrown if the limit was still full after the maximum wait
+     * @throws RepositoryException thrown if the calling thread is interrupted while waiting
+     */
+    protected void acquireConcurrencySlot() throws RepositoryException {
+        RequestDeadline deadline = RequestDeadline.getCurrent();
+        long maxWait = (deadline != null) ? Math.min(concurrencyMaxWait, deadline.getRemainingMillis()) : concurrencyMaxWait;
+        
+        boolean acquired = false;
+        try {
+            acquired = concurrencyLimiter.acquire(maxWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the Cassandra concurrency limit", e);
+        }
+        
+        if (!acquired) {
+            if (deadline != null && deadline.isExpired()) {
+                throw new DeadlineExceededException("Request deadline of " + deadline.getTimeout() + " ms reached while waiting for the Cassandra concurrency limit");
+            }
+            throw new QueryRejectedException("Cassandra concurrency limit stayed full for " + maxWait + " ms. Query rejected");
+        }
+    }
+    
+    /**
+     * Method to check if an exception thrown by a query means Cassandra is failing, i.e. the query timed out, no connection could be borrowed from the pool,
+     * not enough replicas were available, or the connection to the node broke.  Other errors, such as an invalid request, are not held against Cassandra
+     * @param e a RuntimeException thrown by a query
+     * @return <code>true</code> if the exception counts as a failure of Cassandra, <code>false</code> otherwise
+     */
+    protected static boolean isClusterFailure(RuntimeException e) {
+        return isOverload(e) || e instanceof HUnavailableException || e instanceof HectorTransportException;
+    }
+    
+    /**
+     * Method to check if an exception thrown by a query means Cassandra is taking on more queries than it can serve in time, i.e. the query timed out
+     * or no connection could be borrowed from the pool
+     * @param e a RuntimeException thrown by a query
+     * @return <code>true</code> if the exception is a sign of overload, <code>false</code> otherwise
+     */
+    protected static boolean isOverload(RuntimeException e) {
+        return e instanceof HTimedOutException || e instanceof HPoolExhaustedException;
+    }
+    
+    /**
+     * Method to get the VolumeInfoCache object
+     * @return the VolumeInfoCache object, or <code>null</code> if caching of VolumeInfo is disabled
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfoCache()
+     */
+    @Override
+    public VolumeInfoCache getVolumeInfoCache() {
+        return volumeInfoCache;
+    }
+    
+    /**
+     * Method to get some basic metadata of a given volume.  The metadata is served from the VolumeInfoCache if caching is enabled, and only
+     * fetched from Cassandra on a cache miss.  Concurrent misses for the same volume share a single fetch
      * @param volumeID volumeID of the volume whose metadata is to be retrieved
      * @return a VolumeInfo object holding basic metadata of the given volume
      * @throws KeyNotFoundException thrown if the specified volumeID does not exist
      * @throws RepositoryException thrown if the backend repository failed
      */
     public VolumeInfo getVolumeInfo(String volumeID) throws KeyNotFoundException, RepositoryException {
+        if (volumeInfoCache == null) {
+            return fetchVolumeInfo(volumeID);
+        }
+        
+        return volumeInfoCache.get(volumeID, volumeInfoLoader);
+    }
+    
+    /**
+     * Method to fetch some basic metadata of a given volume from Cassandra
+     * @param volumeID volumeID of the volume whose metadata is to be retrieved
+     * @return a VolumeInfo object holding basic metadata of the given volume
+     * @throws KeyNotFoundException thrown if the specified volumeID does not exist
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    protected VolumeInfo fetchVolumeInfo(String volumeID) throws KeyNotFoundException, RepositoryException {
         VolumeInfo volumeInfo = null;
         
         boolean success = false;
@@ -272,31 +650,17 @@ public abstract class HectorResource {
         do {
         
             try {
-                QueryResult<ColumnSlice<String, byte[]>> queryResult = sliceQuery.execute();
+                QueryResult<ColumnSlice<String, byte[]>> queryResult = executeQuery(QT_VOLUME_INFO, sliceQuery);
                 success = true;
                 if (queryResult != null) {
                     ColumnSlice<String, byte[]> columnSlice = queryResult.get();
                     if (columnSlice != null) {
                         List<HColumn<String, byte[]>> columns = columnSlice.getColumns();
                         if (columns != null && !columns.isEmpty()) {
-                            BasicVolumeInfo basicVolInfo = new BasicVolumeInfo(volumeID);
-                            
-                            for (HColumn<String, byte[]> hColumn : columns) {
-                                String columnName = hColumn.getName();
-                                byte[] value = hColumn.getValue();
-                                
-                                if (value != null) {
-                                    if (CN_VOLUME_COPYRIGHT.equals(columnName)) {
-                                        basicVolInfo.setCopyright(CopyrightEnum.valueOf(stringSerializer.fromBytes(hColumn.getValue())));
-                                    } else if (CN_VOLUME_PAGECOUNT.equals(columnName)) {
-                                        basicVolInfo.setPageCount(integerSerializer.fromBytes(hColumn.getValue()));
-                                    }
-                                } else {
-                                    log.error("HColumn.getValue() is null for volume: " + volumeID + " column: " + columnName);
-                                    throw new KeyNotFoundException(volumeID);
-                                }
+                            volumeInfo = toVolumeInfo(volumeID, columns);
+                            if (volumeInfo == null) {
+                                throw new KeyNotFoundException(volumeID);
                             }
-                            volumeInfo = basicVolInfo;
                         } else {
                             log.error("List<HColumn<>> is null or isEmpty for volume: " + volumeID);
                             throw new KeyNotFoundException(volumeID);
@@ -315,12 +679,7 @@ public abstract class HectorResource {
                 if (attemptsLeft > 0) {
                     attemptsLeft--;
                     
-                    try {
-                        Thread.sleep(failDelay);
-                        
-                    } catch (InterruptedException ie) {
-                        log.warn("Interrupted while backing off on HTimedOutException", ie);
-                    }
+                    backOff(failDelay);
                     
                     failDelay = (failDelay * 2) > maxFailDelay ? maxFailDelay : (failDelay * 2);
                 } else {
@@ -335,6 +694,143 @@ public abstract class HectorResource {
         
     }
     
+    /**
+     * Method to get some basic metadata of multiple volumes in a batch.  The metadata is served from the VolumeInfoCache if caching is enabled, and the cache
+     * misses are fetched from Cassandra with multiget queries of up to hector.multiget.max.keys volumes each
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfos(java.util.List)
+     */
+    @Override
+    public Map<String, VolumeInfo> getVolumeInfos(List<String> volumeIDs) throws RepositoryException {
+        Map<String, VolumeInfo> volumeInfoMap = new HashMap<String, VolumeInfo>();
+        Set<String> missedVolumeIDs = new LinkedHashSet<String>();
+        
+        for (String volumeID : volumeIDs) {
+            VolumeInfo volumeInfo = null;
+            if (volumeInfoCache != null) {
+                try {
+                    volumeInfo = volumeInfoCache.get(volumeID);
+                } catch (KeyNotFoundException e) {
+                    continue;
+                }
+            }
+            
+            if (volumeInfo != null) {
+                volumeInfoMap.put(volumeID, volumeInfo);
+            } else {
+                missedVolumeIDs.add(volumeID);
+            }
+        }
+        
+        if (!missedVolumeIDs.isEmpty()) {
+            Map<String, VolumeInfo> fetchedVolumeInfoMap = fetchVolumeInfos(new ArrayList<String>(missedVolumeIDs));
+            for (String volumeID : missedVolumeIDs) {
+                VolumeInfo volumeInfo = fetchedVolumeInfoMap.get(volumeID);
+                if (volumeInfo != null) {
+                    volumeInfoMap.put(volumeID, volumeInfo);
+                    if (volumeInfoCache != null) {
+                        volumeInfoCache.put(volumeInfo);
+                    }
+                } else if (volumeInfoCache != null) {
+                    volumeInfoCache.putKeyNotFound(volumeID);
+                }
+            }
+        }
+        
+        return volumeInfoMap;
+    }
+    
+    /**
+     * Method to fetch some basic metadata of multiple volumes from Cassandra with multiget queries
+     * @param volumeIDs a List of volumeIDs of the volumes whose metadata is to be retrieved
+     * @return a Map with volumeIDs as keys and VolumeInfo objects as values. A volume that does not exist is absent from the Map
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    protected Map<String, VolumeInfo> fetchVolumeInfos(List<String> volumeIDs) throws RepositoryException {
+        Map<String, VolumeInfo> volumeInfoMap = new HashMap<String, VolumeInfo>();
+        int batchSize = (maxKeysPerMultiget > 0) ? maxKeysPerMultiget : volumeIDs.size();
+        
+        for (int fromIndex = 0; fromIndex < volumeIDs.size(); fromIndex += batchSize) {
+            List<String> batchVolumeIDs = volumeIDs.subList(fromIndex, Math.min(fromIndex + batchSize, volumeIDs.size()));
+            
+            MultigetSliceQuery<String, String, byte[]> multigetSliceQuery = HFactory.createMultigetSliceQuery(keyspace, stringSerializer, stringSerializer, bytesArraySerializer);
+            multigetSliceQuery.setColumnFamily(parameterContainer.getParameter(PN_VOLUME_CONTENT_CF_NAME));
+            multigetSliceQuery.setKeys(batchVolumeIDs.toArray(new String[0]));
+            multigetSliceQuery.setColumnNames(CN_VOLUME_COPYRIGHT, CN_VOLUME_PAGECOUNT);
+            
+            boolean success = false;
+            int attemptsLeft = RetryDeferral.isDeferred() ? 0 : maxAttempts;
+            long failDelay = initFailDelay;
+            
+            do {
+                try {
+                    QueryResult<Rows<String, String, byte[]>> queryResult = executeQuery(QT_VOLUME_INFOS, multigetSliceQuery);
+                    success = true;
+                    Rows<String, String, byte[]> rows = (queryResult != null) ? queryResult.get() : null;
+                    if (rows != null) {
+                        for (String volumeID : batchVolumeIDs) {
+                            Row<String, String, byte[]> row = rows.getByKey(volumeID);
+                            ColumnSlice<String, byte[]> columnSlice = (row != null) ? row.getColumnSlice() : null;
+                            List<HColumn<String, byte[]>> columns = (columnSlice != null) ? columnSlice.getColumns() : null;
+                            VolumeInfo volumeInfo = (columns != null && !columns.isEmpty()) ? toVolumeInfo(volumeID, columns) : null;
+                            if (volumeInfo != null) {
+                                volumeInfoMap.put(volumeID, volumeInfo);
+                            } else {
+                                log.error("No VolumeInfo columns for volume: " + volumeID);
+                            }
+                        }
+                    } else {
+                        log.error("QueryResult or Rows is null for volumes: " + batchVolumeIDs);
+                    }
+                } catch (HTimedOutException e) {
+                    if (attemptsLeft > 0) {
+                        attemptsLeft--;
+                        
+                        backOff(failDelay);
+                        
+                        failDelay = (failDelay * 2) > maxFailDelay ? maxFailDelay : (failDelay * 2);
+                    } else {
+                        log.error("Failed to multiget VolumeInfo: " + batchVolumeIDs, e);
+                        throw new RepositoryException("Retrieving volume info failed. VolumeIDs: " + batchVolumeIDs, e);
+                    }
+                }
+            } while (!success && attemptsLeft > 0);
+            
+            if (!success) {
+                log.error("Ran out of attempts to multiget VolumeInfo: " + batchVolumeIDs);
+                throw new RepositoryException("Retrieving volume info failed. VolumeIDs: " + batchVolumeIDs);
+            }
+        }
+        
+        return volumeInfoMap;
+    }
+    
+    /**
+     * Method to build a VolumeInfo object out of the copyright and page count columns of a volume
+     * @param volumeID volumeID of the volume
+     * @param columns a List of HColumn objects read from the row of the volume
+     * @return a VolumeInfo object, or <code>null</code> if any of the columns has no value
+     */
+    protected VolumeInfo toVolumeInfo(String volumeID, List<HColumn<String, byte[]>> columns) {
+        BasicVolumeInfo basicVolInfo = new BasicVolumeInfo(volumeID);
+        
+        for (HColumn<String, byte[]> hColumn : columns) {
+            String columnName = hColumn.getName();
+            byte[] value = hColumn.getValue();
+            
+            if (value != null) {
+                if (CN_VOLUME_COPYRIGHT.equals(columnName)) {
+                    basicVolInfo.setCopyright(CopyrightEnum.valueOf(stringSerializer.fromBytes(value)));
+                } else if (CN_VOLUME_PAGECOUNT.equals(columnName)) {
+                    basicVolInfo.setPageCount(integerSerializer.fromBytes(value));
+                }
+            } else {
+                log.error("HColumn.getValue() is null for volume: " + volumeID + " column: " + columnName);
+                return null;
+            }
+        }
+        return basicVolInfo;
+    }
+    
     /**
      * Method to retrieve the content of a given volumeID and a List of page sequence numbers
      * @param volumeID volumeID of the volume to be retrieved
@@ -347,15 +843,265 @@ public abstract class HectorResource {
         return retrieveColumnContent(volumeID, pageSequences, true);
     }
     
+    /**
+     * Method to retrieve the pages of multiple volumes with multiget queries, so that many small work units can share one round trip to Cassandra
+     * 
+     * Unlike the single-volume retrievePageContents method, this method does not throw KeyNotFoundException.  A volume without any of the requested pages is
+     * absent from the returned Map, and a page that does not exist is absent from the List of its volume, so callers should check the completeness of the returned
+     * content themselves.  Only volumes asking for the same pages share a multiget, in batches of at most hector.multiget.max.keys row keys each, and every
+     * other volume is retrieved with a query of its own.
+     * 
+     * @param volumePageSequences a Map with volumeIDs as keys and Lists of page sequence numbers to be retrieved from each volume as values
+     * @return a Map with volumeIDs as keys and Lists of ContentReader objects holding the page content in the requested order as values
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences) throws RepositoryException {
+        return retrieveMultigetColumnContent(volumePageSequences, true);
+    }
+    
     public List<ContentReader> retrieveMetadata(String volumeID, List<String> metadataNames) throws KeyNotFoundException, RepositoryException {
         return retrieveColumnContent(volumeID, metadataNames, false);
     }
     
+    /**
+     * Method to retrieve the columns of multiple volumes.  A multiget query asks every row key for the same set of columns, so only volumes asking for
+     * identical column lists share a multiget, and a volume whose column list no other volume asks for is retrieved with a slice of its own, so no row is
+     * ever asked for columns it does not need
+     * @param volumeColumnNames a Map with volumeIDs as keys and Lists of column names (or page sequence numbers) to be retrieved from each volume as values
+     * @param isPageSequence <code>true</code> if the names are page sequence numbers, <code>false</code> if they are column names of metadata
+     * @return a Map with volumeIDs as keys and Lists of ContentReader objects holding the content in the requested order as values
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    protected Map<String, List<ContentReader>> retrieveMultigetColumnContent(Map<String, List<String>> volumeColumnNames, boolean isPageSequence) throws RepositoryException {
+        Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+        
+        for (Map.Entry<List<String>, List<String>> entry : groupByColumnNames(volumeColumnNames).entrySet()) {
+            List<String> columnNameList = entry.getKey();
+            List<String> volumeIDs = entry.getValue();
+            
+            if (volumeIDs.size() < 2) {
+                String volumeID = volumeIDs.get(0);
+                try {
+                    contentReadersMap.put(volumeID, retrieveColumnContent(volumeID, columnNameList, isPageSequence));
+                } catch (KeyNotFoundException e) {
+                    if (log.isDebugEnabled()) log.debug("Volume or columns not found: " + e.getMessage());
+                }
+            } else {
+                int batchSize = (maxKeysPerMultiget > 0) ? maxKeysPerMultiget : volumeIDs.size();
+                for (int fromIndex = 0; fromIndex < volumeIDs.size(); fromIndex += batchSize) {
+                    List<String> batchVolumeIDs = volumeIDs.subList(fromIndex, Math.min(fromIndex + batchSize, volumeIDs.size()));
+                    contentReadersMap.putAll(retrieveMultigetBatch(batchVolumeIDs, columnNameList, isPageSequence));
+                }
+            }
+        }
+        
+        return contentReadersMap;
+    }
+    
+    /**
+     * Method to group volumes by the list of columns they ask for
+     * @param volumeColumnNames a Map with volumeIDs as keys and Lists of column names to be retrieved from each volume as values
+     * @return a Map with the distinct column lists as keys, in the order they are first seen, and the volumeIDs asking for exactly that list as values
+     */
+    protected static Map<List<String>, List<String>> groupByColumnNames(Map<String, List<String>> volumeColumnNames) {
+        Map<List<String>, List<String>> groups = new LinkedHashMap<List<String>, List<String>>();
+        for (Map.Entry<String, List<String>> entry : volumeColumnNames.entrySet()) {
+            List<String> volumeIDs = groups.get(entry.getValue());
+            if (volumeIDs == null) {
+                volumeIDs = new ArrayList<String>();
+                groups.put(entry.getValue(), volumeIDs);
+            }
+            volumeIDs.add(entry.getKey());
+        }
+        return groups;
+    }
+    
+    /**
+     * Method to retrieve the same columns from a batch of volumes with a single multiget query
+     * @param batchVolumeIDs a List of volumeIDs, at most hector.multiget.max.keys of them
+     * @param columnNameList a List of column names (or page sequence numbers) to be retrieved from every volume in the batch
+     * @param isPageSequence <code>true</code> if the names are page sequence numbers, <code>false</code> if they are column names of metadata
+     * @return a Map with volumeIDs as keys and Lists of ContentReader objects holding the content in the requested order as values.  A volume without any
+     * of the columns is absent from the Map
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    protected Map<String, List<ContentReader>> retrieveMultigetBatch(List<String> batchVolumeIDs, List<String> columnNameList, boolean isPageSequence) throws RepositoryException {
+        Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+        
+        String[] columnNames = columnNameList.toArray(new String[0]);
+        if (isPageSequence) {
+            for (int i = 0; i < columnNames.length; i++) {
+                columnNames[i] += CN_CONTENTS_SUFFIX;
+            }
+        }
+        
+        MultigetSliceQuery<String, String, byte[]> multigetSliceQuery = HFactory.createMultigetSliceQuery(keyspace, stringSerializer, stringSerializer, bytesArraySerializer);
+        multigetSliceQuery.setColumnFamily(parameterContainer.getParameter(PN_VOLUME_CONTENT_CF_NAME));
+        multigetSliceQuery.setKeys(batchVolumeIDs.toArray(new String[0]));
+        multigetSliceQuery.setColumnNames(columnNames);
+        
+        boolean success = false;
+        int attemptsLeft = RetryDeferral.isDeferred() ? 0 : maxAttempts;
+        long failDelay = initFailDelay;
+        
+        do {
+            try {
+                QueryResult<Rows<String, String, byte[]>> queryResult = executeQuery(QT_PAGE_CONTENTS_MULTIGET, multigetSliceQuery);
+                success = true;
+                Rows<String, String, byte[]> rows = (queryResult != null) ? queryResult.get() : null;
+                if (rows != null) {
+                    for (String volumeID : batchVolumeIDs) {
+                        Row<String, String, byte[]> row = rows.getByKey(volumeID);
+                        ColumnSlice<String, byte[]> columnSlice = (row != null) ? row.getColumnSlice() : null;
+                        if (columnSlice != null) {
+                            List<ContentReader> contentReaders = new ArrayList<ContentReader>(columnNames.length);
+                            for (int i = 0; i < columnNames.length; i++) {
+                                HColumn<String, byte[]> column = columnSlice.getColumnByName(columnNames[i]);
+                                if (column != null && column.getValue() != null) {
+                                    contentReaders.add(new ContentReaderImpl(columnNameList.get(i), column.getValue()));
+                                }
+                            }
+                            if (!contentReaders.isEmpty()) {
+                                contentReadersMap.put(volumeID, contentReaders);
+                            }
+                        } else {
+                            log.error("Row or ColumnSlice is null for volume: " + volumeID);
+                        }
+                    }
+                } else {
+                    log.error("QueryResult or Rows is null for volumes: " + batchVolumeIDs);
+                }
+            } catch (HTimedOutException e) {
+                if (attemptsLeft > 0) {
+                    attemptsLeft--;
+                    
+                    backOff(failDelay);
+                    
+                    failDelay = (failDelay * 2) > maxFailDelay ? maxFailDelay : (failDelay * 2);
+                } else {
+                    log.error("Failed to multiget page contents: " + batchVolumeIDs, e);
+                    throw new RepositoryException("Retrieving page contents failed. VolumeIDs: " + batchVolumeIDs, e);
+                }
+            }
+        } while (!success && attemptsLeft > 0);
+        
+        if (!success) {
+            log.error("Ran out of attempts to multiget page contents: " + batchVolumeIDs);
+            throw new RepositoryException("Retrieving page contents failed. VolumeIDs: " + batchVolumeIDs);
+        }
+        
+        return contentReadersMap;
+    }
+    
+    /**
+     * Method to check if a List of page sequence numbers is a contiguous run in ascending order, e.g. 00000005, 00000006, 00000007
+     * @param pageSequences a List of page sequence numbers
+     * @return <code>true</code> if the List holds at least 2 page sequence numbers and they form a contiguous run, <code>false</code> otherwise
+     */
+    protected static boolean isContiguousPageRun(List<String> pageSequences) {
+        if (pageSequences.size() < 2) {
+            return false;
+        }
+        
+        try {
+            int first = Integer.parseInt(pageSequences.get(0));
+            for (int i = 1; i < pageSequences.size(); i++) {
+                if (Integer.parseInt(pageSequences.get(i)) != first + i) {
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Method to retrieve a contiguous run of pages with a single column range slice instead of a list of column names.  Besides the .contents column, each
+     * page may have other columns (e.g. byte count or checksum) that fall within the range, so the range is sized by hector.columns.per.page, and only the
+     * .contents columns are kept.
+     * 
+     * The range slice is a single attempt.  If it times out, the caller falls back to a list of column names, and that query does the retries with backoff,
+     * so the retry logic is not duplicated here.
+     * 
+     * @param volumeID volumeID of the volume
+     * @param pageSequences a List of page sequence numbers forming a contiguous run in ascending order
+     * @return a List of ContentReader objects holding the page content in the requested order, or <code>null</code> if the range slice was cut short by the
+     * column count or timed out, in which case the caller should fall back to a list of column names
+     * @throws KeyNotFoundException thrown if the volume or any of the pages does not exist
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    protected List<ContentReader> retrieveColumnRangeContent(String volumeID, List<String> pageSequences) throws KeyNotFoundException, RepositoryException {
+        List<ContentReader> contentReaders = new ArrayList<ContentReader>(pageSequences.size());
+        
+        String startColumnName = pageSequences.get(0) + CN_CONTENTS_SUFFIX;
+        String finishColumnName = pageSequences.get(pageSequences.size() - 1) + CN_CONTENTS_SUFFIX;
+        int count = pageSequences.size() * columnsPerPage;
+        
+        SliceQuery<String, String, byte[]> sliceQuery = HFactory.createSliceQuery(keyspace, stringSerializer, stringSerializer, bytesArraySerializer);
+        sliceQuery.setColumnFamily(parameterContainer.getParameter(PN_VOLUME_CONTENT_CF_NAME));
+        sliceQuery.setKey(volumeID);
+        sliceQuery.setRange(startColumnName, finishColumnName, false, count);
+        
+        QueryResult<ColumnSlice<String, byte[]>> queryResult = null;
+        try {
+            queryResult = executeQuery(QT_PAGE_CONTENTS_RANGE, sliceQuery);
+        } catch (HTimedOutException e) {
+            if (RetryDeferral.isDeferred()) {
+                log.error("Failed to get page contents: " + volumeID, e);
+                throw new RepositoryException("Retrieving page contents failed. VolumeID: " + volumeID, e);
+            }
+            log.warn("Range slice timed out for volume: " + volumeID + ". Falling back to column names");
+            backOff(initFailDelay);
+            return null;
+        }
+        
+        List<HColumn<String, byte[]>> columns = null;
+        if (queryResult != null && queryResult.get() != null) {
+            columns = queryResult.get().getColumns();
+        }
+        if (columns == null || columns.isEmpty()) {
+            log.error("List<HColumn<>> is null or isEmpty for volume: " + volumeID);
+            throw new KeyNotFoundException(volumeID);
+        }
+        
+        int index = 0;
+        for (HColumn<String, byte[]> column : columns) {
+            String name = column.getName();
+            if (name.endsWith(CN_CONTENTS_SUFFIX)) {
+                if (index < pageSequences.size() && name.equals(pageSequences.get(index) + CN_CONTENTS_SUFFIX)) {
+                    contentReaders.add(new ContentReaderImpl(pageSequences.get(index), column.getValue()));
+                    index++;
+                } else {
+                    break;
+                }
+            }
+        }
+        
+        if (index < pageSequences.size()) {
+            if (columns.size() >= count) {
+                if (log.isDebugEnabled()) log.debug("Range slice cut short by column count " + count + " for volume: " + volumeID + ". Falling back to column names");
+                return null;
+            }
+            log.error("Column count mismatch. Expected " + pageSequences.size() + " Actual: " + index);
+            throw new KeyNotFoundException(volumeID + Constants.PAGE_SEQ_START_MARK + pageSequences.get(index) + Constants.PAGE_SEQ_END_MARK);
+        }
+        
+        return contentReaders;
+    }
+    
     protected List<ContentReader> retrieveColumnContent(String volumeID, List<String> columnNameList, boolean isPageSequence) throws KeyNotFoundException, RepositoryException {
+        if (isPageSequence && columnsPerPage > 0 && isContiguousPageRun(columnNameList)) {
+            List<ContentReader> contentReaders = retrieveColumnRangeContent(volumeID, columnNameList);
+            if (contentReaders != null) {
+                return contentReaders;
+            }
+        }
+        
         List<ContentReader> contentReaders = new ArrayList<ContentReader>(columnNameList.size());
         
         boolean success = false;
-        int attemptsLeft = maxAttempts;
+        int attemptsLeft = RetryDeferral.isDeferred() ? 0 : maxAttempts;
         long failDelay = initFailDelay;
 
         String[] columnNames = columnNameList.toArray(new String[0]);
@@ -376,7 +1122,7 @@ public abstract class HectorResource {
             
             try {
         
-                QueryResult<ColumnSlice<String, byte[]>> queryResult = sliceQuery.execute();
+                QueryResult<ColumnSlice<String, byte[]>> queryResult = executeQuery(isPageSequence ? QT_PAGE_CONTENTS : QT_METADATA, sliceQuery);
                 success = true;
                 if (queryResult != null) {
                     ColumnSlice<String, byte[]> columnSlice = queryResult.get();
@@ -416,12 +1162,7 @@ public abstract class HectorResource {
                 if (attemptsLeft > 0) {
                     attemptsLeft--;
                     
-                    try {
-                        Thread.sleep(failDelay);
-                        
-                    } catch (InterruptedException ie) {
-                        log.warn("Interrupted while backing off on HTimedOutException", ie);
-                    }
+                    backOff(failDelay);
                     
                     failDelay = (failDelay * 2) > maxFailDelay ? maxFailDelay : (failDelay * 2);
                 } else {
@@ -465,6 +1206,19 @@ public abstract class HectorResource {
      * Method to dispose of resources used by this class
      */
     public void shutdown() {
+        if (volumeInfoCache != null) {
+            log.info(volumeInfoCache.toString());
+        }
+        if (hedgedQueryExecutor != null) {
+            log.info(hedgedQueryExecutor.toString());
+            hedgedQueryExecutor.shutdown();
+        }
+        if (circuitBreaker != null) {
+            log.info(circuitBreaker.toString());
+        }
+        if (concurrencyLimiter != null) {
+            log.info(concurrencyLimiter.toString());
+        }
         cluster.getConnectionManager().shutdown();
         log.info("HectorResource shutdown");
     }
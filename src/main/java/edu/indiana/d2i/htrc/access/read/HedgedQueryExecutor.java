@@ -0,0 +1,347 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  HedgedQueryExecutor.java
+# Description:  This class executes Hector queries with hedged (speculative) duplicate reads
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.query.Query;
+import me.prettyprint.hector.api.query.QueryResult;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class executes Hector queries with hedged (speculative) duplicate reads.  If a query has not returned after a delay equal to a configurable
+ * percentile of the recently observed latencies of the same type of query, an identical query is fired, and the result of whichever finishes first is used.
+ * Combined with Hector's LeastActiveBalancingPolicy the duplicate query goes to a different host than the one still busy with the original query, so a
+ * single slow replica no longer dictates the tail latency.
+ * 
+ * A blocking Thrift call cannot be abandoned by the thread making it, so a query that may be hedged runs on a bounded pool while the caller waits for the
+ * first result.  Queries that cannot be hedged run on the caller's thread without any hand-off: those of a type with too few latency samples to compute the
+ * percentile yet, those issued while the hedge budget is spent, and those finding no free thread in the pool.  The hedge budget is a token bucket that
+ * earns a fraction of a hedge for every query, so hedges never exceed that fraction of the traffic for long.  When one execution of a hedged query wins,
+ * the other one is cancelled; the interrupt ends its wait for a pooled connection, while a Thrift call already in progress finishes and its result is
+ * discarded.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class HedgedQueryExecutor {
+    
+    private static final Logger log = Logger.getLogger(HedgedQueryExecutor.class);
+    
+    protected static final int LATENCY_WINDOW_SIZE = 1024;
+    protected static final int MIN_LATENCY_SAMPLES = 64;
+    protected static final int RECOMPUTE_INTERVAL = 64;
+    protected static final double MAX_HEDGE_TOKENS = 10.0;
+    
+    /**
+     * This class keeps the recent latencies of one type of query and the hedge delay computed from them
+     * @author Yiming Sun
+     *
+     */
+    protected class LatencyWindow {
+        // guarded by latencySamples
+        protected final long[] latencySamples;
+        protected int sampleCount;
+        protected int nextSampleIndex;
+        
+        protected volatile long hedgeDelay;
+        
+        /**
+         * Constructor
+         */
+        protected LatencyWindow() {
+            this.latencySamples = new long[LATENCY_WINDOW_SIZE];
+            this.sampleCount = 0;
+            this.nextSampleIndex = 0;
+            this.hedgeDelay = Long.MAX_VALUE;
+        }
+        
+        /**
+         * Method to record the latency of a query and periodically recompute the hedge delay from the recent latencies
+         * @param latency latency of a query in milliseconds
+         */
+        protected void recordLatency(long latency) {
+            long[] sortedSamples = null;
+            synchronized (latencySamples) {
+                latencySamples[nextSampleIndex] = latency;
+                nextSampleIndex = (nextSampleIndex + 1) % LATENCY_WINDOW_SIZE;
+                if (sampleCount < LATENCY_WINDOW_SIZE) {
+                    sampleCount++;
+                }
+                if (sampleCount >= MIN_LATENCY_SAMPLES && nextSampleIndex % RECOMPUTE_INTERVAL == 0) {
+                    sortedSamples = Arrays.copyOf(latencySamples, sampleCount);
+                }
+            }
+            
+            if (sortedSamples != null) {
+                Arrays.sort(sortedSamples);
+                int index = (int)Math.ceil(percentile / 100.0 * sortedSamples.length) - 1;
+                index = Math.max(0, Math.min(sortedSamples.length - 1, index));
+                hedgeDelay = Math.max(minDelay, sortedSamples[index]);
+            }
+        }
+    }
+    
+    protected final double percentile;
+    protected final long minDelay;
+    protected final double maxHedgeRatio;
+    protected final ThreadPoolExecutor executorService;
+    protected final ConcurrentMap<String, LatencyWindow> latencyWindowMap;
+    
+    // guarded by this
+    protected double hedgeTokens;
+    
+    protected final AtomicLong hedgesIssued;
+    protected final AtomicLong hedgesWon;
+    
+    /**
+     * Constructor
+     * @param percentile percentile of the recent query latencies, between 0 and 100, after which a duplicate query is fired
+     * @param minDelay minimum number of milliseconds to wait before firing a duplicate query, regardless of the percentile
+     * @param poolSize maximum number of threads executing queries that may be hedged, counting both the original and the duplicate queries
+     * @param maxHedgeRatio maximum fraction of the queries, between 0 and 1, that may be hedged
+     */
+    public HedgedQueryExecutor(double percentile, long minDelay, int poolSize, double maxHedgeRatio) {
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.executorService = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        this.executorService.allowCoreThreadTimeOut(true);
+        this.latencyWindowMap = new ConcurrentHashMap<String, LatencyWindow>();
+        
+        this.hedgeTokens = MAX_HEDGE_TOKENS;
+        
+        this.hedgesIssued = new AtomicLong(0);
+        this.hedgesWon = new AtomicLong(0);
+    }
+    
+    /**
+     * Method to execute a query, firing a duplicate query if the original one is slower than the hedge delay of its type.  The type is the class name of
+     * the query
+     * @param query a Query object to be executed
+     * @return the QueryResult of whichever execution finished first
+     * @throws HectorException thrown if all executions of the query failed, or if the calling thread was interrupted while waiting
+     */
+    public <T> QueryResult<T> execute(Query<T> query) {
+        return execute(query.getClass().getName(), query);
+    }
+    
+    /**
+     * Method to execute a query, firing a duplicate query if the original one is slower than the hedge delay of its type
+     * @param queryType the type of the query. Queries of different types (e.g. a single-column lookup and a multiget of many pages) have their latencies
+     * tracked separately
+     * @param query a Query object to be executed
+     * @return the QueryResult of whichever execution finished first
+     * @throws HectorException thrown if all executions of the query failed, or if the calling thread was interrupted while waiting
+     */
+    public <T> QueryResult<T> execute(String queryType, final Query<T> query) {
+        LatencyWindow latencyWindow = getLatencyWindow(queryType);
+        long delay = latencyWindow.hedgeDelay;
+        boolean hedgeable = earnHedgeToken() && delay != Long.MAX_VALUE;
+        
+        long startTime = System.currentTimeMillis();
+        CompletionService<QueryResult<T>> completionService = new ExecutorCompletionService<QueryResult<T>>(executorService);
+        Callable<QueryResult<T>> callable = new Callable<QueryResult<T>>() {
+            @Override
+            public QueryResult<T> call() throws Exception {
+                return query.execute();
+            }
+        };
+        
+        Future<QueryResult<T>> primaryFuture = null;
+        if (hedgeable) {
+            try {
+                primaryFuture = completionService.submit(callable);
+            } catch (RejectedExecutionException e) {
+                if (log.isDebugEnabled()) log.debug("No free thread for a hedgeable query, executing it without hedging");
+            }
+        }
+        
+        if (primaryFuture == null) {
+            QueryResult<T> queryResult = query.execute();
+            latencyWindow.recordLatency(System.currentTimeMillis() - startTime);
+            return queryResult;
+        }
+        
+        Future<QueryResult<T>> hedgeFuture = null;
+        try {
+            Future<QueryResult<T>> completedFuture = completionService.poll(delay, TimeUnit.MILLISECONDS);
+            if (completedFuture == null && takeHedgeToken()) {
+                try {
+                    hedgeFuture = completionService.submit(callable);
+                    hedgesIssued.incrementAndGet();
+                    if (log.isDebugEnabled()) log.debug("Query exceeded hedge delay of " + delay + " ms, hedge issued");
+                } catch (RejectedExecutionException e) {
+                    if (log.isDebugEnabled()) log.debug("No free thread for a hedge, waiting for the original query");
+                }
+            }
+            
+            if (completedFuture == null) {
+                completedFuture = completionService.take();
+            }
+            
+            QueryResult<T> queryResult = null;
+            try {
+                queryResult = completedFuture.get();
+            } catch (ExecutionException e) {
+                if (hedgeFuture == null) {
+                    throw e;
+                }
+                // one of the two executions failed, so the other one is the last chance
+                if (log.isDebugEnabled()) log.debug("One execution of a hedged query failed, waiting for the other one", e);
+                completedFuture = completionService.take();
+                queryResult = completedFuture.get();
+            }
+            
+            if (completedFuture == hedgeFuture) {
+                hedgesWon.incrementAndGet();
+            }
+            latencyWindow.recordLatency(System.currentTimeMillis() - startTime);
+            return queryResult;
+            
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof HectorException) {
+                throw (HectorException)cause;
+            }
+            throw new HectorException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HectorException("Interrupted while waiting for query result");
+        } finally {
+            // cancel the losing execution, which only stops it if it is still waiting for a pooled connection
+            primaryFuture.cancel(true);
+            if (hedgeFuture != null) {
+                hedgeFuture.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * Method to return the LatencyWindow of a type of query, creating it on first use
+     * @param queryType the type of the query
+     * @return the LatencyWindow object of the query type
+     */
+    protected LatencyWindow getLatencyWindow(String queryType) {
+        LatencyWindow latencyWindow = latencyWindowMap.get(queryType);
+        if (latencyWindow == null) {
+            LatencyWindow newLatencyWindow = new LatencyWindow();
+            latencyWindow = latencyWindowMap.putIfAbsent(queryType, newLatencyWindow);
+            if (latencyWindow == null) {
+                latencyWindow = newLatencyWindow;
+            }
+        }
+        return latencyWindow;
+    }
+    
+    /**
+     * Method to add the share of a hedge earned by a query to the hedge budget
+     * @return <code>true</code> if the budget holds at least one hedge, <code>false</code> otherwise
+     */
+    protected synchronized boolean earnHedgeToken() {
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + maxHedgeRatio);
+        return hedgeTokens >= 1.0;
+    }
+    
+    /**
+     * Method to take a hedge from the hedge budget
+     * @return <code>true</code> if a hedge was taken, <code>false</code> if the budget is spent
+     */
+    protected synchronized boolean takeHedgeToken() {
+        if (hedgeTokens >= 1.0) {
+            hedgeTokens -= 1.0;
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Method to return the current hedge delay of a type of query
+     * @param queryType the type of the query
+     * @return the number of milliseconds a query of the type may run before a duplicate query is fired, or Long.MAX_VALUE if not enough latencies have
+     * been observed yet
+     */
+    public long getHedgeDelay(String queryType) {
+        LatencyWindow latencyWindow = latencyWindowMap.get(queryType);
+        return (latencyWindow != null) ? latencyWindow.hedgeDelay : Long.MAX_VALUE;
+    }
+    
+    /**
+     * Method to return the number of duplicate queries fired
+     * @return the number of hedges issued
+     */
+    public long getHedgesIssued() {
+        return hedgesIssued.get();
+    }
+    
+    /**
+     * Method to return the number of duplicate queries that finished before the original query
+     * @return the number of hedges won
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("HedgedQueryExecutor hedgesIssued: " + getHedgesIssued() + " hedgesWon: " + getHedgesWon() + " hedgeDelays:");
+        for (String queryType : latencyWindowMap.keySet()) {
+            builder.append(' ').append(queryType).append('=').append(getHedgeDelay(queryType));
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Method to dispose of the threads used to execute queries
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+}
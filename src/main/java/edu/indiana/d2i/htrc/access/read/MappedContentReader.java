@@ -0,0 +1,165 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  MappedContentReader.java
+# Description:  This class is an implementation of the ContentReader interface backed by a memory-mapped file
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+
+/**
+ * This class is an implementation of the ContentReader interface backed by a read-only memory-mapped file, or by a region of one such as a STORED entry of
+ * a mapped zip file, so the content of a large page stays in the page cache of the operating system instead of being copied onto the Java heap.  Writers
+ * that know about this class should use writeTo to move the content out; getContent still works but copies the whole content into a new byte array on every
+ * call.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class MappedContentReader implements ContentReader {
+    
+    protected static final int CRC_CHUNK_SIZE = 8192;
+    
+    protected final String contentName;
+    protected final ByteBuffer contentBuffer;
+    protected final long knownCRC32;
+    
+    /**
+     * Constructor. The file is mapped and its FileChannel closed right away, as the mapping stays valid until the buffer is garbage collected
+     * @param contentName name of the content, which can be the name of a metadata entry, or the page sequence number of a page
+     * @param file the file holding the content
+     * @throws IOException thrown if the file could not be mapped
+     */
+    public MappedContentReader(String contentName, File file) throws IOException {
+        this.contentName = contentName;
+        
+        this.knownCRC32 = -1;
+        
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            this.contentBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+    
+    /**
+     * Constructor that takes a region of a file already mapped by the caller, such as a STORED entry sliced out of a mapped zip file
+     * @param contentName name of the content, which can be the name of a metadata entry, or the page sequence number of a page
+     * @param contentBuffer a ByteBuffer object holding exactly the content, from its position 0 to its limit
+     * @param knownCRC32 the CRC-32 of the content if it is already known, e.g. from the zip entry, or -1 to compute it when asked
+     */
+    public MappedContentReader(String contentName, ByteBuffer contentBuffer, long knownCRC32) {
+        this.contentName = contentName;
+        this.contentBuffer = contentBuffer;
+        this.knownCRC32 = knownCRC32;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContentName()
+     */
+    @Override
+    public String getContentName() {
+        return contentName;
+    }
+    
+    /**
+     * Method to return a heap copy of the content. Callers able to stream the content should use writeTo instead
+     * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContent()
+     */
+    @Override
+    public byte[] getContent() {
+        byte[] content = new byte[contentBuffer.capacity()];
+        contentBuffer.duplicate().get(content);
+        return content;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContentLength()
+     */
+    @Override
+    public int getContentLength() {
+        return contentBuffer.capacity();
+    }
+    
+    /**
+     * Method to return the CRC-32 of the content.  Unless it is already known, it is computed in small chunks, so that no heap copy of the whole content is
+     * made
+     * @return the CRC-32 of the content
+     */
+    public long computeCRC32() {
+        if (knownCRC32 >= 0) {
+            return knownCRC32;
+        }
+        
+        CRC32 crc32 = new CRC32();
+        ByteBuffer buffer = contentBuffer.duplicate();
+        byte[] chunk = new byte[Math.min(CRC_CHUNK_SIZE, buffer.remaining())];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            crc32.update(chunk, 0, length);
+        }
+        return crc32.getValue();
+    }
+    
+    /**
+     * Method to write the content to an OutputStream through a channel write from the mapped region, so that no heap copy of the whole content is made
+     * @param outputStream an OutputStream object to which the content is written
+     * @throws IOException thrown if writing to the OutputStream failed
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        // the channel is not closed, as closing it would close the OutputStream
+        transferTo(Channels.newChannel(outputStream));
+    }
+    
+    /**
+     * Method to write the content to a WritableByteChannel directly from the mapped region
+     * @param channel a WritableByteChannel object to which the content is written
+     * @throws IOException thrown if writing to the channel failed
+     */
+    public void transferTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buffer = contentBuffer.duplicate();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,532 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PageContentCache.java
+# Description:  This class is a byte-budgeted LRU cache of page contents held in off-heap slabs
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.Constants;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl.ContentReaderImpl;
+
+/**
+ * This class is a byte-budgeted LRU cache of page contents, keyed by volumeID and page sequence.  The page bytes are kept off the Java heap, in direct
+ * ByteBuffer slabs that are allocated once when the cache is created and never freed, so a cache of several GB adds nothing to the heap the garbage
+ * collector has to trace.  The slabs are divided into fixed-size chunks, a page takes as many chunks as its length needs, and the chunks of an evicted page
+ * go back on a free list for the next page to reuse.  Only the small index of chunk numbers per page lives on the heap.  The whole byte budget is taken
+ * from direct memory up front, so -XX:MaxDirectMemorySize must leave room for it on top of the other direct buffers of the service.
+ * 
+ * The cache is split into lock-striped segments by the hash of the page key.  Each segment owns its own slabs, free list and access-ordered index, so
+ * lookups of different pages seldom wait on the same lock, and eviction is least recently used within a segment.  A hit copies the page out of the slab
+ * into a new byte array, since its chunks may be reused once the page is evicted.
+ * 
+ * The cache sits between the async fetchers and the VolumeStore: the retrievePageContents methods of this class serve the cached pages of a request from
+ * memory and only fetch the missing pages from the VolumeStore.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PageContentCache {
+    
+    private static final Logger log = Logger.getLogger(PageContentCache.class);
+    
+    public static final int DEFAULT_CHUNK_SIZE = 512;
+    
+    protected static final int MAX_SEGMENTS = 16;
+    protected static final long MIN_SEGMENT_BYTES = 16L * 1024L * 1024L;
+    protected static final int MAX_SLAB_BYTES = 1 << 30;
+    
+    /**
+     * This class is the index entry of a cached page: the length of the page and the chunks of the slabs holding its bytes, in order
+     * @author Yiming Sun
+     *
+     */
+    protected static class CacheEntry {
+        protected final int length;
+        protected final int[] chunks;
+        
+        /**
+         * Constructor
+         * @param length number of bytes of the page
+         * @param chunks chunk numbers holding the bytes of the page, in order
+         */
+        protected CacheEntry(int length, int[] chunks) {
+            this.length = length;
+            this.chunks = chunks;
+        }
+    }
+    
+    /**
+     * This class is one lock stripe of the cache.  It owns a fixed set of direct slabs divided into chunks, a free list of chunk numbers, and an
+     * access-ordered index of the pages it holds.  All access to a Segment must be synchronized on the Segment
+     * @author Yiming Sun
+     *
+     */
+    protected class Segment {
+        protected final ByteBuffer[] slabs;
+        protected final int chunksPerSlab;
+        protected final int chunkCount;
+        protected final int[] freeChunks;
+        protected int freeCount;
+        protected final LinkedHashMap<String, CacheEntry> entryMap;
+        protected long residentBytes;
+        
+        /**
+         * Constructor
+         * @param chunkCount number of chunks of the segment
+         */
+        protected Segment(int chunkCount) {
+            this.chunkCount = chunkCount;
+            this.chunksPerSlab = Math.max(1, Math.min(chunkCount, MAX_SLAB_BYTES / chunkSize));
+            
+            int slabCount = (chunkCount + chunksPerSlab - 1) / chunksPerSlab;
+            this.slabs = new ByteBuffer[slabCount];
+            for (int i = 0; i < slabCount; i++) {
+                int slabChunks = Math.min(chunksPerSlab, chunkCount - i * chunksPerSlab);
+                slabs[i] = ByteBuffer.allocateDirect(slabChunks * chunkSize);
+            }
+            
+            this.freeChunks = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                freeChunks[i] = chunkCount - 1 - i;
+            }
+            this.freeCount = chunkCount;
+            
+            this.entryMap = new LinkedHashMap<String, CacheEntry>(1024, 0.75f, true);
+            this.residentBytes = 0L;
+        }
+        
+        /**
+         * Method to copy a cached page out of the slabs
+         * @param key the cache key of the page
+         * @return the content of the page, or <code>null</code> if the page is not in the segment
+         */
+        protected byte[] get(String key) {
+            CacheEntry cacheEntry = entryMap.get(key);
+            if (cacheEntry == null) {
+                return null;
+            }
+            
+            byte[] content = new byte[cacheEntry.length];
+            int offset = 0;
+            for (int chunk : cacheEntry.chunks) {
+                int length = Math.min(chunkSize, content.length - offset);
+                ByteBuffer slab = slabs[chunk / chunksPerSlab];
+                slab.position((chunk % chunksPerSlab) * chunkSize);
+                slab.get(content, offset, length);
+                offset += length;
+            }
+            return content;
+        }
+        
+        /**
+         * Method to copy a page into the slabs, evicting the least recently used pages of the segment until there are enough free chunks
+         * @param key the cache key of the page
+         * @param content the content of the page, which must fit in the segment
+         */
+        protected void put(String key, byte[] content) {
+            CacheEntry oldEntry = entryMap.remove(key);
+            if (oldEntry != null) {
+                release(oldEntry);
+            }
+            
+            int neededChunks = (content.length + chunkSize - 1) / chunkSize;
+            Iterator<CacheEntry> iterator = entryMap.values().iterator();
+            while (freeCount < neededChunks && iterator.hasNext()) {
+                release(iterator.next());
+                iterator.remove();
+                evictionCount.incrementAndGet();
+            }
+            
+            int[] chunks = new int[neededChunks];
+            int offset = 0;
+            for (int i = 0; i < neededChunks; i++) {
+                int chunk = freeChunks[--freeCount];
+                int length = Math.min(chunkSize, content.length - offset);
+                ByteBuffer slab = slabs[chunk / chunksPerSlab];
+                slab.position((chunk % chunksPerSlab) * chunkSize);
+                slab.put(content, offset, length);
+                offset += length;
+                chunks[i] = chunk;
+            }
+            
+            entryMap.put(key, new CacheEntry(content.length, chunks));
+            residentBytes += content.length;
+        }
+        
+        /**
+         * Method to return the chunks of a page that has been taken out of the index to the free list
+         * @param cacheEntry the CacheEntry object of the page
+         */
+        protected void release(CacheEntry cacheEntry) {
+            for (int chunk : cacheEntry.chunks) {
+                freeChunks[freeCount++] = chunk;
+            }
+            residentBytes -= cacheEntry.length;
+        }
+        
+        /**
+         * Method to remove all pages from the segment
+         */
+        protected void clear() {
+            for (CacheEntry cacheEntry : entryMap.values()) {
+                release(cacheEntry);
+            }
+            entryMap.clear();
+        }
+    }
+    
+    protected final long maxBytes;
+    protected final int chunkSize;
+    protected final Segment[] segments;
+    
+    protected final AtomicLong hitCount;
+    protected final AtomicLong missCount;
+    protected final AtomicLong evictionCount;
+    
+    /**
+     * Constructor that divides the slabs into chunks of DEFAULT_CHUNK_SIZE bytes
+     * @param maxBytes maximum total number of bytes of slab memory to allocate for page contents. The least recently used pages are evicted when it is full
+     */
+    public PageContentCache(long maxBytes) {
+        this(maxBytes, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Constructor
+     * @param maxBytes maximum total number of bytes of slab memory to allocate for page contents. The least recently used pages are evicted when it is full
+     * @param chunkSize number of bytes of each chunk of the slabs. A page takes up its length rounded up to a multiple of chunkSize
+     */
+    public PageContentCache(long maxBytes, int chunkSize) {
+        this.maxBytes = maxBytes;
+        this.chunkSize = chunkSize;
+        
+        this.hitCount = new AtomicLong(0);
+        this.missCount = new AtomicLong(0);
+        this.evictionCount = new AtomicLong(0);
+        
+        int segmentCount = 1;
+        while (segmentCount * 2 <= MAX_SEGMENTS && maxBytes / (segmentCount * 2) >= MIN_SEGMENT_BYTES) {
+            segmentCount *= 2;
+        }
+        
+        // the remainder of the chunks goes to the first segments, so the segments add up to all the whole chunks that fit in maxBytes
+        long totalChunks = maxBytes / chunkSize;
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment((int)(totalChunks / segmentCount + ((i < totalChunks % segmentCount) ? 1 : 0)));
+        }
+        
+        if (log.isDebugEnabled()) log.debug("PageContentCache allocated " + (totalChunks * chunkSize) + " bytes in " + segmentCount + " segments of " + chunkSize + "-byte chunks");
+    }
+    
+    /**
+     * Method to look up the content of a page from the cache
+     * @param volumeID volumeID of the volume
+     * @param pageSequence page sequence number of the page
+     * @return a ContentReader object holding a copy of the cached page content, or <code>null</code> if the page is not in the cache
+     */
+    public ContentReader get(String volumeID, String pageSequence) {
+        String key = generateKey(volumeID, pageSequence);
+        Segment segment = segmentFor(key);
+        byte[] content = null;
+        
+        synchronized (segment) {
+            content = segment.get(key);
+        }
+        
+        if (content == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        
+        hitCount.incrementAndGet();
+        return new ContentReaderImpl(pageSequence, content);
+    }
+    
+    /**
+     * Method to put the content of a page into the cache.  Pages that do not fit in one segment are not cached, and neither are pages served by a
+     * MappedContentReader, as their content already lives in the page cache of the operating system
+     * @param volumeID volumeID of the volume
+     * @param page a ContentReader object holding the page sequence number and the content of the page
+     */
+    public void put(String volumeID, ContentReader page) {
+        if (page instanceof MappedContentReader) {
+            return;
+        }
+        
+        byte[] content = page.getContent();
+        String key = generateKey(volumeID, page.getContentName());
+        Segment segment = segmentFor(key);
+        if (content == null || content.length > (long)segment.chunkCount * chunkSize) {
+            return;
+        }
+        
+        synchronized (segment) {
+            segment.put(key, content);
+        }
+    }
+    
+    /**
+     * Method to retrieve the pages of a volume, serving the cached pages from memory and fetching only the missing pages from the VolumeStore. The fetched pages are
+     * added to the cache.
+     * @param volumeID volumeID of the volume
+     * @param pageSequences a List of page sequence numbers to be retrieved
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @return a List of ContentReader objects holding the page content in the requested order
+     * @throws KeyNotFoundException thrown if the volume or any of the missing pages does not exist
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences, VolumeStore volumeStore) throws KeyNotFoundException, RepositoryException {
+        List<ContentReader> pageContents = new ArrayList<ContentReader>(pageSequences.size());
+        List<String> missingPageSequences = new ArrayList<String>();
+        
+        for (String pageSequence : pageSequences) {
+            ContentReader cachedPage = get(volumeID, pageSequence);
+            pageContents.add(cachedPage);
+            if (cachedPage == null) {
+                missingPageSequences.add(pageSequence);
+            }
+        }
+        
+        if (!missingPageSequences.isEmpty()) {
+            if (log.isDebugEnabled()) log.debug("Fetching " + missingPageSequences.size() + " of " + pageSequences.size() + " pages of volume " + volumeID);
+            List<ContentReader> fetchedPages = volumeStore.retrievePageContents(volumeID, missingPageSequences);
+            
+            int fetchedIndex = 0;
+            for (int i = 0; i < pageContents.size(); i++) {
+                if (pageContents.get(i) == null) {
+                    ContentReader fetchedPage = fetchedPages.get(fetchedIndex++);
+                    put(volumeID, fetchedPage);
+                    pageContents.set(i, fetchedPage);
+                }
+            }
+        }
+        
+        return pageContents;
+    }
+    
+    /**
+     * Method to retrieve the pages of multiple volumes, serving the cached pages from memory and fetching only the missing pages from the VolumeStore in a
+     * batch.  The fetched pages are added to the cache.
+     * 
+     * As with VolumeStore.retrievePageContents(Map), the List of a volume stops at the first page that can neither be served from the cache nor fetched,
+     * and a volume without any pages is absent from the returned Map, so callers should check the completeness of the returned content themselves.
+     * 
+     * @param volumePageSequences a Map with volumeIDs as keys and Lists of page sequence numbers to be retrieved from each volume as values
+     * @param volumeStore a VolumeStore object from which volumes are retrieved
+     * @return a Map with volumeIDs as keys and Lists of ContentReader objects holding the page content in the requested order as values
+     * @throws RepositoryException thrown if the backend repository failed
+     */
+    public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences, VolumeStore volumeStore) throws RepositoryException {
+        Map<String, List<ContentReader>> cachedPagesMap = new HashMap<String, List<ContentReader>>();
+        Map<String, List<String>> missingPageSequencesMap = new LinkedHashMap<String, List<String>>();
+        
+        for (Map.Entry<String, List<String>> entry : volumePageSequences.entrySet()) {
+            String volumeID = entry.getKey();
+            List<String> pageSequences = entry.getValue();
+            List<ContentReader> cachedPages = new ArrayList<ContentReader>(pageSequences.size());
+            List<String> missingPageSequences = new ArrayList<String>();
+            
+            for (String pageSequence : pageSequences) {
+                ContentReader cachedPage = get(volumeID, pageSequence);
+                cachedPages.add(cachedPage);
+                if (cachedPage == null) {
+                    missingPageSequences.add(pageSequence);
+                }
+            }
+            
+            cachedPagesMap.put(volumeID, cachedPages);
+            if (!missingPageSequences.isEmpty()) {
+                missingPageSequencesMap.put(volumeID, missingPageSequences);
+            }
+        }
+        
+        Map<String, List<ContentReader>> fetchedPagesMap = null;
+        if (!missingPageSequencesMap.isEmpty()) {
+            if (log.isDebugEnabled()) log.debug("Fetching missing pages of " + missingPageSequencesMap.size() + " of " + volumePageSequences.size() + " volumes");
+            fetchedPagesMap = volumeStore.retrievePageContents(missingPageSequencesMap);
+        }
+        
+        Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+        for (Map.Entry<String, List<ContentReader>> entry : cachedPagesMap.entrySet()) {
+            String volumeID = entry.getKey();
+            List<String> pageSequences = volumePageSequences.get(volumeID);
+            List<ContentReader> pageContents = entry.getValue();
+            List<ContentReader> fetchedPages = (fetchedPagesMap != null) ? fetchedPagesMap.get(volumeID) : null;
+            
+            // merge the fetched pages into the gaps left by the cache misses, and cut the list at the first page that is still missing. The batch retrieval
+            // skips pages that do not exist, so the fetched pages are matched by name rather than by position
+            int fetchedIndex = 0;
+            for (int i = 0; i < pageContents.size(); i++) {
+                if (pageContents.get(i) == null) {
+                    if (fetchedPages != null && fetchedIndex < fetchedPages.size() && fetchedPages.get(fetchedIndex).getContentName().equals(pageSequences.get(i))) {
+                        ContentReader fetchedPage = fetchedPages.get(fetchedIndex++);
+                        put(volumeID, fetchedPage);
+                        pageContents.set(i, fetchedPage);
+                    } else {
+                        pageContents = pageContents.subList(0, i);
+                        break;
+                    }
+                }
+            }
+            
+            if (!pageContents.isEmpty()) {
+                contentReadersMap.put(volumeID, pageContents);
+            }
+        }
+        
+        return contentReadersMap;
+    }
+    
+    /**
+     * Method to remove all pages from the cache.  The slabs stay allocated for the pages to come
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+    
+    /**
+     * Method to return the number of pages currently in the cache
+     * @return the number of pages currently in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entryMap.size();
+            }
+        }
+        return size;
+    }
+    
+    /**
+     * Method to return the total number of bytes of page contents currently held in the cache, not counting the unused tails of their last chunks
+     * @return the number of resident bytes
+     */
+    public long getResidentBytes() {
+        long residentBytes = 0L;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                residentBytes += segment.residentBytes;
+            }
+        }
+        return residentBytes;
+    }
+    
+    /**
+     * Method to return the byte budget of the cache
+     * @return the maximum number of bytes the cache may hold
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    /**
+     * Method to return the number of page lookups that found the page in the cache
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+    
+    /**
+     * Method to return the number of page lookups that did not find the page in the cache
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+    
+    /**
+     * Method to return the fraction of page lookups that found the page in the cache
+     * @return the hit ratio between 0.0 and 1.0, or 0.0 if there has been no lookup
+     */
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return (lookups > 0) ? (double)hits / lookups : 0.0;
+    }
+    
+    /**
+     * Method to return the number of pages evicted to free chunks for other pages
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+    
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "PageContentCache pages: " + size() + " residentBytes: " + getResidentBytes() + " segments: " + segments.length + " hitRatio: " + getHitRatio() + " evictions: " + getEvictionCount();
+    }
+    
+    /**
+     * Method to generate the cache key of a page
+     * @param volumeID volumeID of the volume
+     * @param pageSequence page sequence number of the page
+     * @return the cache key of the page
+     */
+    protected String generateKey(String volumeID, String pageSequence) {
+        return volumeID + Constants.PAGE_SEQ_START_MARK + pageSequence + Constants.PAGE_SEQ_END_MARK;
+    }
+    
+    /**
+     * Method to find the segment a page belongs to
+     * @param key the cache key of the page
+     * @return the Segment object holding the page
+     */
+    protected Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+}
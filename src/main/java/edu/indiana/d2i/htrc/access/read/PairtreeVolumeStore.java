@@ -0,0 +1,588 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PairtreeVolumeStore.java
+# Description:  This class is an implementation of the VolumeStore interface that reads volumes from a local pairtree
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import gov.loc.repository.pairtree.Pairtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.AbstractVolumeStore;
+import edu.indiana.d2i.htrc.access.Constants;
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.HectorResource.BasicVolumeInfo;
+import edu.indiana.d2i.htrc.access.read.HectorResource.CopyrightEnum;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl.ContentReaderImpl;
+
+/**
+ * This class is an implementation of the VolumeStore interface that reads volumes directly from a pairtree on the local filesystem, using the same layout
+ * as the HathiTrust rsync dataset:
+ * 
+ * &lt;root&gt;/&lt;prefix&gt;/pairtree_root/&lt;pairtree path&gt;/&lt;cleaned id&gt;/&lt;cleaned id&gt;.zip holds the pages as &lt;page sequence&gt;.txt entries, and
+ * &lt;root&gt;/&lt;prefix&gt;/pairtree_root/&lt;pairtree path&gt;/&lt;cleaned id&gt;/&lt;cleaned id&gt;.mets.xml is the METS metadata of the volume
+ * 
+ * If the zip file is absent, the pages are read from &lt;page sequence&gt;.txt files extracted into the volume directory instead.  Extracted pages and METS
+ * files at or above the pairtree.mmap.threshold size are served by MappedContentReader objects, so their content is never copied onto the Java heap.  So are
+ * pages at or above the threshold that are STORED in the zip file without compression: the zip file is memory-mapped and the bytes of each such entry are
+ * sliced out of the mapping.  Compressed entries have to be inflated, so they are always read onto the heap.
+ * 
+ * The pairtree does not carry the copyright of the volumes, so all volumes are given the copyright set by the pairtree.default.copyright parameter.
+ * 
+ * The volumeID comes from the client, so its prefix must be alphanumeric, and a volume directory whose canonical path is not under the canonical root path
+ * (e.g. reached through a symbolic link pointing elsewhere) is treated as not existing.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PairtreeVolumeStore extends AbstractVolumeStore {
+    
+    private static final Logger log = Logger.getLogger(PairtreeVolumeStore.class);
+    
+    public static final String PN_PAIRTREE_ROOT_PATH = "pairtree.root.path";
+    public static final String PN_PAIRTREE_DEFAULT_COPYRIGHT = "pairtree.default.copyright";
+    public static final String PN_PAIRTREE_MMAP_THRESHOLD = "pairtree.mmap.threshold";
+    
+    protected static final String PAIRTREE_ROOT = "pairtree_root";
+    protected static final String ZIP_SUFFIX = ".zip";
+    protected static final String METS_SUFFIX = ".mets.xml";
+    protected static final String PAGE_SUFFIX = ".txt";
+    protected static final Pattern PREFIX_PATTERN = Pattern.compile("[A-Za-z0-9]+");
+    
+    // signatures and fixed sizes of the zip records parsed to slice STORED entries out of a mapped zip file
+    protected static final int ZIP_END_SIGNATURE = 0x06054b50;
+    protected static final int ZIP_CEN_SIGNATURE = 0x02014b50;
+    protected static final int ZIP_LOC_SIGNATURE = 0x04034b50;
+    protected static final int ZIP_END_SIZE = 22;
+    protected static final int ZIP_CEN_SIZE = 46;
+    protected static final int ZIP_LOC_SIZE = 30;
+    protected static final int ZIP_MAX_COMMENT_LENGTH = 0xffff;
+    protected static final long ZIP64_MAGIC = 0xffffffffL;
+    
+    protected final String rootPath;
+    protected final CopyrightEnum defaultCopyright;
+    protected final long mmapThreshold;
+    protected final Pairtree pairtree;
+    
+    /**
+     * Constructor
+     * @param parameterContainer a ParameterContainer object
+     */
+    public PairtreeVolumeStore(ParameterContainer parameterContainer) {
+        this.rootPath = parameterContainer.getParameter(PN_PAIRTREE_ROOT_PATH);
+        if (log.isDebugEnabled()) log.debug("rootPath = " + rootPath);
+        
+        String defaultCopyrightString = parameterContainer.getParameter(PN_PAIRTREE_DEFAULT_COPYRIGHT);
+        this.defaultCopyright = (defaultCopyrightString != null) ? CopyrightEnum.valueOf(defaultCopyrightString) : CopyrightEnum.PUBLIC_DOMAIN;
+        if (log.isDebugEnabled()) log.debug("defaultCopyright = " + defaultCopyright);
+        
+        String mmapThresholdString = parameterContainer.getParameter(PN_PAIRTREE_MMAP_THRESHOLD);
+        this.mmapThreshold = (mmapThresholdString != null) ? Long.parseLong(mmapThresholdString) : 0L;
+        if (log.isDebugEnabled()) log.debug("mmapThreshold = " + mmapThreshold);
+        
+        this.pairtree = new Pairtree();
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfo(java.lang.String)
+     */
+    @Override
+    public VolumeInfo getVolumeInfo(String volumeID) throws KeyNotFoundException, RepositoryException {
+        BasicVolumeInfo volumeInfo = new BasicVolumeInfo(volumeID);
+        volumeInfo.setCopyright(defaultCopyright);
+        
+        File volumeDirectory = getVolumeDirectory(volumeID);
+        File volumeZipFile = new File(volumeDirectory, getCleanedLocalID(volumeID) + ZIP_SUFFIX);
+        if (volumeZipFile.isFile()) {
+            ZipFile zipFile = openZipFile(volumeID, volumeZipFile);
+            try {
+                volumeInfo.setPageCount(indexPageEntries(zipFile).size());
+            } finally {
+                closeZipFile(zipFile);
+            }
+        } else {
+            volumeInfo.setPageCount(countPageFiles(volumeID, volumeDirectory));
+        }
+        return volumeInfo;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfos(java.util.List)
+     */
+    @Override
+    public Map<String, VolumeInfo> getVolumeInfos(List<String> volumeIDs) throws RepositoryException {
+        Map<String, VolumeInfo> volumeInfoMap = new HashMap<String, VolumeInfo>();
+        for (String volumeID : volumeIDs) {
+            try {
+                volumeInfoMap.put(volumeID, getVolumeInfo(volumeID));
+            } catch (KeyNotFoundException e) {
+                if (log.isDebugEnabled()) log.debug("Volume not found in pairtree: " + volumeID);
+            }
+        }
+        return volumeInfoMap;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrievePageContents(java.lang.String, java.util.List)
+     */
+    @Override
+    public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences) throws KeyNotFoundException, RepositoryException {
+        return readPages(volumeID, pageSequences, false);
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrievePageContents(java.util.Map)
+     */
+    @Override
+    public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences) throws RepositoryException {
+        Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+        for (Map.Entry<String, List<String>> entry : volumePageSequences.entrySet()) {
+            try {
+                List<ContentReader> pageContents = readPages(entry.getKey(), entry.getValue(), true);
+                if (!pageContents.isEmpty()) {
+                    contentReadersMap.put(entry.getKey(), pageContents);
+                }
+            } catch (KeyNotFoundException e) {
+                if (log.isDebugEnabled()) log.debug("Volume not found in pairtree: " + entry.getKey());
+            }
+        }
+        return contentReadersMap;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrieveMetadata(java.lang.String, java.util.List)
+     */
+    @Override
+    public List<ContentReader> retrieveMetadata(String volumeID, List<String> metadataNames) throws KeyNotFoundException, RepositoryException {
+        List<ContentReader> contentReaders = new ArrayList<ContentReader>(metadataNames.size());
+        String cleanedID = getCleanedLocalID(volumeID);
+        File volumeDirectory = getVolumeDirectory(volumeID);
+        
+        for (String metadataName : metadataNames) {
+            if (HectorResource.CN_VOLUME_METS.equals(metadataName)) {
+                File metsFile = new File(volumeDirectory, cleanedID + METS_SUFFIX);
+                if (!metsFile.isFile()) {
+                    log.error("METS file not found for volume: " + volumeID + " path: " + metsFile.getPath());
+                    throw new KeyNotFoundException(volumeID);
+                }
+                
+                try {
+                    contentReaders.add(readFile(metadataName, metsFile));
+                } catch (IOException e) {
+                    log.error("Failed to read METS file of volume: " + volumeID, e);
+                    throw new RepositoryException("Retrieving metadata failed. VolumeID: " + volumeID, e);
+                }
+            } else {
+                log.error("Unsupported metadata name " + metadataName + " for volume: " + volumeID);
+                throw new KeyNotFoundException(volumeID + Constants.PAGE_SEQ_START_MARK + metadataName + Constants.PAGE_SEQ_END_MARK);
+            }
+        }
+        return contentReaders;
+    }
+    
+    /**
+     * Method to get the maximum number of volumes per batch.  Reading from the local filesystem has no round trip to save, so batch retrieval is not used
+     * @return always 0
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getMaxVolumesPerBatch()
+     */
+    @Override
+    public int getMaxVolumesPerBatch() {
+        return 0;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        log.info("PairtreeVolumeStore shutdown");
+    }
+    
+    /**
+     * Method to read the pages of a volume from its zip file
+     * @param volumeID volumeID of the volume
+     * @param pageSequences a List of page sequence numbers to be read
+     * @param skipMissing a boolean flag indicating whether a page that does not exist is skipped. If <code>false</code>, KeyNotFoundException is thrown instead
+     * @return a List of ContentReader objects holding the page content in the requested order
+     * @throws KeyNotFoundException thrown if the volume does not exist, or if a page does not exist and skipMissing is <code>false</code>
+     * @throws RepositoryException thrown if reading the zip file failed
+     */
+    protected List<ContentReader> readPages(String volumeID, List<String> pageSequences, boolean skipMissing) throws KeyNotFoundException, RepositoryException {
+        File volumeDirectory = getVolumeDirectory(volumeID);
+        File volumeZipFile = new File(volumeDirectory, getCleanedLocalID(volumeID) + ZIP_SUFFIX);
+        if (!volumeZipFile.isFile()) {
+            return readPageFiles(volumeID, volumeDirectory, pageSequences, skipMissing);
+        }
+        
+        List<ContentReader> contentReaders = new ArrayList<ContentReader>(pageSequences.size());
+        Map<String, ByteBuffer> storedEntryMap = null;
+        ZipFile zipFile = openZipFile(volumeID, volumeZipFile);
+        try {
+            Map<String, ZipEntry> pageEntryMap = indexPageEntries(zipFile);
+            for (String pageSequence : pageSequences) {
+                ZipEntry zipEntry = pageEntryMap.get(pageSequence);
+                if (zipEntry != null) {
+                    ByteBuffer entryBuffer = null;
+                    if (mmapThreshold > 0 && zipEntry.getMethod() == ZipEntry.STORED && zipEntry.getSize() >= mmapThreshold) {
+                        if (storedEntryMap == null) {
+                            storedEntryMap = mapStoredEntries(volumeID, volumeZipFile);
+                        }
+                        entryBuffer = storedEntryMap.get(zipEntry.getName());
+                    }
+                    
+                    if (entryBuffer != null) {
+                        contentReaders.add(new MappedContentReader(pageSequence, entryBuffer, zipEntry.getCrc()));
+                    } else {
+                        InputStream inputStream = null;
+                        try {
+                            inputStream = zipFile.getInputStream(zipEntry);
+                            contentReaders.add(new ContentReaderImpl(pageSequence, readFully(inputStream, zipEntry.getSize())));
+                        } finally {
+                            closeInputStream(inputStream);
+                        }
+                    }
+                } else if (!skipMissing) {
+                    log.error("Page " + pageSequence + " not found in volume: " + volumeID);
+                    throw new KeyNotFoundException(volumeID + Constants.PAGE_SEQ_START_MARK + pageSequence + Constants.PAGE_SEQ_END_MARK);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to read pages of volume: " + volumeID, e);
+            throw new RepositoryException("Retrieving page contents failed. VolumeID: " + volumeID, e);
+        } finally {
+            closeZipFile(zipFile);
+        }
+        return contentReaders;
+    }
+    
+    /**
+     * Method to read the pages of a volume from page files extracted into the volume directory
+     * @param volumeID volumeID of the volume
+     * @param volumeDirectory the pairtree directory of the volume
+     * @param pageSequences a List of page sequence numbers to be read
+     * @param skipMissing a boolean flag indicating whether a page that does not exist is skipped. If <code>false</code>, KeyNotFoundException is thrown instead
+     * @return a List of ContentReader objects holding the page content in the requested order
+     * @throws KeyNotFoundException thrown if the volume does not exist, or if a page does not exist and skipMissing is <code>false</code>
+     * @throws RepositoryException thrown if reading a page file failed
+     */
+    protected List<ContentReader> readPageFiles(String volumeID, File volumeDirectory, List<String> pageSequences, boolean skipMissing) throws KeyNotFoundException, RepositoryException {
+        if (!volumeDirectory.isDirectory()) {
+            log.error("Volume directory not found for volume: " + volumeID + " path: " + volumeDirectory.getPath());
+            throw new KeyNotFoundException(volumeID);
+        }
+        
+        List<ContentReader> contentReaders = new ArrayList<ContentReader>(pageSequences.size());
+        for (String pageSequence : pageSequences) {
+            File pageFile = new File(volumeDirectory, pageSequence + PAGE_SUFFIX);
+            if (pageFile.isFile()) {
+                try {
+                    contentReaders.add(readFile(pageSequence, pageFile));
+                } catch (IOException e) {
+                    log.error("Failed to read page " + pageSequence + " of volume: " + volumeID, e);
+                    throw new RepositoryException("Retrieving page contents failed. VolumeID: " + volumeID, e);
+                }
+            } else if (!skipMissing) {
+                log.error("Page " + pageSequence + " not found in volume: " + volumeID);
+                throw new KeyNotFoundException(volumeID + Constants.PAGE_SEQ_START_MARK + pageSequence + Constants.PAGE_SEQ_END_MARK);
+            }
+        }
+        return contentReaders;
+    }
+    
+    /**
+     * Method to count the page files extracted into the volume directory
+     * @param volumeID volumeID of the volume
+     * @param volumeDirectory the pairtree directory of the volume
+     * @return the number of page files
+     * @throws KeyNotFoundException thrown if the volume directory does not exist or holds no page files
+     */
+    protected int countPageFiles(String volumeID, File volumeDirectory) throws KeyNotFoundException {
+        String[] fileNames = volumeDirectory.list();
+        int pageCount = 0;
+        if (fileNames != null) {
+            for (String fileName : fileNames) {
+                if (fileName.endsWith(PAGE_SUFFIX)) {
+                    pageCount++;
+                }
+            }
+        }
+        
+        if (pageCount == 0) {
+            log.error("No zip file or page files found for volume: " + volumeID + " path: " + volumeDirectory.getPath());
+            throw new KeyNotFoundException(volumeID);
+        }
+        return pageCount;
+    }
+    
+    /**
+     * Method to read a file as a ContentReader object. Files at or above the mmap threshold are memory-mapped, and smaller files are read onto the heap
+     * @param contentName name of the content
+     * @param file the file to read
+     * @return a MappedContentReader or a ContentReaderImpl object holding the content of the file
+     * @throws IOException thrown if reading the file failed
+     */
+    protected ContentReader readFile(String contentName, File file) throws IOException {
+        long length = file.length();
+        if (mmapThreshold > 0 && length >= mmapThreshold) {
+            return new MappedContentReader(contentName, file);
+        }
+        
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return new ContentReaderImpl(contentName, readFully(inputStream, length));
+        } finally {
+            closeInputStream(inputStream);
+        }
+    }
+    
+    /**
+     * Method to map the page entries of a volume zip file by page sequence number, i.e. the entry filename without the directory and the .txt suffix
+     * @param zipFile a ZipFile object of the volume
+     * @return a Map with page sequence numbers as keys and ZipEntry objects as values
+     */
+    protected Map<String, ZipEntry> indexPageEntries(ZipFile zipFile) {
+        Map<String, ZipEntry> pageEntryMap = new HashMap<String, ZipEntry>();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry zipEntry = entries.nextElement();
+            String name = zipEntry.getName();
+            if (!zipEntry.isDirectory() && name.endsWith(PAGE_SUFFIX)) {
+                String pageSequence = name.substring(name.lastIndexOf('/') + 1, name.length() - PAGE_SUFFIX.length());
+                pageEntryMap.put(pageSequence, zipEntry);
+            }
+        }
+        return pageEntryMap;
+    }
+    
+    /**
+     * Method to memory-map the zip file of a volume and slice the content of its STORED entries out of the mapping.  The central directory is parsed to find
+     * the local header of each entry, and the content of a STORED entry is the bytes right after its local header.  Entries that are compressed or need the
+     * ZIP64 extensions are left out.  If the zip file cannot be mapped or parsed, no entries are returned and the pages are read onto the heap instead
+     * @param volumeID volumeID of the volume
+     * @param volumeZipFile the zip file of the volume
+     * @return a Map with entry names as keys and ByteBuffer objects holding the content of the STORED entries as values
+     */
+    protected Map<String, ByteBuffer> mapStoredEntries(String volumeID, File volumeZipFile) {
+        Map<String, ByteBuffer> storedEntryMap = new HashMap<String, ByteBuffer>();
+        try {
+            ByteBuffer zipBuffer = null;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(volumeZipFile, "r");
+            try {
+                FileChannel fileChannel = randomAccessFile.getChannel();
+                if (fileChannel.size() > Integer.MAX_VALUE) {
+                    throw new ZipException("Zip file too large to map: " + volumeZipFile.getPath());
+                }
+                zipBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            } finally {
+                randomAccessFile.close();
+            }
+            
+            int endOffset = findEndRecord(zipBuffer);
+            int entryCount = zipBuffer.getShort(endOffset + 10) & 0xffff;
+            long cenOffset = zipBuffer.getInt(endOffset + 16) & 0xffffffffL;
+            
+            for (int i = 0; i < entryCount; i++) {
+                if (cenOffset + ZIP_CEN_SIZE > zipBuffer.limit() || zipBuffer.getInt((int)cenOffset) != ZIP_CEN_SIGNATURE) {
+                    throw new ZipException("Invalid central directory header at " + cenOffset);
+                }
+                int cen = (int)cenOffset;
+                int method = zipBuffer.getShort(cen + 10) & 0xffff;
+                long compressedSize = zipBuffer.getInt(cen + 20) & 0xffffffffL;
+                long size = zipBuffer.getInt(cen + 24) & 0xffffffffL;
+                int nameLength = zipBuffer.getShort(cen + 28) & 0xffff;
+                int extraLength = zipBuffer.getShort(cen + 30) & 0xffff;
+                int commentLength = zipBuffer.getShort(cen + 32) & 0xffff;
+                long locOffset = zipBuffer.getInt(cen + 42) & 0xffffffffL;
+                cenOffset += ZIP_CEN_SIZE + nameLength + extraLength + commentLength;
+                
+                if (method != ZipEntry.STORED || compressedSize != size || size == ZIP64_MAGIC || locOffset == ZIP64_MAGIC) {
+                    continue;
+                }
+                if (cen + ZIP_CEN_SIZE + nameLength > zipBuffer.limit() || locOffset + ZIP_LOC_SIZE > zipBuffer.limit()
+                        || zipBuffer.getInt((int)locOffset) != ZIP_LOC_SIGNATURE) {
+                    throw new ZipException("Invalid local header at " + locOffset);
+                }
+                
+                byte[] nameBytes = new byte[nameLength];
+                ByteBuffer nameBuffer = zipBuffer.duplicate();
+                nameBuffer.position(cen + ZIP_CEN_SIZE);
+                nameBuffer.get(nameBytes);
+                
+                int loc = (int)locOffset;
+                long dataOffset = locOffset + ZIP_LOC_SIZE + (zipBuffer.getShort(loc + 26) & 0xffff) + (zipBuffer.getShort(loc + 28) & 0xffff);
+                if (dataOffset + size > zipBuffer.limit()) {
+                    throw new ZipException("Truncated entry at " + locOffset);
+                }
+                
+                ByteBuffer entryBuffer = zipBuffer.duplicate();
+                entryBuffer.limit((int)(dataOffset + size));
+                entryBuffer.position((int)dataOffset);
+                storedEntryMap.put(new String(nameBytes, "UTF-8"), entryBuffer.slice());
+            }
+        } catch (IOException e) {
+            log.warn("Failed to map zip file of volume: " + volumeID + ". Reading its pages onto the heap", e);
+            storedEntryMap.clear();
+        }
+        return storedEntryMap;
+    }
+    
+    /**
+     * Method to find the end of central directory record of a mapped zip file, which is followed only by the zip file comment
+     * @param zipBuffer a ByteBuffer object holding the whole zip file
+     * @return the offset of the end of central directory record
+     * @throws ZipException thrown if the record is not found
+     */
+    protected int findEndRecord(ByteBuffer zipBuffer) throws ZipException {
+        int lowestOffset = Math.max(0, zipBuffer.limit() - ZIP_END_SIZE - ZIP_MAX_COMMENT_LENGTH);
+        for (int offset = zipBuffer.limit() - ZIP_END_SIZE; offset >= lowestOffset; offset--) {
+            if (zipBuffer.getInt(offset) == ZIP_END_SIGNATURE) {
+                return offset;
+            }
+        }
+        throw new ZipException("End of central directory record not found");
+    }
+    
+    /**
+     * Method to open the zip file of a volume
+     * @param volumeID volumeID of the volume
+     * @param zipFile the zip file of the volume
+     * @return an opened ZipFile object
+     * @throws RepositoryException thrown if the zip file could not be opened
+     */
+    protected ZipFile openZipFile(String volumeID, File zipFile) throws RepositoryException {
+        try {
+            return new ZipFile(zipFile);
+        } catch (IOException e) {
+            log.error("Failed to open zip file of volume: " + volumeID, e);
+            throw new RepositoryException("Opening volume failed. VolumeID: " + volumeID, e);
+        }
+    }
+    
+    /**
+     * Method to get the pairtree directory holding the files of a volume
+     * @param volumeID volumeID of the volume
+     * @return a File object of the directory
+     * @throws KeyNotFoundException thrown if the volumeID does not have a valid prefix, or if the directory would be outside the root path
+     */
+    protected File getVolumeDirectory(String volumeID) throws KeyNotFoundException {
+        int indexOf = volumeID.indexOf('.');
+        if (indexOf <= 0) {
+            throw new KeyNotFoundException(volumeID);
+        }
+        String prefix = volumeID.substring(0, indexOf);
+        if (!PREFIX_PATTERN.matcher(prefix).matches()) {
+            log.warn("Rejected volumeID with invalid prefix: " + volumeID);
+            throw new KeyNotFoundException(volumeID);
+        }
+        String localID = volumeID.substring(indexOf + 1);
+        String basePath = rootPath + File.separator + prefix + File.separator + PAIRTREE_ROOT;
+        File volumeDirectory = new File(pairtree.mapToPPath(basePath, localID, pairtree.cleanId(localID)));
+        
+        try {
+            String canonicalRootPath = new File(rootPath).getCanonicalPath() + File.separator;
+            if (!volumeDirectory.getCanonicalPath().startsWith(canonicalRootPath)) {
+                log.warn("Rejected volumeID outside of the pairtree root: " + volumeID);
+                throw new KeyNotFoundException(volumeID);
+            }
+        } catch (IOException e) {
+            log.error("Failed to resolve the volume directory of volumeID: " + volumeID, e);
+            throw new KeyNotFoundException(volumeID);
+        }
+        return volumeDirectory;
+    }
+    
+    /**
+     * Method to return the pairtree-cleaned local portion of the volumeID, which is the name of the volume directory and the basename of the volume files
+     * @param volumeID volumeID of the volume
+     * @return the pairtree-cleaned volumeID sans the prefix
+     */
+    protected String getCleanedLocalID(String volumeID) {
+        return pairtree.cleanId(volumeID.substring(volumeID.indexOf('.') + 1));
+    }
+    
+    /**
+     * Method to read all bytes from an InputStream
+     * @param inputStream an InputStream object
+     * @param sizeHint expected number of bytes, or a negative value if unknown
+     * @return a byte array holding all bytes read
+     * @throws IOException thrown if reading from the InputStream failed
+     */
+    protected byte[] readFully(InputStream inputStream, long sizeHint) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((sizeHint > 0 && sizeHint < Integer.MAX_VALUE) ? (int)sizeHint : 4096);
+        byte[] buffer = new byte[8192];
+        int read = 0;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+    
+    private void closeInputStream(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                log.warn("Failed to close InputStream", e);
+            }
+        }
+    }
+    
+    private void closeZipFile(ZipFile zipFile) {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            log.warn("Failed to close ZipFile " + zipFile.getName(), e);
+        }
+    }
+
+}
@@ -0,0 +1,408 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeInfoCache.java
+# Description:  This class is a size-bounded LRU cache of VolumeInfo objects whose entries expire after a time-to-live
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+
+/**
+ * This class is a size-bounded LRU cache of VolumeInfo objects whose entries expire after a time-to-live.  It also remembers volumeIDs that do not exist
+ * (negative entries) for a separate, usually shorter, time-to-live so that repeated requests for bad volumeIDs do not go to Cassandra every time.
+ *
+ * The entries are spread over lock-striped segments by the hash of the volumeID, and each segment is an access-ordered map with its own share of
+ * maxEntries, so lookups of different volumes seldom wait on the same lock.  Eviction is least recently used within a segment.  A cache of fewer than
+ * MIN_SEGMENT_ENTRIES * 2 entries has a single segment and is exactly LRU.
+ *
+ * Misses that go through get(String, VolumeInfoLoader) are loaded once per volumeID: the first caller runs the load, and concurrent callers missing the
+ * same volumeID wait for its result instead of going to Cassandra themselves.
+ *
+ * @author Yiming Sun
+ *
+ */
+public class VolumeInfoCache {
+
+    /**
+     * This interface loads a VolumeInfo object that is not in the cache
+     * @author Yiming Sun
+     *
+     */
+    public static interface VolumeInfoLoader {
+        /**
+         * Method to load the VolumeInfo object of a volume
+         * @param volumeID volumeID of the volume
+         * @return a VolumeInfo object, or <code>null</code> if it could not be loaded
+         * @throws KeyNotFoundException thrown if the volumeID does not exist
+         * @throws RepositoryException thrown if the backend repository failed
+         */
+        public VolumeInfo load(String volumeID) throws KeyNotFoundException, RepositoryException;
+    }
+
+    /**
+     * This class holds a cached VolumeInfo object, or the fact that the volumeID does not exist, together with the expiration time of the entry
+     * @author Yiming Sun
+     *
+     */
+    protected static class CacheEntry {
+        protected final VolumeInfo volumeInfo;
+        protected final long expirationTime;
+
+        /**
+         * Constructor
+         * @param volumeInfo a VolumeInfo object, or <code>null</code> if the volumeID does not exist
+         * @param expirationTime time in milliseconds after which the entry is no longer valid
+         */
+        protected CacheEntry(VolumeInfo volumeInfo, long expirationTime) {
+            this.volumeInfo = volumeInfo;
+            this.expirationTime = expirationTime;
+        }
+    }
+
+    /**
+     * This class is one lock stripe of the cache, an access-ordered map that evicts its least recently used entry when it holds more than its share of
+     * entries.  All access to a Segment must be synchronized on the Segment
+     * @author Yiming Sun
+     *
+     */
+    protected class Segment extends LinkedHashMap<String, CacheEntry> {
+        private static final long serialVersionUID = 1L;
+
+        protected final int maxSegmentEntries;
+
+        /**
+         * Constructor
+         * @param maxSegmentEntries maximum number of entries the segment keeps
+         */
+        protected Segment(int maxSegmentEntries) {
+            super(16, 0.75f, true);
+            this.maxSegmentEntries = maxSegmentEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            boolean remove = size() > maxSegmentEntries;
+            if (remove) {
+                evictionCount.incrementAndGet();
+            }
+            return remove;
+        }
+    }
+
+    protected static final int MAX_SEGMENTS = 16;
+    protected static final int MIN_SEGMENT_ENTRIES = 64;
+
+    protected final int maxEntries;
+    protected final long timeToLive;
+    protected final long negativeTimeToLive;
+    protected final Segment[] segments;
+    protected final ConcurrentMap<String, FutureTask<VolumeInfo>> loadMap;
+
+    protected final AtomicLong hitCount;
+    protected final AtomicLong missCount;
+    protected final AtomicLong evictionCount;
+    protected final AtomicLong loadCount;
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of entries to keep. The least recently used entry of a segment is evicted when the segment is full
+     * @param timeToLive number of milliseconds a VolumeInfo entry stays valid
+     * @param negativeTimeToLive number of milliseconds a negative entry for a non-existent volumeID stays valid. Use 0 to not cache negative entries
+     */
+    public VolumeInfoCache(int maxEntries, long timeToLive, long negativeTimeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.negativeTimeToLive = negativeTimeToLive;
+
+        this.hitCount = new AtomicLong(0);
+        this.missCount = new AtomicLong(0);
+        this.evictionCount = new AtomicLong(0);
+        this.loadCount = new AtomicLong(0);
+
+        int segmentCount = 1;
+        while (segmentCount * 2 <= MAX_SEGMENTS && maxEntries / (segmentCount * 2) >= MIN_SEGMENT_ENTRIES) {
+            segmentCount *= 2;
+        }
+
+        // the remainder of maxEntries goes to the first segments, so the segments add up to exactly maxEntries
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxEntries / segmentCount + ((i < maxEntries % segmentCount) ? 1 : 0));
+        }
+
+        this.loadMap = new ConcurrentHashMap<String, FutureTask<VolumeInfo>>();
+    }
+
+    /**
+     * Method to look up a VolumeInfo object from the cache
+     * @param volumeID volumeID of the volume
+     * @return the cached VolumeInfo object, or <code>null</code> if there is no valid entry for the volumeID
+     * @throws KeyNotFoundException thrown if the cache holds a valid negative entry for the volumeID
+     */
+    public VolumeInfo get(String volumeID) throws KeyNotFoundException {
+        CacheEntry cacheEntry = getValidEntry(volumeID);
+
+        if (cacheEntry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+        if (cacheEntry.volumeInfo == null) {
+            throw new KeyNotFoundException(volumeID);
+        }
+        return cacheEntry.volumeInfo;
+    }
+
+    /**
+     * Method to look up a VolumeInfo object from the cache, and to load it with the VolumeInfoLoader on a miss.  Only one load of a volumeID runs at a
+     * time; callers that miss the same volumeID while it is being loaded wait for that load and share its result or its exception.  A loaded VolumeInfo
+     * is put into the cache, and a KeyNotFoundException from the load is remembered as a negative entry
+     * @param volumeID volumeID of the volume
+     * @param volumeInfoLoader a VolumeInfoLoader object to load the VolumeInfo object on a miss
+     * @return the VolumeInfo object, or <code>null</code> if the VolumeInfoLoader returned <code>null</code>
+     * @throws KeyNotFoundException thrown if the volumeID does not exist
+     * @throws RepositoryException thrown if the backend repository failed, or the wait for the load of another caller was interrupted
+     */
+    public VolumeInfo get(final String volumeID, final VolumeInfoLoader volumeInfoLoader) throws KeyNotFoundException, RepositoryException {
+        VolumeInfo volumeInfo = get(volumeID);
+        if (volumeInfo != null) {
+            return volumeInfo;
+        }
+
+        FutureTask<VolumeInfo> loadTask = new FutureTask<VolumeInfo>(new Callable<VolumeInfo>() {
+            @Override
+            public VolumeInfo call() throws Exception {
+                // a load that completed between the miss above and this task taking the slot has already filled the cache
+                CacheEntry cacheEntry = getValidEntry(volumeID);
+                if (cacheEntry != null) {
+                    if (cacheEntry.volumeInfo == null) {
+                        throw new KeyNotFoundException(volumeID);
+                    }
+                    return cacheEntry.volumeInfo;
+                }
+
+                loadCount.incrementAndGet();
+                try {
+                    VolumeInfo loadedVolumeInfo = volumeInfoLoader.load(volumeID);
+                    if (loadedVolumeInfo != null) {
+                        put(loadedVolumeInfo);
+                    }
+                    return loadedVolumeInfo;
+                } catch (KeyNotFoundException e) {
+                    putKeyNotFound(volumeID);
+                    throw e;
+                }
+            }
+        });
+
+        FutureTask<VolumeInfo> runningTask = loadMap.putIfAbsent(volumeID, loadTask);
+        if (runningTask == null) {
+            runningTask = loadTask;
+            try {
+                loadTask.run();
+            } finally {
+                loadMap.remove(volumeID, loadTask);
+            }
+        }
+
+        try {
+            return runningTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for volume info. VolumeID: " + volumeID, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KeyNotFoundException) {
+                throw (KeyNotFoundException)cause;
+            } else if (cause instanceof RepositoryException) {
+                throw (RepositoryException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new RepositoryException("Loading volume info failed. VolumeID: " + volumeID, cause);
+            }
+        }
+    }
+
+    /**
+     * Method to look up a VolumeInfo object from the cache without counting the lookup as a hit or a miss, for callers that only need an estimate
+     * @param volumeID volumeID of the volume
+     * @return the cached VolumeInfo object, or <code>null</code> if there is no valid entry for the volumeID or the volumeID is known not to exist
+     */
+    public VolumeInfo peek(String volumeID) {
+        Segment segment = segmentFor(volumeID);
+        synchronized (segment) {
+            CacheEntry cacheEntry = segment.get(volumeID);
+            return (cacheEntry != null && cacheEntry.expirationTime > currentTimeMillis()) ? cacheEntry.volumeInfo : null;
+        }
+    }
+
+    /**
+     * Method to put a VolumeInfo object into the cache
+     * @param volumeInfo a VolumeInfo object to be cached
+     */
+    public void put(VolumeInfo volumeInfo) {
+        CacheEntry cacheEntry = new CacheEntry(volumeInfo, currentTimeMillis() + timeToLive);
+        Segment segment = segmentFor(volumeInfo.getVolumeID());
+        synchronized (segment) {
+            segment.put(volumeInfo.getVolumeID(), cacheEntry);
+        }
+    }
+
+    /**
+     * Method to record in the cache that a volumeID does not exist
+     * @param volumeID the volumeID that does not exist
+     */
+    public void putKeyNotFound(String volumeID) {
+        if (negativeTimeToLive > 0) {
+            CacheEntry cacheEntry = new CacheEntry(null, currentTimeMillis() + negativeTimeToLive);
+            Segment segment = segmentFor(volumeID);
+            synchronized (segment) {
+                segment.put(volumeID, cacheEntry);
+            }
+        }
+    }
+
+    /**
+     * Method to remove all entries from the cache
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Method to return the number of entries currently in the cache, including expired entries that have not been purged yet
+     * @return the number of entries currently in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Method to return the number of lookups that found a valid entry
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Method to return the number of lookups that did not find a valid entry
+     * @return the number of cache misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Method to return the number of entries evicted because the cache was full
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Method to return the number of times a VolumeInfoLoader was called on a miss
+     * @return the number of loads
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "VolumeInfoCache size: " + size() + " segments: " + segments.length + " hits: " + getHitCount() + " misses: " + getMissCount()
+                + " loads: " + getLoadCount() + " evictions: " + getEvictionCount();
+    }
+
+    /**
+     * Method to return the current time in milliseconds. Tests may override it to control the expiration of entries
+     * @return the current time in milliseconds
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Method to find the valid entry of a volumeID, removing it if it has expired
+     * @param volumeID volumeID of the volume
+     * @return the valid CacheEntry object of the volumeID, or <code>null</code> if there is none
+     */
+    protected CacheEntry getValidEntry(String volumeID) {
+        Segment segment = segmentFor(volumeID);
+        synchronized (segment) {
+            CacheEntry cacheEntry = segment.get(volumeID);
+            if (cacheEntry != null && cacheEntry.expirationTime <= currentTimeMillis()) {
+                segment.remove(volumeID);
+                cacheEntry = null;
+            }
+            return cacheEntry;
+        }
+    }
+
+    /**
+     * Method to find the segment a volumeID belongs to
+     * @param volumeID volumeID of the volume
+     * @return the Segment object holding the entry of the volumeID
+     */
+    protected Segment segmentFor(String volumeID) {
+        int hash = volumeID.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+}
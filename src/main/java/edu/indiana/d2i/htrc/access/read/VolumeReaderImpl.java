@@ -31,6 +31,7 @@
  */
 package edu.indiana.d2i.htrc.access.read;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import edu.indiana.d2i.htrc.access.RequestedItemCoordinates;
@@ -80,6 +81,14 @@ public class VolumeReaderImpl implements VolumeReader {
         public byte[] getContent() {
             return content;
         }
+
+        /**
+         * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContentLength()
+         */
+        @Override
+        public int getContentLength() {
+            return (content != null) ? content.length : 0;
+        }
     }
 
     protected final String volumeID;
@@ -100,6 +109,26 @@ public class VolumeReaderImpl implements VolumeReader {
         this.metadata = null;
     }
 
+    /**
+     * Constructor. Used internally by the copy method
+     * @param other a VolumeReaderImpl object whose volumeID and content are shared
+     */
+    protected VolumeReaderImpl(VolumeReaderImpl other) {
+        this.volumeID = other.volumeID;
+        this.pairtreeCleanedVolumeID = other.pairtreeCleanedVolumeID;
+        this.pages = (other.pages != null) ? new ArrayList<ContentReader>(other.pages) : null;
+        this.metadata = (other.metadata != null) ? new ArrayList<ContentReader>(other.metadata) : null;
+    }
+
+    /**
+     * Method to create a new VolumeReaderImpl object over the same ContentReader objects, but with its own position, so that several consumers can each read
+     * all pages and metadata of one fetch.  The content itself is not copied
+     * @return a new VolumeReaderImpl object positioned at the remaining pages and metadata of this object
+     */
+    public VolumeReaderImpl copy() {
+        return new VolumeReaderImpl(this);
+    }
+
     /**
      * Method to set a List of ContentReader objects holding page content
      * @see edu.indiana.d2i.htrc.access.VolumeReader#setPages(java.util.List)
@@ -0,0 +1,109 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeStoreFactory.java
+# Description:  This class is a factory for VolumeStore implementations
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeStore;
+
+/**
+ * This class is a factory for VolumeStore implementations, and holds the singleton VolumeStore instance used by the service
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class VolumeStoreFactory {
+    
+    private static Logger log = Logger.getLogger(VolumeStoreFactory.class);
+    
+    public static final String PN_VOLUME_STORE_TYPE = "volume.store.type";
+    
+    private static boolean initialized = false;
+    private static VolumeStore singletonInstance = null;
+    
+    /**
+     * This enum is for the types of VolumeStore implementations
+     * @author Yiming Sun
+     *
+     */
+    public static enum VolumeStoreTypeEnum {
+        CASSANDRA,
+        PAIRTREE;
+    }
+    
+    /**
+     * Method to get a new instance of a VolumeStore implementation based on the type
+     * @param type a VolumeStoreTypeEnum object indicating the type of VolumeStore implementation to create
+     * @param parameterContainer a ParameterContainer object
+     * @return a VolumeStore implementation
+     */
+    public static VolumeStore newInstance(VolumeStoreTypeEnum type, ParameterContainer parameterContainer) {
+        VolumeStore volumeStore = null;
+        switch (type) {
+        case CASSANDRA:
+            HectorResource.initSingletonInstance(parameterContainer);
+            volumeStore = HectorResource.getSingletonInstance();
+            break;
+        case PAIRTREE:
+            volumeStore = new PairtreeVolumeStore(parameterContainer);
+            break;
+        }
+        
+        return volumeStore;
+    }
+    
+    /**
+     * Method used to initialize the singleton VolumeStore instance of the type given by the volume.store.type parameter. Defaults to CASSANDRA
+     * @param parameterContainer a ParameterContainer object
+     */
+    public static synchronized void initSingletonInstance(ParameterContainer parameterContainer) {
+        if (!initialized) {
+            String typeString = parameterContainer.getParameter(PN_VOLUME_STORE_TYPE);
+            VolumeStoreTypeEnum type = (typeString != null) ? VolumeStoreTypeEnum.valueOf(typeString.toUpperCase()) : VolumeStoreTypeEnum.CASSANDRA;
+            if (log.isDebugEnabled()) log.debug("volumeStoreType = " + type);
+            
+            singletonInstance = newInstance(type, parameterContainer);
+            initialized = true;
+        }
+    }
+    
+    /**
+     * Method to get the singleton VolumeStore instance
+     * @return the singleton VolumeStore instance
+     */
+    public static VolumeStore getSingletonInstance() {
+        assert(initialized);
+        return singletonInstance;
+    }
+
+}
@@ -39,6 +39,10 @@ import java.util.Map.Entry;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.AdmissionController.Admission;
+import edu.indiana.d2i.htrc.access.Cancellable;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.tokencount.Count;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipper;
@@ -51,18 +55,26 @@ import edu.indiana.d2i.htrc.access.tokencount.Tokenizer;
  */
 public class TokenCountZipStreamingOutput implements StreamingOutput {
     
+    private static Logger log = Logger.getLogger(TokenCountZipStreamingOutput.class);
+    
     protected final VolumeRetriever volumeRetriever;
     protected final TokenCountZipper tokenCountZipper;
     protected final Tokenizer tokenizer;
     protected final TokenFilter tokenFilter;
+    protected final Admission admission;
     Comparator<Entry<String, Count>> comparator;
     
     public TokenCountZipStreamingOutput(VolumeRetriever volumeRetriever, TokenCountZipper tokenCountZipper, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator) {
+        this(volumeRetriever, tokenCountZipper, tokenizer, tokenFilter, comparator, null);
+    }
+    
+    public TokenCountZipStreamingOutput(VolumeRetriever volumeRetriever, TokenCountZipper tokenCountZipper, Tokenizer tokenizer, TokenFilter tokenFilter, Comparator<Entry<String, Count>> comparator, Admission admission) {
         this.volumeRetriever = volumeRetriever;
         this.tokenCountZipper = tokenCountZipper;
         this.tokenizer = tokenizer;
         this.tokenFilter = tokenFilter;
         this.comparator = comparator;
+        this.admission = admission;
     }
 
     /**
@@ -70,7 +82,19 @@ public class TokenCountZipStreamingOutput implements StreamingOutput {
      */
     @Override
     public void write(OutputStream outputStream) throws IOException, WebApplicationException {
-        this.tokenCountZipper.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        try {
+            this.tokenCountZipper.countAndZip(outputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+        } catch (IOException e) {
+            // most likely a broken pipe because the client went away, so the tokenization tasks and fetches still outstanding would be wasted
+            int cancelledTaskCount = (tokenizer instanceof Cancellable) ? ((Cancellable)tokenizer).cancel() : 0;
+            int cancelledFetchCount = (volumeRetriever instanceof Cancellable) ? ((Cancellable)volumeRetriever).cancel() : 0;
+            log.info("Writing response failed, cancelled " + cancelledTaskCount + " tokenization tasks and " + cancelledFetchCount + " outstanding fetches: " + e.getMessage());
+            throw e;
+        } finally {
+            if (admission != null) {
+                admission.release();
+            }
+        }
     }
 
 }
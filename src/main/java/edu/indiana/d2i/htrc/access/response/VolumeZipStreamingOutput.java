@@ -39,6 +39,8 @@ import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.AdmissionController.Admission;
+import edu.indiana.d2i.htrc.access.Cancellable;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.ZipMaker;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
@@ -60,6 +62,7 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
     private VolumeRetriever volumeRetriever = null;
     private ZipMaker zipMaker = null;
     private Auditor auditor = null;
+    private Admission admission = null;
    
     /**
      * Constructor
@@ -68,9 +71,21 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
      * @param auditor an Auditor object
      */
     public VolumeZipStreamingOutput(VolumeRetriever volumeRetriever, ZipMaker zipMaker, Auditor auditor) {
+        this(volumeRetriever, zipMaker, auditor, null);
+    }
+    
+    /**
+     * Constructor
+     * @param volumeRetriever a VolumeRetriever object holding the volume content to be output to the stream
+     * @param zipMaker a ZipMaker object
+     * @param auditor an Auditor object
+     * @param admission an Admission object to be released once the output is written, or <code>null</code> if admission control is disabled
+     */
+    public VolumeZipStreamingOutput(VolumeRetriever volumeRetriever, ZipMaker zipMaker, Auditor auditor, Admission admission) {
         this.volumeRetriever = volumeRetriever;
         this.zipMaker = zipMaker;
         this.auditor = auditor;
+        this.admission = admission;
     }
     
     
@@ -81,6 +96,13 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
     public void write(OutputStream output) throws IOException, WebApplicationException {
         try {
             zipMaker.makeZipFile(output, volumeRetriever);
+        } catch (IOException e) {
+            // most likely a broken pipe because the client went away, so the fetches still outstanding would be wasted
+            if (volumeRetriever instanceof Cancellable) {
+                int cancelledCount = ((Cancellable)volumeRetriever).cancel();
+                log.info("Writing response failed, cancelled " + cancelledCount + " outstanding fetches: " + e.getMessage());
+            }
+            throw e;
         } catch (KeyNotFoundException e) {
             log.error("KeyNotFoundException", e);
             auditor.error("KeyNotFoundException", "Key Not Found", e.getMessage());
@@ -93,6 +115,10 @@ public class VolumeZipStreamingOutput implements StreamingOutput {
         } catch (DataAPIException e) {
             log.error("DataAPIException", e);
             auditor.error("DataAPIException", "Unspecified Error", e.getMessage());
+        } finally {
+            if (admission != null) {
+                admission.release();
+            }
         }
     }
 
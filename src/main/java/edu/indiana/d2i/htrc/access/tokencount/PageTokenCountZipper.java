@@ -47,6 +47,7 @@ import org.apache.log4j.Logger;
 
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.NdjsonWriter;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import gov.loc.repository.pairtree.Pairtree;
@@ -59,10 +60,22 @@ public class PageTokenCountZipper implements TokenCountZipper {
     
     private static Logger log = Logger.getLogger(PageTokenCountZipper.class);
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final boolean ndjson;
     protected static final String TOKEN_COUNT_ACCESSED_ACTION = "TOKEN_COUNT_ACCESSED";
 
     public PageTokenCountZipper(Auditor auditor) {
+        this(auditor, Deflater.NO_COMPRESSION);
+    }
+    
+    public PageTokenCountZipper(Auditor auditor, int compressionLevel) {
+        this(auditor, compressionLevel, false);
+    }
+    
+    public PageTokenCountZipper(Auditor auditor, int compressionLevel, boolean ndjson) {
         this.auditor = auditor;
+        this.compressionLevel = compressionLevel;
+        this.ndjson = ndjson;
     }
     
     /**
@@ -76,8 +89,9 @@ public class PageTokenCountZipper implements TokenCountZipper {
         List<String> currentPageSequences = null;
         Map<String, Count> map = null;
         List<Exception> exceptionList = new LinkedList<Exception>();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        // with NDJSON each count is written as a line straight to the client, and there is no zip at all
+        ZipOutputStream zipOutputStream = ndjson ? null : ZipMakerFactory.Helper.newZipOutputStream(outputStream, compressionLevel);
+        NdjsonWriter ndjsonWriter = ndjson ? new NdjsonWriter(outputStream) : null;
         
         Iterator<TokenPackage> iterator = tokenizer.tokenize(volumeRetriever);
         
@@ -107,7 +121,11 @@ public class PageTokenCountZipper implements TokenCountZipper {
                 }
                 String entryName = identifier.getPrefix() + "." + pairtree.cleanId(identifier.getHeadlessID()) + "/" + identifier.getPageSequenceID() + ".count";
                 if (log.isDebugEnabled()) log.debug("zipping entry for " + currentVolumeID + " " + identifier.getPageSequenceID());
-                TokenCountZipperFactory.Helper.sendEntry(map, entryName, zipOutputStream, comparator);
+                if (ndjsonWriter != null) {
+                    TokenCountZipperFactory.Helper.sendRecord(map, currentVolumeID, identifier.getPageSequenceID(), ndjsonWriter, comparator);
+                } else {
+                    TokenCountZipperFactory.Helper.sendEntry(map, entryName, zipOutputStream, comparator);
+                }
             } catch (Exception e) {
                 exceptionList.add(e);
             }
@@ -118,10 +136,18 @@ public class PageTokenCountZipper implements TokenCountZipper {
         }
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, false, exceptionList);
+            if (ndjsonWriter != null) {
+                ZipMakerFactory.Helper.writeErrorRecords(ndjsonWriter, exceptionList);
+            } else {
+                ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, false, exceptionList);
+            }
         }
         
-        zipOutputStream.close();
+        if (ndjsonWriter != null) {
+            ndjsonWriter.close();
+        } else {
+            zipOutputStream.close();
+        }
     }
 
 }
@@ -43,24 +43,32 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.Cancellable;
 import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.RequestDeadline;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
 
 /**
  * @author Yiming Sun
  *
  */
-public class SimpleTokenizer implements Tokenizer {
+public class SimpleTokenizer implements Tokenizer, Cancellable {
     
     
     private static Logger log = Logger.getLogger(SimpleTokenizer.class);
     
+    protected static final AtomicLong cancelledTaskCount = new AtomicLong(0);
+    
     static class TokenizationCallable implements Callable<TokenPackage> {
         protected final String volumeID;
         protected final ContentReader contentReader;
@@ -138,9 +146,17 @@ public class SimpleTokenizer implements Tokenizer {
         protected final List<DataAPIException> exceptionList;
         protected final int maxTokenizationTasks;
         protected final int minTokenizationTasks;
+        protected final RequestDeadline deadline;
         protected VolumeReader currentVolumeReader;
+        protected boolean deadlineExceeded;
         
         ThrottledTokenPackageIterator(VolumeRetriever volumeRetriever, ParameterContainer parameterContainer, ExecutorService executorService) {
+            this(volumeRetriever, parameterContainer, executorService, null);
+        }
+        
+        ThrottledTokenPackageIterator(VolumeRetriever volumeRetriever, ParameterContainer parameterContainer, ExecutorService executorService, RequestDeadline deadline) {
+            this.deadline = deadline;
+            this.deadlineExceeded = false;
             this.volumeRetriever = volumeRetriever;
             this.executorService = executorService;
             this.tokenPackageList = new LinkedList<Future<TokenPackage>>();
@@ -156,7 +172,7 @@ public class SimpleTokenizer implements Tokenizer {
          */
         @Override
         public boolean hasNext() {
-            boolean hasNext = (currentVolumeReader != null && currentVolumeReader.hasMorePages()) || volumeRetriever.hasMoreVolumes() || !tokenPackageList.isEmpty() || !exceptionList.isEmpty();
+            boolean hasNext = (currentVolumeReader != null && currentVolumeReader.hasMorePages()) || (!deadlineExceeded && volumeRetriever.hasMoreVolumes()) || !tokenPackageList.isEmpty() || !exceptionList.isEmpty();
             
             return hasNext;
         }
@@ -169,12 +185,19 @@ public class SimpleTokenizer implements Tokenizer {
             boolean done = false;
             
             while (!done) {
+                if (deadline != null && !deadlineExceeded && deadline.isExpired()) {
+                    exceedDeadline();
+                }
+                
                 if (!tokenPackageList.isEmpty()) {
                     Future<TokenPackage> future = tokenPackageList.remove(0);
                     try {
                         
-                        tokenPackage = future.get();
+                        tokenPackage = (deadline != null) ? future.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS) : future.get();
                         done = true;
+                    } catch (TimeoutException e) {
+                        future.cancel(false);
+                        exceedDeadline();
                     } catch (InterruptedException e) {
                         log.error("Async tokenization interrupted:", e);
                     } catch (ExecutionException e) {
@@ -192,7 +215,7 @@ public class SimpleTokenizer implements Tokenizer {
                 } else if (currentVolumeReader != null && currentVolumeReader.hasMorePages()) {
                     if (log.isDebugEnabled()) log.debug("tokenPackageList empty, dispatch more work using half-eaten volumeReader");
                     dispatchWork();
-                } else if (volumeRetriever.hasMoreVolumes()) {
+                } else if (!deadlineExceeded && volumeRetriever.hasMoreVolumes()) {
                     if (log.isDebugEnabled()) log.debug("tokenPackageList empty, dispatch more work from VolumeRetriever");
                     dispatchWork();
                 } else if (!exceptionList.isEmpty()) {
@@ -212,7 +235,7 @@ public class SimpleTokenizer implements Tokenizer {
         protected void dispatchWork() {
             int availableSlots = maxTokenizationTasks - tokenPackageList.size();
             
-            boolean done = false;
+            boolean done = deadlineExceeded;
             while (availableSlots > 0 && !done) {
                 if (currentVolumeReader != null && currentVolumeReader.hasMorePages()) {
                     ContentReader nextPage = currentVolumeReader.nextPage();
@@ -234,6 +257,49 @@ public class SimpleTokenizer implements Tokenizer {
             }
             
         }
+        /**
+         * Method to give up on the pages not tokenized yet once the deadline of the request has passed, including the fetches the VolumeRetriever still has
+         * outstanding, and to report the deadline after the exceptions collected so far
+         */
+        protected void exceedDeadline() {
+            deadlineExceeded = true;
+            int droppedCount = 0;
+            for (Future<TokenPackage> future : tokenPackageList) {
+                if (future.cancel(false)) {
+                    droppedCount++;
+                }
+            }
+            tokenPackageList.clear();
+            currentVolumeReader = null;
+            cancelledTaskCount.addAndGet(droppedCount);
+            if (volumeRetriever instanceof Cancellable) {
+                droppedCount += ((Cancellable)volumeRetriever).cancel();
+            }
+            
+            DeadlineExceededException exception = deadline.markExceeded(droppedCount);
+            if (exception != null) {
+                log.warn(exception.getMessage());
+                exceptionList.add(exception);
+            }
+        }
+        
+        /**
+         * Method to cancel the outstanding tokenization tasks
+         * @return the number of tokenization tasks cancelled
+         */
+        protected int cancel() {
+            int cancelledCount = 0;
+            for (Future<TokenPackage> future : tokenPackageList) {
+                if (future.cancel(false)) {
+                    cancelledCount++;
+                }
+            }
+            tokenPackageList.clear();
+            exceptionList.clear();
+            currentVolumeReader = null;
+            return cancelledCount;
+        }
+        
         /**
          * @see java.util.Iterator#remove()
          */
@@ -300,9 +366,22 @@ public class SimpleTokenizer implements Tokenizer {
 //    }
     protected final ExecutorService executorService;
     protected final ParameterContainer parameterContainer;
+    protected final RequestDeadline deadline;
+    protected ThrottledTokenPackageIterator tokenPackageIterator = null;
     public SimpleTokenizer(ExecutorService executorService, ParameterContainer parameterContainer) {
+        this(executorService, parameterContainer, null);
+    }
+    
+    /**
+     * Constructor for a tokenizer that stops tokenizing once the deadline of the request has passed
+     * @param executorService an ExecutorService object to run the tokenization tasks
+     * @param parameterContainer a ParameterContainer object
+     * @param deadline the RequestDeadline of the request, or <code>null</code> if it has none
+     */
+    public SimpleTokenizer(ExecutorService executorService, ParameterContainer parameterContainer, RequestDeadline deadline) {
         this.executorService = executorService;
         this.parameterContainer = parameterContainer;
+        this.deadline = deadline;
     }
     
     /**
@@ -313,7 +392,8 @@ public class SimpleTokenizer implements Tokenizer {
 //        List<Future<TokenPackage>> futureList = new LinkedList<Future<TokenPackage>>();
 //        List<DataAPIException> exceptionList = new LinkedList<DataAPIException>();
 
-        Iterator<TokenPackage> iterator = new ThrottledTokenPackageIterator(volumeRetriever, parameterContainer, executorService);
+        ThrottledTokenPackageIterator iterator = new ThrottledTokenPackageIterator(volumeRetriever, parameterContainer, executorService, deadline);
+        this.tokenPackageIterator = iterator;
 //        while (volumeRetriever.hasMoreVolumes()) {
 //            try {
 //                VolumeReader volumeReader = volumeRetriever.nextVolume();
@@ -336,5 +416,24 @@ public class SimpleTokenizer implements Tokenizer {
 //        if (log.isDebugEnabled()) log.debug("returning token package iterator");
         return iterator;
     }
+    
+    /**
+     * Method to cancel the outstanding tokenization tasks of the last tokenize call, e.g. after the client went away
+     * @see edu.indiana.d2i.htrc.access.Cancellable#cancel()
+     */
+    @Override
+    public int cancel() {
+        int cancelledCount = (tokenPackageIterator != null) ? tokenPackageIterator.cancel() : 0;
+        cancelledTaskCount.addAndGet(cancelledCount);
+        return cancelledCount;
+    }
+    
+    /**
+     * Method to return the total number of tokenization tasks cancelled
+     * @return the total number of tokenization tasks cancelled
+     */
+    public static long getCancelledTaskCount() {
+        return cancelledTaskCount.get();
+    }
 
 }
@@ -39,9 +39,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import edu.indiana.d2i.htrc.access.zip.NdjsonWriter;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -59,11 +62,7 @@ public class TokenCountZipperFactory {
             try {
                 ZipEntry zipEntry = new ZipEntry(entryName);
                 outputStream.putNextEntry(zipEntry);
-                Set<Entry<String, Count>> entrySet = map.entrySet();
-                List<Entry<String, Count>> list = new ArrayList<Entry<String, Count>>(entrySet.size());
-                list.addAll(entrySet);
-                Collections.sort(list, comparator);
-                for (Entry<String, Count> entry : list) {
+                for (Entry<String, Count> entry : sortEntries(map, comparator)) {
                     outputStream.write(entry.getKey().getBytes(UTF_8));
                     outputStream.write(" ".getBytes(UTF_8));
                     outputStream.write(Integer.toString(entry.getValue().value()).getBytes(UTF_8));
@@ -73,6 +72,29 @@ public class TokenCountZipperFactory {
                 outputStream.closeEntry();
             }
         }
+        
+        protected static void sendRecord(Map<String, Count> map, String volumeID, String pageSequence, NdjsonWriter ndjsonWriter, Comparator<Entry<String, Count>> comparator) throws IOException {
+            ndjsonWriter.beginRecord();
+            ndjsonWriter.writeField("volumeID", volumeID);
+            if (pageSequence != null) {
+                ndjsonWriter.writeField("seq", pageSequence);
+            }
+            ndjsonWriter.beginObject("counts");
+            for (Entry<String, Count> entry : sortEntries(map, comparator)) {
+                ndjsonWriter.writeField(entry.getKey(), entry.getValue().value());
+            }
+            ndjsonWriter.endObject();
+            ndjsonWriter.endRecord();
+            ndjsonWriter.flush();
+        }
+        
+        protected static List<Entry<String, Count>> sortEntries(Map<String, Count> map, Comparator<Entry<String, Count>> comparator) {
+            Set<Entry<String, Count>> entrySet = map.entrySet();
+            List<Entry<String, Count>> list = new ArrayList<Entry<String, Count>>(entrySet.size());
+            list.addAll(entrySet);
+            Collections.sort(list, comparator);
+            return list;
+        }
         protected static void countToken(String token, Map<String, Count> map) {
             Count count = map.get(token);
             if (count == null) {
@@ -92,13 +114,30 @@ public class TokenCountZipperFactory {
     }
     
     public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor) {
+        return newInstance(type, auditor, Deflater.NO_COMPRESSION);
+    }
+    
+    public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor, int compressionLevel) {
+        return newInstance(type, auditor, compressionLevel, ArchiveFormatEnum.ZIP);
+    }
+    
+    /**
+     * Method to get a new instance of a TokenCountZipper implementation based on the type and the output format
+     * @param type a TokenCountZipTypeEnum object indicating the level at which tokens are counted
+     * @param auditor an Auditor object
+     * @param compressionLevel the compression level of the zip entries, or Deflater.NO_COMPRESSION for no compression.  Ignored for NDJSON
+     * @param format either ArchiveFormatEnum.ZIP for a zip with one entry per count, or ArchiveFormatEnum.NDJSON for newline-delimited JSON with one line per count
+     * @return a TokenCountZipper implementation
+     */
+    public static TokenCountZipper newInstance(TokenCountZipTypeEnum type, Auditor auditor, int compressionLevel, ArchiveFormatEnum format) {
+        boolean ndjson = (format == ArchiveFormatEnum.NDJSON);
         TokenCountZipper zipper = null;
         switch (type) {
         case VOLUME_LEVEL:
-            zipper = new VolumeTokenCountZipper(auditor);
+            zipper = new VolumeTokenCountZipper(auditor, compressionLevel, ndjson);
             break;
         case PAGE_LEVEL:
-            zipper = new PageTokenCountZipper(auditor);
+            zipper = new PageTokenCountZipper(auditor, compressionLevel, ndjson);
             break;
         }
         return zipper;
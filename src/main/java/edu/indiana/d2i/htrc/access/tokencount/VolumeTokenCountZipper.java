@@ -45,6 +45,7 @@ import java.util.zip.ZipOutputStream;
 
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.exception.DataAPIException;
+import edu.indiana.d2i.htrc.access.zip.NdjsonWriter;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import gov.loc.repository.pairtree.Pairtree;
@@ -56,10 +57,22 @@ import gov.loc.repository.pairtree.Pairtree;
 public class VolumeTokenCountZipper implements TokenCountZipper {
     
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final boolean ndjson;
     protected static final String TOKEN_COUNT_ACCESSED_ACTION = "TOKEN_COUNT_ACCESSED";
     
     public VolumeTokenCountZipper(Auditor auditor) {
+        this(auditor, Deflater.NO_COMPRESSION);
+    }
+    
+    public VolumeTokenCountZipper(Auditor auditor, int compressionLevel) {
+        this(auditor, compressionLevel, false);
+    }
+    
+    public VolumeTokenCountZipper(Auditor auditor, int compressionLevel, boolean ndjson) {
         this.auditor = auditor;
+        this.compressionLevel = compressionLevel;
+        this.ndjson = ndjson;
     }
 
     /**
@@ -76,8 +89,9 @@ public class VolumeTokenCountZipper implements TokenCountZipper {
         ContentIdentifier identifier = null;
         Map<String, Count> map = null; 
         List<Exception> exceptionList = new LinkedList<Exception>();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        // with NDJSON each count is written as a line straight to the client, and there is no zip at all
+        ZipOutputStream zipOutputStream = ndjson ? null : ZipMakerFactory.Helper.newZipOutputStream(outputStream, compressionLevel);
+        NdjsonWriter ndjsonWriter = ndjson ? new NdjsonWriter(outputStream) : null;
         
         Iterator<TokenPackage> iterator = tokenizer.tokenize(volumeRetriever);
         
@@ -110,8 +124,14 @@ public class VolumeTokenCountZipper implements TokenCountZipper {
 								+ "."
 								+ pairtree.cleanId(currentIdentifier
 										.getHeadlessID()) + ".count";
-						TokenCountZipperFactory.Helper.sendEntry(map,
-								entryName, zipOutputStream, comparator);
+						if (ndjsonWriter != null) {
+							TokenCountZipperFactory.Helper.sendRecord(map,
+									currentIdentifier.getVolumeID(), null,
+									ndjsonWriter, comparator);
+						} else {
+							TokenCountZipperFactory.Helper.sendEntry(map,
+									entryName, zipOutputStream, comparator);
+						}
 					}
 					map = new HashMap<String, Count>();
 					currentIdentifier = identifier;
@@ -161,14 +181,26 @@ public class VolumeTokenCountZipper implements TokenCountZipper {
                 hyphenedLastWord = null;
             }
             String entryName = currentIdentifier.getPrefix() + "." + pairtree.cleanId(currentIdentifier.getHeadlessID()) + ".count";
-            TokenCountZipperFactory.Helper.sendEntry(map, entryName, zipOutputStream, comparator);
+            if (ndjsonWriter != null) {
+                TokenCountZipperFactory.Helper.sendRecord(map, currentIdentifier.getVolumeID(), null, ndjsonWriter, comparator);
+            } else {
+                TokenCountZipperFactory.Helper.sendEntry(map, entryName, zipOutputStream, comparator);
+            }
         }
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, false, exceptionList);
+            if (ndjsonWriter != null) {
+                ZipMakerFactory.Helper.writeErrorRecords(ndjsonWriter, exceptionList);
+            } else {
+                ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, false, exceptionList);
+            }
         }
 
-        zipOutputStream.close();
+        if (ndjsonWriter != null) {
+            ndjsonWriter.close();
+        } else {
+            zipOutputStream.close();
+        }
     }
     
 }
@@ -42,13 +42,13 @@ import edu.indiana.d2i.htrc.access.PolicyChecker;
 import edu.indiana.d2i.htrc.access.PolicyCheckerRegistry;
 import edu.indiana.d2i.htrc.access.RequestValidityChecker;
 import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.VolumeStore;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
 import edu.indiana.d2i.htrc.access.policy.MaxPagesPerVolumePolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxTotalPagesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxVolumesPolicyChecker;
-import edu.indiana.d2i.htrc.access.read.HectorResource;
 
 /**
  * This class implements the RequestValidityChecker interface to check the validity of the pageIDs in the request.  This class is deprecated because it is no longer needed with asynchronous fetch. 
@@ -60,7 +60,7 @@ import edu.indiana.d2i.htrc.access.read.HectorResource;
  */
 public class PageValidityChecker implements RequestValidityChecker {
     
-    protected final HectorResource hectorResource;
+    protected final VolumeStore volumeStore;
     protected final ParameterContainer parameterContainer;
     protected final PolicyChecker maxVolumesPolicyChecker;
     protected final PolicyChecker maxTotalPagesPolicyChecker;
@@ -73,12 +73,12 @@ public class PageValidityChecker implements RequestValidityChecker {
 
     /**
      * Constructor 
-     * @param hectorResource a HectorResource object
+     * @param volumeStore a VolumeStore object
      * @param parameterContainer a ParameterContainer object
      * @param policyCheckerRegistry a PolicyCheckerRegistry object
      */
-    public PageValidityChecker(HectorResource hectorResource, ParameterContainer parameterContainer, PolicyCheckerRegistry policyCheckerRegistry) {
-        this.hectorResource = hectorResource;
+    public PageValidityChecker(VolumeStore volumeStore, ParameterContainer parameterContainer, PolicyCheckerRegistry policyCheckerRegistry) {
+        this.volumeStore = volumeStore;
         this.parameterContainer = parameterContainer;
         this.maxPagesPerVolumeChecker = policyCheckerRegistry.getPolicyChecker(MaxPagesPerVolumePolicyChecker.POLICY_NAME);
         this.maxTotalPagesPolicyChecker = policyCheckerRegistry.getPolicyChecker(MaxTotalPagesPolicyChecker.POLICY_NAME);
@@ -101,7 +101,7 @@ public class PageValidityChecker implements RequestValidityChecker {
         
         for (RequestedItemCoordinates id : idList) {
             String volumeID = id.getVolumeID();
-            VolumeInfo volumeInfo = hectorResource.getVolumeInfo(volumeID);
+            VolumeInfo volumeInfo = volumeStore.getVolumeInfo(volumeID);
 
             volumeCount++;
             maxVolumesPolicyChecker.check(volumeCount, volumeID);
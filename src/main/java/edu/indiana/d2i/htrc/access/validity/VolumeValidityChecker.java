@@ -42,6 +42,7 @@ import edu.indiana.d2i.htrc.access.PolicyChecker;
 import edu.indiana.d2i.htrc.access.PolicyCheckerRegistry;
 import edu.indiana.d2i.htrc.access.RequestValidityChecker;
 import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.VolumeStore;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
@@ -49,7 +50,6 @@ import edu.indiana.d2i.htrc.access.id.ItemCoordinatesParserFactory;
 import edu.indiana.d2i.htrc.access.policy.MaxPagesPerVolumePolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxTotalPagesPolicyChecker;
 import edu.indiana.d2i.htrc.access.policy.MaxVolumesPolicyChecker;
-import edu.indiana.d2i.htrc.access.read.HectorResource;
 
 /**
  * This class implements the RequestValidityChecker class to check the validity of volumeIDs in the request.  It is deprecated because it is no longer needed with asynchronous fetch
@@ -60,7 +60,7 @@ import edu.indiana.d2i.htrc.access.read.HectorResource;
  */
 public class VolumeValidityChecker implements RequestValidityChecker  {
 
-    protected final HectorResource hectorResource;
+    protected final VolumeStore volumeStore;
     protected final ParameterContainer parameterContainer;
     protected final PolicyChecker maxVolumesPolicyChecker;
     protected final PolicyChecker maxTotalPagesPolicyChecker;
@@ -72,12 +72,12 @@ public class VolumeValidityChecker implements RequestValidityChecker  {
     
     /**
      * Constructor
-     * @param hectorResource a HectorResource object
+     * @param volumeStore a VolumeStore object
      * @param parameterContainer a ParameterContainer object
      * @param policyCheckerRegistry a PolicyCheckerRegistry
      */
-    public VolumeValidityChecker(HectorResource hectorResource, ParameterContainer parameterContainer, PolicyCheckerRegistry policyCheckerRegistry) {
-        this.hectorResource = hectorResource;
+    public VolumeValidityChecker(VolumeStore volumeStore, ParameterContainer parameterContainer, PolicyCheckerRegistry policyCheckerRegistry) {
+        this.volumeStore = volumeStore;
         this.parameterContainer = parameterContainer;
         this.maxPagesPerVolumeChecker = policyCheckerRegistry.getPolicyChecker(MaxPagesPerVolumePolicyChecker.POLICY_NAME);
         this.maxTotalPagesPolicyChecker = policyCheckerRegistry.getPolicyChecker(MaxTotalPagesPolicyChecker.POLICY_NAME);
@@ -100,7 +100,7 @@ public class VolumeValidityChecker implements RequestValidityChecker  {
         
         for (RequestedItemCoordinates id : idList) {
             String volumeID = id.getVolumeID();
-            VolumeInfo volumeInfo = hectorResource.getVolumeInfo(volumeID);
+            VolumeInfo volumeInfo = volumeStore.getVolumeInfo(volumeID);
             
             volumeCount++;
             maxVolumesPolicyChecker.check(volumeCount, volumeID);
@@ -0,0 +1,91 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ArchiveEntryWriter.java
+# Description:  Interface definition for writing the entries of a zip or tar archive, so that each ZipMaker implementation lays out its entries once for all archive formats
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.util.List;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+
+/**
+ * Interface definition for writing the entries of an archive.  A ZipMaker implementation decides which entries to write and what goes into them, and an
+ * ArchiveEntryWriter decides how they are written in its archive format, e.g. a zip entry with a data descriptor or a tar entry whose size is needed up front.
+ * 
+ * An entry is either written whole with writeEntry, or opened with openEntry, filled by appendContent and closed with closeEntry.  Opening or writing an
+ * entry closes the open entry first.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public interface ArchiveEntryWriter {
+    
+    /**
+     * Method to write an entry whose content is all at hand
+     * @param entryName name of the entry
+     * @param contentReader a ContentReader object holding the content of the entry
+     * @throws IOException thrown if writing the entry failed
+     */
+    public void writeEntry(String entryName, ContentReader contentReader) throws IOException;
+    
+    /**
+     * Method to open an entry whose content is appended piece by piece
+     * @param entryName name of the entry
+     * @throws IOException thrown if closing the previous entry or starting the new entry failed
+     */
+    public void openEntry(String entryName) throws IOException;
+    
+    /**
+     * Method to append content to the open entry
+     * @param contentReader a ContentReader object holding the content to be appended
+     * @throws IOException thrown if there is no open entry, or writing the content failed
+     */
+    public void appendContent(ContentReader contentReader) throws IOException;
+    
+    /**
+     * Method to close the open entry, if there is one
+     * @throws IOException thrown if writing out the entry failed
+     */
+    public void closeEntry() throws IOException;
+    
+    /**
+     * Method to write the special entry ERROR.err recording the exceptions caught while the archive was written
+     * @param exceptionList a List of Exception objects to be written to the ERROR.err entry
+     * @throws IOException thrown if writing the entry failed
+     */
+    public void writeErrorEntry(List<Exception> exceptionList) throws IOException;
+    
+    /**
+     * Method to close the open entry, finish the archive and close the underlying OutputStream
+     * @throws IOException thrown if finishing the archive failed
+     */
+    public void close() throws IOException;
+}
@@ -37,9 +37,6 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -50,6 +47,7 @@ import edu.indiana.d2i.htrc.access.ZipMaker;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -57,6 +55,9 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  * the Pairtree cleaned volumeID with ".txt" extension.  Metadata entries such as METS xml files are created as additional individual ZipEntry objects that also use the Pairtree cleaned volumeID as
  * the names but with different extensions.  It may also create a special entry ERROR.err to record any errors occurred during the asynchronous fetch process. 
  * 
+ * The entries are written by an ArchiveEntryWriter, so the same layout is written as a zip file or as a tar archive.  A tar entry needs its size up front, so
+ * in a tar archive the pages of the current volume are spooled until the volume is complete.
+ * 
  * @author Yiming Sun
  *
  */
@@ -66,9 +67,13 @@ public class CombinePageVolumeZipMaker implements ZipMaker {
     protected static final String ACCESSED_ACTION = "ACCESSED";
     protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final ArchiveFormatEnum archiveFormat;
 
-    CombinePageVolumeZipMaker(Auditor auditor) {
+    CombinePageVolumeZipMaker(Auditor auditor, int compressionLevel, ArchiveFormatEnum archiveFormat) {
         this.auditor = auditor;
+        this.compressionLevel = compressionLevel;
+        this.archiveFormat = archiveFormat;
     }
 
     /**
@@ -77,15 +82,10 @@ public class CombinePageVolumeZipMaker implements ZipMaker {
     @Override
     public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
         
-        boolean entryOpen = false;
-        
         String currentVolumeID = null;
         List<String> currentPageSequences = null;
         
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
-        
-        ZipEntry zipEntry = null;
+        ArchiveEntryWriter entryWriter = ZipMakerFactory.Helper.newArchiveEntryWriter(outputStream, compressionLevel, archiveFormat, false);
         
         List<Exception> exceptionList = new LinkedList<Exception>();
         
@@ -100,47 +100,27 @@ public class CombinePageVolumeZipMaker implements ZipMaker {
                         if (currentVolumeID != null) {
                             auditor.audit(ACCESSED_ACTION,  currentVolumeID,  currentPageSequences.toArray(new String[0]));
                         }
-                    
-                        if (entryOpen) {
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                        }
                         
                         currentVolumeID = volumeID;
                         currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
                         
-                        String entryName = volumeReader.getPairtreeCleanedVolumeID() + ".txt";
-                        zipEntry = new ZipEntry(entryName);
-    
-                        zipOutputStream.putNextEntry(zipEntry);
-                        entryOpen = true;
+                        entryWriter.openEntry(volumeReader.getPairtreeCleanedVolumeID() + ".txt");
                     }
                     
                     while (volumeReader.hasMorePages()) {
                         ContentReader pageReader = volumeReader.nextPage();
-                        byte[] pageContent = pageReader.getContent();
-    
-                        zipOutputStream.write(pageContent);
+                        entryWriter.appendContent(pageReader);
                         
                         currentPageSequences.add(pageReader.getContentName());
                     }
                     
                     while (volumeReader.hasMoreMetadata()) {
-                        if (entryOpen) {
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                        }
+                        entryWriter.closeEntry();
                         ContentReader metadataReader = volumeReader.nextMetadata();
                         String suffix = ZipMakerFactory.Helper.getEntrySuffixFromMetadataName(metadataReader.getContentName());
                         if (suffix != null) {
-                            String entryName = volumeReader.getPairtreeCleanedVolumeID() + suffix; 
-                            zipEntry = new ZipEntry(entryName);
-                            zipOutputStream.putNextEntry(zipEntry);
-                            entryOpen = true;
-                            zipOutputStream.write(metadataReader.getContent());
+                            entryWriter.writeEntry(volumeReader.getPairtreeCleanedVolumeID() + suffix, metadataReader);
                             currentPageSequences.add(metadataReader.getContentName());
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
                         } else {
                             throw new NullPointerException("Unmapped metadata to suffix: " + metadataReader.getContentName());
                         }
@@ -163,15 +143,12 @@ public class CombinePageVolumeZipMaker implements ZipMaker {
         if (currentVolumeID != null) {
             auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
         }
-        if (entryOpen) {
-            zipOutputStream.closeEntry();
-            entryOpen = false;
-        }
+        entryWriter.closeEntry();
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+            entryWriter.writeErrorEntry(exceptionList);
         }
-        zipOutputStream.close();
+        entryWriter.close();
     }
 
 }
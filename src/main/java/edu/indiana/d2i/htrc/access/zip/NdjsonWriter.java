@@ -0,0 +1,208 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NdjsonWriter.java
+# Description:  This class writes newline-delimited JSON records to an OutputStream
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * This class writes newline-delimited JSON, i.e. one JSON object per line, to an OutputStream.  Each record is written out field by field as it is put
+ * together, so nothing but the current field is held in memory, and a consumer can start parsing a line as soon as it is complete.  Only string and integer
+ * fields and nested objects are supported, as those are all that the records of this service need.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class NdjsonWriter {
+    
+    protected static final String UTF_8 = "utf-8";
+    protected static final int BUFFER_SIZE = 65536;
+    protected static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    protected final Writer writer;
+    protected boolean firstField;
+    protected int depth;
+    
+    /**
+     * Constructor
+     * @param outputStream an OutputStream object to which the lines are written in UTF-8
+     * @throws IOException thrown if UTF-8 is not supported
+     */
+    public NdjsonWriter(OutputStream outputStream) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8), BUFFER_SIZE);
+        this.firstField = true;
+        this.depth = 0;
+    }
+    
+    /**
+     * Method to start a new record, i.e. a new line
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void beginRecord() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("Previous record not ended");
+        }
+        writer.write('{');
+        firstField = true;
+        depth = 1;
+    }
+    
+    /**
+     * Method to end the current record and terminate its line
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void endRecord() throws IOException {
+        if (depth != 1) {
+            throw new IllegalStateException("Record not begun or nested object not ended");
+        }
+        writer.write('}');
+        writer.write('\n');
+        depth = 0;
+    }
+    
+    /**
+     * Method to write a string field to the current record or nested object
+     * @param name name of the field
+     * @param value value of the field
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void writeField(String name, String value) throws IOException {
+        writeName(name);
+        writeString(value);
+    }
+    
+    /**
+     * Method to write an integer field to the current record or nested object
+     * @param name name of the field
+     * @param value value of the field
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void writeField(String name, long value) throws IOException {
+        writeName(name);
+        writer.write(Long.toString(value));
+    }
+    
+    /**
+     * Method to start a nested object as a field of the current record or nested object
+     * @param name name of the field
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void beginObject(String name) throws IOException {
+        writeName(name);
+        writer.write('{');
+        firstField = true;
+        depth++;
+    }
+    
+    /**
+     * Method to end the current nested object
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void endObject() throws IOException {
+        if (depth < 2) {
+            throw new IllegalStateException("No nested object to end");
+        }
+        writer.write('}');
+        // the nested object is itself a field, so the enclosing object is no longer empty
+        firstField = false;
+        depth--;
+    }
+    
+    /**
+     * Method to push the lines written so far to the OutputStream, so the client receives them without waiting for the buffer to fill up
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+    
+    /**
+     * Method to flush and close the underlying OutputStream
+     * @throws IOException thrown if output to the OutputStream failed
+     */
+    public void close() throws IOException {
+        writer.close();
+    }
+    
+    protected void writeName(String name) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Record not begun");
+        }
+        if (!firstField) {
+            writer.write(',');
+        }
+        firstField = false;
+        writeString(name);
+        writer.write(':');
+    }
+    
+    protected void writeString(String value) throws IOException {
+        writer.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                writer.write(value, start, i - start);
+                start = i + 1;
+                switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    // remaining control characters have no short escape
+                    writer.write("\\u00");
+                    writer.write(HEX_DIGITS[c >> 4]);
+                    writer.write(HEX_DIGITS[c & 0xF]);
+                    break;
+                }
+            }
+        }
+        writer.write(value, start, length - start);
+        writer.write('"');
+    }
+}
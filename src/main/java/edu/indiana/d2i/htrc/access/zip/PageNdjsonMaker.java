@@ -0,0 +1,173 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PageNdjsonMaker.java
+# Description:  This class writes the requested pages as newline-delimited JSON, one line per page
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.VolumeCompletionTracker;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.audit.Auditor;
+
+/**
+ * This implementation of the ZipMaker interface writes newline-delimited JSON instead of an archive, with one line for each page in the form of
+ * {"volumeID":..., "seq":..., "text":...}, and one line for each metadata entry in the form of {"volumeID":..., "metadata":..., "text":...}.  Lines are
+ * written in the order the pages arrive from the VolumeRetriever, and are flushed to the client after each VolumeReader, so a consumer can start on the
+ * first volumes while the rest are still being fetched.  Any errors occurred during the asynchronous fetch process are written at the end as lines in the
+ * form of {"error":...}.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class PageNdjsonMaker implements ZipMaker {
+
+    private static Logger log = Logger.getLogger(PageNdjsonMaker.class);
+    protected static final String ACCESSED_ACTION = "ACCESSED";
+    protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
+    protected final Auditor auditor;
+    
+    PageNdjsonMaker(Auditor auditor) {
+        this.auditor = auditor;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.ZipMaker#makeZipFile(java.io.OutputStream, edu.indiana.d2i.htrc.access.VolumeRetriever)
+     */
+    @Override
+    public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
+        
+        String currentVolumeID = null;
+        List<String> currentPageSequences = null;
+        
+        // as with separate page zips, the pieces of a volume may arrive interleaved with those of other volumes, so the accessed pages are collected per
+        // volume, and each volume is audited once its last piece has been flushed
+        Map<String, List<String>> accessedPageSequencesMap = new LinkedHashMap<String, List<String>>();
+        VolumeCompletionTracker completionTracker = (volumeRetriever instanceof VolumeCompletionTracker) ? (VolumeCompletionTracker)volumeRetriever : null;
+        
+        NdjsonWriter ndjsonWriter = new NdjsonWriter(outputStream);
+        
+        List<Exception> exceptionList = new LinkedList<Exception>();
+        
+        try {
+            while (volumeRetriever.hasMoreVolumes()) {
+                try {
+                    VolumeReader volumeReader = volumeRetriever.nextVolume();
+                    if (volumeReader != null) {
+                        String volumeID = volumeReader.getVolumeID();
+                        
+                        if (!volumeID.equals(currentVolumeID)) {
+                            if (completionTracker == null && currentVolumeID != null) {
+                                auditAccessedPages(currentVolumeID, accessedPageSequencesMap.remove(currentVolumeID));
+                            }
+                            currentVolumeID = volumeID;
+                            currentPageSequences = accessedPageSequencesMap.get(volumeID);
+                            if (currentPageSequences == null) {
+                                currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
+                                accessedPageSequencesMap.put(volumeID, currentPageSequences);
+                            }
+                        }
+                        
+                        while (volumeReader.hasMorePages()) {
+                            ContentReader pageReader = volumeReader.nextPage();
+                            String pageSequence = pageReader.getContentName();
+                            ZipMakerFactory.Helper.writeContentRecord(ndjsonWriter, volumeID, "seq", pageSequence, pageReader);
+                            currentPageSequences.add(pageSequence);
+                        }
+                        
+                        while (volumeReader.hasMoreMetadata()) {
+                            ContentReader metadataReader = volumeReader.nextMetadata();
+                            String metadataEntryName = ZipMakerFactory.Helper.getEntryFullnameFromMetadataName(metadataReader.getContentName());
+                            if (metadataEntryName != null) {
+                                ZipMakerFactory.Helper.writeContentRecord(ndjsonWriter, volumeID, "metadata", metadataEntryName, metadataReader);
+                                currentPageSequences.add(metadataReader.getContentName());
+                            } else {
+                                throw new NullPointerException("Unmapped metadata to entry name: " + metadataReader.getContentName());
+                            }
+                        }
+                        
+                        ndjsonWriter.flush();
+                        
+                        if (completionTracker != null && completionTracker.isVolumeComplete(volumeID)) {
+                            auditAccessedPages(volumeID, accessedPageSequencesMap.remove(volumeID));
+                            currentVolumeID = null;
+                        }
+                    }
+                } catch (KeyNotFoundException e) {
+                    log.error("KeyNotFoundException", e);
+                    exceptionList.add(e);
+                } catch (PolicyViolationException e) {
+                    log.error("PolicyViolationException", e);
+                    exceptionList.add(e);
+                } catch (RepositoryException e) {
+                    log.error("RepositoryException", e);
+                    exceptionList.add(e);
+                } catch (NullPointerException e) {
+                    log.fatal("unmapped metadata", e);
+                }
+            }
+        } finally {
+            // also audits the records already streamed when writing fails part way, e.g. because the client went away
+            for (Map.Entry<String, List<String>> entry : accessedPageSequencesMap.entrySet()) {
+                auditAccessedPages(entry.getKey(), entry.getValue());
+            }
+        }
+        
+        if (!exceptionList.isEmpty()) {
+            ZipMakerFactory.Helper.writeErrorRecords(ndjsonWriter, exceptionList);
+        }
+        ndjsonWriter.close();
+    }
+    
+    /**
+     * Method to audit the pages and metadata entries of a volume that have been written out
+     * @param volumeID volumeID of the volume
+     * @param accessedPageSequences a List of page sequence numbers and metadata names written out
+     */
+    protected void auditAccessedPages(String volumeID, List<String> accessedPageSequences) {
+        if (accessedPageSequences != null && !accessedPageSequences.isEmpty()) {
+            auditor.audit(ACCESSED_ACTION, volumeID, accessedPageSequences.toArray(new String[0]));
+        }
+    }
+}
@@ -37,14 +37,14 @@ package edu.indiana.d2i.htrc.access.zip;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import edu.indiana.d2i.htrc.access.VolumeCompletionTracker;
 import edu.indiana.d2i.htrc.access.VolumeReader;
 import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
@@ -52,6 +52,7 @@ import edu.indiana.d2i.htrc.access.ZipMaker;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -60,6 +61,9 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  * cleaned volumeID as a virtual directory, but the filename of each metadata entry depends on the metadata type, e.g. a METS xml would become mets.xml.  It may also create a special entry ERROR.err
  * to record any errors occurred during the asynchronous fetch process.
  * 
+ * The entries are written by an ArchiveEntryWriter, so the same layout is written as a zip file or as a tar archive.  The size of each page is known when
+ * it arrives, so every entry is written out as soon as its page is available in either format.
+ * 
  * @author Yiming Sun
  *
  */
@@ -69,9 +73,13 @@ public class SeparatePageVolumeZipMaker implements ZipMaker {
     protected static final String ACCESSED_ACTION = "ACCESSED";
     protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final ArchiveFormatEnum archiveFormat;
     
-    SeparatePageVolumeZipMaker(Auditor auditor) {
+    SeparatePageVolumeZipMaker(Auditor auditor, int compressionLevel, ArchiveFormatEnum archiveFormat) {
         this.auditor = auditor;
+        this.compressionLevel = compressionLevel;
+        this.archiveFormat = archiveFormat;
     }
     /**
      * @see edu.indiana.d2i.htrc.access.ZipMaker#makeZipFile(java.io.OutputStream, java.lang.String, edu.indiana.d2i.htrc.access.VolumeReader)
@@ -79,92 +87,102 @@ public class SeparatePageVolumeZipMaker implements ZipMaker {
     @Override
     public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
         
-        boolean entryOpen = false;
-        
         String currentVolumeID = null;
         List<String> currentPageSequences = null;
         
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        // the pieces of a volume may arrive interleaved with those of other volumes when the retriever returns them in completion order, so the
+        // accessed pages are collected per volume, and each volume is audited once its last piece has been written
+        Map<String, List<String>> accessedPageSequencesMap = new LinkedHashMap<String, List<String>>();
+        VolumeCompletionTracker completionTracker = (volumeRetriever instanceof VolumeCompletionTracker) ? (VolumeCompletionTracker)volumeRetriever : null;
+        
+        // without compression, pages and metadata are written as STORED zip entries with precomputed CRCs instead of going through a Deflater
+        ArchiveEntryWriter entryWriter = ZipMakerFactory.Helper.newArchiveEntryWriter(outputStream, compressionLevel, archiveFormat, true);
 
         String volumeIDDirName = null;
         
         List<Exception> exceptionList = new LinkedList<Exception>();
         
-        while (volumeRetriever.hasMoreVolumes()) {
-            try {
-                VolumeReader volumeReader = volumeRetriever.nextVolume();
-                if (volumeReader != null) {
-                    String volumeID = volumeReader.getVolumeID();
+        try {
+            while (volumeRetriever.hasMoreVolumes()) {
+                try {
+                    VolumeReader volumeReader = volumeRetriever.nextVolume();
+                    if (volumeReader != null) {
+                        String volumeID = volumeReader.getVolumeID();
     
-                    volumeIDDirName = volumeReader.getPairtreeCleanedVolumeID() + "/";
+                        volumeIDDirName = volumeReader.getPairtreeCleanedVolumeID() + "/";
     
-                    if (!volumeID.equals(currentVolumeID)) {
-                        if (currentVolumeID != null) {
-                            auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
+                        if (!volumeID.equals(currentVolumeID)) {
+                            if (completionTracker == null && currentVolumeID != null) {
+                                auditAccessedPages(currentVolumeID, accessedPageSequencesMap.remove(currentVolumeID));
+                            }
+                            currentVolumeID = volumeID;
+                            currentPageSequences = accessedPageSequencesMap.get(volumeID);
+                            if (currentPageSequences == null) {
+                                currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
+                                accessedPageSequencesMap.put(volumeID, currentPageSequences);
+                            }
                         }
-                        currentVolumeID = volumeID;
-                        currentPageSequences = new ArrayList<String>(DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE);
-                    }
                     
-                    while (volumeReader.hasMorePages()) {
-                        ContentReader pageReader = volumeReader.nextPage();
-                        String pageSequence = pageReader.getContentName();
-                        ZipEntry pageContentsEntry = new ZipEntry(volumeIDDirName + pageSequence + ".txt");
-                        zipOutputStream.putNextEntry(pageContentsEntry);
-                        entryOpen = true;
-                        byte[] pageContent = pageReader.getContent();
-                        zipOutputStream.write(pageContent);
-                        zipOutputStream.closeEntry();
-                        entryOpen = false;
-                        currentPageSequences.add(pageSequence);
-                    }
+                        while (volumeReader.hasMorePages()) {
+                            ContentReader pageReader = volumeReader.nextPage();
+                            String pageSequence = pageReader.getContentName();
+                            entryWriter.writeEntry(volumeIDDirName + pageSequence + ".txt", pageReader);
+                            currentPageSequences.add(pageSequence);
+                        }
                     
-                    while (volumeReader.hasMoreMetadata()) {
-                        ContentReader metadataReader = volumeReader.nextMetadata();
-                        String metadataEntryName = ZipMakerFactory.Helper.getEntryFullnameFromMetadataName(metadataReader.getContentName());
-                        if (metadataEntryName != null) {
-                            ZipEntry metadataEntry = new ZipEntry(volumeIDDirName + metadataEntryName);
-                            zipOutputStream.putNextEntry(metadataEntry);
-                            entryOpen = true;
-                            byte[] metadataContent = metadataReader.getContent();
-                            zipOutputStream.write(metadataContent);
-                            zipOutputStream.closeEntry();
-                            entryOpen = false;
-                            currentPageSequences.add(metadataReader.getContentName());
-                        } else {
-                            throw new NullPointerException("Unmapped metadata to entry name: " + metadataReader.getContentName());
+                        while (volumeReader.hasMoreMetadata()) {
+                            ContentReader metadataReader = volumeReader.nextMetadata();
+                            String metadataEntryName = ZipMakerFactory.Helper.getEntryFullnameFromMetadataName(metadataReader.getContentName());
+                            if (metadataEntryName != null) {
+                                entryWriter.writeEntry(volumeIDDirName + metadataEntryName, metadataReader);
+                                currentPageSequences.add(metadataReader.getContentName());
+                            } else {
+                                throw new NullPointerException("Unmapped metadata to entry name: " + metadataReader.getContentName());
+                            }
+                        }
+                        
+                        if (completionTracker != null && completionTracker.isVolumeComplete(volumeID)) {
+                            auditAccessedPages(volumeID, accessedPageSequencesMap.remove(volumeID));
+                            currentVolumeID = null;
                         }
                     }
+                } catch (KeyNotFoundException e) {
+                    log.error("KeyNotFoundException", e);
+                    exceptionList.add(e);
+                } catch (PolicyViolationException e) {
+                    log.error("PolicyViolationException", e);
+                    exceptionList.add(e);
+                } catch (RepositoryException e) {
+                    log.error("RepositoryException", e);
+                    exceptionList.add(e);
+                } catch (NullPointerException e) {
+                    log.fatal("unmapped metadata", e);
                 }
-            } catch (KeyNotFoundException e) {
-                log.error("KeyNotFoundException", e);
-                exceptionList.add(e);
-            } catch (PolicyViolationException e) {
-                log.error("PolicyViolationException", e);
-                exceptionList.add(e);
-            } catch (RepositoryException e) {
-                log.error("RepositoryException", e);
-                exceptionList.add(e);
-            } catch (NullPointerException e) {
-                log.fatal("unmapped metadata", e);
             }
-        }
-        
-        if (currentVolumeID != null) {
-            auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
-        }
-        if (entryOpen) {
-            zipOutputStream.closeEntry();
-            entryOpen = false;
+        } finally {
+            // also audits the pages already sent when writing fails part way, e.g. because the client went away
+            for (Map.Entry<String, List<String>> entry : accessedPageSequencesMap.entrySet()) {
+                auditAccessedPages(entry.getKey(), entry.getValue());
+            }
         }
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+            entryWriter.writeErrorEntry(exceptionList);
         }
-        zipOutputStream.close();
+        entryWriter.close();
         
 
     }
+    
+    /**
+     * Method to audit the pages and metadata entries of a volume that have been written out
+     * @param volumeID volumeID of the volume
+     * @param accessedPageSequences a List of page sequence numbers and metadata names written out
+     */
+    protected void auditAccessedPages(String volumeID, List<String> accessedPageSequences) {
+        if (accessedPageSequences != null && !accessedPageSequences.isEmpty()) {
+            auditor.audit(ACCESSED_ACTION, volumeID, accessedPageSequences.toArray(new String[0]));
+        }
+    }
 }
 
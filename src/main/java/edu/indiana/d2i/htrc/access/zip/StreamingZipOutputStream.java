@@ -0,0 +1,875 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StreamingZipOutputStream.java
+# Description:  This class is a ZipOutputStream that deflates zip entries in fixed-size blocks on a pool of worker threads and stitches the blocks back together in order,
+# and writes STORED entries with a precomputed CRC straight through without data descriptors
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This class is a ZipOutputStream that deflates zip entries in fixed-size blocks on a pool of worker threads, in the same way as pigz does, and stitches the
+ * compressed blocks back together in order.  Each block is primed with the last 32KB of the block before it as the preset dictionary, and every block but the
+ * last one of an entry is ended with a sync flush, so the concatenated blocks form one valid deflate stream.  The caller may move on to the next entries while
+ * the blocks of earlier entries are still being compressed, so small entries such as pages are compressed in parallel as well.
+ * 
+ * Because the compressed size of an entry is only known after its last block is done, each deflated entry is followed by a data descriptor.  The ZIP64 end
+ * of central directory records are written when the archive has too many entries or is too large for the plain zip format.  The sizes in a data descriptor
+ * are only written in 8 bytes when the local header carries a ZIP64 extra field, which is the case when the ZipEntry declares a size of 4GB or more before
+ * putNextEntry is called.  A deflated entry that grows past 4GB without declaring its size is rejected when it is closed, as its local header has already
+ * been written without the ZIP64 extra field.
+ * 
+ * A ZipEntry with the STORED method, whose size and CRC are set before putNextEntry is called, is written as a true STORED entry: the size and CRC go into
+ * the local header, there is no data descriptor, and the content is written straight to the underlying OutputStream without going through a Deflater or
+ * being checksummed again.  It is up to the caller to get the CRC right; only the size is checked when the entry is closed.
+ * 
+ * Like ZipOutputStream, setLevel and setMethod change the compression level and the default method of the entries put after the call, an entry whose
+ * ZipEntry has no method of its own gets the default method, and setComment sets the comment written in the end of central directory record.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class StreamingZipOutputStream extends ZipOutputStream {
+    
+    private static Logger log = Logger.getLogger(StreamingZipOutputStream.class);
+    
+    public static final int DEFAULT_BLOCK_SIZE = 131072;
+    protected static final int DICTIONARY_SIZE = 32768;
+    protected static final int MAX_PENDING_BLOCKS = 16;
+    
+    protected static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    protected static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    protected static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    protected static final int END_SIGNATURE = 0x06054b50;
+    protected static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    protected static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    protected static final int ZIP64_EXTRA_ID = 0x0001;
+    protected static final int ZIP64_LOCAL_EXTRA_SIZE = 20;
+    
+    protected static final int VERSION_STORED = 10;
+    protected static final int VERSION_DEFLATED = 20;
+    protected static final int VERSION_ZIP64 = 45;
+    protected static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    protected static final int FLAG_UTF8 = 0x800;
+    protected static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+    protected static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    
+    protected static final String UTF_8 = "utf-8";
+    
+    // one raw Deflater per compression level per worker thread, so a Deflater never has to change its level, and is only reset between blocks
+    private static final ThreadLocal<Deflater[]> threadDeflaters = new ThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue() {
+            return new Deflater[Deflater.BEST_COMPRESSION + 1];
+        }
+    };
+    
+    /**
+     * This class holds what needs to be known about a zip entry for its data descriptor and its central directory header
+     * @author Yiming Sun
+     *
+     */
+    protected static class EntryRecord {
+        protected final byte[] nameBytes;
+        protected final int method;
+        protected final long dosTime;
+        protected final boolean zip64Header;
+        protected long crc;
+        protected long size;
+        protected long compressedSize;
+        protected long offset;
+        
+        /**
+         * Constructor
+         * @param nameBytes the UTF-8 encoded name of the entry
+         * @param method compression method of the entry
+         * @param dosTime modification time of the entry in MS-DOS format
+         * @param zip64Header <code>true</code> if the local header carries a ZIP64 extra field, <code>false</code> otherwise
+         */
+        protected EntryRecord(byte[] nameBytes, int method, long dosTime, boolean zip64Header) {
+            this.nameBytes = nameBytes;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.zip64Header = zip64Header;
+            this.crc = 0;
+            this.size = 0;
+            this.compressedSize = 0;
+            this.offset = 0;
+        }
+        
+        /**
+         * Method to return the version needed to extract the entry
+         * @return the version needed to extract the entry
+         */
+        protected int getVersion() {
+            return (zip64Header || isZip64()) ? VERSION_ZIP64 : ((method == ZipEntry.STORED) ? VERSION_STORED : VERSION_DEFLATED);
+        }
+        
+        /**
+         * Method to return the general purpose bit flags of the entry
+         * @return the general purpose bit flags of the entry
+         */
+        protected int getFlags() {
+            return (method == ZipEntry.STORED) ? FLAG_UTF8 : (FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+        }
+        
+        /**
+         * Method to check if the entry needs ZIP64 extensions in the central directory
+         * @return <code>true</code> if the size, compressed size or the offset of the entry do not fit in 32 bits, <code>false</code> otherwise
+         */
+        protected boolean isZip64() {
+            return size >= ZIP64_MAGIC_VALUE || compressedSize >= ZIP64_MAGIC_VALUE || offset >= ZIP64_MAGIC_VALUE;
+        }
+    }
+    
+    /**
+     * This class is a piece of the output that is yet to be written, in the order the pieces were queued
+     * @author Yiming Sun
+     *
+     */
+    protected static class PendingChunk {
+        protected static final int TYPE_LOCAL_HEADER = 0;
+        protected static final int TYPE_DATA = 1;
+        protected static final int TYPE_DATA_DESCRIPTOR = 2;
+        
+        protected final int type;
+        protected final EntryRecord entryRecord;
+        protected final Future<byte[]> future;
+        protected final int heldBytes;
+        
+        /**
+         * Constructor
+         * @param type type of the chunk
+         * @param entryRecord the EntryRecord object of the entry the chunk belongs to
+         * @param future a Future object of the bytes of the chunk, or <code>null</code> if the bytes are generated when the chunk is written
+         * @param heldBytes number of bytes allocated for the uncompressed data held by the chunk until it is written
+         */
+        protected PendingChunk(int type, EntryRecord entryRecord, Future<byte[]> future, int heldBytes) {
+            this.type = type;
+            this.entryRecord = entryRecord;
+            this.future = future;
+            this.heldBytes = heldBytes;
+        }
+    }
+    
+    /**
+     * This class deflates one block of an entry
+     * @author Yiming Sun
+     *
+     */
+    protected static class DeflateBlockCallable implements Callable<byte[]> {
+        protected final byte[] block;
+        protected final int length;
+        protected final byte[] dictionary;
+        protected final int level;
+        protected final boolean lastBlock;
+        
+        /**
+         * Constructor
+         * @param block a byte array holding the uncompressed data of the block
+         * @param length number of bytes in the block
+         * @param dictionary a byte array holding the previous block of the same entry, or <code>null</code> if this is the first block
+         * @param level the compression level
+         * @param lastBlock <code>true</code> if this is the last block of the entry, <code>false</code> otherwise
+         */
+        protected DeflateBlockCallable(byte[] block, int length, byte[] dictionary, int level, boolean lastBlock) {
+            this.block = block;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.lastBlock = lastBlock;
+        }
+        
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        @Override
+        public byte[] call() throws Exception {
+            Deflater[] deflaters = threadDeflaters.get();
+            Deflater deflater = deflaters[level];
+            if (deflater == null) {
+                deflater = new Deflater(level, true);
+                deflaters[level] = deflater;
+            } else {
+                deflater.reset();
+            }
+            
+            if (dictionary != null) {
+                int dictionaryLength = Math.min(DICTIONARY_SIZE, dictionary.length);
+                deflater.setDictionary(dictionary, dictionary.length - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(block, 0, length);
+            
+            byte[] buffer = new byte[length + (length >> 3) + 64];
+            int bufferLength = 0;
+            if (lastBlock) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (bufferLength == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    bufferLength += deflater.deflate(buffer, bufferLength, buffer.length - bufferLength);
+                }
+            } else {
+                // a sync flush ends the block on a byte boundary without marking the deflate stream as finished, so the next block can be appended to it
+                while (true) {
+                    if (bufferLength == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    bufferLength += deflater.deflate(buffer, bufferLength, buffer.length - bufferLength, Deflater.SYNC_FLUSH);
+                    if (bufferLength < buffer.length && deflater.needsInput()) {
+                        break;
+                    }
+                }
+            }
+            return Arrays.copyOf(buffer, bufferLength);
+        }
+    }
+    
+    protected final int blockSize;
+    protected final ExecutorService executorService;
+    protected final LinkedList<PendingChunk> pendingChunks;
+    protected final List<EntryRecord> entryRecords;
+    protected final CRC32 crc32;
+    protected final Calendar calendar;
+    
+    protected int level;
+    protected int defaultMethod;
+    protected byte[] commentBytes;
+    protected EntryRecord currentEntry;
+    protected int entryLevel;
+    protected long storedEntrySize;
+    protected byte[] currentBlock;
+    protected int currentBlockLength;
+    protected byte[] previousBlock;
+    protected long pendingBytes;
+    protected long written;
+    protected boolean finished;
+    
+    /**
+     * Constructor
+     * @param outputStream an OutputStream object to which the zip file is written
+     * @param level the compression level of deflated entries, from Deflater.NO_COMPRESSION to Deflater.BEST_COMPRESSION
+     * @param blockSize number of uncompressed bytes in each block that is deflated separately
+     * @param executorService an ExecutorService object on which blocks are deflated, or <code>null</code> to deflate them on the calling thread
+     */
+    public StreamingZipOutputStream(OutputStream outputStream, int level, int blockSize, ExecutorService executorService) {
+        super(outputStream);
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        this.level = level;
+        this.defaultMethod = ZipEntry.DEFLATED;
+        this.commentBytes = new byte[0];
+        this.blockSize = (blockSize > 0) ? blockSize : DEFAULT_BLOCK_SIZE;
+        this.executorService = executorService;
+        this.pendingChunks = new LinkedList<PendingChunk>();
+        this.entryRecords = new ArrayList<EntryRecord>();
+        this.crc32 = new CRC32();
+        this.calendar = Calendar.getInstance();
+        this.currentEntry = null;
+        this.entryLevel = level;
+        this.storedEntrySize = 0;
+        this.currentBlock = null;
+        this.currentBlockLength = 0;
+        this.previousBlock = null;
+        this.pendingBytes = 0;
+        this.written = 0;
+        this.finished = false;
+    }
+    
+    /**
+     * @see java.util.zip.ZipOutputStream#putNextEntry(java.util.zip.ZipEntry)
+     */
+    @Override
+    public void putNextEntry(ZipEntry zipEntry) throws IOException {
+        ensureNotFinished();
+        if (currentEntry != null) {
+            closeEntry();
+        }
+        
+        int method = (zipEntry.getMethod() != -1) ? zipEntry.getMethod() : defaultMethod;
+        boolean stored = (method == ZipEntry.STORED);
+        if (stored) {
+            if (zipEntry.getSize() == -1 || zipEntry.getCrc() == -1) {
+                throw new ZipException("STORED entry missing size or crc-32");
+            }
+            if (zipEntry.getSize() >= ZIP64_MAGIC_VALUE) {
+                throw new ZipException("STORED entry too large: " + zipEntry.getName());
+            }
+        }
+        
+        long time = (zipEntry.getTime() != -1) ? zipEntry.getTime() : System.currentTimeMillis();
+        boolean zip64Header = !stored && zipEntry.getSize() >= ZIP64_MAGIC_VALUE;
+        currentEntry = new EntryRecord(encodeName(zipEntry.getName()), stored ? ZipEntry.STORED : ZipEntry.DEFLATED, toDosTime(time), zip64Header);
+        entryLevel = level;
+        crc32.reset();
+        previousBlock = null;
+        if (stored) {
+            currentEntry.crc = zipEntry.getCrc();
+            storedEntrySize = zipEntry.getSize();
+        }
+        
+        int extraLength = zip64Header ? ZIP64_LOCAL_EXTRA_SIZE : 0;
+        ByteArrayOutputStream header = new ByteArrayOutputStream(30 + currentEntry.nameBytes.length + extraLength);
+        writeInt(header, LOCAL_HEADER_SIGNATURE);
+        writeShort(header, currentEntry.getVersion());
+        writeShort(header, currentEntry.getFlags());
+        writeShort(header, currentEntry.method);
+        writeInt(header, currentEntry.dosTime);
+        if (stored) {
+            writeInt(header, currentEntry.crc);
+            writeInt(header, storedEntrySize);
+            writeInt(header, storedEntrySize);
+        } else if (zip64Header) {
+            writeInt(header, 0); // crc is in the data descriptor, and the sizes are in the data descriptor in 8 bytes
+            writeInt(header, ZIP64_MAGIC_VALUE);
+            writeInt(header, ZIP64_MAGIC_VALUE);
+        } else {
+            writeInt(header, 0); // crc, size and compressed size are in the data descriptor
+            writeInt(header, 0);
+            writeInt(header, 0);
+        }
+        writeShort(header, currentEntry.nameBytes.length);
+        writeShort(header, extraLength);
+        header.write(currentEntry.nameBytes);
+        if (zip64Header) {
+            writeShort(header, ZIP64_EXTRA_ID);
+            writeShort(header, ZIP64_LOCAL_EXTRA_SIZE - 4);
+            writeLong(header, 0); // size and compressed size are in the data descriptor
+            writeLong(header, 0);
+        }
+        if (pendingChunks.isEmpty()) {
+            currentEntry.offset = written;
+            header.writeTo(out);
+            written += header.size();
+        } else {
+            queueChunk(new PendingChunk(PendingChunk.TYPE_LOCAL_HEADER, currentEntry, completedFuture(header.toByteArray()), 0));
+        }
+    }
+    
+    /**
+     * @see java.util.zip.ZipOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (currentEntry == null) {
+            throw new ZipException("no current ZIP entry");
+        }
+        if (length <= 0) {
+            return;
+        }
+        if (currentEntry.method == ZipEntry.STORED) {
+            writeStored(bytes, offset, length);
+            return;
+        }
+        crc32.update(bytes, offset, length);
+        currentEntry.size += length;
+        
+        while (length > 0) {
+            // a full block is only handed over once more data arrives, because the last block of an entry has to be deflated differently
+            if (currentBlock != null && currentBlockLength == blockSize) {
+                submitBlock(false);
+            }
+            ensureBlockCapacity(length);
+            int copyLength = Math.min(length, currentBlock.length - currentBlockLength);
+            System.arraycopy(bytes, offset, currentBlock, currentBlockLength, copyLength);
+            currentBlockLength += copyLength;
+            offset += copyLength;
+            length -= copyLength;
+        }
+    }
+    
+    /**
+     * Method to make room in the current block for more data.  The first block of an entry is sized to the data written so far and doubled as more
+     * arrives, up to blockSize, so that entries much smaller than a block, such as single pages, do not each allocate a whole block
+     * @param length number of bytes about to be written
+     */
+    protected void ensureBlockCapacity(int length) {
+        int neededLength = (int)Math.min(blockSize, (long)currentBlockLength + length);
+        if (currentBlock == null) {
+            currentBlock = new byte[neededLength];
+            currentBlockLength = 0;
+        } else if (currentBlock.length < neededLength) {
+            int newLength = (int)Math.min(blockSize, Math.max((long)currentBlock.length * 2, neededLength));
+            currentBlock = Arrays.copyOf(currentBlock, newLength);
+        }
+    }
+    
+    /**
+     * @see java.util.zip.ZipOutputStream#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        if (currentEntry != null && currentEntry.method == ZipEntry.STORED) {
+            if (currentEntry.size != storedEntrySize) {
+                throw new ZipException("invalid entry size (expected " + storedEntrySize + " but got " + currentEntry.size + " bytes)");
+            }
+            entryRecords.add(currentEntry);
+            currentEntry = null;
+        } else if (currentEntry != null) {
+            submitBlock(true);
+            currentEntry.crc = crc32.getValue();
+            entryRecords.add(currentEntry);
+            queueChunk(new PendingChunk(PendingChunk.TYPE_DATA_DESCRIPTOR, currentEntry, null, 0));
+            currentEntry = null;
+            previousBlock = null;
+        }
+    }
+    
+    /**
+     * @see java.util.zip.ZipOutputStream#finish()
+     */
+    @Override
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        closeEntry();
+        drain(true);
+        
+        long centralDirectoryOffset = written;
+        for (EntryRecord entryRecord : entryRecords) {
+            writeCentralDirectoryHeader(entryRecord);
+        }
+        writeEndOfCentralDirectory(centralDirectoryOffset, written - centralDirectoryOffset);
+        finished = true;
+    }
+    
+    /**
+     * Method to write out the chunks that are already done, and flush the underlying OutputStream
+     * @see java.util.zip.DeflaterOutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        drain(false);
+        out.flush();
+    }
+    
+    /**
+     * Method to set the comment of the zip file, which is written in the end of central directory record when the zip file is finished
+     * @see java.util.zip.ZipOutputStream#setComment(java.lang.String)
+     */
+    @Override
+    public void setComment(String comment) {
+        if (comment == null) {
+            commentBytes = new byte[0];
+            return;
+        }
+        try {
+            byte[] bytes = comment.getBytes(UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("ZIP file comment too long.");
+            }
+            commentBytes = bytes;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Method to set the compression method of the entries put after the call whose ZipEntry has no method of its own
+     * @see java.util.zip.ZipOutputStream#setMethod(int)
+     */
+    @Override
+    public void setMethod(int method) {
+        if (method != ZipEntry.DEFLATED && method != ZipEntry.STORED) {
+            throw new IllegalArgumentException("invalid compression method");
+        }
+        defaultMethod = method;
+    }
+    
+    /**
+     * Method to set the compression level of the deflated entries put after the call.  The entry being written keeps the level it was put with
+     * @see java.util.zip.ZipOutputStream#setLevel(int)
+     */
+    @Override
+    public void setLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level");
+        }
+        this.level = level;
+    }
+    
+    /**
+     * Method to write the content of a STORED entry.  It goes straight to the underlying OutputStream, unless chunks of earlier entries are still waiting
+     * to be written, in which case a copy of it has to wait behind them
+     * @param bytes a byte array holding the content
+     * @param offset offset of the content in the byte array
+     * @param length number of bytes of the content
+     * @throws IOException thrown if writing to the underlying OutputStream failed, or the entry would exceed its declared size
+     */
+    protected void writeStored(byte[] bytes, int offset, int length) throws IOException {
+        if (currentEntry.size + length > storedEntrySize) {
+            throw new ZipException("invalid entry size (expected " + storedEntrySize + " but got more bytes)");
+        }
+        currentEntry.size += length;
+        
+        if (pendingChunks.isEmpty()) {
+            out.write(bytes, offset, length);
+            currentEntry.compressedSize += length;
+            written += length;
+        } else {
+            byte[] copy = Arrays.copyOfRange(bytes, offset, offset + length);
+            pendingBytes += length;
+            queueChunk(new PendingChunk(PendingChunk.TYPE_DATA, currentEntry, completedFuture(copy), length));
+        }
+    }
+    
+    /**
+     * Method to hand the current block over to the ExecutorService, or deflate it right away if there is no ExecutorService
+     * @param lastBlock <code>true</code> if it is the last block of the current entry, <code>false</code> otherwise
+     * @throws IOException thrown if writing out earlier chunks failed
+     */
+    protected void submitBlock(boolean lastBlock) throws IOException {
+        byte[] block = (currentBlock != null) ? currentBlock : new byte[0];
+        int length = currentBlockLength;
+        
+        FutureTask<byte[]> futureTask = new FutureTask<byte[]>(new DeflateBlockCallable(block, length, previousBlock, entryLevel, lastBlock));
+        if (executorService != null) {
+            executorService.execute(futureTask);
+        } else {
+            futureTask.run();
+        }
+        
+        // the whole block stays allocated until its chunk is written, so it is counted at its capacity and not at the length of its data
+        previousBlock = block;
+        currentBlock = null;
+        currentBlockLength = 0;
+        pendingBytes += block.length;
+        queueChunk(new PendingChunk(PendingChunk.TYPE_DATA, currentEntry, futureTask, block.length));
+    }
+    
+    /**
+     * Method to queue a chunk behind all earlier chunks, and write out whatever is done at the head of the queue
+     * @param pendingChunk a PendingChunk object
+     * @throws IOException thrown if writing out the chunks failed
+     */
+    protected void queueChunk(PendingChunk pendingChunk) throws IOException {
+        pendingChunks.add(pendingChunk);
+        drain(false);
+    }
+    
+    /**
+     * Method to write out the chunks at the head of the queue in order.  It waits for unfinished blocks if <code>waitAll</code> is <code>true</code>, or
+     * if the blocks held by the queue take up more memory than MAX_PENDING_BLOCKS full blocks, so that a slow pool does not let the queue grow without bound
+     * @param waitAll <code>true</code> to write out all chunks, <code>false</code> to only write out the chunks that are done
+     * @throws IOException thrown if writing to the underlying OutputStream failed, or a block failed to deflate
+     */
+    protected void drain(boolean waitAll) throws IOException {
+        try {
+            while (!pendingChunks.isEmpty()) {
+                PendingChunk pendingChunk = pendingChunks.getFirst();
+                boolean mustWait = waitAll || pendingBytes > (long)blockSize * MAX_PENDING_BLOCKS;
+                if (pendingChunk.future != null && !pendingChunk.future.isDone() && !mustWait) {
+                    break;
+                }
+                pendingChunks.removeFirst();
+                writeChunk(pendingChunk);
+            }
+        } catch (IOException e) {
+            cancelPendingChunks();
+            throw e;
+        }
+    }
+    
+    /**
+     * Method to write out a single chunk
+     * @param pendingChunk a PendingChunk object
+     * @throws IOException thrown if writing to the underlying OutputStream failed, or the block failed to deflate
+     */
+    protected void writeChunk(PendingChunk pendingChunk) throws IOException {
+        EntryRecord entryRecord = pendingChunk.entryRecord;
+        byte[] bytes = null;
+        switch (pendingChunk.type) {
+        case PendingChunk.TYPE_LOCAL_HEADER:
+            entryRecord.offset = written;
+            bytes = getChunkBytes(pendingChunk);
+            break;
+        case PendingChunk.TYPE_DATA:
+            bytes = getChunkBytes(pendingChunk);
+            entryRecord.compressedSize += bytes.length;
+            pendingBytes -= pendingChunk.heldBytes;
+            break;
+        case PendingChunk.TYPE_DATA_DESCRIPTOR:
+            bytes = generateDataDescriptor(entryRecord);
+            break;
+        }
+        out.write(bytes);
+        written += bytes.length;
+    }
+    
+    /**
+     * Method to wait for the bytes of a chunk
+     * @param pendingChunk a PendingChunk object
+     * @return the bytes of the chunk
+     * @throws IOException thrown if the block failed to deflate, or the wait was interrupted
+     */
+    protected byte[] getChunkBytes(PendingChunk pendingChunk) throws IOException {
+        try {
+            return pendingChunk.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block to be deflated");
+        } catch (ExecutionException e) {
+            log.error("Failed to deflate a block", e.getCause());
+            throw new IOException("Failed to deflate a block", e.getCause());
+        }
+    }
+    
+    /**
+     * Method to cancel all chunks that are yet to be written, after the output failed
+     */
+    protected void cancelPendingChunks() {
+        for (PendingChunk pendingChunk : pendingChunks) {
+            if (pendingChunk.future != null) {
+                pendingChunk.future.cancel(false);
+            }
+        }
+        pendingChunks.clear();
+        pendingBytes = 0;
+        if (log.isDebugEnabled()) log.debug("Cancelled pending chunks");
+    }
+    
+    /**
+     * Method to generate the data descriptor of an entry.  The sizes are written in 8 bytes if the local header of the entry carries a ZIP64 extra field,
+     * as readers expect
+     * @param entryRecord an EntryRecord object
+     * @return the bytes of the data descriptor
+     * @throws ZipException thrown if the sizes do not fit in 4 bytes but the local header has no ZIP64 extra field
+     */
+    protected byte[] generateDataDescriptor(EntryRecord entryRecord) throws ZipException {
+        if (!entryRecord.zip64Header && (entryRecord.size >= ZIP64_MAGIC_VALUE || entryRecord.compressedSize >= ZIP64_MAGIC_VALUE)) {
+            throw new ZipException("entry too large without a declared size of 4GB or more: " + entryRecord.size + " bytes");
+        }
+        ByteArrayOutputStream descriptor = new ByteArrayOutputStream(24);
+        writeInt(descriptor, DATA_DESCRIPTOR_SIGNATURE);
+        writeInt(descriptor, entryRecord.crc);
+        if (entryRecord.zip64Header) {
+            writeLong(descriptor, entryRecord.compressedSize);
+            writeLong(descriptor, entryRecord.size);
+        } else {
+            writeInt(descriptor, entryRecord.compressedSize);
+            writeInt(descriptor, entryRecord.size);
+        }
+        return descriptor.toByteArray();
+    }
+    
+    /**
+     * Method to write the central directory header of an entry
+     * @param entryRecord an EntryRecord object
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeCentralDirectoryHeader(EntryRecord entryRecord) throws IOException {
+        boolean zip64 = entryRecord.isZip64();
+        ByteArrayOutputStream extra = new ByteArrayOutputStream(28);
+        if (zip64) {
+            ByteArrayOutputStream fields = new ByteArrayOutputStream(24);
+            if (entryRecord.size >= ZIP64_MAGIC_VALUE) {
+                writeLong(fields, entryRecord.size);
+            }
+            if (entryRecord.compressedSize >= ZIP64_MAGIC_VALUE) {
+                writeLong(fields, entryRecord.compressedSize);
+            }
+            if (entryRecord.offset >= ZIP64_MAGIC_VALUE) {
+                writeLong(fields, entryRecord.offset);
+            }
+            writeShort(extra, ZIP64_EXTRA_ID);
+            writeShort(extra, fields.size());
+            fields.writeTo(extra);
+        }
+        
+        int version = entryRecord.getVersion();
+        ByteArrayOutputStream header = new ByteArrayOutputStream(46 + entryRecord.nameBytes.length + extra.size());
+        writeInt(header, CENTRAL_HEADER_SIGNATURE);
+        writeShort(header, version);
+        writeShort(header, version);
+        writeShort(header, entryRecord.getFlags());
+        writeShort(header, entryRecord.method);
+        writeInt(header, entryRecord.dosTime);
+        writeInt(header, entryRecord.crc);
+        writeInt(header, Math.min(entryRecord.compressedSize, ZIP64_MAGIC_VALUE));
+        writeInt(header, Math.min(entryRecord.size, ZIP64_MAGIC_VALUE));
+        writeShort(header, entryRecord.nameBytes.length);
+        writeShort(header, extra.size());
+        writeShort(header, 0); // comment length
+        writeShort(header, 0); // disk number start
+        writeShort(header, 0); // internal file attributes
+        writeInt(header, 0); // external file attributes
+        writeInt(header, Math.min(entryRecord.offset, ZIP64_MAGIC_VALUE));
+        header.write(entryRecord.nameBytes);
+        extra.writeTo(header);
+        
+        header.writeTo(out);
+        written += header.size();
+    }
+    
+    /**
+     * Method to write the end of central directory record, preceded by the ZIP64 end of central directory record and locator if needed
+     * @param centralDirectoryOffset offset of the central directory
+     * @param centralDirectorySize size of the central directory
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writeEndOfCentralDirectory(long centralDirectoryOffset, long centralDirectorySize) throws IOException {
+        int entryCount = entryRecords.size();
+        ByteArrayOutputStream end = new ByteArrayOutputStream(98);
+        
+        if (entryCount >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC_VALUE || centralDirectorySize >= ZIP64_MAGIC_VALUE) {
+            long zip64EndOffset = written;
+            writeInt(end, ZIP64_END_SIGNATURE);
+            writeLong(end, 44); // size of the rest of the record
+            writeShort(end, VERSION_ZIP64);
+            writeShort(end, VERSION_ZIP64);
+            writeInt(end, 0); // number of this disk
+            writeInt(end, 0); // disk where the central directory starts
+            writeLong(end, entryCount);
+            writeLong(end, entryCount);
+            writeLong(end, centralDirectorySize);
+            writeLong(end, centralDirectoryOffset);
+            
+            writeInt(end, ZIP64_LOCATOR_SIGNATURE);
+            writeInt(end, 0); // disk where the ZIP64 end of central directory record is
+            writeLong(end, zip64EndOffset);
+            writeInt(end, 1); // total number of disks
+        }
+        
+        writeInt(end, END_SIGNATURE);
+        writeShort(end, 0);
+        writeShort(end, 0);
+        writeShort(end, Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        writeShort(end, Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        writeInt(end, Math.min(centralDirectorySize, ZIP64_MAGIC_VALUE));
+        writeInt(end, Math.min(centralDirectoryOffset, ZIP64_MAGIC_VALUE));
+        writeShort(end, commentBytes.length);
+        end.write(commentBytes);
+        
+        end.writeTo(out);
+        written += end.size();
+    }
+    
+    /**
+     * Method to make sure no more entries are added after the zip file is finished
+     * @throws IOException thrown if the zip file is already finished
+     */
+    protected void ensureNotFinished() throws IOException {
+        if (finished) {
+            throw new ZipException("ZIP file already finished");
+        }
+    }
+    
+    /**
+     * Method to encode the name of an entry in UTF-8
+     * @param name name of the entry
+     * @return the UTF-8 encoded name
+     * @throws ZipException thrown if the encoded name is too long
+     */
+    protected static byte[] encodeName(String name) throws ZipException {
+        try {
+            byte[] nameBytes = name.getBytes(UTF_8);
+            if (nameBytes.length > 0xFFFF) {
+                throw new ZipException("Entry name too long: " + name);
+            }
+            return nameBytes;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * Method to convert a time in milliseconds to the MS-DOS date and time format used by zip files
+     * @param time time in milliseconds
+     * @return the time in MS-DOS format
+     */
+    protected long toDosTime(long time) {
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long)(year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+    
+    /**
+     * Method to wrap bytes that are already known into a Future object
+     * @param bytes a byte array
+     * @return a Future object that is already done
+     */
+    protected static Future<byte[]> completedFuture(final byte[] bytes) {
+        FutureTask<byte[]> futureTask = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return bytes;
+            }
+        });
+        futureTask.run();
+        return futureTask;
+    }
+    
+    protected static void writeShort(ByteArrayOutputStream outputStream, int value) {
+        outputStream.write(value & 0xFF);
+        outputStream.write((value >>> 8) & 0xFF);
+    }
+    
+    protected static void writeInt(ByteArrayOutputStream outputStream, long value) {
+        outputStream.write((int)(value & 0xFF));
+        outputStream.write((int)((value >>> 8) & 0xFF));
+        outputStream.write((int)((value >>> 16) & 0xFF));
+        outputStream.write((int)((value >>> 24) & 0xFF));
+    }
+    
+    protected static void writeLong(ByteArrayOutputStream outputStream, long value) {
+        writeInt(outputStream, value & ZIP64_MAGIC_VALUE);
+        writeInt(outputStream, value >>> 32);
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TarEntryWriter.java
+# Description:  This class writes the entries of a tar archive, spooling entries whose size is not known up front
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.read.MappedContentReader;
+
+/**
+ * This implementation of the ArchiveEntryWriter interface writes the entries of a tar archive to a TarOutputStream.  A tar entry needs its size in its
+ * header, so an entry passed to writeEntry is written out at once, while an entry opened with openEntry is spooled until it is closed.  The spool is
+ * kept in memory up to a threshold, which holds a typical volume, and moves to a temporary file in the spool directory once it grows beyond that, e.g. for
+ * the word sequence of a large workset.  The temporary file is deleted when the entry is closed.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TarEntryWriter implements ArchiveEntryWriter {
+    
+    private static Logger log = Logger.getLogger(TarEntryWriter.class);
+    
+    public static final int DEFAULT_SPOOL_MEMORY_THRESHOLD = 8388608;
+    protected static final int DEFAULT_SPOOL_BUFFER_SIZE = 1048576;
+    protected static final int COPY_BUFFER_SIZE = 65536;
+    protected static final String SPOOL_FILE_PREFIX = "tarspool";
+    protected static final String SPOOL_FILE_SUFFIX = ".tmp";
+    
+    protected final TarOutputStream tarOutputStream;
+    protected final File spoolDirectory;
+    protected final int spoolMemoryThreshold;
+    protected final ByteArrayOutputStream memorySpool;
+    
+    protected String openEntryName;
+    protected File spoolFile;
+    protected OutputStream spoolFileOutputStream;
+    
+    /**
+     * Constructor
+     * @param tarOutputStream a TarOutputStream object to which the archive is written
+     * @param spoolDirectory a File object of the directory in which large entries are spooled, or <code>null</code> for the default temporary directory
+     * @param spoolMemoryThreshold maximum number of bytes of an open entry spooled in memory before it moves to a temporary file
+     */
+    public TarEntryWriter(TarOutputStream tarOutputStream, File spoolDirectory, int spoolMemoryThreshold) {
+        this.tarOutputStream = tarOutputStream;
+        this.spoolDirectory = spoolDirectory;
+        this.spoolMemoryThreshold = spoolMemoryThreshold;
+        this.memorySpool = new ByteArrayOutputStream(Math.min(DEFAULT_SPOOL_BUFFER_SIZE, spoolMemoryThreshold));
+        this.openEntryName = null;
+        this.spoolFile = null;
+        this.spoolFileOutputStream = null;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#writeEntry(java.lang.String, edu.indiana.d2i.htrc.access.VolumeReader.ContentReader)
+     */
+    @Override
+    public void writeEntry(String entryName, ContentReader contentReader) throws IOException {
+        closeEntry();
+        if (contentReader instanceof MappedContentReader) {
+            MappedContentReader mappedContentReader = (MappedContentReader)contentReader;
+            tarOutputStream.putNextEntry(entryName, mappedContentReader.getContentLength());
+            mappedContentReader.writeTo(tarOutputStream);
+        } else {
+            byte[] content = contentReader.getContent();
+            tarOutputStream.putNextEntry(entryName, content.length);
+            tarOutputStream.write(content);
+        }
+        tarOutputStream.closeEntry();
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#openEntry(java.lang.String)
+     */
+    @Override
+    public void openEntry(String entryName) throws IOException {
+        closeEntry();
+        openEntryName = entryName;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#appendContent(edu.indiana.d2i.htrc.access.VolumeReader.ContentReader)
+     */
+    @Override
+    public void appendContent(ContentReader contentReader) throws IOException {
+        if (openEntryName == null) {
+            throw new IOException("No current tar entry");
+        }
+        try {
+            if (spoolFileOutputStream != null) {
+                ZipMakerFactory.Helper.writeContent(spoolFileOutputStream, contentReader);
+            } else {
+                ZipMakerFactory.Helper.writeContent(memorySpool, contentReader);
+                if (memorySpool.size() > spoolMemoryThreshold) {
+                    spoolToFile();
+                }
+            }
+        } catch (IOException e) {
+            discardSpool();
+            throw e;
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        if (openEntryName == null) {
+            return;
+        }
+        String entryName = openEntryName;
+        openEntryName = null;
+        try {
+            if (spoolFileOutputStream != null) {
+                spoolFileOutputStream.close();
+                spoolFileOutputStream = null;
+                tarOutputStream.putNextEntry(entryName, spoolFile.length());
+                InputStream spoolInputStream = new FileInputStream(spoolFile);
+                try {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int length = 0;
+                    while ((length = spoolInputStream.read(buffer)) != -1) {
+                        tarOutputStream.write(buffer, 0, length);
+                    }
+                } finally {
+                    spoolInputStream.close();
+                }
+            } else {
+                tarOutputStream.putNextEntry(entryName, memorySpool.size());
+                memorySpool.writeTo(tarOutputStream);
+            }
+            tarOutputStream.closeEntry();
+        } finally {
+            discardSpool();
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#writeErrorEntry(java.util.List)
+     */
+    @Override
+    public void writeErrorEntry(List<Exception> exceptionList) throws IOException {
+        closeEntry();
+        ByteArrayOutputStream errorContent = new ByteArrayOutputStream();
+        errorContent.write(ZipMakerFactory.Helper.ERROR_ENTRY_HEADING.replace("ZIP file", "archive").getBytes());
+        PrintStream printStream = new PrintStream(errorContent);
+        for (Exception e : exceptionList) {
+            e.printStackTrace(printStream);
+            printStream.println();
+        }
+        printStream.flush();
+        
+        tarOutputStream.putNextEntry("ERROR.err", errorContent.size());
+        errorContent.writeTo(tarOutputStream);
+        tarOutputStream.closeEntry();
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#close()
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeEntry();
+        } finally {
+            discardSpool();
+        }
+        tarOutputStream.close();
+    }
+    
+    /**
+     * Method to move the spooled content of the open entry from memory to a temporary file in the spool directory
+     * @throws IOException thrown if the temporary file could not be created or written
+     */
+    protected void spoolToFile() throws IOException {
+        spoolFile = File.createTempFile(SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX, spoolDirectory);
+        if (log.isDebugEnabled()) log.debug("Spooling tar entry " + openEntryName + " to " + spoolFile.getAbsolutePath());
+        spoolFileOutputStream = new BufferedOutputStream(new FileOutputStream(spoolFile), COPY_BUFFER_SIZE);
+        memorySpool.writeTo(spoolFileOutputStream);
+        memorySpool.reset();
+    }
+    
+    /**
+     * Method to empty the spool, and delete its temporary file if there is one
+     */
+    protected void discardSpool() {
+        memorySpool.reset();
+        if (spoolFileOutputStream != null) {
+            try {
+                spoolFileOutputStream.close();
+            } catch (IOException e) {
+                log.warn("Failed to close spool file " + spoolFile.getAbsolutePath(), e);
+            }
+            spoolFileOutputStream = null;
+        }
+        if (spoolFile != null) {
+            if (!spoolFile.delete()) {
+                log.warn("Failed to delete spool file " + spoolFile.getAbsolutePath());
+            }
+            spoolFile = null;
+        }
+    }
+
+}
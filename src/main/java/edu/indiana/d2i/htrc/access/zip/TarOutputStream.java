@@ -0,0 +1,288 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TarOutputStream.java
+# Description:  This class is an OutputStream that writes a ustar archive entry by entry, so the archive can be extracted while it is still being written
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * This class is an OutputStream that writes a POSIX ustar archive entry by entry.  Unlike a zip file, a tar archive has no central directory at the end, so
+ * a client can extract each entry as soon as it arrives, e.g. with tar -x over a pipe.  The size of an entry goes into its header, so it must be known
+ * before the entry is started.
+ * 
+ * Names that do not fit in the ustar name and prefix fields, and entries of 8GB or more, are described by a PAX extended header in front of the entry.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TarOutputStream extends FilterOutputStream {
+    
+    public static final int BLOCK_SIZE = 512;
+    protected static final int NAME_LENGTH = 100;
+    protected static final int PREFIX_LENGTH = 155;
+    protected static final long MAX_OCTAL_SIZE = 077777777777L;
+    protected static final byte TYPE_REGULAR_FILE = '0';
+    protected static final byte TYPE_PAX_HEADER = 'x';
+    protected static final String PAX_HEADER_NAME = "././@PaxHeader";
+    protected static final String FILE_MODE = "0000644";
+    protected static final String UTF_8 = "utf-8";
+    
+    protected long entryRemaining;
+    protected boolean entryOpen;
+    protected long entryPadding;
+    protected boolean finished;
+    
+    /**
+     * Constructor
+     * @param outputStream an OutputStream object to which the archive is written
+     */
+    public TarOutputStream(OutputStream outputStream) {
+        super(outputStream);
+        this.entryRemaining = 0;
+        this.entryOpen = false;
+        this.entryPadding = 0;
+        this.finished = false;
+    }
+    
+    /**
+     * Method to start a new entry.  The current entry, if any, must have been closed
+     * @param name name of the entry
+     * @param size size of the entry in bytes
+     * @throws IOException thrown if an entry is still open, or writing the header failed
+     */
+    public void putNextEntry(String name, long size) throws IOException {
+        if (finished) {
+            throw new IOException("Tar archive already finished");
+        }
+        if (entryOpen) {
+            throw new IOException("Previous tar entry not closed");
+        }
+        
+        long modificationTime = System.currentTimeMillis() / 1000;
+        byte[] nameBytes = encode(name);
+        int splitIndex = findPrefixSplit(nameBytes);
+        
+        StringBuilder paxRecords = new StringBuilder();
+        if (splitIndex < 0) {
+            paxRecords.append(paxRecord("path", name));
+        }
+        if (size > MAX_OCTAL_SIZE) {
+            paxRecords.append(paxRecord("size", Long.toString(size)));
+        }
+        if (paxRecords.length() > 0) {
+            byte[] paxBytes = encode(paxRecords.toString());
+            out.write(generateHeader(encode(PAX_HEADER_NAME), -1, paxBytes.length, modificationTime, TYPE_PAX_HEADER));
+            out.write(paxBytes);
+            writePadding(paxBytes.length);
+        }
+        
+        out.write(generateHeader(nameBytes, splitIndex, (size > MAX_OCTAL_SIZE) ? 0 : size, modificationTime, TYPE_REGULAR_FILE));
+        entryRemaining = size;
+        entryPadding = size;
+        entryOpen = true;
+    }
+    
+    /**
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+    
+    /**
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (!entryOpen) {
+            throw new IOException("No current tar entry");
+        }
+        if (length > entryRemaining) {
+            throw new IOException("Tar entry exceeds its declared size by " + (length - entryRemaining) + " bytes");
+        }
+        out.write(bytes, offset, length);
+        entryRemaining -= length;
+    }
+    
+    /**
+     * Method to close the current entry, padding it to a whole number of blocks
+     * @throws IOException thrown if fewer bytes than the declared size were written, or writing the padding failed
+     */
+    public void closeEntry() throws IOException {
+        if (entryOpen) {
+            if (entryRemaining != 0) {
+                throw new IOException("Tar entry is " + entryRemaining + " bytes short of its declared size");
+            }
+            writePadding(entryPadding);
+            entryOpen = false;
+        }
+    }
+    
+    /**
+     * Method to end the archive with two zero blocks, without closing the underlying OutputStream
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            closeEntry();
+            out.write(new byte[BLOCK_SIZE * 2]);
+            finished = true;
+        }
+    }
+    
+    /**
+     * @see java.io.FilterOutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        finish();
+        super.close();
+    }
+    
+    /**
+     * Method to write zeros after an entry so the next header starts on a block boundary
+     * @param length length of the entry
+     * @throws IOException thrown if writing to the underlying OutputStream failed
+     */
+    protected void writePadding(long length) throws IOException {
+        int remainder = (int)(length % BLOCK_SIZE);
+        if (remainder > 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+    
+    /**
+     * Method to generate a ustar header block
+     * @param nameBytes the encoded name of the entry
+     * @param splitIndex index of the '/' that separates the prefix from the name, -1 if the name is not split, or truncated to fit
+     * @param size size of the entry
+     * @param modificationTime modification time of the entry in seconds
+     * @param type type of the entry
+     * @return the header block
+     */
+    protected static byte[] generateHeader(byte[] nameBytes, int splitIndex, long size, long modificationTime, byte type) {
+        byte[] header = new byte[BLOCK_SIZE];
+        if (splitIndex > 0) {
+            System.arraycopy(nameBytes, splitIndex + 1, header, 0, nameBytes.length - splitIndex - 1);
+            System.arraycopy(nameBytes, 0, header, 345, splitIndex);
+        } else {
+            System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, NAME_LENGTH));
+        }
+        formatOctal(header, 100, 8, Long.parseLong(FILE_MODE, 8));
+        formatOctal(header, 108, 8, 0); // uid
+        formatOctal(header, 116, 8, 0); // gid
+        formatOctal(header, 124, 12, size);
+        formatOctal(header, 136, 12, modificationTime);
+        header[156] = type;
+        System.arraycopy(new byte[] {'u', 's', 't', 'a', 'r', 0, '0', '0'}, 0, header, 257, 8);
+        
+        // the checksum is computed with the checksum field filled with spaces
+        Arrays.fill(header, 148, 156, (byte)' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        formatOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+        return header;
+    }
+    
+    /**
+     * Method to find where a name too long for the ustar name field can be split into the prefix and name fields
+     * @param nameBytes the encoded name
+     * @return 0 if the name fits in the name field, the index of the '/' to split at, or -1 if the name cannot be split
+     */
+    protected static int findPrefixSplit(byte[] nameBytes) {
+        if (nameBytes.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int i = nameBytes.length - NAME_LENGTH - 1; i < nameBytes.length - 1 && i <= PREFIX_LENGTH; i++) {
+            if (i > 0 && nameBytes[i] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Method to generate a PAX extended header record, whose length field counts the record itself
+     * @param keyword keyword of the record
+     * @param value value of the record
+     * @return the record
+     */
+    protected static String paxRecord(String keyword, String value) {
+        int payloadLength = encode(" " + keyword + "=" + value + "\n").length;
+        int length = payloadLength + Integer.toString(payloadLength).length();
+        if (Integer.toString(length).length() + payloadLength != length) {
+            length = payloadLength + Integer.toString(length).length();
+        }
+        return length + " " + keyword + "=" + value + "\n";
+    }
+    
+    /**
+     * Method to write a number as a zero-padded octal string followed by a NUL
+     * @param header the header block
+     * @param offset offset of the field in the header block
+     * @param length length of the field, including the NUL
+     * @param value the number
+     */
+    protected static void formatOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        int padding = length - 1 - octal.length();
+        for (int i = 0; i < padding; i++) {
+            header[offset + i] = '0';
+        }
+        for (int i = 0; i < octal.length(); i++) {
+            header[offset + padding + i] = (byte)octal.charAt(i);
+        }
+        header[offset + length - 1] = 0;
+    }
+    
+    /**
+     * Method to encode a String in UTF-8
+     * @param string a String
+     * @return the UTF-8 encoded bytes
+     */
+    protected static byte[] encode(String string) {
+        try {
+            return string.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -37,9 +37,6 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.log4j.Logger;
 
@@ -50,12 +47,16 @@ import edu.indiana.d2i.htrc.access.ZipMaker;
 import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
  * This implementation of the ZipMaker interface concatenates all pages from all volumes into a single ZipEntry text file named "wordseq.txt".  No metadata entries will be created in the zip.  
  * However, it may also create a special entry ERROR.err to record any errors occurred during the asynchronous fetch process.
  * 
+ * The entries are written by an ArchiveEntryWriter, so the same layout is written as a zip file or as a tar archive.  A tar entry needs its size up front, so
+ * in a tar archive the word sequence is spooled, to a temporary file in the tar spool directory once it outgrows memory, until all volumes are retrieved.
+ * 
  * @author Yiming Sun
  *
  */
@@ -65,10 +66,14 @@ public class WordSequenceZipMaker implements ZipMaker {
     protected static final String ACCESSED_ACTION = "ACCESSED";
     protected static final int DEFAULT_PAGE_SEQUENCE_ARRAY_SIZE = 400;
     protected final Auditor auditor;
+    protected final int compressionLevel;
+    protected final ArchiveFormatEnum archiveFormat;
     protected List<Exception> exceptionList = new LinkedList<Exception>();
     
-    WordSequenceZipMaker(Auditor auditor) {
+    WordSequenceZipMaker(Auditor auditor, int compressionLevel, ArchiveFormatEnum archiveFormat) {
         this.auditor = auditor;
+        this.compressionLevel = compressionLevel;
+        this.archiveFormat = archiveFormat;
     }
 
     /**
@@ -77,17 +82,11 @@ public class WordSequenceZipMaker implements ZipMaker {
     @Override
     public void makeZipFile(OutputStream outputStream, VolumeRetriever volumeRetriever) throws IOException {
         
-        boolean entryOpen = false;
-        
         String currentVolumeID = null;
         List<String> currentPageSequences = null;
         
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
-        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
-        
-        ZipEntry zipEntry = new ZipEntry("wordseq.txt");
-        zipOutputStream.putNextEntry(zipEntry);
-        entryOpen = true;
+        ArchiveEntryWriter entryWriter = ZipMakerFactory.Helper.newArchiveEntryWriter(outputStream, compressionLevel, archiveFormat, false);
+        entryWriter.openEntry("wordseq.txt");
 
         while (volumeRetriever.hasMoreVolumes()) {
             try {
@@ -103,8 +102,7 @@ public class WordSequenceZipMaker implements ZipMaker {
                     }
                     while(volumeReader.hasMorePages()) {
                         ContentReader pageReader = volumeReader.nextPage();
-                        byte[] pageContent = pageReader.getContent();
-                        zipOutputStream.write(pageContent);
+                        entryWriter.appendContent(pageReader);
                         currentPageSequences.add(pageReader.getContentName());
                     }
                 }
@@ -124,15 +122,12 @@ public class WordSequenceZipMaker implements ZipMaker {
         if (currentVolumeID != null) {
             auditor.audit(ACCESSED_ACTION, currentVolumeID, currentPageSequences.toArray(new String[0]));
         }
-        if (entryOpen) {
-            zipOutputStream.closeEntry();
-            entryOpen = false;
-        }
+        entryWriter.closeEntry();
         
         if (!exceptionList.isEmpty()) {
-            ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+            entryWriter.writeErrorEntry(exceptionList);
         }
-        zipOutputStream.close();
+        entryWriter.close();
     }
 
 }
@@ -0,0 +1,133 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ZipEntryWriter.java
+# Description:  This class writes the entries of a zip file
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+
+/**
+ * This implementation of the ArchiveEntryWriter interface writes the entries of a zip file to a ZipOutputStream.  Entries are streamed straight into the
+ * ZipOutputStream as their content arrives.  Complete entries may be written as STORED entries with precomputed CRCs instead of going through a Deflater,
+ * which needs a StreamingZipOutputStream.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ZipEntryWriter implements ArchiveEntryWriter {
+    
+    protected final ZipOutputStream zipOutputStream;
+    protected final boolean storeEntries;
+    protected boolean entryOpen;
+    
+    /**
+     * Constructor
+     * @param zipOutputStream a ZipOutputStream object to which the zip file is written
+     * @param storeEntries <code>true</code> to write the entries passed to writeEntry as STORED entries with precomputed CRCs, <code>false</code> to
+     * write them the same way as the entries opened with openEntry
+     */
+    public ZipEntryWriter(ZipOutputStream zipOutputStream, boolean storeEntries) {
+        this.zipOutputStream = zipOutputStream;
+        this.storeEntries = storeEntries;
+        this.entryOpen = false;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#writeEntry(java.lang.String, edu.indiana.d2i.htrc.access.VolumeReader.ContentReader)
+     */
+    @Override
+    public void writeEntry(String entryName, ContentReader contentReader) throws IOException {
+        if (storeEntries) {
+            closeEntry();
+            ZipMakerFactory.Helper.writeStoredEntry(zipOutputStream, entryName, contentReader);
+        } else {
+            openEntry(entryName);
+            appendContent(contentReader);
+            closeEntry();
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#openEntry(java.lang.String)
+     */
+    @Override
+    public void openEntry(String entryName) throws IOException {
+        closeEntry();
+        zipOutputStream.putNextEntry(new ZipEntry(entryName));
+        entryOpen = true;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#appendContent(edu.indiana.d2i.htrc.access.VolumeReader.ContentReader)
+     */
+    @Override
+    public void appendContent(ContentReader contentReader) throws IOException {
+        if (!entryOpen) {
+            throw new ZipException("no current ZIP entry");
+        }
+        ZipMakerFactory.Helper.writeContent(zipOutputStream, contentReader);
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#closeEntry()
+     */
+    @Override
+    public void closeEntry() throws IOException {
+        if (entryOpen) {
+            zipOutputStream.closeEntry();
+            entryOpen = false;
+        }
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#writeErrorEntry(java.util.List)
+     */
+    @Override
+    public void writeErrorEntry(List<Exception> exceptionList) throws IOException {
+        ZipMakerFactory.Helper.injectErrorEntry(zipOutputStream, entryOpen, exceptionList);
+        entryOpen = false;
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.zip.ArchiveEntryWriter#close()
+     */
+    @Override
+    public void close() throws IOException {
+        closeEntry();
+        zipOutputStream.close();
+    }
+
+}
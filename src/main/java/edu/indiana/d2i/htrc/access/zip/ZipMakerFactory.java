@@ -31,16 +31,28 @@
  */
 package edu.indiana.d2i.htrc.access.zip;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.log4j.Logger;
+
+import edu.indiana.d2i.htrc.access.Constants;
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
 import edu.indiana.d2i.htrc.access.ZipMaker;
 import edu.indiana.d2i.htrc.access.read.HectorResource;
+import edu.indiana.d2i.htrc.access.read.MappedContentReader;
 import edu.indiana.d2i.htrc.audit.Auditor;
 
 /**
@@ -51,6 +63,17 @@ import edu.indiana.d2i.htrc.audit.Auditor;
  */
 public class ZipMakerFactory {
     
+    private static Logger log = Logger.getLogger(ZipMakerFactory.class);
+    
+    public static final String PN_ZIP_COMPRESSION_BLOCK_SIZE = "zip.compression.block.size";
+    public static final String PN_TAR_SPOOL_DIR = "tar.spool.dir";
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    protected static final int GZIP_BUFFER_SIZE = 65536;
+    
+    private static int compressionBlockSize = StreamingZipOutputStream.DEFAULT_BLOCK_SIZE;
+    private static ExecutorService compressionExecutorService = null;
+    private static File tarSpoolDirectory = null;
+    
     /**
      * This helper class provides some utility methods for ZipMaker implementations to use
      * @author Yiming Sun
@@ -58,6 +81,7 @@ public class ZipMakerFactory {
      */
     public static class Helper {
         static final String LINE_FEED = "\n";
+        protected static final String UTF_8 = "utf-8";
         
         protected static final String ERROR_ENTRY_HEADING = "Caught the following errors while generating the ZIP file.  This ZIP file is likely to be incomplete and missing some entries." + LINE_FEED;
         protected static final Map<String, String> metadataSuffixMap = new HashMap<String, String>();
@@ -95,6 +119,213 @@ public class ZipMakerFactory {
             outputStream.closeEntry();
         }
         
+        /**
+         * Utility method for writing each exception as an error line of newline-delimited JSON in the form of {"error":...}
+         * 
+         * @param ndjsonWriter an NdjsonWriter object to which the lines are written
+         * @param exceptionList a List of Exception objects to be written
+         * @throws IOException thrown if output to the NdjsonWriter object failed
+         */
+        public static void writeErrorRecords(NdjsonWriter ndjsonWriter, List<Exception> exceptionList) throws IOException {
+            for (Exception e : exceptionList) {
+                ndjsonWriter.beginRecord();
+                ndjsonWriter.writeField("error", e.toString());
+                ndjsonWriter.endRecord();
+            }
+        }
+        
+        /**
+         * Utility method for writing the content of a ContentReader as a line of newline-delimited JSON in the form of {"volumeID":..., name:..., "text":...}
+         * 
+         * @param ndjsonWriter an NdjsonWriter object to which the line is written
+         * @param volumeID volumeID of the volume the content belongs to
+         * @param nameField name of the field that identifies the content within the volume, e.g. "seq" for pages
+         * @param name value of the field that identifies the content within the volume
+         * @param contentReader a ContentReader object holding the content, which must be UTF-8 text
+         * @throws IOException thrown if output to the NdjsonWriter object failed
+         */
+        public static void writeContentRecord(NdjsonWriter ndjsonWriter, String volumeID, String nameField, String name, ContentReader contentReader) throws IOException {
+            ndjsonWriter.beginRecord();
+            ndjsonWriter.writeField("volumeID", volumeID);
+            ndjsonWriter.writeField(nameField, name);
+            ndjsonWriter.writeField("text", new String(contentReader.getContent(), UTF_8));
+            ndjsonWriter.endRecord();
+        }
+        
+        /**
+         * Utility method for creating the ArchiveEntryWriter of an archive in the requested format
+         * 
+         * @param outputStream an OutputStream object to which the archive is written
+         * @param compressionLevel the compression level of the zip entries or of the gzipped tar archive, or Deflater.NO_COMPRESSION for no compression
+         * @param format an ArchiveFormatEnum object indicating the archive format, either ZIP, TAR or TGZ
+         * @param storeEntries <code>true</code> to write complete zip entries as STORED entries with precomputed CRCs when there is no compression.  Ignored
+         * for tar archives
+         * @return an ArchiveEntryWriter object
+         * @throws IOException thrown if the gzip header could not be written
+         */
+        public static ArchiveEntryWriter newArchiveEntryWriter(OutputStream outputStream, int compressionLevel, ArchiveFormatEnum format, boolean storeEntries) throws IOException {
+            ArchiveEntryWriter archiveEntryWriter = null;
+            if (format == ArchiveFormatEnum.TAR || format == ArchiveFormatEnum.TGZ) {
+                TarOutputStream tarOutputStream = newTarOutputStream(outputStream, compressionLevel, format == ArchiveFormatEnum.TGZ);
+                archiveEntryWriter = new TarEntryWriter(tarOutputStream, tarSpoolDirectory, TarEntryWriter.DEFAULT_SPOOL_MEMORY_THRESHOLD);
+            } else if (storeEntries && compressionLevel == Deflater.NO_COMPRESSION) {
+                archiveEntryWriter = new ZipEntryWriter(newStreamingZipOutputStream(outputStream, compressionLevel), true);
+            } else {
+                archiveEntryWriter = new ZipEntryWriter(newZipOutputStream(outputStream, compressionLevel), false);
+            }
+            return archiveEntryWriter;
+        }
+        
+        /**
+         * Utility method for creating the TarOutputStream of a tar archive, gzipped if asked to
+         * 
+         * @param outputStream an OutputStream object to which the archive is written
+         * @param compressionLevel the gzip compression level, or Deflater.NO_COMPRESSION for the default gzip compression level
+         * @param gzip <code>true</code> if the archive should be gzipped, <code>false</code> otherwise
+         * @return a TarOutputStream object
+         * @throws IOException thrown if the gzip header could not be written
+         */
+        public static TarOutputStream newTarOutputStream(OutputStream outputStream, int compressionLevel, boolean gzip) throws IOException {
+            OutputStream archiveOutputStream = outputStream;
+            if (gzip) {
+                final int gzipLevel = (compressionLevel != Deflater.NO_COMPRESSION) ? compressionLevel : DEFAULT_COMPRESSION_LEVEL;
+                archiveOutputStream = new GZIPOutputStream(outputStream, GZIP_BUFFER_SIZE) {
+                    {
+                        def.setLevel(gzipLevel);
+                    }
+                };
+            }
+            return new TarOutputStream(archiveOutputStream);
+        }
+        
+        /**
+         * Utility method for parsing the archive format requested by the client
+         * 
+         * @param format the raw value of the format parameter, or <code>null</code> if it is not present
+         * @return the ArchiveFormatEnum for the format, ArchiveFormatEnum.ZIP if the parameter is not present, or <code>null</code> if the format is not supported
+         */
+        public static ArchiveFormatEnum parseArchiveFormat(String format) {
+            ArchiveFormatEnum archiveFormat = null;
+            if (format == null || format.trim().length() == 0) {
+                archiveFormat = ArchiveFormatEnum.ZIP;
+            } else {
+                for (ArchiveFormatEnum candidate : ArchiveFormatEnum.values()) {
+                    if (candidate.name().equalsIgnoreCase(format.trim())) {
+                        archiveFormat = candidate;
+                    }
+                }
+            }
+            return archiveFormat;
+        }
+        
+        /**
+         * Utility method for writing the content of a ContentReader to the zip.  The content of a MappedContentReader is streamed from the mapped file in
+         * small chunks, so that no heap copy of the whole content is made; other ContentReaders are written as a single byte array
+         * 
+         * @param outputStream an OutputStream object to which the content is written
+         * @param contentReader a ContentReader object holding the content
+         * @throws IOException thrown if output to the OutputStream object failed
+         */
+        public static void writeContent(OutputStream outputStream, ContentReader contentReader) throws IOException {
+            if (contentReader instanceof MappedContentReader) {
+                ((MappedContentReader)contentReader).writeTo(outputStream);
+            } else {
+                outputStream.write(contentReader.getContent());
+            }
+        }
+        
+        /**
+         * Utility method for writing the content of a ContentReader as a complete STORED entry, with its size and CRC-32 in the local header and no data
+         * descriptor.  The content of a ContentReader other than a MappedContentReader is fetched only once, and the same byte array is both checksummed and written
+         * 
+         * @param outputStream a ZipOutputStream object to which the entry is written
+         * @param entryName name of the entry
+         * @param contentReader a ContentReader object holding the content
+         * @throws IOException thrown if output to the ZipOutputStream object failed
+         */
+        public static void writeStoredEntry(ZipOutputStream outputStream, String entryName, ContentReader contentReader) throws IOException {
+            ZipEntry zipEntry = new ZipEntry(entryName);
+            zipEntry.setMethod(ZipEntry.STORED);
+            if (contentReader instanceof MappedContentReader) {
+                MappedContentReader mappedContentReader = (MappedContentReader)contentReader;
+                zipEntry.setSize(mappedContentReader.getContentLength());
+                zipEntry.setCompressedSize(mappedContentReader.getContentLength());
+                zipEntry.setCrc(mappedContentReader.computeCRC32());
+                outputStream.putNextEntry(zipEntry);
+                mappedContentReader.writeTo(outputStream);
+            } else {
+                byte[] content = contentReader.getContent();
+                CRC32 crc32 = new CRC32();
+                crc32.update(content);
+                zipEntry.setSize(content.length);
+                zipEntry.setCompressedSize(content.length);
+                zipEntry.setCrc(crc32.getValue());
+                outputStream.putNextEntry(zipEntry);
+                outputStream.write(content);
+            }
+            outputStream.closeEntry();
+        }
+        
+        /**
+         * Utility method for creating the ZipOutputStream of a zip file.  Without compression, the entries are written by a plain ZipOutputStream at
+         * Deflater.NO_COMPRESSION as before; with compression, they are deflated in blocks on the compression ExecutorService by a StreamingZipOutputStream
+         * 
+         * @param outputStream an OutputStream object to which the zip file is written
+         * @param compressionLevel the compression level, or Deflater.NO_COMPRESSION for no compression
+         * @return a ZipOutputStream object
+         */
+        public static ZipOutputStream newZipOutputStream(OutputStream outputStream, int compressionLevel) {
+            ZipOutputStream zipOutputStream = null;
+            if (compressionLevel == Deflater.NO_COMPRESSION) {
+                zipOutputStream = new ZipOutputStream(outputStream);
+                zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+            } else {
+                zipOutputStream = newStreamingZipOutputStream(outputStream, compressionLevel);
+            }
+            return zipOutputStream;
+        }
+        
+        /**
+         * Utility method for creating a StreamingZipOutputStream, for ZipMaker implementations that write STORED entries through writeStoredEntry.  Deflated
+         * entries are compressed on the compression ExecutorService, except at Deflater.NO_COMPRESSION, which is not worth handing over to another thread
+         * 
+         * @param outputStream an OutputStream object to which the zip file is written
+         * @param compressionLevel the compression level of deflated entries, or Deflater.NO_COMPRESSION for no compression
+         * @return a StreamingZipOutputStream object
+         */
+        public static StreamingZipOutputStream newStreamingZipOutputStream(OutputStream outputStream, int compressionLevel) {
+            ExecutorService executorService = (compressionLevel != Deflater.NO_COMPRESSION) ? compressionExecutorService : null;
+            return new StreamingZipOutputStream(outputStream, compressionLevel, compressionBlockSize, executorService);
+        }
+        
+        /**
+         * Utility method for parsing the compression level requested by the client.  "true" means the default compression level, "false" means no compression,
+         * and a number from 0 to 9 means that compression level.  A missing or malformed value means no compression
+         * 
+         * @param compress the raw value of the compress parameter, or <code>null</code> if it is not present
+         * @return the compression level, or Deflater.NO_COMPRESSION for no compression
+         */
+        public static int parseCompressionLevel(String compress) {
+            int compressionLevel = Deflater.NO_COMPRESSION;
+            if (compress != null && compress.trim().length() > 0) {
+                String value = compress.trim();
+                if ("true".equalsIgnoreCase(value)) {
+                    compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+                } else if (!"false".equalsIgnoreCase(value)) {
+                    try {
+                        compressionLevel = Integer.parseInt(value);
+                        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+                            log.warn("Compression level out of range, not compressing: " + value);
+                            compressionLevel = Deflater.NO_COMPRESSION;
+                        }
+                    } catch (NumberFormatException e) {
+                        log.warn("Malformed compression level, not compressing: " + value);
+                    }
+                }
+            }
+            return compressionLevel;
+        }
+        
         /**
          * Utility method for looking up metadata entry file extension based on the metadata name.
          * 
@@ -132,6 +363,62 @@ public class ZipMakerFactory {
         WORD_SEQUENCE;
     }
     
+    /**
+     * This enum is for the archive formats the ZipMaker implementations can write.  NDJSON is not an archive but newline-delimited JSON with one line per page
+     * @author Yiming Sun
+     *
+     */
+    public static enum ArchiveFormatEnum {
+        ZIP(Constants.CONTENT_TYPE_APPLICATION_ZIP, ".zip"),
+        TAR(Constants.CONTENT_TYPE_APPLICATION_TAR, ".tar"),
+        TGZ(Constants.CONTENT_TYPE_APPLICATION_GZIP, ".tar.gz"),
+        NDJSON(Constants.CONTENT_TYPE_APPLICATION_NDJSON, ".ndjson");
+        
+        private final String contentType;
+        private final String fileExtension;
+        
+        private ArchiveFormatEnum(String contentType, String fileExtension) {
+            this.contentType = contentType;
+            this.fileExtension = fileExtension;
+        }
+        
+        /**
+         * Method to return the content type of the archive format
+         * @return the content type of the archive format
+         */
+        public String getContentType() {
+            return contentType;
+        }
+        
+        /**
+         * Method to return the value of the Content-Disposition header for an archive of this format
+         * @param baseFilename the filename of the archive without the extension
+         * @return the value of the Content-Disposition header
+         */
+        public String getContentDisposition(String baseFilename) {
+            return "filename=\"" + baseFilename + fileExtension + "\"";
+        }
+    }
+    
+    /**
+     * Method to initialize the compression of zip files and the spooling of tar entries
+     * @param parameterContainer a ParameterContainer object holding the zip compression and tar spool parameters
+     * @param executorService an ExecutorService object on which blocks of zip entries are deflated, or <code>null</code> to deflate them on the request thread
+     */
+    public static void init(ParameterContainer parameterContainer, ExecutorService executorService) {
+        String compressionBlockSizeString = parameterContainer.getParameter(PN_ZIP_COMPRESSION_BLOCK_SIZE);
+        compressionBlockSize = (compressionBlockSizeString != null) ? Integer.parseInt(compressionBlockSizeString) : StreamingZipOutputStream.DEFAULT_BLOCK_SIZE;
+        compressionExecutorService = executorService;
+        if (log.isDebugEnabled()) log.debug("zip compression block size: " + compressionBlockSize);
+        
+        String tarSpoolDirString = parameterContainer.getParameter(PN_TAR_SPOOL_DIR);
+        tarSpoolDirectory = (tarSpoolDirString != null && tarSpoolDirString.trim().length() > 0) ? new File(tarSpoolDirString.trim()) : null;
+        if (tarSpoolDirectory != null && !tarSpoolDirectory.isDirectory()) {
+            log.warn("tar spool directory " + tarSpoolDirectory.getAbsolutePath() + " does not exist, large tar entries will fail to spool");
+        }
+        if (log.isDebugEnabled()) log.debug("tar spool directory: " + ((tarSpoolDirectory != null) ? tarSpoolDirectory.getAbsolutePath() : System.getProperty("java.io.tmpdir")));
+    }
+    
     /**
      * Method to get a new instance of a ZipMaker implementations based on the type
      * @param type a ZipTypeEnum object indicating the type of ZipMaker implementation to create
@@ -139,16 +426,44 @@ public class ZipMakerFactory {
      * @return a ZipMaker implementation
      */
     public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor) {
+        return newInstance(type, auditor, Deflater.NO_COMPRESSION);
+    }
+    
+    /**
+     * Method to get a new instance of a ZipMaker implementations based on the type
+     * @param type a ZipTypeEnum object indicating the type of ZipMaker implementation to create
+     * @param auditor an Auditor object
+     * @param compressionLevel the compression level of the zip entries, or Deflater.NO_COMPRESSION for no compression
+     * @return a ZipMaker implementation
+     */
+    public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor, int compressionLevel) {
+        return newInstance(type, auditor, compressionLevel, ArchiveFormatEnum.ZIP);
+    }
+    
+    /**
+     * Method to get a new instance of a ZipMaker implementations based on the type and the archive format
+     * @param type a ZipTypeEnum object indicating the type of ZipMaker implementation to create
+     * @param auditor an Auditor object
+     * @param compressionLevel the compression level of the zip entries or of the gzipped tar archive, or Deflater.NO_COMPRESSION for no compression.  Ignored
+     * for NDJSON
+     * @param format an ArchiveFormatEnum object indicating the archive format to write.  NDJSON always writes one line per page regardless of the type
+     * @return a ZipMaker implementation
+     */
+    public static ZipMaker newInstance(ZipTypeEnum type, Auditor auditor, int compressionLevel, ArchiveFormatEnum format) {
+        if (format == ArchiveFormatEnum.NDJSON) {
+            return new PageNdjsonMaker(auditor);
+        }
+        
         ZipMaker zipMaker = null;
         switch (type) {
         case COMBINE_PAGE:
-            zipMaker = new CombinePageVolumeZipMaker(auditor);
+            zipMaker = new CombinePageVolumeZipMaker(auditor, compressionLevel, format);
             break;
         case SEPARATE_PAGE:
-            zipMaker = new SeparatePageVolumeZipMaker(auditor);
+            zipMaker = new SeparatePageVolumeZipMaker(auditor, compressionLevel, format);
             break;
         case WORD_SEQUENCE:
-            zipMaker = new WordSequenceZipMaker(auditor);
+            zipMaker = new WordSequenceZipMaker(auditor, compressionLevel, format);
             break;
         }
         
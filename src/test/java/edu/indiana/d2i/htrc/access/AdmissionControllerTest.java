@@ -0,0 +1,161 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AdmissionControllerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.AdmissionController.Admission;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+import edu.indiana.d2i.htrc.access.exception.ServiceOverloadedException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.HectorResource.CopyrightEnum;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class AdmissionControllerTest {
+    
+    private static List<ItemCoordinatesImpl> createPageRequest(String volumeID, int pageCount) {
+        ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl(volumeID);
+        for (int i = 1; i <= pageCount; i++) {
+            itemCoordinates.addPageSequence(String.valueOf(i));
+        }
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        itemCoordinatesList.add(itemCoordinates);
+        return itemCoordinatesList;
+    }
+    
+    // This case tests that a request beyond the capacity is rejected with a Retry-After, and is admitted once enough pages have been released
+    @Test
+    public void testRejectAndRelease() throws Exception {
+        AdmissionController admissionController = new AdmissionController(100, 0, 300, null);
+        Admission admission = admissionController.admit(createPageRequest("inu.30000000000001", 80), null);
+        Assert.assertEquals(80, admission.getPageCount());
+        
+        try {
+            admissionController.admit(createPageRequest("inu.30000000000002", 30), null);
+            Assert.fail("request beyond capacity admitted");
+        } catch (ServiceOverloadedException e) {
+            Assert.assertEquals(AdmissionController.DEFAULT_RETRY_AFTER_SECONDS, e.getRetryAfterSeconds());
+        }
+        Assert.assertEquals(1, admissionController.getRejectedCount());
+        
+        admission.release();
+        admission.release();
+        Assert.assertEquals(0, admissionController.getInFlightPages());
+        Assert.assertNotNull(admissionController.admit(createPageRequest("inu.30000000000002", 30), null));
+    }
+    
+    // This case tests that a request larger than the capacity is still admitted when nothing else is in flight
+    @Test
+    public void testOversizedRequestWhenIdle() throws Exception {
+        AdmissionController admissionController = new AdmissionController(100, 0, 300, null);
+        Admission admission = admissionController.admit(createPageRequest("inu.30000000000001", 500), null);
+        Assert.assertEquals(500, admissionController.getInFlightPages());
+        admission.release();
+    }
+    
+    // This case tests that whole volumes are estimated with the cached page count, and with the default page count when not cached
+    @Test
+    public void testEstimateFromVolumeInfoCache() throws Exception {
+        VolumeInfoCache volumeInfoCache = new VolumeInfoCache(10, 60000, 0);
+        volumeInfoCache.put(new VolumeInfo("inu.30000000000001") {
+            @Override
+            public int getPageCount() {
+                return 42;
+            }
+            
+            @Override
+            public CopyrightEnum getCopyright() {
+                return CopyrightEnum.PUBLIC_DOMAIN;
+            }
+        });
+        
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        itemCoordinatesList.add(new ItemCoordinatesImpl("inu.30000000000001"));
+        itemCoordinatesList.add(new ItemCoordinatesImpl("inu.30000000000002"));
+        
+        AdmissionController admissionController = new AdmissionController(1000, 0, 300, volumeInfoCache);
+        Assert.assertEquals(342, admissionController.estimatePageCount(itemCoordinatesList));
+        Assert.assertEquals(43, admissionController.estimatePageCount(itemCoordinatesList, 1));
+        Assert.assertEquals(0, volumeInfoCache.getHitCount() + volumeInfoCache.getMissCount());
+    }
+    
+    // This case tests that a request waiting in the queue is admitted as soon as another request releases its pages
+    @Test
+    public void testQueuedAdmission() throws Exception {
+        final AdmissionController admissionController = new AdmissionController(100, 10000, 300, null);
+        final Admission admission = admissionController.admit(createPageRequest("inu.30000000000001", 80), null);
+        
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                admission.release();
+            }
+        };
+        releaser.start();
+        
+        Assert.assertNotNull(admissionController.admit(createPageRequest("inu.30000000000002", 30), null));
+        releaser.join();
+        Assert.assertEquals(30, admissionController.getInFlightPages());
+    }
+    
+    // This case tests that a queued request waits no longer than its deadline, even when the maximum wait is longer
+    @Test
+    public void testQueuedAdmissionBoundedByDeadline() throws Exception {
+        AdmissionController admissionController = new AdmissionController(100, 10000, 300, null);
+        Admission admission = admissionController.admit(createPageRequest("inu.30000000000001", 80), null);
+        
+        long startTime = System.currentTimeMillis();
+        try {
+            admissionController.admit(createPageRequest("inu.30000000000002", 30), new RequestDeadline(100));
+            Assert.fail("request admitted beyond capacity");
+        } catch (DeadlineExceededException e) {
+            Assert.assertTrue(System.currentTimeMillis() - startTime < 5000);
+        }
+        Assert.assertEquals(1, admissionController.getRejectedCount());
+        Assert.assertEquals(80, admissionController.getInFlightPages());
+        admission.release();
+    }
+
+}
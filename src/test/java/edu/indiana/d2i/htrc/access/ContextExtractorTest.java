@@ -0,0 +1,125 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ContextExtractorTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ContextExtractorTest {
+    
+    private static HttpServletRequest newRequest(final String remoteUser, final String remoteAddr, final Map<String, String> headers) {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("getRemoteUser".equals(name)) {
+                    return remoteUser;
+                } else if ("getRemoteAddr".equals(name)) {
+                    return remoteAddr;
+                } else if ("getRemotePort".equals(name)) {
+                    return Integer.valueOf(8080);
+                } else if ("getHeaderNames".equals(name)) {
+                    return Collections.enumeration(headers.keySet());
+                } else if ("getHeader".equals(name)) {
+                    return headers.get(args[0]);
+                }
+                return null;
+            }
+        };
+        return (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class}, handler);
+    }
+    
+    private static HttpHeaders newHttpHeaders(final Map<String, String> headers) {
+        final MultivaluedMap<String, String> requestHeaders = new MultivaluedMapImpl();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            requestHeaders.add(entry.getKey(), entry.getValue());
+        }
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                return "getRequestHeaders".equals(method.getName()) ? requestHeaders : null;
+            }
+        };
+        return (HttpHeaders)Proxy.newProxyInstance(HttpHeaders.class.getClassLoader(), new Class<?>[] {HttpHeaders.class}, handler);
+    }
+    
+    private static Map<String, String> newSpoofedHeaders() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("remoteuser", "spoofed-user");
+        headers.put("remoteaddr", "10.0.0.99");
+        return headers;
+    }
+    
+    // This case tests that the tenant is the remote user if there is one, and the remote address otherwise
+    @Test
+    public void testTenantID() {
+        Map<String, String> headers = new HashMap<String, String>();
+        Assert.assertEquals("alice", new ContextExtractor(newRequest("alice", "10.0.0.1", headers), null).getTenantID());
+        Assert.assertEquals("10.0.0.1", new ContextExtractor(newRequest(null, "10.0.0.1", headers), null).getTenantID());
+        Assert.assertEquals("10.0.0.1", new ContextExtractor(newRequest("", "10.0.0.1", headers), null).getTenantID());
+        Assert.assertNull(new ContextExtractor(newRequest(null, null, headers), null).getTenantID());
+    }
+    
+    // This case tests that remoteuser and remoteaddr request headers do not change the tenant, whichever way the headers are extracted
+    @Test
+    public void testSpoofedTenantHeaders() {
+        Map<String, String> headers = newSpoofedHeaders();
+        
+        ContextExtractor contextExtractor = new ContextExtractor(newRequest(null, "10.0.0.1", headers), null);
+        Assert.assertEquals("spoofed-user", contextExtractor.getContext("remoteuser").get(0));
+        Assert.assertEquals("10.0.0.1", contextExtractor.getTenantID());
+        
+        contextExtractor = new ContextExtractor(newRequest(null, "10.0.0.1", headers), newHttpHeaders(headers));
+        Assert.assertEquals("10.0.0.1", contextExtractor.getTenantID());
+        
+        contextExtractor = new ContextExtractor(newRequest("alice", "10.0.0.1", headers), newHttpHeaders(headers));
+        Assert.assertEquals("alice", contextExtractor.getTenantID());
+    }
+
+}
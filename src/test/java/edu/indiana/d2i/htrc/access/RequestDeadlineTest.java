@@ -0,0 +1,96 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RequestDeadlineTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class RequestDeadlineTest {
+    
+    private static void init(String defaultTimeout, String maxTimeout) {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(RequestDeadline.PN_REQUEST_DEADLINE_DEFAULT, defaultTimeout);
+        parameterContainer.setParameter(RequestDeadline.PN_REQUEST_DEADLINE_MAX, maxTimeout);
+        RequestDeadline.init(parameterContainer);
+    }
+    
+    @After
+    public void tearDown() {
+        init("0", "0");
+        RequestDeadline.clearCurrent();
+    }
+    
+    // This case tests that a request without a timeout gets the default deadline, or none if there is no default
+    @Test
+    public void testDefaultTimeout() {
+        init("0", "0");
+        Assert.assertNull(RequestDeadline.newInstance(null));
+        
+        init("5000", "0");
+        Assert.assertEquals(5000L, RequestDeadline.newInstance(null).getTimeout());
+        Assert.assertEquals(5000L, RequestDeadline.newInstance("not a number").getTimeout());
+        Assert.assertEquals(5000L, RequestDeadline.newInstance("-1").getTimeout());
+    }
+    
+    // This case tests that the timeout asked for by the client is honored up to the maximum, which also applies to requests without a timeout
+    @Test
+    public void testMaxTimeout() {
+        init("0", "10000");
+        Assert.assertEquals(2000L, RequestDeadline.newInstance(" 2000 ").getTimeout());
+        Assert.assertEquals(10000L, RequestDeadline.newInstance("60000").getTimeout());
+        Assert.assertEquals(10000L, RequestDeadline.newInstance(null).getTimeout());
+    }
+    
+    // This case tests that a deadline expires after its timeout and is reported as exceeded only once
+    @Test
+    public void testExpiration() throws Exception {
+        init("0", "0");
+        RequestDeadline deadline = RequestDeadline.newInstance("50");
+        Assert.assertFalse(deadline.isExpired());
+        Assert.assertTrue(deadline.getRemainingMillis() > 0);
+        
+        Thread.sleep(100);
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertEquals(0L, deadline.getRemainingMillis());
+        
+        long exceededCount = RequestDeadline.getExceededCount();
+        Assert.assertNotNull(deadline.markExceeded(3));
+        Assert.assertNull(deadline.markExceeded(5));
+        Assert.assertEquals(exceededCount + 1, RequestDeadline.getExceededCount());
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TestVolumeStore.java
+# Description:  An in-memory VolumeStore shared by the tests that counts its retrievals and can hold them back
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.HectorResource.CopyrightEnum;
+
+/**
+ * An in-memory VolumeStore shared by the tests.  Every volume has 2 pages and every metadata entry, and the content of a page or metadata entry is its name.
+ * Volumes whose volumeID starts with "missing." do not exist: the VolumeInfo lookups do not find them, and the batch retrieval leaves them out of the
+ * returned Map.  The store counts its retrievals, and each retrieval (or only those of the gated volume, if one is set) waits for the gate to open, so a test
+ * can hold fetches in flight.  A batch VolumeInfo lookup that includes the gated volume waits for the gate as well.
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class TestVolumeStore extends AbstractVolumeStore {
+    
+    public static final String MISSING_VOLUME_ID_PREFIX = "missing.";
+    public static final int PAGE_COUNT = 2;
+    
+    public final AtomicInteger retrievalCount = new AtomicInteger(0);
+    public final AtomicInteger batchRetrievalCount = new AtomicInteger(0);
+    public final AtomicInteger volumeInfoCount = new AtomicInteger(0);
+    public final AtomicInteger volumeInfoBatchCount = new AtomicInteger(0);
+    
+    protected CountDownLatch gate;
+    protected String gatedVolumeID;
+    protected int maxVolumesPerBatch;
+    
+    /**
+     * Constructor
+     */
+    public TestVolumeStore() {
+        this.gate = null;
+        this.gatedVolumeID = null;
+        this.maxVolumesPerBatch = 0;
+    }
+    
+    /**
+     * Method to set the gate the retrievals wait for
+     * @param gate a CountDownLatch the retrievals wait for, or <code>null</code> to not hold them back
+     * @param gatedVolumeID the volumeID whose retrievals wait for the gate, or <code>null</code> to hold back the retrievals of all volumes
+     */
+    public void setGate(CountDownLatch gate, String gatedVolumeID) {
+        this.gate = gate;
+        this.gatedVolumeID = gatedVolumeID;
+    }
+    
+    /**
+     * Method to set the value returned by getMaxVolumesPerBatch
+     * @param maxVolumesPerBatch the maximum number of volumes per batch. A value less than 2 disables batch retrieval
+     */
+    public void setMaxVolumesPerBatch(int maxVolumesPerBatch) {
+        this.maxVolumesPerBatch = maxVolumesPerBatch;
+    }
+    
+    /**
+     * Method to create a ContentReader whose content is its name
+     * @param contentName name of the content
+     * @return a ContentReader object
+     */
+    public static ContentReader newContentReader(final String contentName) {
+        final byte[] content = contentName.getBytes();
+        return new ContentReader() {
+            @Override
+            public String getContentName() {
+                return contentName;
+            }
+            
+            @Override
+            public byte[] getContent() {
+                return content;
+            }
+            
+            @Override
+            public int getContentLength() {
+                return content.length;
+            }
+        };
+    }
+    
+    private void pass(String volumeID) throws RepositoryException {
+        retrievalCount.incrementAndGet();
+        if (gate != null && (gatedVolumeID == null || gatedVolumeID.equals(volumeID))) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RepositoryException("interrupted", e);
+            }
+        }
+    }
+    
+    private static boolean exists(String volumeID) {
+        return !volumeID.startsWith(MISSING_VOLUME_ID_PREFIX);
+    }
+    
+    private static List<ContentReader> newContentReaders(List<String> contentNames) {
+        List<ContentReader> contentReaders = new ArrayList<ContentReader>();
+        for (String contentName : contentNames) {
+            contentReaders.add(newContentReader(contentName));
+        }
+        return contentReaders;
+    }
+    
+    private static VolumeInfo newVolumeInfo(String volumeID) {
+        return new VolumeInfo(volumeID) {
+            @Override
+            public int getPageCount() {
+                return PAGE_COUNT;
+            }
+            
+            @Override
+            public CopyrightEnum getCopyright() {
+                return CopyrightEnum.PUBLIC_DOMAIN;
+            }
+        };
+    }
+    
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfo(java.lang.String)
+     */
+    @Override
+    public VolumeInfo getVolumeInfo(String volumeID) throws KeyNotFoundException, RepositoryException {
+        volumeInfoCount.incrementAndGet();
+        if (!exists(volumeID)) {
+            throw new KeyNotFoundException(volumeID);
+        }
+        return newVolumeInfo(volumeID);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getVolumeInfos(java.util.List)
+     */
+    @Override
+    public Map<String, VolumeInfo> getVolumeInfos(List<String> volumeIDs) throws RepositoryException {
+        volumeInfoBatchCount.incrementAndGet();
+        if (gate != null && gatedVolumeID != null && volumeIDs.contains(gatedVolumeID)) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RepositoryException("interrupted", e);
+            }
+        }
+        Map<String, VolumeInfo> volumeInfoMap = new HashMap<String, VolumeInfo>();
+        for (String volumeID : volumeIDs) {
+            if (exists(volumeID)) {
+                volumeInfoMap.put(volumeID, newVolumeInfo(volumeID));
+            }
+        }
+        return volumeInfoMap;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrievePageContents(java.lang.String, java.util.List)
+     */
+    @Override
+    public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences) throws KeyNotFoundException, RepositoryException {
+        pass(volumeID);
+        if (!exists(volumeID)) {
+            throw new KeyNotFoundException(volumeID);
+        }
+        return newContentReaders(pageSequences);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrievePageContents(java.util.Map)
+     */
+    @Override
+    public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences) throws RepositoryException {
+        batchRetrievalCount.incrementAndGet();
+        pass(null);
+        Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+        for (Map.Entry<String, List<String>> entry : volumePageSequences.entrySet()) {
+            if (exists(entry.getKey())) {
+                contentReadersMap.put(entry.getKey(), newContentReaders(entry.getValue()));
+            }
+        }
+        return contentReadersMap;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#retrieveMetadata(java.lang.String, java.util.List)
+     */
+    @Override
+    public List<ContentReader> retrieveMetadata(String volumeID, List<String> metadataNames) throws KeyNotFoundException, RepositoryException {
+        pass(volumeID);
+        if (!exists(volumeID)) {
+            throw new KeyNotFoundException(volumeID);
+        }
+        return newContentReaders(metadataNames);
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#getMaxVolumesPerBatch()
+     */
+    @Override
+    public int getMaxVolumesPerBatch() {
+        return maxVolumesPerBatch;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeStore#shutdown()
+     */
+    @Override
+    public void shutdown() {
+    }
+
+}
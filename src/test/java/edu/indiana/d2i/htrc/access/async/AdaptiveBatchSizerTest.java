@@ -0,0 +1,86 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  AdaptiveBatchSizerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class AdaptiveBatchSizerTest {
+    
+    // This case tests that the default batch size is used until a retrieval has been recorded
+    @Test
+    public void testDefaultBeforeSamples() {
+        AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(1000000, 1000, 1, 1000);
+        Assert.assertEquals(200, adaptiveBatchSizer.getBatchSize(200));
+        Assert.assertEquals(0, adaptiveBatchSizer.getSampleCount());
+    }
+    
+    // This case tests that large pages get smaller batches than small pages under the same byte budget
+    @Test
+    public void testByteBudget() {
+        AdaptiveBatchSizer largePages = new AdaptiveBatchSizer(1000000, 0, 1, 1000);
+        largePages.record(100, 100 * 20000, 50);
+        Assert.assertEquals(50, largePages.getBatchSize(200));
+        
+        AdaptiveBatchSizer smallPages = new AdaptiveBatchSizer(1000000, 0, 1, 1000);
+        smallPages.record(100, 100 * 2000, 50);
+        Assert.assertEquals(500, smallPages.getBatchSize(200));
+    }
+    
+    // This case tests that slow retrievals reduce the batch size below what the byte budget allows
+    @Test
+    public void testLatencyGoal() {
+        AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(1000000, 1000, 1, 1000);
+        adaptiveBatchSizer.record(100, 100 * 2000, 1000);
+        Assert.assertEquals(100, adaptiveBatchSizer.getBatchSize(200));
+    }
+    
+    // This case tests that the batch size stays within the bounds and follows new samples gradually
+    @Test
+    public void testBoundsAndSmoothing() {
+        AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(1000000, 0, 10, 300);
+        adaptiveBatchSizer.record(10, 10 * 10, 1);
+        Assert.assertEquals(300, adaptiveBatchSizer.getBatchSize(200));
+        
+        adaptiveBatchSizer.record(1, 10000000, 1);
+        Assert.assertEquals(10, adaptiveBatchSizer.getBatchSize(200));
+        
+        adaptiveBatchSizer.record(100, 100 * 10, 1);
+        Assert.assertEquals(10, adaptiveBatchSizer.getBatchSize(200));
+        Assert.assertEquals(3, adaptiveBatchSizer.getSampleCount());
+    }
+
+}
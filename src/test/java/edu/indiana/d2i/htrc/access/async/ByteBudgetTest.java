@@ -0,0 +1,176 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ByteBudgetTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ByteBudgetTest {
+    
+    private static ContentReader createContentReader(final String contentName) {
+        return new ContentReader() {
+            @Override
+            public String getContentName() {
+                return contentName;
+            }
+            
+            @Override
+            public byte[] getContent() {
+                return new byte[0];
+            }
+            
+            @Override
+            public int getContentLength() {
+                return 0;
+            }
+        };
+    }
+    
+    // This case tests that a reservation beyond the budget is refused until enough bytes are released
+    @Test
+    public void testTryAcquire() {
+        ByteBudget byteBudget = new ByteBudget(1000, 0);
+        Assert.assertTrue(byteBudget.tryAcquire(600));
+        Assert.assertFalse(byteBudget.tryAcquire(600));
+        byteBudget.release(200);
+        Assert.assertTrue(byteBudget.tryAcquire(600));
+        Assert.assertEquals(1000, byteBudget.getInFlightBytes());
+    }
+    
+    // This case tests that a reservation larger than the whole budget is still granted when nothing else is in flight
+    @Test
+    public void testOversizedReservation() {
+        ByteBudget byteBudget = new ByteBudget(1000, 0);
+        Assert.assertTrue(byteBudget.tryAcquire(5000));
+        Assert.assertFalse(byteBudget.tryAcquire(1));
+        byteBudget.release(5000);
+        Assert.assertEquals(0, byteBudget.getInFlightBytes());
+    }
+    
+    // This case tests that a waiting reservation goes through as soon as another thread releases bytes
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        final ByteBudget byteBudget = new ByteBudget(1000, 10000);
+        Assert.assertTrue(byteBudget.acquire(1000));
+        
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                byteBudget.release(500);
+            }
+        };
+        releaser.start();
+        
+        Assert.assertTrue(byteBudget.acquire(500));
+        releaser.join();
+        Assert.assertEquals(1, byteBudget.getWaitCount());
+        Assert.assertEquals(0, byteBudget.getTimeoutCount());
+        Assert.assertEquals(1000, byteBudget.getInFlightBytes());
+    }
+    
+    // This case tests that a reservation that waited for the maximum wait time gets nothing, so the budget is never overdrawn
+    @Test
+    public void testTimeoutAfterMaxWait() {
+        ByteBudget byteBudget = new ByteBudget(1000, 50);
+        Assert.assertTrue(byteBudget.acquire(1000));
+        Assert.assertFalse(byteBudget.acquire(500));
+        Assert.assertEquals(1, byteBudget.getTimeoutCount());
+        Assert.assertEquals(1000, byteBudget.getInFlightBytes());
+    }
+    
+    // This case tests that the wait is cut short by a timeout shorter than the maximum wait time, such as the time left before the deadline of the request
+    @Test
+    public void testAcquireTimeout() {
+        ByteBudget byteBudget = new ByteBudget(1000, 60000);
+        Assert.assertTrue(byteBudget.acquire(1000));
+        long startTime = System.currentTimeMillis();
+        Assert.assertFalse(byteBudget.acquire(500, 50));
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 30000);
+        Assert.assertEquals(1, byteBudget.getTimeoutCount());
+        Assert.assertEquals(1000, byteBudget.getInFlightBytes());
+    }
+    
+    // This case tests that releasing more bytes than are reserved fails right away instead of hiding the bookkeeping error
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseMoreThanReserved() {
+        ByteBudget byteBudget = new ByteBudget(1000, 0);
+        Assert.assertTrue(byteBudget.tryAcquire(300));
+        byteBudget.release(500);
+    }
+    
+    // This case tests that a BudgetedVolumeReader gives back the share of each page once the next page is asked for, and the rest after the last page
+    @Test
+    public void testBudgetedVolumeReader() {
+        ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl("inu.30000000000001");
+        List<ContentReader> pages = new ArrayList<ContentReader>();
+        for (int i = 1; i <= 3; i++) {
+            itemCoordinates.addPageSequence("0000000" + i);
+            pages.add(createContentReader("0000000" + i));
+        }
+        VolumeReaderImpl volumeReaderImpl = new VolumeReaderImpl(itemCoordinates);
+        volumeReaderImpl.setPages(pages);
+        
+        ByteBudget byteBudget = new ByteBudget(1000, 0);
+        Assert.assertTrue(byteBudget.tryAcquire(300));
+        BudgetedVolumeReader volumeReader = new BudgetedVolumeReader(volumeReaderImpl, byteBudget, 300, 3);
+        
+        Assert.assertTrue(volumeReader.hasMorePages());
+        volumeReader.nextPage();
+        Assert.assertEquals(300, byteBudget.getInFlightBytes());
+        volumeReader.nextPage();
+        Assert.assertEquals(200, byteBudget.getInFlightBytes());
+        volumeReader.nextPage();
+        Assert.assertEquals(100, byteBudget.getInFlightBytes());
+        Assert.assertFalse(volumeReader.hasMorePages());
+        Assert.assertEquals(0, byteBudget.getInFlightBytes());
+        
+        volumeReader.release();
+        Assert.assertEquals(0, byteBudget.getInFlightBytes());
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ElasticExecutorServiceBenchmark.java
+# Description:  Compares blocking reads on a fixed pool with the elastic executor
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class compares blocking reads run on a fixed pool with those run by ElasticExecutorService.  It is a standalone program rather than a test case, as
+ * its timings depend on the machine it runs on.
+ * 
+ * Usage: ElasticExecutorServiceBenchmark [taskCount] [blockMillis] [fixedPoolSize] [elasticMaxConcurrent]
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class ElasticExecutorServiceBenchmark {
+    
+    // a task that blocks like a Cassandra read and keeps track of how many of its kind run at the same time
+    static class BlockingTask implements Callable<Integer> {
+        final AtomicInteger running;
+        final AtomicInteger maxRunning;
+        final long blockMillis;
+        
+        BlockingTask(AtomicInteger running, AtomicInteger maxRunning, long blockMillis) {
+            this.running = running;
+            this.maxRunning = maxRunning;
+            this.blockMillis = blockMillis;
+        }
+        
+        @Override
+        public Integer call() throws Exception {
+            int current = running.incrementAndGet();
+            synchronized (maxRunning) {
+                if (current > maxRunning.get()) {
+                    maxRunning.set(current);
+                }
+            }
+            try {
+                Thread.sleep(blockMillis);
+            } finally {
+                running.decrementAndGet();
+            }
+            return current;
+        }
+    }
+    
+    // runs the tasks on the ExecutorService and returns the elapsed milliseconds
+    private static long runTasks(ExecutorService executorService, int taskCount, long blockMillis, AtomicInteger maxRunning) throws Exception {
+        AtomicInteger running = new AtomicInteger(0);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < taskCount; i++) {
+            futures.add(executorService.submit(new BlockingTask(running, maxRunning, blockMillis)));
+        }
+        for (Future<Integer> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int taskCount = (args.length > 0) ? Integer.parseInt(args[0]) : 400;
+        long blockMillis = (args.length > 1) ? Long.parseLong(args[1]) : 20;
+        int fixedPoolSize = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+        int elasticMaxConcurrent = (args.length > 3) ? Integer.parseInt(args[3]) : 64;
+        
+        ExecutorService fixedPool = Executors.newFixedThreadPool(fixedPoolSize);
+        ElasticExecutorService elasticExecutor = new ElasticExecutorService(elasticMaxConcurrent, new LinkedBlockingQueue<Runnable>());
+        try {
+            AtomicInteger fixedMaxRunning = new AtomicInteger(0);
+            long fixedElapsed = runTasks(fixedPool, taskCount, blockMillis, fixedMaxRunning);
+            
+            AtomicInteger elasticMaxRunning = new AtomicInteger(0);
+            long elasticElapsed = runTasks(elasticExecutor, taskCount, blockMillis, elasticMaxRunning);
+            
+            System.out.println(taskCount + " tasks blocking " + blockMillis + " ms each");
+            System.out.println("fixed pool of " + fixedPoolSize + ": " + fixedElapsed + " ms, max concurrent " + fixedMaxRunning.get());
+            System.out.println("elastic bounded at " + elasticMaxConcurrent + ": " + elasticElapsed + " ms, max concurrent " + elasticMaxRunning.get());
+        } finally {
+            fixedPool.shutdownNow();
+            elasticExecutor.shutdownNow();
+        }
+    }
+
+}
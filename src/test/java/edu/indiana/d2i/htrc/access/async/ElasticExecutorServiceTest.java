@@ -0,0 +1,211 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ElasticExecutorServiceTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ElasticExecutorServiceTest {
+    
+    // a task that blocks like a Cassandra read and keeps track of how many of its kind run at the same time
+    static class BlockingTask implements Callable<Integer> {
+        final AtomicInteger running;
+        final AtomicInteger maxRunning;
+        final long blockMillis;
+        
+        BlockingTask(AtomicInteger running, AtomicInteger maxRunning, long blockMillis) {
+            this.running = running;
+            this.maxRunning = maxRunning;
+            this.blockMillis = blockMillis;
+        }
+        
+        @Override
+        public Integer call() throws Exception {
+            int current = running.incrementAndGet();
+            synchronized (maxRunning) {
+                if (current > maxRunning.get()) {
+                    maxRunning.set(current);
+                }
+            }
+            try {
+                Thread.sleep(blockMillis);
+            } finally {
+                running.decrementAndGet();
+            }
+            return current;
+        }
+    }
+    
+    // runs the tasks on the ExecutorService and waits for all of them to complete
+    private void runTasks(ExecutorService executorService, int taskCount, long blockMillis, AtomicInteger maxRunning) throws Exception {
+        AtomicInteger running = new AtomicInteger(0);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < taskCount; i++) {
+            futures.add(executorService.submit(new BlockingTask(running, maxRunning, blockMillis)));
+        }
+        for (Future<Integer> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+    
+    // This case tests that no more tasks than the bound run at the same time, and that all tasks complete
+    @Test
+    public void testConcurrencyBound() throws Exception {
+        ElasticExecutorService executorService = new ElasticExecutorService(5, new LinkedBlockingQueue<Runnable>());
+        try {
+            AtomicInteger maxRunning = new AtomicInteger(0);
+            runTasks(executorService, 50, 10, maxRunning);
+            Assert.assertTrue(maxRunning.get() <= 5);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+    
+    // This case tests that tasks are rejected after shutdown
+    @Test
+    public void testRejectAfterShutdown() {
+        ElasticExecutorService executorService = new ElasticExecutorService(5, new LinkedBlockingQueue<Runnable>());
+        executorService.shutdown();
+        Assert.assertTrue(executorService.isShutdown());
+        try {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            Assert.fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+    
+    // This case tests that tasks run on threads of their own up to the bound, so blocked tasks do not hold up the ones queued behind them
+    @Test
+    public void testRunsUpToBound() throws Exception {
+        final int bound = 20;
+        final CountDownLatch startedLatch = new CountDownLatch(bound);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        ElasticExecutorService executorService = new ElasticExecutorService(bound, new LinkedBlockingQueue<Runnable>());
+        try {
+            for (int i = 0; i < bound; i++) {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        startedLatch.countDown();
+                        try {
+                            releaseLatch.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            Assert.assertTrue(startedLatch.await(10, TimeUnit.SECONDS));
+        } finally {
+            releaseLatch.countDown();
+            executorService.shutdownNow();
+        }
+    }
+    
+    // This case tests that tasks still waiting for a permit when the service is shut down are run, and that the service only terminates after all of them
+    @Test
+    public void testShutdownRunsPendingTasks() throws Exception {
+        ElasticExecutorService executorService = new ElasticExecutorService(3, new LinkedBlockingQueue<Runnable>());
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executorService.submit(new BlockingTask(running, maxRunning, 20)));
+        }
+        
+        executorService.shutdown();
+        Assert.assertTrue(executorService.isShutdown());
+        Assert.assertFalse(executorService.isTerminated());
+        
+        Assert.assertTrue(executorService.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertTrue(executorService.isTerminated());
+        for (Future<Integer> future : futures) {
+            Assert.assertTrue(future.isDone());
+            Assert.assertNotNull(future.get());
+        }
+        Assert.assertTrue(maxRunning.get() <= 3);
+    }
+    
+    // This case tests that shutdownNow returns the tasks still waiting for a permit without running them
+    @Test
+    public void testShutdownNowReturnsPendingTasks() throws Exception {
+        final CountDownLatch startedLatch = new CountDownLatch(1);
+        final AtomicInteger runCount = new AtomicInteger(0);
+        ElasticExecutorService executorService = new ElasticExecutorService(1, new LinkedBlockingQueue<Runnable>());
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                startedLatch.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 4; i++) {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runCount.incrementAndGet();
+                }
+            });
+        }
+        Assert.assertTrue(startedLatch.await(10, TimeUnit.SECONDS));
+        
+        Assert.assertEquals(4, executorService.shutdownNow().size());
+        Assert.assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertTrue(executorService.isTerminated());
+        Assert.assertEquals(0, runCount.get());
+    }
+
+}
@@ -0,0 +1,217 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  FairShareQueueTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class FairShareQueueTest {
+    
+    static class TestTask implements Runnable, FairShareQueue.TenantTask, FairShareQueue.PageCountedTask {
+        final String tenantID;
+        final String name;
+        final int pageCount;
+        
+        TestTask(String tenantID, String name) {
+            this(tenantID, name, 1);
+        }
+        
+        TestTask(String tenantID, String name, int pageCount) {
+            this.tenantID = tenantID;
+            this.name = name;
+            this.pageCount = pageCount;
+        }
+        
+        @Override
+        public String getTenantID() {
+            return tenantID;
+        }
+        
+        @Override
+        public int getPageCount() {
+            return pageCount;
+        }
+        
+        @Override
+        public void run() {
+        }
+    }
+    
+    private List<String> drainNames(FairShareQueue queue) {
+        List<String> names = new ArrayList<String>();
+        Runnable runnable = null;
+        while ((runnable = queue.poll()) != null) {
+            names.add(((TestTask)runnable).name);
+        }
+        return names;
+    }
+    
+    // This case tests that a tenant with many queued tasks does not hold up the tasks of a tenant that queued later
+    @Test
+    public void testRoundRobinBetweenTenants() {
+        FairShareQueue queue = new FairShareQueue();
+        for (int i = 1; i <= 4; i++) {
+            queue.offer(new TestTask("bulk", "b" + i));
+        }
+        queue.offer(new TestTask("single", "s1"));
+        queue.offer(new TestTask("single", "s2"));
+        
+        Assert.assertEquals(6, queue.size());
+        List<String> names = drainNames(queue);
+        Assert.assertEquals("[b1, s1, b2, s2, b3, b4]", names.toString());
+        Assert.assertTrue(queue.isEmpty());
+    }
+    
+    // This case tests that tasks are charged their page count, so a tenant with 4-page tasks gets a task for every 4 single-page tasks of another tenant
+    @Test
+    public void testChargedByPageCount() {
+        FairShareQueue queue = new FairShareQueue();
+        queue.offer(new TestTask("bulk", "b1", 4));
+        queue.offer(new TestTask("bulk", "b2", 4));
+        for (int i = 1; i <= 8; i++) {
+            queue.offer(new TestTask("single", "s" + i));
+        }
+        
+        Assert.assertEquals("[s1, s2, s3, b1, s4, s5, s6, s7, b2, s8]", drainNames(queue).toString());
+        Map<String, Long> dequeuedPages = queue.getDequeuedPages();
+        Assert.assertEquals(Long.valueOf(8), dequeuedPages.get("bulk"));
+        Assert.assertEquals(Long.valueOf(8), dequeuedPages.get("single"));
+    }
+    
+    // This case tests that a larger quantum lets a tenant take several tasks in one turn, and tasks far larger than the quantum are still served in turn
+    @Test
+    public void testQuantum() {
+        FairShareQueue queue = new FairShareQueue(2);
+        queue.offer(new TestTask("a", "a1"));
+        queue.offer(new TestTask("a", "a2"));
+        queue.offer(new TestTask("a", "a3"));
+        queue.offer(new TestTask("b", "b1", 100000));
+        queue.offer(new TestTask("c", "c1", 100001));
+        
+        Assert.assertEquals("[a1, a2, a3, b1, c1]", drainNames(queue).toString());
+    }
+    
+    // This case tests that the queue of a tenant is dropped once its last task is taken or removed, and only a bounded number of tenants are tracked
+    @Test
+    public void testTenantsNotRetained() {
+        FairShareQueue queue = new FairShareQueue();
+        for (int i = 0; i < FairShareQueue.MAX_TRACKED_TENANTS * 2; i++) {
+            queue.offer(new TestTask("tenant" + i, "t" + i));
+            Assert.assertNotNull(queue.poll());
+        }
+        TestTask removed = new TestTask("removed", "r1");
+        queue.offer(removed);
+        Assert.assertTrue(queue.remove(removed));
+        
+        Assert.assertTrue(queue.tenantQueueMap.isEmpty());
+        Assert.assertTrue(queue.activeTenantQueues.isEmpty());
+        Assert.assertEquals(FairShareQueue.MAX_TRACKED_TENANTS, queue.tenantStatsMap.size());
+        Assert.assertEquals(FairShareQueue.MAX_TRACKED_TENANTS, queue.getQueueDepths().size());
+    }
+    
+    // This case tests that tasks without a tenant are queued for the default tenant
+    @Test
+    public void testDefaultTenant() {
+        FairShareQueue queue = new FairShareQueue();
+        queue.offer(new TestTask(null, "d1"));
+        queue.offer(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        queue.offer(new TestTask("user", "u1"));
+        
+        Map<String, Integer> queueDepths = queue.getQueueDepths();
+        Assert.assertEquals(Integer.valueOf(2), queueDepths.get(FairShareQueue.DEFAULT_TENANT_ID));
+        Assert.assertEquals(Integer.valueOf(1), queueDepths.get("user"));
+    }
+    
+    // This case tests that removing and draining tasks keep the queue consistent
+    @Test
+    public void testRemoveAndDrain() {
+        FairShareQueue queue = new FairShareQueue();
+        TestTask a1 = new TestTask("a", "a1");
+        TestTask b1 = new TestTask("b", "b1");
+        queue.offer(a1);
+        queue.offer(b1);
+        queue.offer(new TestTask("a", "a2"));
+        
+        Assert.assertTrue(queue.remove(b1));
+        Assert.assertFalse(queue.remove(b1));
+        Assert.assertTrue(queue.peek() == a1);
+        
+        List<Runnable> drained = new ArrayList<Runnable>();
+        Assert.assertEquals(2, queue.drainTo(drained));
+        Assert.assertEquals(0, queue.size());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(Integer.valueOf(0), queue.getQueueDepths().get("b"));
+    }
+    
+    // This case tests that the queue works as the work queue of a ThreadPoolExecutor
+    @Test
+    public void testWithThreadPoolExecutor() throws Exception {
+        FairShareQueue queue = new FairShareQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, queue);
+        try {
+            List<NotifyingFutureTask<String>> futureTasks = new ArrayList<NotifyingFutureTask<String>>();
+            for (int i = 0; i < 20; i++) {
+                final String result = "r" + i;
+                NotifyingFutureTask<String> futureTask = new NotifyingFutureTask<String>(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return result;
+                    }
+                }, (i % 2 == 0) ? "even" : "odd", null);
+                futureTasks.add(futureTask);
+                executor.execute(futureTask);
+            }
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals("r" + i, futureTasks.get(i).get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(Integer.valueOf(0), queue.getQueueDepths().get("even"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  MeasuredVolumeStoreTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestVolumeStore;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.MappedContentReader;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class MeasuredVolumeStoreTest {
+    
+    private static final int PAGE_SIZE = 10000;
+    
+    private final AtomicInteger getContentCount = new AtomicInteger(0);
+    private File pageFile;
+    
+    // a store whose pages are memory-mapped, and which counts every heap copy of a page
+    private class MappedVolumeStore extends TestVolumeStore {
+        @Override
+        public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences) throws KeyNotFoundException, RepositoryException {
+            List<ContentReader> contentReaders = new ArrayList<ContentReader>();
+            for (String pageSequence : pageSequences) {
+                try {
+                    contentReaders.add(new MappedContentReader(pageSequence, pageFile) {
+                        @Override
+                        public byte[] getContent() {
+                            getContentCount.incrementAndGet();
+                            return super.getContent();
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new RepositoryException("failed to map " + pageFile, e);
+                }
+            }
+            return contentReaders;
+        }
+        
+        @Override
+        public Map<String, List<ContentReader>> retrievePageContents(Map<String, List<String>> volumePageSequences) throws RepositoryException {
+            Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+            for (Map.Entry<String, List<String>> entry : volumePageSequences.entrySet()) {
+                try {
+                    contentReadersMap.put(entry.getKey(), retrievePageContents(entry.getKey(), entry.getValue()));
+                } catch (KeyNotFoundException e) {
+                    throw new RepositoryException("no such volume " + entry.getKey(), e);
+                }
+            }
+            return contentReadersMap;
+        }
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        pageFile = File.createTempFile("page", ".txt");
+        FileOutputStream fileOutputStream = new FileOutputStream(pageFile);
+        try {
+            fileOutputStream.write(new byte[PAGE_SIZE]);
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+    
+    @After
+    public void tearDown() {
+        pageFile.delete();
+    }
+    
+    // This case tests that memory-mapped pages are measured by their length without being copied onto the heap
+    @Test
+    public void testMappedPagesNotCopied() throws Exception {
+        AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(1000000, 0, 1, 1000);
+        MeasuredVolumeStore measuredVolumeStore = new MeasuredVolumeStore(new MappedVolumeStore(), adaptiveBatchSizer);
+        
+        List<ContentReader> pages = measuredVolumeStore.retrievePageContents("test.volume1", Arrays.asList("00000001", "00000002"));
+        Assert.assertEquals(2, pages.size());
+        Assert.assertEquals(PAGE_SIZE, adaptiveBatchSizer.getBytesPerPage());
+        Assert.assertEquals(0, getContentCount.get());
+    }
+    
+    // This case tests that the pages of a batch retrieval are measured by their length without being copied onto the heap
+    @Test
+    public void testMappedBatchNotCopied() throws Exception {
+        AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(1000000, 0, 1, 1000);
+        MeasuredVolumeStore measuredVolumeStore = new MeasuredVolumeStore(new MappedVolumeStore(), adaptiveBatchSizer);
+        
+        Map<String, List<String>> volumePageSequences = new HashMap<String, List<String>>();
+        volumePageSequences.put("test.volume1", Arrays.asList("00000001", "00000002"));
+        volumePageSequences.put("test.volume2", Arrays.asList("00000001"));
+        measuredVolumeStore.retrievePageContents(volumePageSequences);
+        
+        Assert.assertEquals(1, adaptiveBatchSizer.getSampleCount());
+        Assert.assertEquals(PAGE_SIZE, adaptiveBatchSizer.getBytesPerPage());
+        Assert.assertEquals(0, getContentCount.get());
+    }
+}
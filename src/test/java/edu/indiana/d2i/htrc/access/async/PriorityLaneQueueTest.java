@@ -0,0 +1,209 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PriorityLaneQueueTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class PriorityLaneQueueTest {
+    
+    static class TestTask implements Runnable, PriorityLaneQueue.LaneTask {
+        final boolean interactive;
+        final String name;
+        
+        TestTask(boolean interactive, String name) {
+            this.interactive = interactive;
+            this.name = name;
+        }
+        
+        @Override
+        public boolean isInteractive() {
+            return interactive;
+        }
+        
+        @Override
+        public void run() {
+        }
+    }
+    
+    private PriorityLaneQueue createQueue(int bulkShare, long bulkMaxWait) {
+        return new PriorityLaneQueue(new LinkedBlockingQueue<Runnable>(), new LinkedBlockingQueue<Runnable>(), bulkShare, bulkMaxWait, 100, 10000);
+    }
+    
+    private List<String> drainNames(PriorityLaneQueue queue) {
+        List<String> names = new ArrayList<String>();
+        Runnable runnable = null;
+        while ((runnable = queue.poll()) != null) {
+            names.add(((TestTask)runnable).name);
+        }
+        return names;
+    }
+    
+    // This case tests that interactive tasks are served before bulk tasks queued earlier
+    @Test
+    public void testInteractiveFirst() {
+        PriorityLaneQueue queue = createQueue(0, 0);
+        queue.offer(new TestTask(false, "b1"));
+        queue.offer(new TestTask(false, "b2"));
+        queue.offer(new TestTask(true, "i1"));
+        queue.offer(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals("i1", ((TestTask)queue.poll()).name);
+        Assert.assertEquals("b1", ((TestTask)queue.poll()).name);
+        Assert.assertEquals("b2", ((TestTask)queue.poll()).name);
+        Assert.assertNotNull(queue.poll());
+        Assert.assertNull(queue.poll());
+    }
+    
+    // This case tests that a bulk task is served after bulkShare interactive tasks in a row, so bulk work is not starved
+    @Test
+    public void testBulkShare() {
+        PriorityLaneQueue queue = createQueue(2, 0);
+        queue.offer(new TestTask(false, "b1"));
+        queue.offer(new TestTask(false, "b2"));
+        for (int i = 1; i <= 5; i++) {
+            queue.offer(new TestTask(true, "i" + i));
+        }
+        
+        Assert.assertArrayEquals(new String[] {"i1", "i2", "b1", "i3", "i4", "b2", "i5"}, drainNames(queue).toArray(new String[0]));
+        Assert.assertEquals(2, queue.getStarvationGuardCount());
+    }
+    
+    // This case tests that a bulk task that waited for bulkMaxWait is served ahead of interactive tasks, and that waits beyond the latency objective of a lane
+    // are counted for that lane
+    @Test
+    public void testBulkMaxWait() throws Exception {
+        PriorityLaneQueue queue = createQueue(0, 50);
+        queue.offer(new TestTask(false, "b1"));
+        queue.offer(new TestTask(true, "i1"));
+        Thread.sleep(150);
+        
+        Assert.assertArrayEquals(new String[] {"b1", "i1"}, drainNames(queue).toArray(new String[0]));
+        Assert.assertEquals(1, queue.getStarvationGuardCount());
+        Assert.assertEquals(1, queue.getObjectiveMissCount(true));
+        Assert.assertEquals(0, queue.getObjectiveMissCount(false));
+    }
+    
+    // This case tests that removing a task, as done when a fetch is cancelled, takes it out of its lane
+    @Test
+    public void testRemove() {
+        PriorityLaneQueue queue = createQueue(0, 0);
+        TestTask interactiveTask = new TestTask(true, "i1");
+        queue.offer(new TestTask(false, "b1"));
+        queue.offer(interactiveTask);
+        
+        Assert.assertTrue(queue.remove(interactiveTask));
+        Assert.assertFalse(queue.remove(interactiveTask));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals("b1", ((TestTask)queue.poll()).name);
+    }
+    
+    // This case tests that no more than maxBulkRunning bulk tasks are handed to the workers at once, and that the next one is handed out when one is done
+    @Test
+    public void testMaxBulkRunning() {
+        PriorityLaneQueue queue = new PriorityLaneQueue(new LinkedBlockingQueue<Runnable>(), new LinkedBlockingQueue<Runnable>(), 0, 0, 100, 10000, 1);
+        queue.offer(new TestTask(false, "b1"));
+        queue.offer(new TestTask(false, "b2"));
+        
+        Runnable bulkTask = queue.poll();
+        Assert.assertTrue(bulkTask instanceof PriorityLaneQueue.BulkWorkerTask);
+        Assert.assertEquals(1, queue.getBulkRunningCount());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(1, queue.size());
+        
+        queue.offer(new TestTask(true, "i1"));
+        Assert.assertEquals("i1", ((TestTask)queue.poll()).name);
+        
+        bulkTask.run();
+        Assert.assertEquals(0, queue.getBulkRunningCount());
+        Runnable nextBulkTask = queue.poll();
+        Assert.assertEquals("b2", ((TestTask)((PriorityLaneQueue.BulkWorkerTask)nextBulkTask).runnable).name);
+    }
+    
+    // This case tests that a worker kept for interactive tasks runs an interactive task while all other workers are busy with bulk tasks and more are waiting
+    @Test
+    public void testReservedWorker() throws Exception {
+        PriorityLaneQueue queue = new PriorityLaneQueue(new LinkedBlockingQueue<Runnable>(), new LinkedBlockingQueue<Runnable>(), 0, 0, 100, 10000, 2);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(3, 3, 0L, TimeUnit.MILLISECONDS, queue);
+        threadPoolExecutor.prestartAllCoreThreads();
+        
+        final CountDownLatch bulkGate = new CountDownLatch(1);
+        try {
+            for (int i = 1; i <= 5; i++) {
+                threadPoolExecutor.execute(new TestTask(false, "b" + i) {
+                    @Override
+                    public void run() {
+                        try {
+                            bulkGate.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            
+            final CountDownLatch interactiveDone = new CountDownLatch(1);
+            threadPoolExecutor.execute(new TestTask(true, "i1") {
+                @Override
+                public void run() {
+                    interactiveDone.countDown();
+                }
+            });
+            
+            Assert.assertTrue(interactiveDone.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, queue.getBulkRunningCount());
+            Assert.assertEquals(3, queue.size());
+        } finally {
+            bulkGate.countDown();
+            threadPoolExecutor.shutdown();
+        }
+        Assert.assertTrue(threadPoolExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, queue.getBulkRunningCount());
+    }
+
+}
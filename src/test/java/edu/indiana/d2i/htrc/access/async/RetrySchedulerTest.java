@@ -0,0 +1,244 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RetrySchedulerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.RequestDeadline;
+import edu.indiana.d2i.htrc.access.RetryDeferral;
+import edu.indiana.d2i.htrc.access.exception.QueryRejectedException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class RetrySchedulerTest {
+    
+    static class FlakyCallable implements Callable<String> {
+        final AtomicInteger callCount = new AtomicInteger(0);
+        final int failures;
+        
+        FlakyCallable(int failures) {
+            this.failures = failures;
+        }
+        
+        @Override
+        public String call() throws Exception {
+            if (callCount.incrementAndGet() <= failures) {
+                throw new RepositoryException("failure " + callCount.get());
+            }
+            return "done";
+        }
+    }
+    
+    private ExecutorService executorService;
+    
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(1);
+    }
+    
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+    
+    // This case tests that the retry budget allows its reserve as a burst, then only the fraction of a retry earned by each request
+    @Test
+    public void testRetryBudget() {
+        RetryBudget retryBudget = new RetryBudget(0.5, 2);
+        Assert.assertTrue(retryBudget.tryAcquire());
+        Assert.assertTrue(retryBudget.tryAcquire());
+        Assert.assertFalse(retryBudget.tryAcquire());
+        
+        retryBudget.recordRequest();
+        Assert.assertFalse(retryBudget.tryAcquire());
+        retryBudget.recordRequest();
+        Assert.assertTrue(retryBudget.tryAcquire());
+        
+        for (int i = 0; i < 100; i++) {
+            retryBudget.recordRequest();
+        }
+        Assert.assertEquals(2.0, retryBudget.getTokens(), 0.0);
+    }
+    
+    // This case tests that a fetch failing with a RepositoryException is retried until it succeeds
+    @Test
+    public void testRetryUntilSuccess() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 3, 1, 4, new RetryBudget(0.1, 10));
+        FlakyCallable callable = new FlakyCallable(2);
+        
+        Future<String> future = retryScheduler.submit(callable);
+        Assert.assertEquals("done", future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, callable.callCount.get());
+        Assert.assertEquals(2L, retryScheduler.getRetriesScheduled());
+        retryScheduler.shutdown();
+    }
+    
+    // This case tests that the last exception is reported once a fetch runs out of retries
+    @Test
+    public void testGiveUpAfterMaxRetries() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 2, 1, 4, new RetryBudget(0.1, 10));
+        FlakyCallable callable = new FlakyCallable(5);
+        
+        Future<String> future = retryScheduler.submit(callable);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RepositoryException);
+            Assert.assertEquals("failure 3", e.getCause().getMessage());
+        }
+        Assert.assertEquals(3, callable.callCount.get());
+        retryScheduler.shutdown();
+    }
+    
+    // This case tests that a fetch is not retried once the retry budget is exhausted
+    @Test
+    public void testRetryDeniedByBudget() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 5, 1, 4, new RetryBudget(0.0, 1));
+        FlakyCallable callable = new FlakyCallable(5);
+        
+        Future<String> future = retryScheduler.submit(callable);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RepositoryException);
+        }
+        Assert.assertEquals(2, callable.callCount.get());
+        Assert.assertEquals(1L, retryScheduler.getRetriesScheduled());
+        Assert.assertEquals(1L, retryScheduler.getRetriesDenied());
+        retryScheduler.shutdown();
+    }
+    
+    // This case tests that a fetch is not retried when the backoff would outlast the deadline of the request
+    @Test
+    public void testNoRetryPastDeadline() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 5, 10000, 20000, new RetryBudget(0.1, 10));
+        FlakyCallable callable = new FlakyCallable(5);
+        
+        Future<String> future = retryScheduler.submit(callable, null, false, RequestDeadline.newInstance("1000"), null);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RepositoryException);
+        }
+        Assert.assertEquals(1, callable.callCount.get());
+        Assert.assertEquals(0L, retryScheduler.getRetriesScheduled());
+        Assert.assertEquals(1L, retryScheduler.getRetriesPastDeadline());
+        retryScheduler.shutdown();
+    }
+    
+    // This case tests that an exception other than RepositoryException is reported right away without retrying
+    @Test
+    public void testNoRetryOnOtherException() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 5, 1, 4, new RetryBudget(0.1, 10));
+        final AtomicInteger callCount = new AtomicInteger(0);
+        
+        Future<String> future = retryScheduler.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                callCount.incrementAndGet();
+                throw new IllegalArgumentException("bad");
+            }
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        Assert.assertEquals(1, callCount.get());
+        Assert.assertEquals(0L, retryScheduler.getRetriesScheduled());
+        retryScheduler.shutdown();
+    }
+    
+    // This case tests that a query rejected before reaching the backend, e.g. by an open circuit breaker, is reported right away without retrying
+    @Test
+    public void testNoRetryOnRejectedQuery() throws Exception {
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 5, 1, 4, new RetryBudget(0.1, 10));
+        final AtomicInteger callCount = new AtomicInteger(0);
+        
+        Future<String> future = retryScheduler.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                callCount.incrementAndGet();
+                throw new QueryRejectedException("circuit open");
+            }
+        });
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof QueryRejectedException);
+        }
+        Assert.assertEquals(1, callCount.get());
+        Assert.assertEquals(0L, retryScheduler.getRetriesScheduled());
+        retryScheduler.shutdown();
+    }
+    
+    // This case tests that retries are deferred only within the attempts the scheduler runs, and only when it reschedules failed attempts itself
+    @Test
+    public void testRetryDeferralPerAttempt() throws Exception {
+        Callable<Boolean> deferralCallable = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return RetryDeferral.isDeferred();
+            }
+        };
+        
+        RetryScheduler retryScheduler = new RetryScheduler(executorService, 3, 1, 4, new RetryBudget(0.1, 10));
+        Assert.assertTrue(retryScheduler.submit(deferralCallable).get(5, TimeUnit.SECONDS));
+        Assert.assertFalse(RetryDeferral.isDeferred());
+        Assert.assertFalse(executorService.submit(deferralCallable).get(5, TimeUnit.SECONDS));
+        retryScheduler.shutdown();
+        
+        RetryScheduler noRetryScheduler = new RetryScheduler(executorService, 0, 1, 4, new RetryBudget(0.1, 10));
+        Assert.assertFalse(noRetryScheduler.submit(deferralCallable).get(5, TimeUnit.SECONDS));
+        noRetryScheduler.shutdown();
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  SingleFlightFetcherTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestVolumeStore;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class SingleFlightFetcherTest {
+    
+    private ExecutorService executorService;
+    private CountDownLatch gate;
+    private TestVolumeStore volumeStore;
+    private SingleFlightFetcher singleFlightFetcher;
+    // the fetchers only hold weak references to the work units, so the test keeps them reachable like ThrottledVolumeRetrieverImpl does
+    private List<ItemCoordinatesImpl> heldItemCoordinates;
+    
+    @Before
+    public void setUp() {
+        heldItemCoordinates = new ArrayList<ItemCoordinatesImpl>();
+        executorService = Executors.newFixedThreadPool(2);
+        gate = new CountDownLatch(1);
+        volumeStore = new TestVolumeStore();
+        volumeStore.setGate(gate, null);
+        singleFlightFetcher = new SingleFlightFetcher(volumeStore, null) {
+            @Override
+            protected Future<VolumeReader> dispatch(Callable<VolumeReader> callable, String tenantID, CompletionListener<VolumeReader> completionListener) {
+                NotifyingFutureTask<VolumeReader> futureTask = new NotifyingFutureTask<VolumeReader>(callable, tenantID, completionListener);
+                executorService.execute(futureTask);
+                return futureTask;
+            }
+        };
+    }
+    
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executorService.shutdownNow();
+    }
+    
+    private ItemCoordinatesImpl createItemCoordinates(String volumeID, String... pageSequences) {
+        ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl(volumeID);
+        for (String pageSequence : pageSequences) {
+            itemCoordinates.addPageSequence(pageSequence);
+        }
+        heldItemCoordinates.add(itemCoordinates);
+        return itemCoordinates;
+    }
+    
+    // This case tests that identical fetches in flight at the same time share a single retrieval, and each gets its own VolumeReader over the same content
+    @Test
+    public void testCoalesceIdenticalFetches() throws Exception {
+        Future<VolumeReader> future1 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001", "00000002"));
+        Future<VolumeReader> future2 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000002", "00000001"));
+        gate.countDown();
+        
+        VolumeReader volumeReader1 = future1.get(5, TimeUnit.SECONDS);
+        VolumeReader volumeReader2 = future2.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(volumeReader1 != volumeReader2);
+        
+        for (String expected : new String[] {"00000001", "00000002"}) {
+            ContentReader contentReader1 = volumeReader1.nextPage();
+            ContentReader contentReader2 = volumeReader2.nextPage();
+            Assert.assertEquals(expected, contentReader1.getContentName());
+            Assert.assertSame(contentReader1.getContent(), contentReader2.getContent());
+        }
+        Assert.assertFalse(volumeReader1.hasMorePages());
+        Assert.assertFalse(volumeReader2.hasMorePages());
+        
+        Assert.assertEquals(1, volumeStore.retrievalCount.get());
+        Assert.assertEquals(1L, singleFlightFetcher.getFetchCount());
+        Assert.assertEquals(1L, singleFlightFetcher.getCoalescedCount());
+    }
+    
+    // This case tests that each subscriber gets the same VolumeReader from every get, and the shared result is let go once all subscribers have claimed theirs
+    @Test
+    public void testReleaseAfterAllSubscribersClaim() throws Exception {
+        Future<VolumeReader> future1 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001"));
+        Future<VolumeReader> future2 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001"));
+        SingleFlightFetcher.SubscriberFuture subscriberFuture = (SingleFlightFetcher.SubscriberFuture)future1;
+        gate.countDown();
+        
+        VolumeReader volumeReader1 = future1.get(5, TimeUnit.SECONDS);
+        Assert.assertSame(volumeReader1, future1.get());
+        Assert.assertNotNull(subscriberFuture.getSharedFuture());
+        
+        VolumeReader volumeReader2 = future2.get(5, TimeUnit.SECONDS);
+        Assert.assertSame(volumeReader2, future2.get());
+        Assert.assertNull(subscriberFuture.getSharedFuture());
+        Assert.assertTrue(future1.isDone());
+        Assert.assertFalse(future1.cancel(true));
+        Assert.assertEquals("00000001", volumeReader2.nextPage().getContentName());
+    }
+    
+    // This case tests that fetches for different pages of the same volume are not coalesced
+    @Test
+    public void testDifferentFetchesNotCoalesced() throws Exception {
+        Future<VolumeReader> future1 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001"));
+        Future<VolumeReader> future2 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000002"));
+        gate.countDown();
+        
+        Assert.assertEquals("00000001", future1.get(5, TimeUnit.SECONDS).nextPage().getContentName());
+        Assert.assertEquals("00000002", future2.get(5, TimeUnit.SECONDS).nextPage().getContentName());
+        Assert.assertEquals(2L, singleFlightFetcher.getFetchCount());
+        Assert.assertEquals(0L, singleFlightFetcher.getCoalescedCount());
+    }
+    
+    // This case tests that a fetch that has completed is not joined, so a later identical fetch goes to the VolumeStore again
+    @Test
+    public void testCompletedFetchNotJoined() throws Exception {
+        gate.countDown();
+        singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001")).get(5, TimeUnit.SECONDS);
+        singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001")).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(2, volumeStore.retrievalCount.get());
+    }
+    
+    // This case tests that the shared fetch is only cancelled once all of its subscribers have cancelled
+    @Test
+    public void testCancelWhenAllSubscribersCancel() throws Exception {
+        Future<VolumeReader> future1 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001"));
+        Future<VolumeReader> future2 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001"));
+        SingleFlightFetcher.SubscriberFuture subscriberFuture = (SingleFlightFetcher.SubscriberFuture)future1;
+        
+        Assert.assertTrue(future1.cancel(true));
+        Assert.assertTrue(future1.isCancelled());
+        Assert.assertFalse(subscriberFuture.getSharedFuture().isCancelled());
+        
+        Assert.assertTrue(future2.cancel(true));
+        Assert.assertTrue(subscriberFuture.getSharedFuture().isCancelled());
+        
+        // the cancelled fetch no longer takes subscribers
+        Future<VolumeReader> future3 = singleFlightFetcher.submit(createItemCoordinates("inu.30000000000001", "00000001"));
+        gate.countDown();
+        Assert.assertEquals("00000001", future3.get(5, TimeUnit.SECONDS).nextPage().getContentName());
+        Assert.assertEquals(2L, singleFlightFetcher.getFetchCount());
+    }
+
+}
@@ -0,0 +1,328 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ThrottledVolumeRetrieverImplTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.TestVolumeStore;
+import edu.indiana.d2i.htrc.access.RequestDeadline;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.exception.DeadlineExceededException;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ThrottledVolumeRetrieverImplTest {
+    
+    private static final String SLOW_VOLUME_ID = "inu.30000000000001";
+    private static final String FAST_VOLUME_ID = "inu.30000000000002";
+    
+    private CountDownLatch gate;
+    private TestVolumeStore volumeStore;
+    private AsyncFetchManager asyncFetchManager;
+    
+    @Before
+    public void setUp() {
+        TestParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(AsyncFetchManager.PN_ASYNC_WORKER_COUNT, "2");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MAX_ASYNC_FETCH_ENTRY_COUNT, "10");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MAX_EXCEPTIONS_TO_REPORT, "10");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MAX_PAGES_PER_RETRIEVAL, "10");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_MIN_ENTRY_COUNT_TRIGGER_DISPATCH, "3");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_UNORDERED_RETRIEVAL, "true");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_VOLUME_INFO_PREFETCH_COUNT, "4");
+        parameterContainer.setParameter(ThrottledVolumeRetrieverImpl.PN_VOLUME_INFO_PREFETCH_MAX_WAIT, "100");
+        
+        gate = new CountDownLatch(1);
+        volumeStore = new TestVolumeStore();
+        volumeStore.setGate(gate, SLOW_VOLUME_ID);
+        AsyncFetchManager.init(parameterContainer, volumeStore);
+        asyncFetchManager = new AsyncFetchManager();
+        ThrottledVolumeRetrieverImpl.init(parameterContainer, volumeStore, asyncFetchManager);
+    }
+    
+    @After
+    public void tearDown() {
+        gate.countDown();
+        asyncFetchManager.shutdown();
+    }
+    
+    private List<ItemCoordinatesImpl> createRequest() {
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        for (String volumeID : new String[] {SLOW_VOLUME_ID, FAST_VOLUME_ID}) {
+            ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl(volumeID);
+            itemCoordinates.addPageSequence("00000001");
+            itemCoordinatesList.add(itemCoordinates);
+        }
+        return itemCoordinatesList;
+    }
+    
+    // This case tests that in unordered mode a fetch that completes first is returned first, even though it was requested after a slow one
+    @Test
+    public void testUnorderedRetrieval() throws Exception {
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), true);
+        volumeRetriever.setRetrievalIDs(createRequest());
+        
+        VolumeReader volumeReader = volumeRetriever.nextVolume();
+        Assert.assertEquals(FAST_VOLUME_ID, volumeReader.getVolumeID());
+        
+        gate.countDown();
+        volumeReader = volumeRetriever.nextVolume();
+        Assert.assertEquals(SLOW_VOLUME_ID, volumeReader.getVolumeID());
+        Assert.assertEquals("00000001", volumeReader.nextPage().getContentName());
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+    }
+    
+    // This case tests that a volume broken down into several work units only counts as complete once all of them have been returned
+    @Test
+    public void testVolumeComplete() throws Exception {
+        List<ItemCoordinatesImpl> itemCoordinatesList = createRequest();
+        ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl(FAST_VOLUME_ID);
+        for (int i = 2; i <= 25; i++) {
+            itemCoordinates.addPageSequence(String.format("%08d", i));
+        }
+        itemCoordinatesList.add(itemCoordinates);
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), true);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        Assert.assertFalse(volumeRetriever.isVolumeComplete(FAST_VOLUME_ID));
+        
+        // the fast volume comes as 1 work unit for page 1 and 3 work units for pages 2 to 25
+        for (int i = 0; i < 4; i++) {
+            Assert.assertFalse(volumeRetriever.isVolumeComplete(FAST_VOLUME_ID));
+            Assert.assertEquals(FAST_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        }
+        Assert.assertTrue(volumeRetriever.isVolumeComplete(FAST_VOLUME_ID));
+        Assert.assertFalse(volumeRetriever.isVolumeComplete(SLOW_VOLUME_ID));
+        
+        gate.countDown();
+        Assert.assertEquals(SLOW_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        Assert.assertTrue(volumeRetriever.isVolumeComplete(SLOW_VOLUME_ID));
+    }
+    
+    // This case tests that a caller depending on the order gets the volumes in the requested order even when unordered retrieval is enabled
+    @Test
+    public void testOrderedRetrieval() throws Exception {
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(createRequest());
+        gate.countDown();
+        
+        Assert.assertEquals(SLOW_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        Assert.assertEquals(FAST_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+    }
+    
+    // This case tests that cancelling a retrieval, as done when the client goes away, keeps the queued fetches from going to the VolumeStore
+    @Test
+    public void testCancel() throws Exception {
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        for (int i = 1; i <= 4; i++) {
+            ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl(SLOW_VOLUME_ID);
+            itemCoordinates.addPageSequence("0000000" + i);
+            itemCoordinatesList.add(itemCoordinates);
+        }
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        
+        // both workers are held back by the gate, and the other 2 fetches wait in the queue
+        long deadline = System.currentTimeMillis() + 5000;
+        while (volumeStore.retrievalCount.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, volumeStore.retrievalCount.get());
+        
+        Assert.assertEquals(4, volumeRetriever.cancel());
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+        Assert.assertEquals(4L, asyncFetchManager.getCancelledFetchCount());
+        Assert.assertEquals(4, itemCoordinatesList.size());
+        
+        gate.countDown();
+        Thread.sleep(200);
+        Assert.assertEquals(2, volumeStore.retrievalCount.get());
+    }
+    
+    // This case tests that the VolumeInfo of the whole volumes in a request is looked up ahead in a single batch instead of once per volume
+    @Test
+    public void testVolumeInfoPrefetch() throws Exception {
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        for (int i = 3; i <= 5; i++) {
+            itemCoordinatesList.add(new ItemCoordinatesImpl("inu.3000000000000" + i));
+        }
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        
+        for (int i = 3; i <= 5; i++) {
+            VolumeReader volumeReader = volumeRetriever.nextVolume();
+            Assert.assertEquals("inu.3000000000000" + i, volumeReader.getVolumeID());
+            Assert.assertEquals("00000001", volumeReader.nextPage().getContentName());
+        }
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+        Assert.assertEquals(1, volumeStore.volumeInfoBatchCount.get());
+        Assert.assertEquals(0, volumeStore.volumeInfoCount.get());
+        Assert.assertEquals(1L, asyncFetchManager.getVolumeInfoLookupCount());
+    }
+    
+    // This case tests that a volume the prefetch does not find is looked up again so the request still reports it as not found
+    @Test
+    public void testVolumeInfoPrefetchKeyNotFound() throws Exception {
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        itemCoordinatesList.add(new ItemCoordinatesImpl(FAST_VOLUME_ID));
+        itemCoordinatesList.add(new ItemCoordinatesImpl(TestVolumeStore.MISSING_VOLUME_ID_PREFIX + "30000000000003"));
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        
+        Assert.assertEquals(FAST_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        try {
+            volumeRetriever.nextVolume();
+            Assert.fail("KeyNotFoundException expected");
+        } catch (KeyNotFoundException e) {
+            Assert.assertEquals(1, volumeStore.volumeInfoCount.get());
+        }
+        Assert.assertEquals(1, volumeStore.volumeInfoBatchCount.get());
+    }
+    
+    // This case tests that a request does not wait for a prefetch that is held up past volume.info.prefetch.max.wait, and looks the volume up on its own
+    @Test
+    public void testVolumeInfoPrefetchTimeout() throws Exception {
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        itemCoordinatesList.add(new ItemCoordinatesImpl(SLOW_VOLUME_ID));
+        
+        // the page fetch of the slow volume is held back by the gate too, so the gate is opened once the volume has been looked up on its own
+        Thread opener = new Thread() {
+            @Override
+            public void run() {
+                long deadline = System.currentTimeMillis() + 5000;
+                while (volumeStore.volumeInfoCount.get() < 1 && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                gate.countDown();
+            }
+        };
+        opener.start();
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        
+        Assert.assertEquals(SLOW_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        opener.join();
+        Assert.assertEquals(1, volumeStore.volumeInfoCount.get());
+        Assert.assertEquals(1, volumeStore.volumeInfoBatchCount.get());
+    }
+    
+    // This case tests that small work units are fetched with multigets of at most the batch size of the VolumeStore, and a leftover unit goes alone
+    @Test
+    public void testMultigetBatchSplit() throws Exception {
+        volumeStore.setMaxVolumesPerBatch(3);
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        for (int i = 3; i <= 9; i++) {
+            ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl("inu.3000000000000" + i);
+            itemCoordinates.addPageSequence("00000001");
+            itemCoordinatesList.add(itemCoordinates);
+        }
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        
+        for (int i = 3; i <= 9; i++) {
+            VolumeReader volumeReader = volumeRetriever.nextVolume();
+            Assert.assertEquals("inu.3000000000000" + i, volumeReader.getVolumeID());
+            Assert.assertEquals("00000001", volumeReader.nextPage().getContentName());
+        }
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+        Assert.assertEquals(2, volumeStore.batchRetrievalCount.get());
+        Assert.assertEquals(3, volumeStore.retrievalCount.get());
+    }
+    
+    // This case tests that a work unit missing from the result of a multiget fails on its own, the other units of the same multiget are still returned, and
+    // the failure is reported after them
+    @Test
+    public void testMultigetUnitFailure() throws Exception {
+        volumeStore.setMaxVolumesPerBatch(3);
+        List<ItemCoordinatesImpl> itemCoordinatesList = new ArrayList<ItemCoordinatesImpl>();
+        for (String volumeID : new String[] {FAST_VOLUME_ID, TestVolumeStore.MISSING_VOLUME_ID_PREFIX + "30000000000003", "inu.30000000000004"}) {
+            ItemCoordinatesImpl itemCoordinates = new ItemCoordinatesImpl(volumeID);
+            itemCoordinates.addPageSequence("00000001");
+            itemCoordinatesList.add(itemCoordinates);
+        }
+        
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false);
+        volumeRetriever.setRetrievalIDs(itemCoordinatesList);
+        
+        Assert.assertEquals(FAST_VOLUME_ID, volumeRetriever.nextVolume().getVolumeID());
+        Assert.assertEquals("inu.30000000000004", volumeRetriever.nextVolume().getVolumeID());
+        try {
+            volumeRetriever.nextVolume();
+            Assert.fail("KeyNotFoundException expected");
+        } catch (KeyNotFoundException e) {
+            Assert.assertTrue(e.getMessage().contains(TestVolumeStore.MISSING_VOLUME_ID_PREFIX));
+        }
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+        Assert.assertEquals(1, volumeStore.batchRetrievalCount.get());
+        Assert.assertEquals(1, volumeStore.retrievalCount.get());
+    }
+    
+    // This case tests that a retrieval stops waiting for a fetch once the deadline of the request passes, drops the rest of its work and reports the deadline
+    @Test
+    public void testDeadlineExceeded() throws Exception {
+        ThrottledVolumeRetrieverImpl volumeRetriever = ThrottledVolumeRetrieverImpl.newInstance(new NullAuditor(null), false, null, RequestDeadline.newInstance("200"));
+        volumeRetriever.setRetrievalIDs(createRequest());
+        
+        long startTime = System.currentTimeMillis();
+        try {
+            volumeRetriever.nextVolume();
+            Assert.fail("DeadlineExceededException expected");
+        } catch (DeadlineExceededException e) {
+            Assert.assertTrue(System.currentTimeMillis() - startTime < 5000);
+        }
+        Assert.assertFalse(volumeRetriever.hasMoreVolumes());
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  CircuitBreakerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.read.CircuitBreaker.StateEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class CircuitBreakerTest {
+
+    static class TestCircuitBreaker extends CircuitBreaker {
+        long now = 0L;
+
+        TestCircuitBreaker(int windowSize, double failureRateThreshold, long openDuration, int halfOpenProbes) {
+            super(windowSize, failureRateThreshold, openDuration, halfOpenProbes);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+    
+    private void record(CircuitBreaker circuitBreaker, boolean failure) {
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        if (failure) {
+            circuitBreaker.recordFailure();
+        } else {
+            circuitBreaker.recordSuccess();
+        }
+    }
+
+    // This case tests that the breaker stays closed until the window is full, and trips once the failure rate in the window reaches the threshold
+    @Test
+    public void testTripOnFailureRate() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(4, 0.5, 1000L, 1);
+        record(circuitBreaker, true);
+        record(circuitBreaker, true);
+        Assert.assertEquals(StateEnum.CLOSED, circuitBreaker.getState());
+        
+        record(circuitBreaker, false);
+        record(circuitBreaker, false);
+        Assert.assertEquals(StateEnum.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(1L, circuitBreaker.getTripCount());
+    }
+    
+    // This case tests that old outcomes slide out of the window, so failures spread over many successes do not trip the breaker
+    @Test
+    public void testSlidingWindow() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(4, 0.5, 1000L, 1);
+        for (int i = 0; i < 20; i++) {
+            record(circuitBreaker, i % 4 == 0);
+        }
+        Assert.assertEquals(StateEnum.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(0L, circuitBreaker.getTripCount());
+    }
+    
+    // This case tests that an open breaker rejects queries until the open duration has passed, then lets a limited number of probes through
+    @Test
+    public void testOpenThenHalfOpen() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(2, 0.5, 1000L, 2);
+        record(circuitBreaker, true);
+        record(circuitBreaker, true);
+        Assert.assertEquals(StateEnum.OPEN, circuitBreaker.getState());
+        
+        circuitBreaker.now = 999L;
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        Assert.assertEquals(1L, circuitBreaker.getRejectedCount());
+        
+        circuitBreaker.now = 1000L;
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        Assert.assertEquals(StateEnum.HALF_OPEN, circuitBreaker.getState());
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        Assert.assertFalse(circuitBreaker.allowRequest());
+        Assert.assertEquals(2L, circuitBreaker.getRejectedCount());
+        
+        circuitBreaker.recordSuccess();
+        Assert.assertEquals(StateEnum.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.recordSuccess();
+        Assert.assertEquals(StateEnum.CLOSED, circuitBreaker.getState());
+    }
+    
+    // This case tests that a failed probe in the half-open state trips the breaker open again
+    @Test
+    public void testFailedProbeReopens() {
+        TestCircuitBreaker circuitBreaker = new TestCircuitBreaker(2, 0.5, 1000L, 2);
+        record(circuitBreaker, true);
+        record(circuitBreaker, true);
+        
+        circuitBreaker.now = 1000L;
+        Assert.assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.recordFailure();
+        Assert.assertEquals(StateEnum.OPEN, circuitBreaker.getState());
+        Assert.assertEquals(2L, circuitBreaker.getTripCount());
+        
+        circuitBreaker.now = 1999L;
+        Assert.assertFalse(circuitBreaker.allowRequest());
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  ConcurrencyLimiterTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class ConcurrencyLimiterTest {
+    
+    private static final String QUERY_TYPE = "column";
+    private static final long MAX_WAIT = 1000L;
+    
+    // runs one full round of queries at the current limit, all with the given round trip time
+    private void runRound(ConcurrencyLimiter concurrencyLimiter, long roundTripTime) throws InterruptedException {
+        int limit = concurrencyLimiter.getLimit();
+        for (int i = 0; i < limit; i++) {
+            Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+        }
+        for (int i = 0; i < limit; i++) {
+            concurrencyLimiter.releaseOnSuccess(QUERY_TYPE, roundTripTime);
+        }
+    }
+
+    // This case tests that the limit grows while the round trip time stays flat and the limit is in use
+    @Test
+    public void testAdditiveIncrease() throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(4, 1, 100);
+        for (int i = 0; i < 10; i++) {
+            runRound(concurrencyLimiter, 10);
+        }
+        Assert.assertTrue(concurrencyLimiter.getLimit() > 4);
+        Assert.assertTrue(concurrencyLimiter.getLimit() <= 14);
+        Assert.assertEquals(0, concurrencyLimiter.getInFlight());
+    }
+    
+    // This case tests that the limit does not grow while it is not in use
+    @Test
+    public void testNoIncreaseWhenIdle() throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(10, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+            concurrencyLimiter.releaseOnSuccess(QUERY_TYPE, 10);
+        }
+        Assert.assertEquals(10, concurrencyLimiter.getLimit());
+    }
+    
+    // This case tests that timeouts cut the limit by half at most once per round, and never below the minimum
+    @Test
+    public void testMultiplicativeDecrease() throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(16, 2, 100);
+        for (int i = 0; i < 16; i++) {
+            Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+        }
+        for (int i = 0; i < 16; i++) {
+            concurrencyLimiter.releaseOnTimeout();
+        }
+        Assert.assertEquals(8, concurrencyLimiter.getLimit());
+        
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+            concurrencyLimiter.releaseOnTimeout();
+        }
+        Assert.assertEquals(2, concurrencyLimiter.getLimit());
+    }
+    
+    // This case tests that a rising round trip time shrinks the limit
+    @Test
+    public void testLatencyBackoff() throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(20, 1, 100);
+        runRound(concurrencyLimiter, 10);
+        int limit = concurrencyLimiter.getLimit();
+        runRound(concurrencyLimiter, 100);
+        Assert.assertTrue(concurrencyLimiter.getLimit() < limit);
+    }
+    
+    // This case tests that acquire blocks at the limit until a slot is released
+    @Test
+    public void testAcquireBlocksAtLimit() throws Exception {
+        final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(1, 1, 1);
+        Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+        
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    if (concurrencyLimiter.acquire(5000)) {
+                        acquired.countDown();
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        thread.start();
+        
+        Assert.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        concurrencyLimiter.releaseIgnored();
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, concurrencyLimiter.getInFlight());
+    }
+    
+    // This case tests that acquire gives up once the maximum wait has passed while the limit stays full
+    @Test
+    public void testAcquireTimesOut() throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(1, 1, 1);
+        Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+        
+        long startTime = System.currentTimeMillis();
+        Assert.assertFalse(concurrencyLimiter.acquire(100));
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 100);
+        Assert.assertEquals(1, concurrencyLimiter.getInFlight());
+    }
+    
+    // This case tests that each query type has a baseline of its own, so slow multigets do not shrink the limit while single lookups stay fast
+    @Test
+    public void testBaselinePerQueryType() throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(10, 1, 100);
+        for (int round = 0; round < 5; round++) {
+            int limit = concurrencyLimiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                Assert.assertTrue(concurrencyLimiter.acquire(MAX_WAIT));
+            }
+            for (int i = 0; i < limit; i++) {
+                concurrencyLimiter.releaseOnSuccess((i % 2 == 0) ? QUERY_TYPE : "multiget", (i % 2 == 0) ? 10 : 200);
+            }
+        }
+        Assert.assertTrue(concurrencyLimiter.getLimit() > 10);
+        Assert.assertEquals(10, concurrencyLimiter.getBaselineRTT(QUERY_TYPE));
+        Assert.assertEquals(200, concurrencyLimiter.getBaselineRTT("multiget"));
+        Assert.assertEquals(-1, concurrencyLimiter.getBaselineRTT("range"));
+    }
+
+}
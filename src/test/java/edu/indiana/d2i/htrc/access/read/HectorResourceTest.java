@@ -0,0 +1,265 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  HectorResourceTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.prettyprint.hector.api.exceptions.HPoolExhaustedException;
+import me.prettyprint.hector.api.exceptions.HTimedOutException;
+import me.prettyprint.hector.api.exceptions.HUnavailableException;
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.exceptions.HectorTransportException;
+import me.prettyprint.hector.api.query.Query;
+import me.prettyprint.hector.api.query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class HectorResourceTest {
+    
+    static class RecordingHectorResource extends TestHectorResource {
+        final List<List<String>> multigetBatches = new ArrayList<List<String>>();
+        final Map<String, List<String>> requestedColumns = new HashMap<String, List<String>>();
+        
+        RecordingHectorResource(ParameterContainer parameterContainer) throws Exception {
+            super(parameterContainer);
+        }
+        
+        @Override
+        protected Map<String, List<ContentReader>> retrieveMultigetBatch(List<String> batchVolumeIDs, List<String> columnNameList, boolean isPageSequence) throws RepositoryException {
+            multigetBatches.add(new ArrayList<String>(batchVolumeIDs));
+            Map<String, List<ContentReader>> contentReadersMap = new HashMap<String, List<ContentReader>>();
+            for (String volumeID : batchVolumeIDs) {
+                requestedColumns.put(volumeID, columnNameList);
+                try {
+                    contentReadersMap.put(volumeID, retrievePageContents(volumeID, columnNameList));
+                } catch (KeyNotFoundException e) {
+                    // absent from the Map, like a row the multiget did not find
+                }
+            }
+            return contentReadersMap;
+        }
+        
+        @Override
+        protected List<ContentReader> retrieveColumnContent(String volumeID, List<String> columnNameList, boolean isPageSequence) throws KeyNotFoundException, RepositoryException {
+            requestedColumns.put(volumeID, columnNameList);
+            return retrievePageContents(volumeID, columnNameList);
+        }
+    }
+    
+    private static ParameterContainer newParameterContainer() {
+        ParameterContainer parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_NODE_COUNT, "1");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_NODE_NAME_ + "1", "127.0.0.1");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_CLUSTER_NAME, "No such cluster");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_KEYSPACE_NAME, "NoSuchKeyspace");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_FAIL_INIT_DELAY, "200");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_FAIL_MAX_DELAY, "1000");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_MAX_ATTEMPTS, "4");
+        return parameterContainer;
+    }
+    
+    private static RecordingHectorResource newRecordingHectorResource(String maxKeysPerMultiget) throws Exception {
+        ParameterContainer parameterContainer = newParameterContainer();
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_MULTIGET_MAX_KEYS, maxKeysPerMultiget);
+        return new RecordingHectorResource(parameterContainer);
+    }
+    
+    // a query that fails with the given Throwable, which must be unchecked
+    private static Query<String> newFailingQuery(final Throwable throwable) {
+        return new Query<String>() {
+            @Override
+            public QueryResult<String> execute() {
+                if (throwable instanceof Error) {
+                    throw (Error)throwable;
+                }
+                throw (RuntimeException)throwable;
+            }
+        };
+    }
+    
+    // This case tests that an Error thrown by a half-open probe still gives back the probe and the concurrency slot, so the breaker does not stay half-open
+    @Test
+    public void testErrorRecordedByBreakerAndLimiter() throws Exception {
+        ParameterContainer parameterContainer = newParameterContainer();
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_BREAKER_WINDOW_SIZE, "2");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_BREAKER_FAILURE_RATE, "0.5");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_BREAKER_OPEN_DURATION, "100");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_BREAKER_HALF_OPEN_PROBES, "1");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_CONCURRENCY_INITIAL_LIMIT, "1");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_CONCURRENCY_MAX_WAIT, "100");
+        HectorResource hectorResource = new TestHectorResource(parameterContainer);
+        
+        for (int i = 0; i < 2; i++) {
+            try {
+                hectorResource.executeQuery(HectorResource.QT_PAGE_CONTENTS, newFailingQuery(new HTimedOutException("timed out")));
+                Assert.fail("HTimedOutException expected");
+            } catch (HTimedOutException e) {
+            }
+        }
+        Assert.assertEquals(CircuitBreaker.StateEnum.OPEN, hectorResource.getCircuitBreaker().getState());
+        
+        Thread.sleep(150);
+        try {
+            hectorResource.executeQuery(HectorResource.QT_PAGE_CONTENTS, newFailingQuery(new AssertionError("probe failed")));
+            Assert.fail("AssertionError expected");
+        } catch (AssertionError e) {
+            Assert.assertEquals("probe failed", e.getMessage());
+        }
+        Assert.assertEquals(CircuitBreaker.StateEnum.CLOSED, hectorResource.getCircuitBreaker().getState());
+        Assert.assertEquals(0, hectorResource.getConcurrencyLimiter().getInFlight());
+        hectorResource.shutdown();
+    }
+    
+    // This case tests that only volumes asking for the same pages share a multiget, so no row is asked for pages it did not request
+    @Test
+    public void testMultigetOnlyIdenticalColumns() throws Exception {
+        RecordingHectorResource hectorResource = newRecordingHectorResource("2");
+        
+        Map<String, List<String>> volumePageSequences = new LinkedHashMap<String, List<String>>();
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[0], Arrays.asList("00000001", "00000002"));
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[1], Arrays.asList("00000003"));
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[2], Arrays.asList("00000001", "00000002"));
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[3], Arrays.asList("00000001", "00000002"));
+        
+        Map<String, List<ContentReader>> contentReadersMap = hectorResource.retrievePageContents(volumePageSequences);
+        
+        for (Map.Entry<String, List<String>> entry : volumePageSequences.entrySet()) {
+            Assert.assertEquals(entry.getValue(), hectorResource.requestedColumns.get(entry.getKey()));
+            List<ContentReader> contentReaders = contentReadersMap.get(entry.getKey());
+            Assert.assertEquals(entry.getValue().size(), contentReaders.size());
+            for (int i = 0; i < contentReaders.size(); i++) {
+                Assert.assertEquals(entry.getValue().get(i), contentReaders.get(i).getContentName());
+            }
+        }
+        
+        Assert.assertEquals(2, hectorResource.multigetBatches.size());
+        Assert.assertEquals(Arrays.asList(TestHectorResource.VOLUME_IDS[0], TestHectorResource.VOLUME_IDS[2]), hectorResource.multigetBatches.get(0));
+        Assert.assertEquals(Arrays.asList(TestHectorResource.VOLUME_IDS[3]), hectorResource.multigetBatches.get(1));
+    }
+    
+    // This case tests that volumes with disjoint page lists are each retrieved with a query of their own instead of a multiget
+    @Test
+    public void testMultigetDisjointColumns() throws Exception {
+        RecordingHectorResource hectorResource = newRecordingHectorResource("4");
+        
+        Map<String, List<String>> volumePageSequences = new LinkedHashMap<String, List<String>>();
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[0], Arrays.asList("00000001"));
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[1], Arrays.asList("00000002"));
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[2], Arrays.asList("00000003"));
+        volumePageSequences.put(TestHectorResource.VOLUME_IDS[3], Arrays.asList("00000099"));
+        
+        Map<String, List<ContentReader>> contentReadersMap = hectorResource.retrievePageContents(volumePageSequences);
+        
+        Assert.assertTrue(hectorResource.multigetBatches.isEmpty());
+        for (Map.Entry<String, List<String>> entry : volumePageSequences.entrySet()) {
+            Assert.assertEquals(entry.getValue(), hectorResource.requestedColumns.get(entry.getKey()));
+        }
+        Assert.assertEquals(3, contentReadersMap.size());
+        Assert.assertFalse(contentReadersMap.containsKey(TestHectorResource.VOLUME_IDS[3]));
+    }
+    
+    // This case tests that volumes are grouped by their exact column lists, in the order the lists are first seen
+    @Test
+    public void testGroupByColumnNames() {
+        Map<String, List<String>> volumeColumnNames = new LinkedHashMap<String, List<String>>();
+        volumeColumnNames.put("v1", Arrays.asList("00000001", "00000002"));
+        volumeColumnNames.put("v2", Arrays.asList("00000002", "00000001"));
+        volumeColumnNames.put("v3", Arrays.asList("00000001", "00000002"));
+        
+        Map<List<String>, List<String>> groups = HectorResource.groupByColumnNames(volumeColumnNames);
+        Assert.assertEquals(2, groups.size());
+        Assert.assertEquals(Arrays.asList("v1", "v3"), groups.get(Arrays.asList("00000001", "00000002")));
+        Assert.assertEquals(Arrays.asList("v2"), groups.get(Arrays.asList("00000002", "00000001")));
+    }
+
+    // This case tests that ascending consecutive page sequence numbers form a contiguous run
+    @Test
+    public void testIsContiguousPageRun() {
+        Assert.assertTrue(HectorResource.isContiguousPageRun(Arrays.asList("00000005", "00000006", "00000007")));
+        Assert.assertTrue(HectorResource.isContiguousPageRun(Arrays.asList("00000009", "00000010")));
+    }
+
+    // This case tests that page sequence numbers with a gap, out of order or repeated do not form a contiguous run
+    @Test
+    public void testIsContiguousPageRunNotContiguous() {
+        Assert.assertFalse(HectorResource.isContiguousPageRun(Arrays.asList("00000005", "00000007")));
+        Assert.assertFalse(HectorResource.isContiguousPageRun(Arrays.asList("00000006", "00000005")));
+        Assert.assertFalse(HectorResource.isContiguousPageRun(Arrays.asList("00000005", "00000005")));
+    }
+
+    // This case tests that fewer than 2 pages, or page sequence numbers that are not numbers, never form a contiguous run
+    @Test
+    public void testIsContiguousPageRunEdgeCases() {
+        Assert.assertFalse(HectorResource.isContiguousPageRun(new ArrayList<String>()));
+        Assert.assertFalse(HectorResource.isContiguousPageRun(Arrays.asList("00000005")));
+        Assert.assertFalse(HectorResource.isContiguousPageRun(Arrays.asList("00000005", "0000000x")));
+    }
+
+    // This case tests that timeouts, pool exhaustion, unavailable replicas and broken connections count as failures of Cassandra, and only the first two as overload
+    @Test
+    public void testIsClusterFailure() {
+        Assert.assertTrue(HectorResource.isClusterFailure(new HTimedOutException("timed out")));
+        Assert.assertTrue(HectorResource.isClusterFailure(new HPoolExhaustedException("pool exhausted")));
+        Assert.assertTrue(HectorResource.isClusterFailure(new HUnavailableException("unavailable")));
+        Assert.assertTrue(HectorResource.isClusterFailure(new HectorTransportException("broken connection")));
+        
+        Assert.assertTrue(HectorResource.isOverload(new HTimedOutException("timed out")));
+        Assert.assertTrue(HectorResource.isOverload(new HPoolExhaustedException("pool exhausted")));
+        Assert.assertFalse(HectorResource.isOverload(new HUnavailableException("unavailable")));
+        Assert.assertFalse(HectorResource.isOverload(new HectorTransportException("broken connection")));
+    }
+
+    // This case tests that errors that say nothing about the health of Cassandra do not count as failures
+    @Test
+    public void testIsClusterFailureOtherErrors() {
+        Assert.assertFalse(HectorResource.isClusterFailure(new HectorException("invalid request")));
+        Assert.assertFalse(HectorResource.isClusterFailure(new IllegalArgumentException("bad argument")));
+        Assert.assertFalse(HectorResource.isOverload(new IllegalArgumentException("bad argument")));
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  HedgedQueryExecutorTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.hector.api.query.Query;
+import me.prettyprint.hector.api.query.QueryResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class HedgedQueryExecutorTest {
+
+    static class SlowFirstQuery implements Query<String> {
+        final AtomicInteger executionCount = new AtomicInteger(0);
+        final long firstExecutionDelay;
+        volatile Thread executionThread;
+
+        SlowFirstQuery(long firstExecutionDelay) {
+            this.firstExecutionDelay = firstExecutionDelay;
+        }
+
+        public <Q extends Query<String>> Q setColumnFamily(String cf) {
+            return null;
+        }
+
+        public QueryResult<String> execute() {
+            executionThread = Thread.currentThread();
+            if (executionCount.incrementAndGet() == 1 && firstExecutionDelay > 0) {
+                try {
+                    Thread.sleep(firstExecutionDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final String QUERY_TYPE = "test";
+
+    private void warmUp(HedgedQueryExecutor executor, String queryType) {
+        for (int i = 0; i < HedgedQueryExecutor.MIN_LATENCY_SAMPLES; i++) {
+            executor.execute(queryType, new SlowFirstQuery(0));
+        }
+    }
+
+    // This case tests that no query is hedged before enough latencies have been observed, and such a query runs on the caller's thread
+    @Test
+    public void testNoHedgeBeforeWarmUp() {
+        HedgedQueryExecutor executor = new HedgedQueryExecutor(95.0, 10L, 4, 0.5);
+        SlowFirstQuery query = new SlowFirstQuery(50L);
+        executor.execute(QUERY_TYPE, query);
+
+        Assert.assertEquals(Long.MAX_VALUE, executor.getHedgeDelay(QUERY_TYPE));
+        Assert.assertEquals(1, query.executionCount.get());
+        Assert.assertSame(Thread.currentThread(), query.executionThread);
+        Assert.assertEquals(0L, executor.getHedgesIssued());
+        executor.shutdown();
+    }
+
+    // This case tests that a slow query is hedged once the hedge delay is known, and the faster duplicate wins
+    @Test
+    public void testSlowQueryHedged() {
+        HedgedQueryExecutor executor = new HedgedQueryExecutor(95.0, 10L, 4, 0.5);
+        warmUp(executor, QUERY_TYPE);
+        Assert.assertEquals(10L, executor.getHedgeDelay(QUERY_TYPE));
+
+        SlowFirstQuery query = new SlowFirstQuery(1000L);
+        long startTime = System.currentTimeMillis();
+        executor.execute(QUERY_TYPE, query);
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 1000L);
+        Assert.assertEquals(2, query.executionCount.get());
+        Assert.assertEquals(1L, executor.getHedgesIssued());
+        Assert.assertEquals(1L, executor.getHedgesWon());
+        executor.shutdown();
+    }
+
+    // This case tests that a query faster than the hedge delay is not hedged
+    @Test
+    public void testFastQueryNotHedged() {
+        HedgedQueryExecutor executor = new HedgedQueryExecutor(95.0, 200L, 4, 0.5);
+        warmUp(executor, QUERY_TYPE);
+
+        SlowFirstQuery query = new SlowFirstQuery(0);
+        executor.execute(QUERY_TYPE, query);
+
+        Assert.assertEquals(1, query.executionCount.get());
+        Assert.assertEquals(0L, executor.getHedgesIssued());
+        executor.shutdown();
+    }
+
+    // This case tests that the latencies of different query types are kept apart, so warming up one type does not make the other one hedged
+    @Test
+    public void testHedgeDelayPerQueryType() {
+        HedgedQueryExecutor executor = new HedgedQueryExecutor(95.0, 10L, 4, 0.5);
+        warmUp(executor, QUERY_TYPE);
+
+        Assert.assertEquals(10L, executor.getHedgeDelay(QUERY_TYPE));
+        Assert.assertEquals(Long.MAX_VALUE, executor.getHedgeDelay("other"));
+
+        SlowFirstQuery query = new SlowFirstQuery(50L);
+        executor.execute("other", query);
+        Assert.assertEquals(1, query.executionCount.get());
+        Assert.assertEquals(0L, executor.getHedgesIssued());
+        executor.shutdown();
+    }
+
+    // This case tests that hedges are capped by the hedge budget: once it is spent, slow queries run on the caller's thread without being hedged
+    @Test
+    public void testHedgeBudget() {
+        HedgedQueryExecutor executor = new HedgedQueryExecutor(95.0, 10L, 4, 0.0);
+        warmUp(executor, QUERY_TYPE);
+
+        int maxHedges = (int)HedgedQueryExecutor.MAX_HEDGE_TOKENS;
+        for (int i = 0; i < maxHedges + 2; i++) {
+            SlowFirstQuery query = new SlowFirstQuery(30L);
+            executor.execute(QUERY_TYPE, query);
+        }
+        Assert.assertEquals((long)maxHedges, executor.getHedgesIssued());
+
+        SlowFirstQuery query = new SlowFirstQuery(30L);
+        executor.execute(QUERY_TYPE, query);
+        Assert.assertEquals(1, query.executionCount.get());
+        Assert.assertSame(Thread.currentThread(), query.executionThread);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  InterleavedVolumeRetriever.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import edu.indiana.d2i.htrc.access.VolumeCompletionTracker;
+import edu.indiana.d2i.htrc.access.VolumeReader;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.id.ItemCoordinatesImpl;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl.ContentReaderImpl;
+
+/**
+ * A VolumeRetriever that returns volumes in pieces of one page each, interleaved with the pieces of other volumes, the way an unordered retrieval may.
+ * Each page is PAGE_SIZE bytes long
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class InterleavedVolumeRetriever implements VolumeRetriever, VolumeCompletionTracker {
+    
+    public static final int PAGE_SIZE = 4096;
+    
+    protected final List<VolumeReader> pieces = new LinkedList<VolumeReader>();
+    protected final Map<String, Integer> pendingPieceCountMap = new HashMap<String, Integer>();
+    protected int returnedCount = 0;
+    
+    /**
+     * Constructor
+     * @param volumeIDs volumeIDs of the volumes to return
+     * @param pageCounts number of pages of each volume, all returned as separate pieces
+     * @param order indices into volumeIDs giving the volume of each piece in the order the pieces are returned
+     */
+    public InterleavedVolumeRetriever(String[] volumeIDs, int[] pageCounts, int[] order) {
+        int[] nextPage = new int[volumeIDs.length];
+        for (int index : order) {
+            nextPage[index]++;
+            String pageSequence = String.format("%08d", nextPage[index]);
+            VolumeReaderImpl volumeReader = new VolumeReaderImpl(new ItemCoordinatesImpl(volumeIDs[index]));
+            List<ContentReader> pages = new ArrayList<ContentReader>(1);
+            byte[] content = new byte[PAGE_SIZE];
+            byte[] text = ("Page " + pageSequence + " of " + volumeIDs[index] + "\n").getBytes();
+            for (int i = 0; i < content.length; i++) {
+                content[i] = text[i % text.length];
+            }
+            pages.add(new ContentReaderImpl(pageSequence, content));
+            volumeReader.setPages(pages);
+            pieces.add(volumeReader);
+        }
+        for (int i = 0; i < volumeIDs.length; i++) {
+            pendingPieceCountMap.put(volumeIDs[i], pageCounts[i]);
+        }
+    }
+    
+    /**
+     * Method to get the number of pieces returned so far
+     * @return the number of pieces returned by nextVolume so far
+     */
+    public int getReturnedCount() {
+        return returnedCount;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#hasMoreVolumes()
+     */
+    @Override
+    public boolean hasMoreVolumes() {
+        return !pieces.isEmpty();
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeRetriever#nextVolume()
+     */
+    @Override
+    public VolumeReader nextVolume() {
+        VolumeReader volumeReader = pieces.remove(0);
+        pendingPieceCountMap.put(volumeReader.getVolumeID(), pendingPieceCountMap.get(volumeReader.getVolumeID()) - 1);
+        returnedCount++;
+        return volumeReader;
+    }
+
+    /**
+     * @see edu.indiana.d2i.htrc.access.VolumeCompletionTracker#isVolumeComplete(java.lang.String)
+     */
+    @Override
+    public boolean isVolumeComplete(String volumeID) {
+        return pendingPieceCountMap.get(volumeID) <= 0;
+    }
+
+}
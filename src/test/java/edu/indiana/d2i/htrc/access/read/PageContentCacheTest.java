@@ -0,0 +1,189 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PageContentCacheTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.prettyprint.hector.api.exceptions.HTimedOutException;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl.ContentReaderImpl;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class PageContentCacheTest {
+
+    static class CountingTestHectorResource extends TestHectorResource {
+        final List<String> fetchedPageSequences = new ArrayList<String>();
+
+        CountingTestHectorResource(ParameterContainer parameterContainer) throws Exception {
+            super(parameterContainer);
+        }
+
+        @Override
+        public List<ContentReader> retrievePageContents(String volumeID, List<String> pageSequences) throws KeyNotFoundException, HTimedOutException {
+            fetchedPageSequences.addAll(pageSequences);
+            return super.retrievePageContents(volumeID, pageSequences);
+        }
+    }
+
+    private static ParameterContainer parameterContainer = null;
+
+    @BeforeClass
+    public static void beforeClass() {
+        parameterContainer = new TestParameterContainer();
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_NODE_COUNT, "1");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_NODE_NAME_ + "1", "127.0.0.1");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_CLUSTER_NAME, "No such cluster");
+        parameterContainer.setParameter(HectorResource.PN_CASSANDRA_KEYSPACE_NAME, "NoSuchKeyspace");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_FAIL_INIT_DELAY, "200");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_FAIL_MAX_DELAY, "1000");
+        parameterContainer.setParameter(HectorResource.PN_HECTOR_ACCESS_MAX_ATTEMPTS, "4");
+    }
+
+    // This case tests that a cached page is returned with the same content and counted as a hit, and an uncached page is counted as a miss
+    @Test
+    public void testPutAndGet() {
+        PageContentCache cache = new PageContentCache(1024L);
+        cache.put("test.volume1", new ContentReaderImpl("00000001", "page one".getBytes()));
+
+        ContentReader page = cache.get("test.volume1", "00000001");
+        Assert.assertNotNull(page);
+        Assert.assertEquals("00000001", page.getContentName());
+        Assert.assertArrayEquals("page one".getBytes(), page.getContent());
+
+        Assert.assertNull(cache.get("test.volume1", "00000002"));
+        Assert.assertNull(cache.get("test.volume2", "00000001"));
+
+        Assert.assertEquals(8L, cache.getResidentBytes());
+        Assert.assertEquals(1L, cache.getHitCount());
+        Assert.assertEquals(2L, cache.getMissCount());
+        Assert.assertEquals(1.0 / 3, cache.getHitRatio(), 0.0001);
+    }
+
+    // This case tests that the least recently used pages are evicted once the byte budget is exceeded, and pages larger than the budget are not cached
+    @Test
+    public void testByteBudgetEviction() {
+        PageContentCache cache = new PageContentCache(20L, 4);
+        cache.put("test.volume1", new ContentReaderImpl("00000001", new byte[8]));
+        cache.put("test.volume1", new ContentReaderImpl("00000002", new byte[8]));
+        cache.get("test.volume1", "00000001");
+        cache.put("test.volume1", new ContentReaderImpl("00000003", new byte[8]));
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(16L, cache.getResidentBytes());
+        Assert.assertEquals(1L, cache.getEvictionCount());
+        Assert.assertNotNull(cache.get("test.volume1", "00000001"));
+        Assert.assertNull(cache.get("test.volume1", "00000002"));
+
+        cache.put("test.volume1", new ContentReaderImpl("00000004", new byte[21]));
+        Assert.assertEquals(16L, cache.getResidentBytes());
+        Assert.assertNull(cache.get("test.volume1", "00000004"));
+    }
+
+    // This case tests that a page spread over several chunks comes back intact, and the chunks of an evicted page are reused for the next one
+    @Test
+    public void testChunksReusedAfterEviction() {
+        PageContentCache cache = new PageContentCache(16L, 4);
+        byte[] first = "ten bytes!".getBytes();
+        byte[] second = "8 bytes.".getBytes();
+
+        cache.put("test.volume1", new ContentReaderImpl("00000001", first));
+        Assert.assertArrayEquals(first, cache.get("test.volume1", "00000001").getContent());
+
+        cache.put("test.volume1", new ContentReaderImpl("00000002", second));
+        Assert.assertEquals(1L, cache.getEvictionCount());
+        Assert.assertNull(cache.get("test.volume1", "00000001"));
+        Assert.assertArrayEquals(second, cache.get("test.volume1", "00000002").getContent());
+
+        cache.put("test.volume1", new ContentReaderImpl("00000001", first));
+        Assert.assertEquals(2L, cache.getEvictionCount());
+        Assert.assertArrayEquals(first, cache.get("test.volume1", "00000001").getContent());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0L, cache.getResidentBytes());
+        cache.put("test.volume1", new ContentReaderImpl("00000003", "sixteen bytes!!!".getBytes()));
+        Assert.assertArrayEquals("sixteen bytes!!!".getBytes(), cache.get("test.volume1", "00000003").getContent());
+    }
+
+    // This case tests that a hit hands out a copy, so changing it does not change the cached page
+    @Test
+    public void testGetReturnsCopy() {
+        PageContentCache cache = new PageContentCache(1024L);
+        cache.put("test.volume1", new ContentReaderImpl("00000001", "page one".getBytes()));
+
+        cache.get("test.volume1", "00000001").getContent()[0] = 'X';
+        Assert.assertArrayEquals("page one".getBytes(), cache.get("test.volume1", "00000001").getContent());
+    }
+
+    // This case tests that only the pages missing from the cache are fetched, and the pages are returned in the requested order
+    @Test
+    public void testRetrievePageContentsFetchesMissingPagesOnly() throws Exception {
+        CountingTestHectorResource hectorResource = new CountingTestHectorResource(parameterContainer);
+        PageContentCache cache = new PageContentCache(1024L * 1024L);
+        String volumeID = TestHectorResource.VOLUME_IDS[0];
+
+        cache.retrievePageContents(volumeID, Arrays.asList("00000002", "00000004"), hectorResource);
+        Assert.assertEquals(Arrays.asList("00000002", "00000004"), hectorResource.fetchedPageSequences);
+
+        hectorResource.fetchedPageSequences.clear();
+        List<ContentReader> pages = cache.retrievePageContents(volumeID, Arrays.asList("00000001", "00000002", "00000003", "00000004"), hectorResource);
+        Assert.assertEquals(Arrays.asList("00000001", "00000003"), hectorResource.fetchedPageSequences);
+
+        Assert.assertEquals(4, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            ContentReader expected = hectorResource.retrievePageContents(volumeID, Arrays.asList(pages.get(i).getContentName())).get(0);
+            Assert.assertEquals("0000000" + (i + 1), pages.get(i).getContentName());
+            Assert.assertArrayEquals(expected.getContent(), pages.get(i).getContent());
+        }
+    }
+
+    // This case tests that a missing page that is not in the cache still raises KeyNotFoundException
+    @Test(expected = KeyNotFoundException.class)
+    public void testRetrievePageContentsMissingPage() throws Exception {
+        CountingTestHectorResource hectorResource = new CountingTestHectorResource(parameterContainer);
+        PageContentCache cache = new PageContentCache(1024L * 1024L);
+        cache.retrievePageContents(TestHectorResource.VOLUME_IDS[0], Arrays.asList("00000001", "00000099"), hectorResource);
+    }
+}
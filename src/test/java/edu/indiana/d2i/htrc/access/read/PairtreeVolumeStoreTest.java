@@ -0,0 +1,270 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  PairtreeVolumeStoreTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import gov.loc.repository.pairtree.Pairtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.ParameterContainer;
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.read.HectorResource.CopyrightEnum;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class PairtreeVolumeStoreTest {
+
+    private static final String VOLUME_ID = "test.39015012345678";
+    private static final int PAGE_COUNT = 3;
+    private static final String EXTRACTED_VOLUME_ID = "test.39015087654321";
+    private static final int MMAP_THRESHOLD = 1024;
+    private static final String STORED_VOLUME_ID = "test.39015011223344";
+
+    private static PairtreeVolumeStore volumeStore = null;
+    private static String rootPath = null;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        File rootDirectory = File.createTempFile("pairtree", "");
+        rootDirectory.delete();
+
+        Pairtree pairtree = new Pairtree();
+        String localID = VOLUME_ID.substring(VOLUME_ID.indexOf('.') + 1);
+        String cleanedID = pairtree.cleanId(localID);
+        File volumeDirectory = new File(pairtree.mapToPPath(rootDirectory.getPath() + File.separator + "test" + File.separator + "pairtree_root", localID, cleanedID));
+        volumeDirectory.mkdirs();
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(new File(volumeDirectory, cleanedID + ".zip")));
+        for (int i = 1; i <= PAGE_COUNT; i++) {
+            zipOutputStream.putNextEntry(new ZipEntry(cleanedID + "/0000000" + i + ".txt"));
+            zipOutputStream.write(("page " + i).getBytes("utf-8"));
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+
+        FileOutputStream metsOutputStream = new FileOutputStream(new File(volumeDirectory, cleanedID + ".mets.xml"));
+        metsOutputStream.write("<mets/>".getBytes("utf-8"));
+        metsOutputStream.close();
+
+        String extractedLocalID = EXTRACTED_VOLUME_ID.substring(EXTRACTED_VOLUME_ID.indexOf('.') + 1);
+        File extractedVolumeDirectory = new File(pairtree.mapToPPath(rootDirectory.getPath() + File.separator + "test" + File.separator + "pairtree_root", extractedLocalID, pairtree.cleanId(extractedLocalID)));
+        extractedVolumeDirectory.mkdirs();
+        
+        FileOutputStream pageOutputStream = new FileOutputStream(new File(extractedVolumeDirectory, "00000001.txt"));
+        pageOutputStream.write("small page".getBytes("utf-8"));
+        pageOutputStream.close();
+        
+        pageOutputStream = new FileOutputStream(new File(extractedVolumeDirectory, "00000002.txt"));
+        pageOutputStream.write(new byte[MMAP_THRESHOLD * 4]);
+        pageOutputStream.close();
+
+        String storedLocalID = STORED_VOLUME_ID.substring(STORED_VOLUME_ID.indexOf('.') + 1);
+        String storedCleanedID = pairtree.cleanId(storedLocalID);
+        File storedVolumeDirectory = new File(pairtree.mapToPPath(rootDirectory.getPath() + File.separator + "test" + File.separator + "pairtree_root", storedLocalID, storedCleanedID));
+        storedVolumeDirectory.mkdirs();
+        
+        zipOutputStream = new ZipOutputStream(new FileOutputStream(new File(storedVolumeDirectory, storedCleanedID + ".zip")));
+        zipOutputStream.setComment("stored pages");
+        writeStoredEntry(zipOutputStream, storedCleanedID + "/00000001.txt", "small page".getBytes("utf-8"));
+        writeStoredEntry(zipOutputStream, storedCleanedID + "/00000002.txt", largePage('a'));
+        zipOutputStream.putNextEntry(new ZipEntry(storedCleanedID + "/00000003.txt"));
+        zipOutputStream.write(largePage('b'));
+        zipOutputStream.closeEntry();
+        zipOutputStream.close();
+        
+        ParameterContainer parameterContainer = new TestParameterContainer();
+        rootPath = rootDirectory.getPath();
+        parameterContainer.setParameter(PairtreeVolumeStore.PN_PAIRTREE_ROOT_PATH, rootPath);
+        parameterContainer.setParameter(PairtreeVolumeStore.PN_PAIRTREE_DEFAULT_COPYRIGHT, "IN_COPYRIGHT");
+        parameterContainer.setParameter(PairtreeVolumeStore.PN_PAIRTREE_MMAP_THRESHOLD, String.valueOf(MMAP_THRESHOLD));
+        volumeStore = new PairtreeVolumeStore(parameterContainer);
+    }
+
+    // fills a page at four times the mmap threshold with a repeated line, so it is mapped if STORED and shrinks if DEFLATED
+    private static byte[] largePage(char c) {
+        byte[] content = new byte[MMAP_THRESHOLD * 4];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (i % 64 == 63) ? (byte)'\n' : (byte)c;
+        }
+        return content;
+    }
+    
+    private static void writeStoredEntry(ZipOutputStream zipOutputStream, String entryName, byte[] content) throws Exception {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(content.length);
+        zipEntry.setCompressedSize(content.length);
+        zipEntry.setCrc(crc32.getValue());
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(content);
+        zipOutputStream.closeEntry();
+    }
+
+    // This case tests that the page count is taken from the zip file and the copyright from the default copyright parameter
+    @Test
+    public void testGetVolumeInfo() throws Exception {
+        VolumeInfo volumeInfo = volumeStore.getVolumeInfo(VOLUME_ID);
+        Assert.assertEquals(PAGE_COUNT, volumeInfo.getPageCount());
+        Assert.assertEquals(CopyrightEnum.IN_COPYRIGHT, volumeInfo.getCopyright());
+    }
+
+    // This case tests that a volume not in the pairtree raises KeyNotFoundException
+    @Test(expected = KeyNotFoundException.class)
+    public void testGetVolumeInfoNoSuchVolume() throws Exception {
+        volumeStore.getVolumeInfo("test.nosuchvolume");
+    }
+
+    // This case tests that a volumeID whose prefix is not alphanumeric raises KeyNotFoundException rather than reaching a path outside of the prefix directory,
+    // even if a volume exists at that path
+    @Test
+    public void testGetVolumeInfoPathTraversal() throws Exception {
+        Pairtree pairtree = new Pairtree();
+        String localID = VOLUME_ID.substring(VOLUME_ID.indexOf('.') + 1);
+        File outsideDirectory = new File(pairtree.mapToPPath(rootPath + File.separator + "outside" + File.separator + "test" + File.separator + "pairtree_root", localID, pairtree.cleanId(localID)));
+        outsideDirectory.mkdirs();
+        new File(outsideDirectory, pairtree.cleanId(localID) + ".mets.xml").createNewFile();
+        
+        for (String volumeID : new String[] {"outside/test." + localID, "outside" + File.separator + "test." + localID, "/test." + localID}) {
+            try {
+                volumeStore.retrieveMetadata(volumeID, Arrays.asList(HectorResource.CN_VOLUME_METS));
+                Assert.fail("KeyNotFoundException expected for " + volumeID);
+            } catch (KeyNotFoundException e) {
+            }
+        }
+    }
+
+    // This case tests that pages are read from the zip file in the requested order
+    @Test
+    public void testRetrievePageContents() throws Exception {
+        List<ContentReader> pages = volumeStore.retrievePageContents(VOLUME_ID, Arrays.asList("00000003", "00000001"));
+        Assert.assertEquals(2, pages.size());
+        Assert.assertEquals("00000003", pages.get(0).getContentName());
+        Assert.assertArrayEquals("page 3".getBytes("utf-8"), pages.get(0).getContent());
+        Assert.assertEquals("00000001", pages.get(1).getContentName());
+        Assert.assertArrayEquals("page 1".getBytes("utf-8"), pages.get(1).getContent());
+    }
+
+    // This case tests that a page not in the volume raises KeyNotFoundException
+    @Test(expected = KeyNotFoundException.class)
+    public void testRetrievePageContentsNoSuchPage() throws Exception {
+        volumeStore.retrievePageContents(VOLUME_ID, Arrays.asList("00000001", "00000009"));
+    }
+
+    // This case tests that the batch retrieval skips missing pages and leaves out missing volumes instead of throwing KeyNotFoundException
+    @Test
+    public void testRetrievePageContentsBatch() throws Exception {
+        Map<String, List<String>> volumePageSequences = new HashMap<String, List<String>>();
+        volumePageSequences.put(VOLUME_ID, Arrays.asList("00000001", "00000009", "00000002"));
+        volumePageSequences.put("test.nosuchvolume", Arrays.asList("00000001"));
+
+        Map<String, List<ContentReader>> contentReadersMap = volumeStore.retrievePageContents(volumePageSequences);
+        Assert.assertEquals(1, contentReadersMap.size());
+        List<ContentReader> pages = contentReadersMap.get(VOLUME_ID);
+        Assert.assertEquals(2, pages.size());
+        Assert.assertEquals("00000001", pages.get(0).getContentName());
+        Assert.assertEquals("00000002", pages.get(1).getContentName());
+    }
+
+    // This case tests that the METS file is returned for the volume.METS metadata name
+    @Test
+    public void testRetrieveMetadata() throws Exception {
+        List<ContentReader> metadata = volumeStore.retrieveMetadata(VOLUME_ID, Arrays.asList(HectorResource.CN_VOLUME_METS));
+        Assert.assertEquals(1, metadata.size());
+        Assert.assertEquals(HectorResource.CN_VOLUME_METS, metadata.get(0).getContentName());
+        Assert.assertArrayEquals("<mets/>".getBytes("utf-8"), metadata.get(0).getContent());
+    }
+
+    // This case tests that pages extracted into the volume directory are read, and only the pages at or above the mmap threshold are memory-mapped
+    @Test
+    public void testRetrievePageContentsExtracted() throws Exception {
+        Assert.assertEquals(2, volumeStore.getVolumeInfo(EXTRACTED_VOLUME_ID).getPageCount());
+        
+        List<ContentReader> pages = volumeStore.retrievePageContents(EXTRACTED_VOLUME_ID, Arrays.asList("00000001", "00000002"));
+        Assert.assertEquals(2, pages.size());
+        Assert.assertFalse(pages.get(0) instanceof MappedContentReader);
+        Assert.assertArrayEquals("small page".getBytes("utf-8"), pages.get(0).getContent());
+        
+        Assert.assertTrue(pages.get(1) instanceof MappedContentReader);
+        MappedContentReader mappedContentReader = (MappedContentReader)pages.get(1);
+        Assert.assertEquals(MMAP_THRESHOLD * 4, mappedContentReader.getContentLength());
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        mappedContentReader.writeTo(outputStream);
+        Assert.assertArrayEquals(new byte[MMAP_THRESHOLD * 4], outputStream.toByteArray());
+    }
+    
+    // This case tests that STORED pages of a zip file at or above the mmap threshold are sliced out of the mapped zip file with their CRC-32 from the zip entry,
+    // while small pages and compressed pages are read onto the heap
+    @Test
+    public void testRetrievePageContentsStoredInZip() throws Exception {
+        List<ContentReader> pages = volumeStore.retrievePageContents(STORED_VOLUME_ID, Arrays.asList("00000002", "00000001", "00000003"));
+        Assert.assertEquals(3, pages.size());
+        
+        Assert.assertTrue(pages.get(0) instanceof MappedContentReader);
+        MappedContentReader mappedContentReader = (MappedContentReader)pages.get(0);
+        Assert.assertEquals("00000002", mappedContentReader.getContentName());
+        Assert.assertEquals(MMAP_THRESHOLD * 4, mappedContentReader.getContentLength());
+        Assert.assertArrayEquals(largePage('a'), mappedContentReader.getContent());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        mappedContentReader.writeTo(outputStream);
+        Assert.assertArrayEquals(largePage('a'), outputStream.toByteArray());
+        CRC32 crc32 = new CRC32();
+        crc32.update(largePage('a'));
+        Assert.assertEquals(crc32.getValue(), mappedContentReader.computeCRC32());
+        
+        Assert.assertFalse(pages.get(1) instanceof MappedContentReader);
+        Assert.assertArrayEquals("small page".getBytes("utf-8"), pages.get(1).getContent());
+        
+        Assert.assertFalse(pages.get(2) instanceof MappedContentReader);
+        Assert.assertArrayEquals(largePage('b'), pages.get(2).getContent());
+    }
+}
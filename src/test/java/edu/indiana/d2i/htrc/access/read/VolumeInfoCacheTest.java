@@ -0,0 +1,241 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  VolumeInfoCacheTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.read;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.VolumeInfo;
+import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
+import edu.indiana.d2i.htrc.access.exception.RepositoryException;
+import edu.indiana.d2i.htrc.access.read.HectorResource.BasicVolumeInfo;
+import edu.indiana.d2i.htrc.access.read.HectorResource.CopyrightEnum;
+import edu.indiana.d2i.htrc.access.read.VolumeInfoCache.VolumeInfoLoader;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class VolumeInfoCacheTest {
+
+    static class TestVolumeInfoCache extends VolumeInfoCache {
+        long now = 0L;
+
+        TestVolumeInfoCache(int maxEntries, long timeToLive, long negativeTimeToLive) {
+            super(maxEntries, timeToLive, negativeTimeToLive);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private VolumeInfo createVolumeInfo(String volumeID) {
+        BasicVolumeInfo volumeInfo = new BasicVolumeInfo(volumeID);
+        volumeInfo.setPageCount(10);
+        volumeInfo.setCopyright(CopyrightEnum.PUBLIC_DOMAIN);
+        return volumeInfo;
+    }
+
+    // This case tests that a cached VolumeInfo is returned on lookup and counted as a hit, and an uncached one is counted as a miss
+    @Test
+    public void testHitAndMiss() throws KeyNotFoundException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(10, 1000L, 1000L);
+        VolumeInfo volumeInfo = createVolumeInfo("inu.30000000000001");
+        cache.put(volumeInfo);
+
+        Assert.assertSame(volumeInfo, cache.get("inu.30000000000001"));
+        Assert.assertNull(cache.get("inu.30000000000002"));
+        Assert.assertEquals(1L, cache.getHitCount());
+        Assert.assertEquals(1L, cache.getMissCount());
+    }
+
+    // This case tests that an entry is no longer returned once its time-to-live has passed
+    @Test
+    public void testExpiration() throws KeyNotFoundException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(10, 1000L, 1000L);
+        cache.put(createVolumeInfo("inu.30000000000001"));
+
+        cache.now = 999L;
+        Assert.assertNotNull(cache.get("inu.30000000000001"));
+
+        cache.now = 1000L;
+        Assert.assertNull(cache.get("inu.30000000000001"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    // This case tests that the least recently used entry is evicted when the cache is full
+    @Test
+    public void testLRUEviction() throws KeyNotFoundException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(2, 1000L, 1000L);
+        cache.put(createVolumeInfo("inu.30000000000001"));
+        cache.put(createVolumeInfo("inu.30000000000002"));
+        cache.get("inu.30000000000001");
+        cache.put(createVolumeInfo("inu.30000000000003"));
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1L, cache.getEvictionCount());
+        Assert.assertNotNull(cache.get("inu.30000000000001"));
+        Assert.assertNull(cache.get("inu.30000000000002"));
+        Assert.assertNotNull(cache.get("inu.30000000000003"));
+    }
+
+    // This case tests that a non-existent volumeID is remembered and KeyNotFoundException is thrown until the negative entry expires
+    @Test
+    public void testNegativeEntry() throws KeyNotFoundException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(10, 1000L, 100L);
+        cache.putKeyNotFound("inu.30000000000001");
+
+        try {
+            cache.get("inu.30000000000001");
+            Assert.fail("KeyNotFoundException expected");
+        } catch (KeyNotFoundException e) {
+            Assert.assertEquals("Offending key: inu.30000000000001", e.getMessage());
+        }
+
+        cache.now = 100L;
+        Assert.assertNull(cache.get("inu.30000000000001"));
+    }
+
+    // This case tests that negative entries are not cached when the negative time-to-live is 0
+    @Test
+    public void testNegativeEntryDisabled() throws KeyNotFoundException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(10, 1000L, 0L);
+        cache.putKeyNotFound("inu.30000000000001");
+
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNull(cache.get("inu.30000000000001"));
+    }
+
+    // This case tests that a large cache is split into segments whose entries still add up to at most maxEntries
+    @Test
+    public void testSegmentedBound() throws KeyNotFoundException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(2000, 1000L, 1000L);
+        Assert.assertEquals(VolumeInfoCache.MAX_SEGMENTS, cache.segments.length);
+
+        for (int i = 0; i < 10000; i++) {
+            cache.put(createVolumeInfo("inu." + (30000000000000L + i)));
+        }
+
+        Assert.assertTrue(cache.size() <= 2000);
+        Assert.assertEquals(10000L - cache.size(), cache.getEvictionCount());
+        Assert.assertNotNull(cache.get("inu." + (30000000000000L + 9999)));
+    }
+
+    // This case tests that many threads missing the same volumeID at the same time cause exactly one load, and all of them get its result
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final int threadCount = 16;
+        final TestVolumeInfoCache cache = new TestVolumeInfoCache(10, 1000L, 1000L);
+        final VolumeInfo volumeInfo = createVolumeInfo("inu.30000000000001");
+        final AtomicInteger loads = new AtomicInteger(0);
+        final CountDownLatch startedLatch = new CountDownLatch(threadCount);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+
+        final VolumeInfoLoader loader = new VolumeInfoLoader() {
+            @Override
+            public VolumeInfo load(String volumeID) throws KeyNotFoundException, RepositoryException {
+                loads.incrementAndGet();
+                try {
+                    releaseLatch.await();
+                } catch (InterruptedException e) {
+                    throw new RepositoryException("interrupted", e);
+                }
+                return volumeInfo;
+            }
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<VolumeInfo>> futures = new ArrayList<Future<VolumeInfo>>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executorService.submit(new Callable<VolumeInfo>() {
+                    @Override
+                    public VolumeInfo call() throws Exception {
+                        startedLatch.countDown();
+                        return cache.get("inu.30000000000001", loader);
+                    }
+                }));
+            }
+
+            Assert.assertTrue(startedLatch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            releaseLatch.countDown();
+
+            for (Future<VolumeInfo> future : futures) {
+                Assert.assertSame(volumeInfo, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1L, cache.getLoadCount());
+        Assert.assertSame(volumeInfo, cache.get("inu.30000000000001", loader));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    // This case tests that a KeyNotFoundException from a load is thrown to the caller and remembered as a negative entry, so the next lookup does not load again
+    @Test
+    public void testLoadKeyNotFound() throws RepositoryException {
+        TestVolumeInfoCache cache = new TestVolumeInfoCache(10, 1000L, 1000L);
+        final AtomicInteger loads = new AtomicInteger(0);
+        VolumeInfoLoader loader = new VolumeInfoLoader() {
+            @Override
+            public VolumeInfo load(String volumeID) throws KeyNotFoundException, RepositoryException {
+                loads.incrementAndGet();
+                throw new KeyNotFoundException(volumeID);
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.get("inu.30000000000001", loader);
+                Assert.fail("KeyNotFoundException expected");
+            } catch (KeyNotFoundException e) {
+                Assert.assertEquals("Offending key: inu.30000000000001", e.getMessage());
+            }
+        }
+        Assert.assertEquals(1, loads.get());
+    }
+}
@@ -156,6 +156,14 @@ public class TestTokenCountVolumeRetrieverImpl implements VolumeRetriever {
         public byte[] getContent() {
             return this.content;
         }
+
+        /**
+         * @see edu.indiana.d2i.htrc.access.VolumeReader.ContentReader#getContentLength()
+         */
+        @Override
+        public int getContentLength() {
+            return this.content.length;
+        }
     }
     
     private List<VolumeReader> volumeReaders = null;
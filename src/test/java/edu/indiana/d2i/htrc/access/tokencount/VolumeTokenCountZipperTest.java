@@ -48,6 +48,8 @@ import org.junit.Test;
 
 import edu.indiana.d2i.htrc.access.VolumeRetriever;
 import edu.indiana.d2i.htrc.access.tokencount.TokenCountComparatorFactory.TokenCountComparatorTypeEnum;
+import edu.indiana.d2i.htrc.access.tokencount.TokenCountZipperFactory.TokenCountZipTypeEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
 import edu.indiana.d2i.htrc.audit.Auditor;
 import edu.indiana.d2i.htrc.audit.NullAuditor;
 
@@ -248,7 +250,33 @@ public class VolumeTokenCountZipperTest {
         }
     }
     
+    // this case tests the token count at volume level written as newline-delimited JSON, with one line per volume and the counts in comparator order
+    @Test
+    public void testCountAndNdjson() throws IOException {
+        Auditor auditor = new NullAuditor(new HashMap<String, List<String>>());
+        VolumeRetriever volumeRetriever = new TestTokenCountVolumeRetrieverImpl();
+        ByteArrayOutputStream actualOutputStream = new ByteArrayOutputStream();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        Tokenizer tokenizer = new SimpleTokenizer(executorService, new TestTokenCountParameterContainerImpl());
+        TokenFilter tokenFilter = new SimpleTokenFilterChain();
+        Comparator<Entry<String, Count>> comparator = TokenCountComparatorFactory.getComparator(TokenCountComparatorTypeEnum.TOKEN_LEX_ASC);
+
+        TokenCountZipper tokenCountZipper = TokenCountZipperFactory.newInstance(TokenCountZipTypeEnum.VOLUME_LEVEL, auditor, Deflater.NO_COMPRESSION, ArchiveFormatEnum.NDJSON);
 
+        try {
+            tokenCountZipper.countAndZip(actualOutputStream, volumeRetriever, tokenizer, tokenFilter, comparator);
+
+            String expected = "{\"volumeID\":\"test.volume1\",\"counts\":{\"about\":1,\"and\":2,\"as\":1,\"at\":1,\"continues.\":2,\"end\":1,\"ends\":1,\"hy-phen\":2,\"hyphen\":1,"
+                    + "\"hyphen.\":1,\"is\":1,\"line\":2,\"of\":1,\"page\":2,\"such\":1,\"this\":1,\"with\":1,\"without\":1}}\n"
+                    + "{\"volumeID\":\"test.volume2\",\"counts\":{\"com-munication\":2,\"first\":1,\"for\":1,\"good\":1,\"in\":1,\"is\":1,\"line\":1,\"media\":1,\"second\":1,"
+                    + "\"volume\":1}}\n";
+
+            Assert.assertEquals(expected, new String(actualOutputStream.toByteArray(), TokenCountZipperFactory.Helper.UTF_8));
+
+        } finally {
+            executorService.shutdown();
+        }
+    }
     
     
     private void writeZipContent(ZipOutputStream zipOutputStream, String[] tokenCounts) throws IOException {
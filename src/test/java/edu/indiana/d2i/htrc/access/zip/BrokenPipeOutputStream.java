@@ -0,0 +1,75 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  BrokenPipeOutputStream.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that takes a given number of bytes and then fails every write, the way the response stream does once the client has gone away
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class BrokenPipeOutputStream extends OutputStream {
+    
+    protected long bytesLeft;
+    
+    /**
+     * Constructor
+     * @param byteLimit number of bytes taken before writes start failing
+     */
+    public BrokenPipeOutputStream(long byteLimit) {
+        this.bytesLeft = byteLimit;
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+    
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > bytesLeft) {
+            bytesLeft = 0;
+            throw new IOException("Broken pipe");
+        }
+        bytesLeft -= len;
+    }
+
+}
@@ -33,6 +33,7 @@ package edu.indiana.d2i.htrc.access.zip;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -49,6 +50,17 @@ import edu.indiana.d2i.htrc.access.exception.RepositoryException;
  *
  */
 public class MakeZipUtility {
+    private static ZipEntry newStoredEntry(String entryName, byte[] content) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(content.length);
+        zipEntry.setCompressedSize(content.length);
+        zipEntry.setCrc(crc32.getValue());
+        return zipEntry;
+    }
+    
     public static byte[] getSeparatePageZipAsByteArray(VolumeRetriever volumeRetriever) throws IOException, KeyNotFoundException, PolicyViolationException, RepositoryException {
         ByteArrayOutputStream expectedOutputStream = new ByteArrayOutputStream();
         ZipOutputStream zipOutputStream = new ZipOutputStream(expectedOutputStream);
@@ -63,7 +75,7 @@ public class MakeZipUtility {
                 String pageSeq = nextPage.getContentName();
                 byte[] pageContent = nextPage.getContent();
                 
-                ZipEntry pageEntry = new ZipEntry(safeVolumeID + "/" + pageSeq + ".txt");
+                ZipEntry pageEntry = newStoredEntry(safeVolumeID + "/" + pageSeq + ".txt", pageContent);
                 zipOutputStream.putNextEntry(pageEntry);
                 zipOutputStream.write(pageContent);
                 zipOutputStream.closeEntry();
@@ -74,7 +86,7 @@ public class MakeZipUtility {
                 byte[] content = nextMetadata.getContent();
                 String metsFilename = ZipMakerFactory.Helper.getEntryFullnameFromMetadataName(nextMetadata.getContentName());
                 
-                ZipEntry metadataEntry = new ZipEntry(safeVolumeID + "/" + metsFilename);
+                ZipEntry metadataEntry = newStoredEntry(safeVolumeID + "/" + metsFilename, content);
                 zipOutputStream.putNextEntry(metadataEntry);
                 zipOutputStream.write(content);
                 zipOutputStream.closeEntry();
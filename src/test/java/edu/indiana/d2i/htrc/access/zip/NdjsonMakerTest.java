@@ -0,0 +1,217 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  NdjsonMakerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.read.ExceptionalVolumeRetriever;
+import edu.indiana.d2i.htrc.access.read.InterleavedVolumeRetriever;
+import edu.indiana.d2i.htrc.access.read.TestVolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class NdjsonMakerTest {
+    
+    private static final Pattern CONTENT_RECORD_PATTERN = Pattern.compile("\\{\"volumeID\":\"((?:[^\"\\\\]|\\\\.)*)\",\"(seq|metadata)\":\"((?:[^\"\\\\]|\\\\.)*)\",\"text\":\"((?:[^\"\\\\]|\\\\.)*)\"\\}");
+    
+    // This case tests that PageNdjsonMaker writes one line for each page and metadata entry, with the same content as the entries in the zip of SeparatePageVolumeZipMaker
+    @Test
+    public void testPageNdjsonMaker() throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, new NullAuditor(null)).makeZipFile(zip, new TestVolumeRetriever());
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read = 0;
+            while ((read = zipInputStream.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            expected.put(zipEntry.getName(), new String(content.toByteArray(), "utf-8"));
+        }
+        zipInputStream.close();
+        
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, new NullAuditor(null), Deflater.NO_COMPRESSION, ArchiveFormatEnum.NDJSON);
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(ndjson, new TestVolumeRetriever());
+        
+        Map<String, String> actual = new LinkedHashMap<String, String>();
+        for (String line : readLines(ndjson)) {
+            Matcher matcher = CONTENT_RECORD_PATTERN.matcher(line);
+            Assert.assertTrue(line, matcher.matches());
+            // the volumeIDs of TestVolumeRetriever only need their slashes replaced to become Pairtree cleaned
+            String entryName = unescape(matcher.group(1)).replace('/', '=') + "/" + unescape(matcher.group(3)) + ("seq".equals(matcher.group(2)) ? ".txt" : "");
+            actual.put(entryName, unescape(matcher.group(4)));
+        }
+        
+        Assert.assertEquals(expected, actual);
+    }
+    
+    // This case tests that PageNdjsonMaker writes an error line at the end when VolumeRetriever throws an exception
+    @Test
+    public void testPageNdjsonMakerErrorRecord() throws Exception {
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, new NullAuditor(null), Deflater.NO_COMPRESSION, ArchiveFormatEnum.NDJSON);
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(ndjson, new ExceptionalVolumeRetriever());
+        
+        List<String> lines = readLines(ndjson);
+        Assert.assertTrue(lines.get(lines.size() - 1).startsWith("{\"error\":\""));
+    }
+    
+    // This case tests that PageNdjsonMaker audits each volume once, as soon as the records of the last of its interleaved pieces have been flushed
+    @Test
+    public void testPageNdjsonMakerAuditsCompletedVolumes() throws Exception {
+        String[] volumeIDs = {"test.volumeA", "test.volumeB"};
+        RecordingAuditor auditor = new RecordingAuditor();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, auditor, Deflater.NO_COMPRESSION, ArchiveFormatEnum.NDJSON);
+        zipMaker.makeZipFile(new ByteArrayOutputStream(), new InterleavedVolumeRetriever(volumeIDs, new int[] {2, 2}, new int[] {0, 1, 1, 0}));
+        
+        List<List<String>> auditRecords = auditor.getAuditRecords();
+        Assert.assertEquals(2, auditRecords.size());
+        Assert.assertEquals(Arrays.asList("test.volumeB", "00000001", "00000002"), auditRecords.get(0));
+        Assert.assertEquals(Arrays.asList("test.volumeA", "00000001", "00000002"), auditRecords.get(1));
+    }
+    
+    // This case tests that PageNdjsonMaker still audits the records it has streamed when writing fails part way
+    @Test
+    public void testPageNdjsonMakerAuditsOnWriteFailure() throws Exception {
+        String[] volumeIDs = {"test.volumeA", "test.volumeB"};
+        RecordingAuditor auditor = new RecordingAuditor();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, auditor, Deflater.NO_COMPRESSION, ArchiveFormatEnum.NDJSON);
+        try {
+            zipMaker.makeZipFile(new BrokenPipeOutputStream(3 * InterleavedVolumeRetriever.PAGE_SIZE),
+                    new InterleavedVolumeRetriever(volumeIDs, new int[] {4, 4}, new int[] {0, 1, 0, 1, 0, 1, 0, 1}));
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        
+        List<List<String>> auditRecords = auditor.getAuditRecords();
+        Assert.assertEquals(2, auditRecords.size());
+        Assert.assertEquals(Arrays.asList("test.volumeA", "00000001"), auditRecords.get(0).subList(0, 2));
+        Assert.assertEquals(Arrays.asList("test.volumeB", "00000001"), auditRecords.get(1).subList(0, 2));
+        Assert.assertTrue(auditRecords.get(0).size() + auditRecords.get(1).size() - 2 < 8);
+    }
+    
+    // This case tests that NdjsonWriter escapes quotes, backslashes and control characters, and leaves other characters as they are
+    @Test
+    public void testNdjsonWriterEscaping() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NdjsonWriter ndjsonWriter = new NdjsonWriter(outputStream);
+        ndjsonWriter.beginRecord();
+        ndjsonWriter.writeField("text", "a \"quoted\" back\\slash\nnew line\ttab\u0001 caf\u00e9");
+        ndjsonWriter.beginObject("nested");
+        ndjsonWriter.writeField("one", 1);
+        ndjsonWriter.writeField("two", 2);
+        ndjsonWriter.endObject();
+        ndjsonWriter.writeField("after", "x");
+        ndjsonWriter.endRecord();
+        ndjsonWriter.beginRecord();
+        ndjsonWriter.endRecord();
+        ndjsonWriter.close();
+        
+        String expected = "{\"text\":\"a \\\"quoted\\\" back\\\\slash\\nnew line\\ttab\\u0001 caf\u00e9\",\"nested\":{\"one\":1,\"two\":2},\"after\":\"x\"}\n{}\n";
+        Assert.assertEquals(expected, new String(outputStream.toByteArray(), "utf-8"));
+    }
+    
+    // This case tests that NdjsonWriter refuses to write a field outside of a record, which would produce a line that is not valid JSON
+    @Test(expected = IllegalStateException.class)
+    public void testNdjsonWriterFieldOutsideRecord() throws Exception {
+        NdjsonWriter ndjsonWriter = new NdjsonWriter(new ByteArrayOutputStream());
+        ndjsonWriter.writeField("text", "orphan");
+    }
+    
+    private List<String> readLines(ByteArrayOutputStream outputStream) throws IOException {
+        String content = new String(outputStream.toByteArray(), "utf-8");
+        Assert.assertTrue(content.endsWith("\n"));
+        List<String> lines = new ArrayList<String>();
+        for (String line : content.split("\n")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+    
+    private String unescape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                c = value.charAt(++i);
+                switch (c) {
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    builder.append((char)Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    builder.append(c);
+                    break;
+                }
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  RecordingAuditor.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * An Auditor that remembers the audit records it is given, each as the volumeID followed by the page sequence numbers
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class RecordingAuditor extends NullAuditor {
+    
+    protected final List<List<String>> auditRecords = new ArrayList<List<String>>();
+    
+    public RecordingAuditor() {
+        super(null);
+    }
+    
+    @Override
+    public void audit(String logType, String volumeID, String... pages) {
+        List<String> record = new ArrayList<String>();
+        record.add(volumeID);
+        record.addAll(Arrays.asList(pages));
+        auditRecords.add(record);
+    }
+    
+    /**
+     * Method to get the audit records given so far
+     * @return a List of audit records, each a List holding the volumeID followed by the page sequence numbers
+     */
+    public List<List<String>> getAuditRecords() {
+        return auditRecords;
+    }
+
+}
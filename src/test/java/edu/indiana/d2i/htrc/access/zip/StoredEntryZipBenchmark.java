@@ -0,0 +1,203 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StoredEntryZipBenchmark.java
+# Description:  Compares STORED entries with precomputed CRCs against level 0 and block deflated zip entries
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import edu.indiana.d2i.htrc.access.VolumeReader.ContentReader;
+
+/**
+ * This class compares the time it takes to write a separate page zip with STORED entries and precomputed CRCs, with a plain ZipOutputStream at
+ * Deflater.NO_COMPRESSION as the service did before, and with entries deflated in blocks on a thread pool.  It is a standalone program rather than a test
+ * case, as its timings depend on the machine it runs on.  The zip is written to an OutputStream that only counts the bytes, so the timings leave out the network.
+ * 
+ * Usage: StoredEntryZipBenchmark [pageCount] [rounds] [deflateLevel] [deflateThreads]
+ * 
+ * @author Yiming Sun
+ *
+ */
+public class StoredEntryZipBenchmark {
+    
+    // an OutputStream that throws the bytes away and counts them
+    static class CountingOutputStream extends OutputStream {
+        long count = 0;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+    
+    // a page of generated text
+    static class PageContentReader implements ContentReader {
+        final String contentName;
+        final byte[] content;
+        
+        PageContentReader(String contentName, byte[] content) {
+            this.contentName = contentName;
+            this.content = content;
+        }
+        
+        @Override
+        public String getContentName() {
+            return contentName;
+        }
+        
+        @Override
+        public byte[] getContent() {
+            return content;
+        }
+        
+        @Override
+        public int getContentLength() {
+            return content.length;
+        }
+    }
+    
+    // generates pages of 2 to 4KB of text, about the size of a typical page of a scanned book
+    private static List<ContentReader> generatePages(int pageCount) {
+        Random random = new Random(42);
+        String[] words = {"the ", "volume ", "page ", "trust ", "digital ", "library ", "of ", "and ", "\n"};
+        List<ContentReader> pages = new ArrayList<ContentReader>(pageCount);
+        for (int i = 0; i < pageCount; i++) {
+            int size = 2048 + random.nextInt(2048);
+            StringBuilder builder = new StringBuilder(size + 16);
+            while (builder.length() < size) {
+                builder.append(words[random.nextInt(words.length)]);
+            }
+            builder.setLength(size);
+            pages.add(new PageContentReader(String.format("%08d", i + 1), builder.toString().getBytes()));
+        }
+        return pages;
+    }
+    
+    // writes the pages the way the service did before, through a plain ZipOutputStream at level 0, and returns the elapsed nanoseconds
+    private static long writeLevelZero(List<ContentReader> pages, CountingOutputStream outputStream) throws IOException {
+        long startTime = System.nanoTime();
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        for (ContentReader page : pages) {
+            zipOutputStream.putNextEntry(new ZipEntry("vol/" + page.getContentName() + ".txt"));
+            zipOutputStream.write(page.getContent());
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+        return System.nanoTime() - startTime;
+    }
+    
+    // writes the pages as STORED entries with precomputed CRCs, as SeparatePageVolumeZipMaker does without compression, and returns the elapsed nanoseconds
+    private static long writeStored(List<ContentReader> pages, CountingOutputStream outputStream) throws IOException {
+        long startTime = System.nanoTime();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.NO_COMPRESSION, StreamingZipOutputStream.DEFAULT_BLOCK_SIZE, null);
+        for (ContentReader page : pages) {
+            ZipMakerFactory.Helper.writeStoredEntry(zipOutputStream, "vol/" + page.getContentName() + ".txt", page);
+        }
+        zipOutputStream.close();
+        return System.nanoTime() - startTime;
+    }
+    
+    // writes the pages deflated in blocks on the ExecutorService, as the compress parameter does, and returns the elapsed nanoseconds
+    private static long writeDeflated(List<ContentReader> pages, CountingOutputStream outputStream, int level, ExecutorService executorService) throws IOException {
+        long startTime = System.nanoTime();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, level, StreamingZipOutputStream.DEFAULT_BLOCK_SIZE, executorService);
+        for (ContentReader page : pages) {
+            zipOutputStream.putNextEntry(new ZipEntry("vol/" + page.getContentName() + ".txt"));
+            zipOutputStream.write(page.getContent());
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+        return System.nanoTime() - startTime;
+    }
+    
+    // prints the best and the median of the measured rounds
+    private static void report(String label, long[] elapsed, long bytes) {
+        long[] sorted = Arrays.copyOf(elapsed, elapsed.length);
+        Arrays.sort(sorted);
+        System.out.println(label + ": best " + (sorted[0] / 1000000) + " ms, median " + (sorted[sorted.length / 2] / 1000000) + " ms, " + bytes + " bytes");
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int pageCount = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int deflateLevel = (args.length > 2) ? Integer.parseInt(args[2]) : Deflater.BEST_SPEED;
+        int deflateThreads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        
+        List<ContentReader> pages = generatePages(pageCount);
+        ExecutorService executorService = Executors.newFixedThreadPool(deflateThreads);
+        try {
+            // the first rounds only warm up the JIT
+            for (int i = 0; i < rounds; i++) {
+                writeLevelZero(pages, new CountingOutputStream());
+                writeStored(pages, new CountingOutputStream());
+                writeDeflated(pages, new CountingOutputStream(), deflateLevel, executorService);
+            }
+            
+            long[] levelZeroElapsed = new long[rounds];
+            long[] storedElapsed = new long[rounds];
+            long[] deflatedElapsed = new long[rounds];
+            CountingOutputStream levelZeroOutput = null;
+            CountingOutputStream storedOutput = null;
+            CountingOutputStream deflatedOutput = null;
+            for (int i = 0; i < rounds; i++) {
+                levelZeroOutput = new CountingOutputStream();
+                levelZeroElapsed[i] = writeLevelZero(pages, levelZeroOutput);
+                storedOutput = new CountingOutputStream();
+                storedElapsed[i] = writeStored(pages, storedOutput);
+                deflatedOutput = new CountingOutputStream();
+                deflatedElapsed[i] = writeDeflated(pages, deflatedOutput, deflateLevel, executorService);
+            }
+            
+            System.out.println(pageCount + " pages of 2-4KB, " + rounds + " rounds after " + rounds + " warm-up rounds");
+            report("ZipOutputStream at level 0", levelZeroElapsed, levelZeroOutput.count);
+            report("STORED with precomputed CRC", storedElapsed, storedOutput.count);
+            report("block deflate at level " + deflateLevel + " on " + deflateThreads + " threads", deflatedElapsed, deflatedOutput.count);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+}
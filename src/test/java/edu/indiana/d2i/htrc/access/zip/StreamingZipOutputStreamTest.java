@@ -0,0 +1,469 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  StreamingZipOutputStreamTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.TestParameterContainer;
+import edu.indiana.d2i.htrc.access.VolumeRetriever;
+import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.read.TestVolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class StreamingZipOutputStreamTest {
+    
+    private ExecutorService executorService = null;
+    
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+    }
+    
+    @After
+    public void tearDown() {
+        ZipMakerFactory.init(new TestParameterContainer(), null);
+        executorService.shutdownNow();
+    }
+    
+    // This case tests that entries deflated in many blocks on a thread pool can be read back in full, both by streaming and through the central directory
+    @Test
+    public void testParallelDeflate() throws Exception {
+        Map<String, byte[]> expectedEntries = generateEntries();
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.BEST_SPEED, 4096, executorService);
+        for (Map.Entry<String, byte[]> entry : expectedEntries.entrySet()) {
+            zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+            byte[] content = entry.getValue();
+            // write in uneven pieces so blocks do not line up with the writes
+            for (int offset = 0; offset < content.length; offset += 1000) {
+                zipOutputStream.write(content, offset, Math.min(1000, content.length - offset));
+            }
+            zipOutputStream.closeEntry();
+        }
+        zipOutputStream.close();
+        byte[] zipBytes = outputStream.toByteArray();
+        
+        Assert.assertEquals(expectedEntries.size(), assertStreamedEntries(expectedEntries, zipBytes));
+        
+        File zipFile = File.createTempFile("streaming", ".zip");
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(zipFile);
+            fileOutputStream.write(zipBytes);
+            fileOutputStream.close();
+            
+            ZipFile centralDirectory = new ZipFile(zipFile);
+            int entryCount = 0;
+            Enumeration<? extends ZipEntry> entries = centralDirectory.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry zipEntry = entries.nextElement();
+                Assert.assertEquals(ZipEntry.DEFLATED, zipEntry.getMethod());
+                Assert.assertEquals(expectedEntries.get(zipEntry.getName()).length, zipEntry.getSize());
+                Assert.assertArrayEquals(expectedEntries.get(zipEntry.getName()), readFully(centralDirectory.getInputStream(zipEntry)));
+                entryCount++;
+            }
+            centralDirectory.close();
+            Assert.assertEquals(expectedEntries.size(), entryCount);
+        } finally {
+            zipFile.delete();
+        }
+    }
+    
+    // This case tests that small entries only allocate blocks the size of their data, and are counted against the pending bound by what they allocate
+    @Test
+    public void testSmallEntriesSizedToData() throws Exception {
+        final List<Runnable> heldTasks = new ArrayList<Runnable>();
+        ExecutorService holdingExecutorService = new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                heldTasks.add(command);
+            }
+            
+            @Override
+            public void shutdown() {
+            }
+            
+            @Override
+            public List<Runnable> shutdownNow() {
+                return heldTasks;
+            }
+            
+            @Override
+            public boolean isShutdown() {
+                return false;
+            }
+            
+            @Override
+            public boolean isTerminated() {
+                return false;
+            }
+            
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return false;
+            }
+        };
+        
+        Map<String, byte[]> expectedEntries = new LinkedHashMap<String, byte[]>();
+        Random random = new Random(7);
+        for (int i = 0; i < 10; i++) {
+            byte[] content = new byte[100 + i];
+            random.nextBytes(content);
+            expectedEntries.put(String.format("volume/%08d.txt", i + 1), content);
+        }
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        StreamingZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.BEST_SPEED, StreamingZipOutputStream.DEFAULT_BLOCK_SIZE, holdingExecutorService);
+        long allocatedLength = 0;
+        for (Map.Entry<String, byte[]> entry : expectedEntries.entrySet()) {
+            zipOutputStream.putNextEntry(new ZipEntry(entry.getKey()));
+            zipOutputStream.write(entry.getValue());
+            Assert.assertEquals(entry.getValue().length, zipOutputStream.currentBlock.length);
+            zipOutputStream.closeEntry();
+            allocatedLength += entry.getValue().length;
+        }
+        
+        // an entry written in two pieces doubles its block, and is counted at the doubled capacity
+        byte[] grownContent = new byte[101];
+        random.nextBytes(grownContent);
+        expectedEntries.put("volume/grown.txt", grownContent);
+        zipOutputStream.putNextEntry(new ZipEntry("volume/grown.txt"));
+        zipOutputStream.write(grownContent, 0, 100);
+        zipOutputStream.write(grownContent, 100, 1);
+        Assert.assertEquals(200, zipOutputStream.currentBlock.length);
+        zipOutputStream.closeEntry();
+        allocatedLength += 200;
+        Assert.assertEquals(allocatedLength, zipOutputStream.pendingBytes);
+        
+        for (Runnable heldTask : heldTasks) {
+            heldTask.run();
+        }
+        zipOutputStream.close();
+        Assert.assertEquals(0L, zipOutputStream.pendingBytes);
+        Assert.assertEquals(expectedEntries.size(), assertStreamedEntries(expectedEntries, outputStream.toByteArray()));
+    }
+    
+    // This case tests that STORED entries with a precomputed CRC carry their sizes in the local header, and can be mixed with deflated entries still being compressed
+    @Test
+    public void testStoredEntries() throws Exception {
+        Map<String, byte[]> expectedEntries = generateEntries();
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.BEST_SPEED, 4096, executorService);
+        boolean stored = false;
+        for (Map.Entry<String, byte[]> entry : expectedEntries.entrySet()) {
+            byte[] content = entry.getValue();
+            ZipEntry zipEntry = new ZipEntry(entry.getKey());
+            if (stored) {
+                CRC32 crc32 = new CRC32();
+                crc32.update(content);
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(content.length);
+                zipEntry.setCrc(crc32.getValue());
+            }
+            zipOutputStream.putNextEntry(zipEntry);
+            zipOutputStream.write(content);
+            zipOutputStream.closeEntry();
+            stored = !stored;
+        }
+        zipOutputStream.close();
+        
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        ZipEntry zipEntry = null;
+        int storedCount = 0;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            if (zipEntry.getMethod() == ZipEntry.STORED) {
+                // the size is only known before the content is read when it is in the local header
+                Assert.assertEquals(expectedEntries.get(zipEntry.getName()).length, zipEntry.getSize());
+                storedCount++;
+            }
+            Assert.assertArrayEquals(expectedEntries.get(zipEntry.getName()), readFully(zipInputStream));
+        }
+        zipInputStream.close();
+        Assert.assertEquals(expectedEntries.size() / 2, storedCount);
+    }
+    
+    // This case tests that a STORED entry whose content does not match its declared size is rejected
+    @Test(expected = ZipException.class)
+    public void testStoredEntrySizeMismatch() throws Exception {
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(new ByteArrayOutputStream(), Deflater.NO_COMPRESSION, 4096, null);
+        ZipEntry zipEntry = new ZipEntry("short.txt");
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(10);
+        zipEntry.setCrc(0);
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(new byte[5]);
+        zipOutputStream.closeEntry();
+    }
+    
+    // This case tests that a deflated entry declaring a size of 4GB or more gets a ZIP64 extra field in its local header and 8-byte sizes in its data descriptor
+    @Test
+    public void testZip64LocalHeader() throws Exception {
+        byte[] content = "a page of a very large volume".getBytes();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.BEST_SPEED, 4096, null);
+        ZipEntry zipEntry = new ZipEntry("large.txt");
+        zipEntry.setSize(5000000000L);
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(content);
+        zipOutputStream.closeEntry();
+        zipOutputStream.close();
+        byte[] zipBytes = outputStream.toByteArray();
+        
+        Assert.assertEquals(StreamingZipOutputStream.VERSION_ZIP64, readShort(zipBytes, 4));
+        Assert.assertEquals(0xFFFFFFFFL, readInt(zipBytes, 18));
+        Assert.assertEquals(StreamingZipOutputStream.ZIP64_LOCAL_EXTRA_SIZE, readShort(zipBytes, 28));
+        Assert.assertEquals(StreamingZipOutputStream.ZIP64_EXTRA_ID, readShort(zipBytes, 30 + "large.txt".length()));
+        
+        // the data descriptor is followed by the central directory, so 8-byte sizes put the central directory 24 bytes after the descriptor signature
+        int descriptorOffset = 0;
+        for (int i = 0; i < zipBytes.length - 4; i++) {
+            if (readInt(zipBytes, i) == StreamingZipOutputStream.DATA_DESCRIPTOR_SIGNATURE) {
+                descriptorOffset = i;
+                break;
+            }
+        }
+        Assert.assertEquals(StreamingZipOutputStream.CENTRAL_HEADER_SIGNATURE, readInt(zipBytes, descriptorOffset + 24));
+        Assert.assertEquals(content.length, readInt(zipBytes, descriptorOffset + 16));
+    }
+    
+    // This case tests that setLevel and setMethod apply to the entries put after the call, while the entry being written keeps the level it was put with
+    @Test
+    public void testSetLevelAndMethod() throws Exception {
+        byte[] content = new byte[20000];
+        Arrays.fill(content, (byte)'a');
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.BEST_SPEED, 4096, executorService);
+        zipOutputStream.putNextEntry(new ZipEntry("fast.txt"));
+        zipOutputStream.write(content, 0, 10000);
+        zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+        zipOutputStream.write(content, 10000, 10000);
+        zipOutputStream.putNextEntry(new ZipEntry("none.txt"));
+        zipOutputStream.write(content);
+        zipOutputStream.setMethod(ZipEntry.STORED);
+        ZipEntry storedEntry = new ZipEntry("stored.txt");
+        storedEntry.setSize(content.length);
+        storedEntry.setCrc(crc32.getValue());
+        zipOutputStream.putNextEntry(storedEntry);
+        zipOutputStream.write(content);
+        zipOutputStream.close();
+        
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        Map<String, ZipEntry> zipEntryMap = new LinkedHashMap<String, ZipEntry>();
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            Assert.assertArrayEquals(content, readFully(zipInputStream));
+            zipEntryMap.put(zipEntry.getName(), zipEntry);
+        }
+        zipInputStream.close();
+        
+        Assert.assertEquals(3, zipEntryMap.size());
+        Assert.assertEquals(ZipEntry.DEFLATED, zipEntryMap.get("fast.txt").getMethod());
+        Assert.assertTrue(zipEntryMap.get("fast.txt").getCompressedSize() < content.length / 10);
+        Assert.assertEquals(ZipEntry.DEFLATED, zipEntryMap.get("none.txt").getMethod());
+        Assert.assertTrue(zipEntryMap.get("none.txt").getCompressedSize() >= content.length);
+        Assert.assertEquals(ZipEntry.STORED, zipEntryMap.get("stored.txt").getMethod());
+    }
+    
+    // This case tests that an invalid compression level or method is rejected like ZipOutputStream does
+    @Test
+    public void testSetInvalidLevelAndMethod() throws Exception {
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(new ByteArrayOutputStream(), Deflater.NO_COMPRESSION, 4096, null);
+        try {
+            zipOutputStream.setLevel(Deflater.BEST_COMPRESSION + 1);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            zipOutputStream.setMethod(99);
+            Assert.fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+    
+    // This case tests that the comment of the zip file is written at the end of the end of central directory record
+    @Test
+    public void testSetComment() throws Exception {
+        String comment = "pages of the requested volumes";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipOutputStream = new StreamingZipOutputStream(outputStream, Deflater.BEST_SPEED, 4096, null);
+        zipOutputStream.setComment(comment);
+        zipOutputStream.putNextEntry(new ZipEntry("page.txt"));
+        zipOutputStream.write("a page".getBytes("utf-8"));
+        zipOutputStream.close();
+        byte[] zipBytes = outputStream.toByteArray();
+        
+        // the comment closes the zip file, right after the 22 bytes of the end of central directory record
+        int commentOffset = zipBytes.length - comment.length();
+        Assert.assertEquals(comment, new String(zipBytes, commentOffset, comment.length(), "utf-8"));
+        Assert.assertEquals(comment.length(), readShort(zipBytes, commentOffset - 2));
+        Assert.assertEquals(StreamingZipOutputStream.END_SIGNATURE, readInt(zipBytes, commentOffset - 22));
+        
+        File zipFile = File.createTempFile("comment", ".zip");
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(zipFile);
+            fileOutputStream.write(zipBytes);
+            fileOutputStream.close();
+            
+            ZipFile centralDirectory = new ZipFile(zipFile);
+            Assert.assertEquals(1, centralDirectory.size());
+            Assert.assertArrayEquals("a page".getBytes("utf-8"), readFully(centralDirectory.getInputStream(centralDirectory.getEntry("page.txt"))));
+            centralDirectory.close();
+        } finally {
+            zipFile.delete();
+        }
+    }
+    
+    // This case tests that a compressed zip from SeparatePageVolumeZipMaker has the same entries as the uncompressed one, and that they are deflated
+    @Test
+    public void testCompressedSeparatePageZip() throws Exception {
+        ZipMakerFactory.init(new TestParameterContainer(), executorService);
+        
+        VolumeRetriever volumeRetriever = new TestVolumeRetriever();
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, new NullAuditor(null)).makeZipFile(uncompressed, volumeRetriever);
+        
+        VolumeRetriever volumeRetriever2 = new TestVolumeRetriever();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, new NullAuditor(null), Deflater.BEST_COMPRESSION);
+        zipMaker.makeZipFile(compressed, volumeRetriever2);
+        
+        Map<String, byte[]> expectedEntries = readEntries(uncompressed.toByteArray());
+        Assert.assertEquals(expectedEntries.size(), assertStreamedEntries(expectedEntries, compressed.toByteArray()));
+        
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        Assert.assertEquals(ZipEntry.DEFLATED, zipInputStream.getNextEntry().getMethod());
+        zipInputStream.close();
+    }
+    
+    // This case tests that the compress parameter is parsed into a compression level, and anything unexpected means no compression
+    @Test
+    public void testParseCompressionLevel() {
+        Assert.assertEquals(Deflater.NO_COMPRESSION, ZipMakerFactory.Helper.parseCompressionLevel(null));
+        Assert.assertEquals(Deflater.NO_COMPRESSION, ZipMakerFactory.Helper.parseCompressionLevel("false"));
+        Assert.assertEquals(ZipMakerFactory.DEFAULT_COMPRESSION_LEVEL, ZipMakerFactory.Helper.parseCompressionLevel("true"));
+        Assert.assertEquals(Deflater.BEST_SPEED, ZipMakerFactory.Helper.parseCompressionLevel("1"));
+        Assert.assertEquals(Deflater.NO_COMPRESSION, ZipMakerFactory.Helper.parseCompressionLevel("10"));
+        Assert.assertEquals(Deflater.NO_COMPRESSION, ZipMakerFactory.Helper.parseCompressionLevel("fast"));
+    }
+    
+    private Map<String, byte[]> generateEntries() {
+        Random random = new Random(42);
+        String[] words = {"the ", "volume ", "page ", "trust ", "digital ", "library ", "\n"};
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        int[] sizes = {0, 1, 4096, 4097, 100000, 300};
+        for (int i = 0; i < sizes.length; i++) {
+            StringBuilder builder = new StringBuilder(sizes[i] + 16);
+            while (builder.length() < sizes[i]) {
+                builder.append(words[random.nextInt(words.length)]);
+            }
+            builder.setLength(sizes[i]);
+            entries.put("vol" + i + "/" + String.format("%08d", i) + ".txt", builder.toString().getBytes());
+        }
+        return entries;
+    }
+    
+    private int assertStreamedEntries(Map<String, byte[]> expectedEntries, byte[] zipBytes) throws IOException {
+        Map<String, byte[]> actualEntries = readEntries(zipBytes);
+        for (Map.Entry<String, byte[]> entry : actualEntries.entrySet()) {
+            Assert.assertArrayEquals(expectedEntries.get(entry.getKey()), entry.getValue());
+        }
+        return actualEntries.size();
+    }
+    
+    private Map<String, byte[]> readEntries(byte[] zipBytes) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zipBytes));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            entries.put(zipEntry.getName(), readFully(zipInputStream));
+            zipInputStream.closeEntry();
+        }
+        zipInputStream.close();
+        return entries;
+    }
+    
+    private int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+    
+    private long readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | ((long)readShort(bytes, offset + 2) << 16);
+    }
+    
+    private byte[] readFully(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read = 0;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+#
+# Copyright 2013 The Trustees of Indiana University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either expressed or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+# -----------------------------------------------------------------
+#
+# Project: data-api
+# File:  TarMakerTest.java
+# Description:  
+#
+# -----------------------------------------------------------------
+# 
+*/
+
+
+
+
+/**
+ * 
+ */
+package edu.indiana.d2i.htrc.access.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.indiana.d2i.htrc.access.ZipMaker;
+import edu.indiana.d2i.htrc.access.read.VolumeReaderImpl.ContentReaderImpl;
+import edu.indiana.d2i.htrc.access.read.ExceptionalVolumeRetriever;
+import edu.indiana.d2i.htrc.access.read.TestVolumeRetriever;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ArchiveFormatEnum;
+import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
+import edu.indiana.d2i.htrc.audit.NullAuditor;
+
+/**
+ * @author Yiming Sun
+ *
+ */
+public class TarMakerTest {
+    
+    // This case tests that the tar archive of SeparatePageVolumeZipMaker holds the same entries as its zip
+    @Test
+    public void testSeparatePageTarMaker() throws Exception {
+        assertSameEntries(ZipTypeEnum.SEPARATE_PAGE, ArchiveFormatEnum.TAR);
+    }
+    
+    // This case tests that the gzipped tar archive of CombinePageVolumeZipMaker holds the same entries as its zip
+    @Test
+    public void testCombinePageTgzMaker() throws Exception {
+        assertSameEntries(ZipTypeEnum.COMBINE_PAGE, ArchiveFormatEnum.TGZ);
+    }
+    
+    // This case tests that the tar archive of WordSequenceZipMaker holds the same single entry as its zip
+    @Test
+    public void testWordSequenceTarMaker() throws Exception {
+        assertSameEntries(ZipTypeEnum.WORD_SEQUENCE, ArchiveFormatEnum.TAR);
+    }
+    
+    // This case tests that SeparatePageVolumeZipMaker adds an ERROR.err entry at the end of the archive when VolumeRetriever throws an exception
+    @Test
+    public void testSeparatePageTarMakerErrorEntry() throws Exception {
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, new NullAuditor(null), Deflater.NO_COMPRESSION, ArchiveFormatEnum.TAR);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        zipMaker.makeZipFile(actual, new ExceptionalVolumeRetriever());
+        
+        Map<String, byte[]> entries = readTarEntries(new ByteArrayInputStream(actual.toByteArray()));
+        Assert.assertTrue(entries.containsKey("ERROR.err"));
+    }
+    
+    // This case tests that long entry names are split into the ustar prefix and name fields, or put into a PAX header when they cannot be split
+    @Test
+    public void testLongEntryNames() throws Exception {
+        StringBuilder directory = new StringBuilder();
+        while (directory.length() < 120) {
+            directory.append("directory/");
+        }
+        StringBuilder filename = new StringBuilder();
+        while (filename.length() < 120) {
+            filename.append("filename");
+        }
+        String splitName = directory.toString() + "00000001.txt";
+        String paxName = directory.toString() + filename.toString() + ".txt";
+        byte[] content = "page content".getBytes();
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TarOutputStream tarOutputStream = new TarOutputStream(outputStream);
+        for (String name : new String[] {splitName, paxName}) {
+            tarOutputStream.putNextEntry(name, content.length);
+            tarOutputStream.write(content);
+            tarOutputStream.closeEntry();
+        }
+        tarOutputStream.close();
+        
+        Assert.assertEquals(0, outputStream.size() % TarOutputStream.BLOCK_SIZE);
+        Map<String, byte[]> entries = readTarEntries(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(2, entries.size());
+        Assert.assertArrayEquals(content, entries.get(splitName));
+        Assert.assertArrayEquals(content, entries.get(paxName));
+    }
+    
+    // This case tests that an entry shorter than its declared size is rejected, as it would corrupt the rest of the archive
+    @Test(expected = IOException.class)
+    public void testEntrySizeMismatch() throws Exception {
+        TarOutputStream tarOutputStream = new TarOutputStream(new ByteArrayOutputStream());
+        tarOutputStream.putNextEntry("short.txt", 10);
+        tarOutputStream.write(new byte[5]);
+        tarOutputStream.closeEntry();
+    }
+    
+    // This case tests that an open entry larger than the memory threshold is spooled to a file in the spool directory, and the file is deleted once the entry is written
+    @Test
+    public void testSpoolToFile() throws Exception {
+        File spoolDirectory = File.createTempFile("spool", "");
+        Assert.assertTrue(spoolDirectory.delete());
+        Assert.assertTrue(spoolDirectory.mkdir());
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            TarEntryWriter tarEntryWriter = new TarEntryWriter(new TarOutputStream(outputStream), spoolDirectory, 16);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            tarEntryWriter.openEntry("wordseq.txt");
+            for (int i = 0; i < 5; i++) {
+                byte[] page = ("page " + i + " of the word sequence\n").getBytes();
+                tarEntryWriter.appendContent(new ContentReaderImpl(String.valueOf(i), page) {});
+                expected.write(page);
+                if (i > 0) {
+                    Assert.assertEquals(1, spoolDirectory.list().length);
+                }
+            }
+            tarEntryWriter.close();
+            
+            Assert.assertEquals(0, spoolDirectory.list().length);
+            Map<String, byte[]> entries = readTarEntries(new ByteArrayInputStream(outputStream.toByteArray()));
+            Assert.assertArrayEquals(expected.toByteArray(), entries.get("wordseq.txt"));
+        } finally {
+            for (File file : spoolDirectory.listFiles()) {
+                file.delete();
+            }
+            spoolDirectory.delete();
+        }
+    }
+    
+    private void assertSameEntries(ZipTypeEnum type, ArchiveFormatEnum format) throws Exception {
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        ZipMakerFactory.newInstance(type, new NullAuditor(null)).makeZipFile(zip, new TestVolumeRetriever());
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+        ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()));
+        ZipEntry zipEntry = null;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            expected.put(zipEntry.getName(), readFully(zipInputStream, -1));
+        }
+        zipInputStream.close();
+        
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        ZipMakerFactory.newInstance(type, new NullAuditor(null), Deflater.NO_COMPRESSION, format).makeZipFile(tar, new TestVolumeRetriever());
+        InputStream tarInputStream = new ByteArrayInputStream(tar.toByteArray());
+        if (format == ArchiveFormatEnum.TGZ) {
+            tarInputStream = new GZIPInputStream(tarInputStream);
+        }
+        Map<String, byte[]> actual = readTarEntries(tarInputStream);
+        
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            Assert.assertArrayEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+    
+    private Map<String, byte[]> readTarEntries(InputStream inputStream) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        String paxPath = null;
+        while (true) {
+            byte[] header = readFully(inputStream, TarOutputStream.BLOCK_SIZE);
+            if (Arrays.equals(header, new byte[TarOutputStream.BLOCK_SIZE])) {
+                break;
+            }
+            Assert.assertEquals("ustar", field(header, 257, 6));
+            
+            long checksum = 0;
+            for (int i = 0; i < header.length; i++) {
+                checksum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+            }
+            Assert.assertEquals(checksum, Long.parseLong(field(header, 148, 7).trim(), 8));
+            
+            int size = Integer.parseInt(field(header, 124, 12), 8);
+            byte[] content = readFully(inputStream, size);
+            readFully(inputStream, (TarOutputStream.BLOCK_SIZE - size % TarOutputStream.BLOCK_SIZE) % TarOutputStream.BLOCK_SIZE);
+            
+            if (header[156] == 'x') {
+                String record = new String(content, "utf-8");
+                paxPath = record.substring(record.indexOf("path=") + 5, record.indexOf('\n'));
+            } else {
+                String prefix = field(header, 345, 155);
+                String name = (paxPath != null) ? paxPath : ((prefix.length() > 0) ? prefix + "/" : "") + field(header, 0, 100);
+                entries.put(name, content);
+                paxPath = null;
+            }
+        }
+        return entries;
+    }
+    
+    private String field(byte[] header, int offset, int length) throws IOException {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, "utf-8");
+    }
+    
+    private byte[] readFully(InputStream inputStream, int length) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read = 0;
+        while ((length < 0 || outputStream.size() < length)
+                && (read = inputStream.read(buffer, 0, (length < 0) ? buffer.length : Math.min(buffer.length, length - outputStream.size()))) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -34,6 +34,8 @@ package edu.indiana.d2i.htrc.access.zip;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -47,6 +49,7 @@ import edu.indiana.d2i.htrc.access.exception.KeyNotFoundException;
 import edu.indiana.d2i.htrc.access.exception.PolicyViolationException;
 import edu.indiana.d2i.htrc.access.exception.RepositoryException;
 import edu.indiana.d2i.htrc.access.read.ExceptionalVolumeRetriever;
+import edu.indiana.d2i.htrc.access.read.InterleavedVolumeRetriever;
 import edu.indiana.d2i.htrc.access.read.TestVolumeRetriever;
 import edu.indiana.d2i.htrc.access.zip.ZipMakerFactory.ZipTypeEnum;
 import edu.indiana.d2i.htrc.audit.NullAuditor;
@@ -192,5 +195,39 @@ public class ZipMakerFactoryTest {
 
         Assert.assertEquals(true, hasErrorEntry);
     }
+    
+    // This case tests that SeparatePageZipMaker audits each volume once, as soon as the last of its interleaved pieces has been written
+    @Test
+    public void testSeparatePageZipMakerAuditsCompletedVolumes() throws IOException, DataAPIException {
+        String[] volumeIDs = {"test.volumeA", "test.volumeB"};
+        RecordingAuditor auditor = new RecordingAuditor();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, auditor);
+        zipMaker.makeZipFile(new ByteArrayOutputStream(), new InterleavedVolumeRetriever(volumeIDs, new int[] {2, 2}, new int[] {0, 1, 1, 0}));
+        
+        List<List<String>> auditRecords = auditor.getAuditRecords();
+        Assert.assertEquals(2, auditRecords.size());
+        Assert.assertEquals(Arrays.asList("test.volumeB", "00000001", "00000002"), auditRecords.get(0));
+        Assert.assertEquals(Arrays.asList("test.volumeA", "00000001", "00000002"), auditRecords.get(1));
+    }
+    
+    // This case tests that SeparatePageZipMaker still audits the pages it has sent when writing the zip fails part way
+    @Test
+    public void testSeparatePageZipMakerAuditsOnWriteFailure() throws DataAPIException {
+        String[] volumeIDs = {"test.volumeA", "test.volumeB"};
+        RecordingAuditor auditor = new RecordingAuditor();
+        ZipMaker zipMaker = ZipMakerFactory.newInstance(ZipTypeEnum.SEPARATE_PAGE, auditor);
+        try {
+            zipMaker.makeZipFile(new BrokenPipeOutputStream(3 * InterleavedVolumeRetriever.PAGE_SIZE),
+                    new InterleavedVolumeRetriever(volumeIDs, new int[] {4, 4}, new int[] {0, 1, 0, 1, 0, 1, 0, 1}));
+            Assert.fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+        
+        List<List<String>> auditRecords = auditor.getAuditRecords();
+        Assert.assertEquals(2, auditRecords.size());
+        Assert.assertEquals(Arrays.asList("test.volumeA", "00000001"), auditRecords.get(0).subList(0, 2));
+        Assert.assertEquals(Arrays.asList("test.volumeB", "00000001"), auditRecords.get(1).subList(0, 2));
+        Assert.assertTrue(auditRecords.get(0).size() + auditRecords.get(1).size() - 2 < 8);
+    }
 }
-